@@ -9,6 +9,8 @@ import com.library.service.*;
 import com.library.strategy.*;
 import com.library.util.Logger;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.List;
 
 /**
@@ -16,6 +18,9 @@ import java.util.List;
  * Demonstrates all core functionalities and design patterns.
  */
 public class LibraryManagementSystem {
+    private static final long HOLD_EXPIRY_TICK_MILLIS = 60_000;
+    private static final long RECLAIM_PERIOD_MILLIS = 1_000;
+    private static final int RECLAIM_BATCH = 256;
     
     private final BookService bookService;
     private final PatronService patronService;
@@ -24,23 +29,66 @@ public class LibraryManagementSystem {
     private final ReservationService reservationService;
     private final BookTransferService transferService;
     private final RecommendationService recommendationService;
+    private final TrendingEngine trendingEngine;
+    private final RecommendationCache recommendationCache;
+    private final HoldExpiryDriver holdExpiryDriver;
+    private final ReservationReclaimer reservationReclaimer;
     private final Logger logger;
     
     public LibraryManagementSystem() {
+        this(null);
+    }
+    
+    /**
+     * @param historyArchive where registered patrons' older borrowing records go, or null to keep
+     *                       histories in memory; the caller owns and closes it
+     */
+    public LibraryManagementSystem(HistoryArchive historyArchive) {
         // Initialize repositories
         BookRepository bookRepository = new BookRepository();
         PatronRepository patronRepository = new PatronRepository();
         BorrowingRecordRepository recordRepository = new BorrowingRecordRepository();
         BranchRepository branchRepository = new BranchRepository();
+        CopyRepository copyRepository = new CopyRepository();
         
         // Initialize services
-        this.bookService = new BookService(bookRepository);
-        this.patronService = new PatronService(patronRepository);
-        this.lendingService = new LendingService(bookRepository, patronRepository, recordRepository);
+        this.bookService = new BookService(bookRepository, copyRepository);
+        this.patronService = new PatronService(patronRepository, historyArchive);
+        if (historyArchive != null) {
+            // Archived records are read back through patron histories, not kept in the repository
+            historyArchive.setOnArchived(recordRepository::evict);
+        }
+        this.lendingService = new LendingService(bookRepository, patronRepository, recordRepository, copyRepository);
         this.branchService = new BranchService(branchRepository);
         this.reservationService = new ReservationService(bookRepository, patronRepository);
-        this.transferService = new BookTransferService(bookRepository, branchRepository);
+        this.transferService = new BookTransferService(bookRepository, branchRepository, copyRepository);
+        
+        // Hand returned and transferred books straight to waiting patrons
+        this.reservationService.setCopyRepository(copyRepository);
+        this.lendingService.setReservationService(reservationService);
+        
+        // Uncollected holds expire, and finished reservations are archived, in the background
+        this.reservationService.setHoldExpiryScheduler(HoldExpiryScheduler.inMemory(HOLD_EXPIRY_TICK_MILLIS));
+        this.holdExpiryDriver = new HoldExpiryDriver(reservationService, HOLD_EXPIRY_TICK_MILLIS);
+        this.reservationReclaimer = new ReservationReclaimer(reservationService, RECLAIM_PERIOD_MILLIS, RECLAIM_BATCH);
+        HoldHandoffPipeline handoff = new HoldHandoffPipeline(reservationService);
+        this.lendingService.addListener(handoff);
+        this.transferService.addListener(handoff);
+        CoBorrowModel coBorrowModel = new CoBorrowModel();
+        PopularityTracker popularityTracker = new PopularityTracker();
+        this.lendingService.addListener(coBorrowModel);
+        this.lendingService.addListener(popularityTracker);
+        AuthorAffinityModel authorAffinityModel = new AuthorAffinityModel(bookRepository);
+        this.lendingService.addListener(authorAffinityModel);
+        this.trendingEngine = new TrendingEngine();
+        this.lendingService.addListener(trendingEngine);
+        this.reservationService.addListener(trendingEngine);
         this.recommendationService = new RecommendationService(bookRepository, patronRepository, recordRepository);
+        this.recommendationService.setCoBorrowModel(coBorrowModel);
+        this.recommendationService.setPopularityTracker(popularityTracker);
+        this.recommendationService.setAuthorAffinityModel(authorAffinityModel);
+        this.recommendationCache = new RecommendationCache(recommendationService, patronRepository);
+        this.lendingService.addListener(recommendationCache);
         this.logger = Logger.getInstance();
     }
     
@@ -68,12 +116,41 @@ public class LibraryManagementSystem {
         return transferService;
     }
     
+    public RecommendationCache getRecommendationCache() {
+        return recommendationCache;
+    }
+    
+    public TrendingEngine getTrendingEngine() {
+        return trendingEngine;
+    }
+    
     public RecommendationService getRecommendationService() {
         return recommendationService;
     }
     
+    /**
+     * Start hold expiry and reservation reclaim on their background threads
+     */
+    public void startBackgroundTasks() {
+        holdExpiryDriver.start();
+        reservationReclaimer.start();
+    }
+    
+    /**
+     * Stop the background threads started by {@link #startBackgroundTasks}
+     */
+    public void stopBackgroundTasks() {
+        holdExpiryDriver.close();
+        reservationReclaimer.close();
+    }
+    
     public static void main(String[] args) {
-        LibraryManagementSystem lms = new LibraryManagementSystem();
+        // Borrowing histories are archived only when a directory is configured
+        String historyDirectory = System.getProperty("library.history.dir");
+        HistoryArchive historyArchive = historyDirectory == null ? null
+            : new HistoryArchive(Paths.get(historyDirectory), 16, 32, 1_000_000);
+        LibraryManagementSystem lms = new LibraryManagementSystem(historyArchive);
+        lms.startBackgroundTasks();
         Logger logger = Logger.getInstance();
         
         logger.info("=== Library Management System Started ===\n");
@@ -174,10 +251,10 @@ public class LibraryManagementSystem {
             System.out.println("📋 Queue position: " + position);
             System.out.println();
             
-            // Demo 9: Return Book and Notify Next in Queue
+            // Demo 9: Return Book; the hold is handed off automatically
             logger.info("--- Book Return and Reservation Notification ---");
             lms.getLendingService().returnBook(book1.getIsbn(), student1.getPatronId());
-            lms.getReservationService().notifyNextInQueue(book1.getIsbn());
+            System.out.println("📬 Hold status after return: " + reservation.getStatus());
             System.out.println();
             
             // Demo 10: Book Transfer Between Branches
@@ -195,7 +272,7 @@ public class LibraryManagementSystem {
             
             // Demo 12: Get Book Recommendations
             logger.info("--- Book Recommendation System ---");
-            List<Book> recommendations = lms.getRecommendationService().getRecommendations(student1.getPatronId(), 3);
+            List<Book> recommendations = lms.getRecommendationCache().getRecommendations(student1.getPatronId(), 3);
             System.out.println("📖 Recommendations for " + student1.getName() + ":");
             if (recommendations.isEmpty()) {
                 System.out.println("  (Building more history for better recommendations)");
@@ -209,6 +286,10 @@ public class LibraryManagementSystem {
             List<Book> popularBooks = lms.getRecommendationService().getPopularBooks(3);
             System.out.println("🔥 Most Popular Books:");
             popularBooks.forEach(b -> System.out.println("  - " + b.getTitle()));
+            System.out.println("📈 Trending Today:");
+            lms.getTrendingEngine().top(TrendingEngine.Window.DAY, 3).forEach(isbn ->
+                lms.getBookService().findBookByIsbn(isbn).ifPresent(b -> System.out.println("  - " + b.getTitle()))
+            );
             System.out.println();
             
             // Demo 14: View Active Borrowings
@@ -235,6 +316,15 @@ public class LibraryManagementSystem {
         } catch (Exception e) {
             logger.error("An error occurred: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            lms.stopBackgroundTasks();
+            if (historyArchive != null) {
+                try {
+                    historyArchive.close();
+                } catch (IOException e) {
+                    logger.warn("Failed to close borrowing history archive: " + e.getMessage());
+                }
+            }
         }
     }
 }
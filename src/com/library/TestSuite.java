@@ -2,12 +2,50 @@ package com.library;
 
 import com.library.factory.PatronFactory;
 import com.library.model.*;
+import com.library.notification.*;
 import com.library.observer.EmailNotificationObserver;
+import com.library.observer.Observer;
+import com.library.observer.SMSNotificationObserver;
 import com.library.repository.*;
 import com.library.service.*;
 import com.library.strategy.*;
+import com.library.util.BucketDigest;
+import com.library.util.IdGenerator;
+import com.library.util.IsbnDictionary;
 import com.library.util.Logger;
 
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+
 /**
  * Comprehensive Test Suite for Library Management System
  * Tests edge cases and error scenarios
@@ -32,14 +70,22 @@ public class TestSuite {
         PatronRepository patronRepository = new PatronRepository();
         BorrowingRecordRepository recordRepository = new BorrowingRecordRepository();
         BranchRepository branchRepository = new BranchRepository();
+        CopyRepository copyRepository = new CopyRepository();
         
         // Initialize services
-        this.bookService = new BookService(bookRepository);
+        this.bookService = new BookService(bookRepository, copyRepository);
         this.patronService = new PatronService(patronRepository);
-        this.lendingService = new LendingService(bookRepository, patronRepository, recordRepository);
+        this.lendingService = new LendingService(bookRepository, patronRepository, recordRepository, copyRepository);
         this.branchService = new BranchService(branchRepository);
         this.reservationService = new ReservationService(bookRepository, patronRepository);
-        this.transferService = new BookTransferService(bookRepository, branchRepository);
+        this.transferService = new BookTransferService(bookRepository, branchRepository, copyRepository);
+        
+        // Hand returned and transferred books straight to waiting patrons
+        this.reservationService.setCopyRepository(copyRepository);
+        this.lendingService.setReservationService(reservationService);
+        HoldHandoffPipeline handoff = new HoldHandoffPipeline(reservationService);
+        this.lendingService.addListener(handoff);
+        this.transferService.addListener(handoff);
         this.logger = Logger.getInstance();
     }
     
@@ -59,6 +105,31 @@ public class TestSuite {
         suite.runBranchTests();
         suite.runSearchTests();
         suite.runEdgeCaseTests();
+        suite.runNotificationDeliveryTests();
+        suite.runOutboxTests();
+        suite.runFineEngineTests();
+        suite.runBorrowingHistoryTests();
+        suite.runLendingAllocationTests();
+        suite.runReservationQueueTests();
+        suite.runPatronReservationIndexTests();
+        suite.runHoldExpiryTests();
+        suite.runReservationReclaimTests();
+        suite.runConcurrentReservationTests();
+        suite.runBookCopyTests();
+        suite.runHoldHandoffTests();
+        suite.runReservationPriorityTests();
+        suite.runCoBorrowModelTests();
+        suite.runPopularityTrackerTests();
+        suite.runTrendingTests();
+        suite.runAuthorIndexTests();
+        suite.runRecommendationCacheTests();
+        suite.runPatronSimilarityTests();
+        suite.runRecommendationBatchTests();
+        suite.runMatrixFactorizationTests();
+        suite.runBranchInventoryTests();
+        suite.runTransferManifestTests();
+        suite.runRebalancingTests();
+        suite.runInventoryReconciliationTests();
         
         // Print summary
         suite.printSummary();
@@ -448,6 +519,3490 @@ public class TestSuite {
         });
     }
     
+    // ============= NOTIFICATION DELIVERY TESTS =============
+    
+    private void runNotificationDeliveryTests() {
+        System.out.println("\n🔍 TESTING: Notification Delivery");
+        System.out.println("═══════════════════════════════════════");
+        
+        // Test 1: Observers deliver through pooled transport
+        test("Observers Deliver via Local Stand-in Server", () -> {
+            try (LocalDeliveryServer server = new LocalDeliveryServer()) {
+                server.start();
+                NotificationDispatcher dispatcher = new NotificationDispatcher(
+                    new SocketTransport("127.0.0.1", server.getPort(), 2));
+                new EmailNotificationObserver("pooled@test.com", dispatcher).update("Book checked out");
+                new SMSNotificationObserver("555-6001", dispatcher).update("Your hold is ready");
+                boolean idle = dispatcher.awaitIdle(5, TimeUnit.SECONDS);
+                dispatcher.close();
+                return idle &&
+                       server.getDeliveredCount(NotificationChannel.EMAIL) == 1 &&
+                       server.getDeliveredCount(NotificationChannel.SMS) == 1 &&
+                       dispatcher.getFailedCount() == 0;
+            }
+        });
+        
+        // Test 2: Transient failures are retried until delivered
+        test("Transient Failures Retried with Jittered Backoff", () -> {
+            try (LocalDeliveryServer server = new LocalDeliveryServer()) {
+                server.start();
+                server.setTransientFailureRate(0.3);
+                NotificationDispatcher dispatcher = new NotificationDispatcher(
+                    new SocketTransport("127.0.0.1", server.getPort(), 2), 2, 64, 10_000,
+                    new RetryPolicy(20, 1, 10));
+                for (int i = 0; i < 1000; i++) {
+                    dispatcher.submit(new Notification(NotificationChannel.EMAIL, "retry@test.com", "Message " + i));
+                }
+                boolean idle = dispatcher.awaitIdle(30, TimeUnit.SECONDS);
+                dispatcher.close();
+                return idle &&
+                       server.getDeliveredCount() == 1000 &&
+                       dispatcher.getRetryCount() > 0 &&
+                       dispatcher.getFailedCount() == 0;
+            }
+        });
+        
+        // Test 3: Throughput of 100k queued notifications against the stand-in
+        test("Delivery Throughput - 100k Queued Notifications", () -> {
+            final int total = 100_000;
+            try (LocalDeliveryServer server = new LocalDeliveryServer()) {
+                server.start();
+                server.setTransientFailureRate(0.01);
+                NotificationDispatcher dispatcher = new NotificationDispatcher(
+                    new SocketTransport("127.0.0.1", server.getPort(), 4), 4, 512, total,
+                    new RetryPolicy(10, 1, 20));
+                long start = System.nanoTime();
+                for (int i = 0; i < total; i++) {
+                    NotificationChannel channel = (i & 1) == 0 ? NotificationChannel.EMAIL : NotificationChannel.SMS;
+                    dispatcher.submit(new Notification(channel, "patron" + (i % 1000), "Due date reminder " + i));
+                }
+                boolean idle = dispatcher.awaitIdle(60, TimeUnit.SECONDS);
+                long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                dispatcher.close();
+                System.out.println("   Delivered " + server.getDeliveredCount() + " notifications in " +
+                                   elapsedMillis + " ms (" + (total * 1000L / elapsedMillis) + " msg/s, " +
+                                   dispatcher.getRetryCount() + " retries)");
+                return idle && server.getDeliveredCount() == total;
+            }
+        });
+    }
+    
+    // ============= NOTIFICATION OUTBOX TESTS =============
+    
+    private void runOutboxTests() {
+        System.out.println("\n🔍 TESTING: Notification Outbox");
+        System.out.println("═══════════════════════════════════════");
+        
+        // Test 1: Checkout writes to the outbox and the relay delivers it with an idempotency key
+        test("Checkout Writes Outbox Entry - Relay Delivers", () -> {
+            Path dir = Files.createTempDirectory("outbox-test");
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            LendingService lending = new LendingService(books, patrons, new BorrowingRecordRepository());
+            List<String> keys = new ArrayList<>();
+            lending.attach(new Observer() {
+                @Override
+                public void update(String message) {
+                    keys.add(null);
+                }
+                
+                @Override
+                public void update(String idempotencyKey, String message) {
+                    keys.add(idempotencyKey);
+                }
+            });
+            Patron patron = PatronFactory.createStudent("Outbox Patron", "outbox@test.com", "555-7001");
+            patrons.save(patron);
+            books.save(new Book("OUTBOX-001", "Outbox Book", "Author", 2024, "BR-OUTBOX"));
+            
+            try (NotificationOutbox outbox = NotificationOutbox.open(dir, "lending")) {
+                lending.getNotifier().setOutbox(outbox);
+                BorrowingRecord record = lending.checkoutBook(patron.getPatronId(), "OUTBOX-001", "BR-OUTBOX");
+                boolean queuedOnly = keys.isEmpty() && outbox.getPendingCount() == 1;
+                int delivered = new OutboxRelay(outbox, lending.getNotifier()::deliver).drain();
+                return queuedOnly && delivered == 1 &&
+                       keys.size() == 1 && keys.get(0).equals("checkout:" + record.getRecordId()) &&
+                       outbox.getPendingCount() == 0;
+            }
+        });
+        
+        // Test 2: Restart replays only entries past the high-water mark
+        test("Outbox Restart Replays Only Undelivered Entries", () -> {
+            Path dir = Files.createTempDirectory("outbox-test");
+            List<String> delivered = new ArrayList<>();
+            try (NotificationOutbox outbox = NotificationOutbox.open(dir, "restart")) {
+                for (int i = 0; i < 5; i++) {
+                    outbox.append("event-" + i, "message " + i);
+                }
+                new OutboxRelay(outbox, (key, message) -> delivered.add(key)).drain();
+                for (int i = 5; i < 8; i++) {
+                    outbox.append("event-" + i, "message " + i);
+                }
+            }
+            // Simulate a crash in the middle of the next append
+            Files.write(dir.resolve("restart.log"), new byte[] {0, 0, 0, 42, 1, 2}, StandardOpenOption.APPEND);
+            
+            delivered.clear();
+            try (NotificationOutbox reopened = NotificationOutbox.open(dir, "restart")) {
+                int replayed = new OutboxRelay(reopened, (key, message) -> delivered.add(key)).drain();
+                long nextSequence = reopened.append("event-8", "message 8");
+                return replayed == 3 &&
+                       delivered.equals(List.of("event-5", "event-6", "event-7")) &&
+                       nextSequence == 9;
+            }
+        });
+        
+        // Test 3: A replayed entry is de-duplicated downstream by its idempotency key
+        test("Outbox Replay De-duplicated by Idempotency Key", () -> {
+            Path dir = Files.createTempDirectory("outbox-test");
+            try (LocalDeliveryServer server = new LocalDeliveryServer();
+                 NotificationOutbox outbox = NotificationOutbox.open(dir, "dedup")) {
+                server.start();
+                NotificationDispatcher dispatcher = new NotificationDispatcher(
+                    new SocketTransport("127.0.0.1", server.getPort(), 1));
+                Observer email = new EmailNotificationObserver("dedup@test.com", dispatcher);
+                outbox.append("hold-notified:RS-1", "Your hold is ready");
+                
+                // Delivered, but the process dies before the batch is acknowledged
+                OutboxEntry entry = outbox.read(outbox.getAcknowledgedOffset(), 1).get(0);
+                email.update(entry.getIdempotencyKey(), entry.getMessage());
+                dispatcher.awaitIdle(5, TimeUnit.SECONDS);
+                
+                new OutboxRelay(outbox, email::update).drain();
+                boolean idle = dispatcher.awaitIdle(5, TimeUnit.SECONDS);
+                dispatcher.close();
+                return idle && server.getDeliveredCount() == 1 && server.getDuplicateCount() == 1;
+            }
+        });
+        
+        // Test 4: Delivered entries are compacted away and offsets survive a restart
+        test("Outbox Compaction Drops Delivered Entries", () -> {
+            Path dir = Files.createTempDirectory("outbox-test");
+            String padding = "x".repeat(100);
+            long appended;
+            long compactedSize;
+            try (NotificationOutbox outbox = NotificationOutbox.openUnsynced(dir, "compact")) {
+                for (int i = 0; i < 20_000; i++) {
+                    outbox.append("event-" + i, padding);
+                }
+                appended = outbox.getLogSize();
+                new OutboxRelay(outbox, (key, message) -> { }).drain();
+                compactedSize = outbox.getLogSize();
+                for (int i = 20_000; i < 20_003; i++) {
+                    outbox.append("event-" + i, padding);
+                }
+            }
+            List<String> delivered = new ArrayList<>();
+            try (NotificationOutbox reopened = NotificationOutbox.openUnsynced(dir, "compact")) {
+                int replayed = new OutboxRelay(reopened, (key, message) -> delivered.add(key)).drain();
+                return compactedSize < appended / 2 &&
+                       Files.size(dir.resolve("compact.log")) == reopened.getLogSize() &&
+                       replayed == 3 && delivered.equals(List.of("event-20000", "event-20001", "event-20002")) &&
+                       reopened.append("event-20003", padding) == 20_004;
+            }
+        });
+        
+        // Test 5: A failed append aborts the lending operation instead of losing its notification
+        test("Failed Outbox Append Aborts Checkout And Return", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            BorrowingRecordRepository records = new BorrowingRecordRepository();
+            LendingService lending = new LendingService(books, patrons, records);
+            Patron patron = PatronFactory.createFaculty("Abort Patron", "abort@test.com", "555-7002");
+            patrons.save(patron);
+            books.save(new Book("ABORT-001", "Abort Book", "Author", 2024, "BR"));
+            books.save(new Book("ABORT-002", "Abort Book 2", "Author", 2024, "BR"));
+            lending.checkoutBook(patron.getPatronId(), "ABORT-001", "BR");
+            
+            NotificationOutbox broken = NotificationOutbox.openUnsynced(Files.createTempDirectory("outbox-test"), "broken");
+            broken.close();
+            lending.getNotifier().setOutbox(broken);
+            boolean checkoutFailed = false;
+            boolean returnFailed = false;
+            try {
+                lending.checkoutBook(patron.getPatronId(), "ABORT-002", "BR");
+            } catch (UncheckedIOException e) {
+                checkoutFailed = true;
+            }
+            try {
+                lending.returnBook("ABORT-001", patron.getPatronId());
+            } catch (UncheckedIOException e) {
+                returnFailed = true;
+            }
+            BorrowingRecord open = records.getActiveRecord(patron.getPatronId(), "ABORT-001");
+            return checkoutFailed && returnFailed &&
+                   books.getByIsbn("ABORT-002").getStatus() == BookStatus.AVAILABLE &&
+                   records.getActiveRecord(patron.getPatronId(), "ABORT-002") == null &&
+                   open != null && !open.isReturned() &&
+                   patron.getCurrentBorrowedBooks().equals(List.of("ABORT-001"));
+        });
+    }
+    
+    // ============= FINE ENGINE TESTS =============
+    
+    private void runFineEngineTests() {
+        System.out.println("\n🔍 TESTING: Overdue Sweep and Fines");
+        System.out.println("═══════════════════════════════════════");
+        
+        LocalDate today = LocalDate.now();
+        
+        // Test 1: Fines follow the PatronType rate table and are capped per loan
+        test("Fine Accrual Uses PatronType Rates and Caps", () -> {
+            FineEngine engine = new FineEngine(FineSchedule.defaultSchedule(), 4, null);
+            engine.register(new BorrowingRecord("FINE-R1", "FINE-P1", "FINE-B1",
+                today.minusDays(24), today.minusDays(10), "BR"), PatronType.STUDENT);
+            engine.register(new BorrowingRecord("FINE-R2", "FINE-P2", "FINE-B2",
+                today.minusDays(130), today.minusDays(100), "BR"), PatronType.FACULTY);
+            engine.runDailySweep(today);
+            return engine.getOutstandingFineCents("FINE-P1", today) == 100 &&
+                   engine.getOutstandingFineCents("FINE-P2", today) == 300;
+        });
+        
+        // Test 2: Each sweep only touches loans that crossed their due date since the last run
+        test("Sweep Touches Only Newly Overdue Loans", () -> {
+            FineEngine engine = new FineEngine(FineSchedule.defaultSchedule(), 4, null);
+            for (int i = 0; i < 3; i++) {
+                engine.register(new BorrowingRecord("SWEEP-R" + i, "SWEEP-P", "SWEEP-B" + i,
+                    today, today.plusDays(i + 1), "BR"), PatronType.GENERAL);
+            }
+            int first = engine.runDailySweep(today.plusDays(2));
+            int repeated = engine.runDailySweep(today.plusDays(2));
+            int second = engine.runDailySweep(today.plusDays(3));
+            int third = engine.runDailySweep(today.plusDays(10));
+            return first == 1 && repeated == 0 && second == 1 && third == 1 &&
+                   engine.getOverdueLoanCount() == 3;
+        });
+        
+        // Test 3: A sweep that crashes resumes with the partitions it had not finished
+        test("Crashed Sweep Resumes from Checkpoint", () -> {
+            Path checkpoint = Files.createTempDirectory("fine-test").resolve("sweep.checkpoint");
+            List<BorrowingRecord> loans = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                loans.add(new BorrowingRecord("CRASH-R" + i, "CRASH-P" + (i % 20), "CRASH-B" + i,
+                    today.minusDays(20), today.minusDays(1), "BR"));
+            }
+            Set<String> firstRun = Collections.synchronizedSet(new HashSet<>());
+            FineEngine crashing = new FineEngine(FineSchedule.defaultSchedule(), 8, checkpoint);
+            loans.forEach(record -> crashing.register(record, PatronType.STUDENT));
+            crashing.attach(message -> {
+                if (message.contains("CRASH-B17 ")) {
+                    throw new IllegalStateException("simulated crash");
+                }
+                firstRun.add(message);
+            });
+            try {
+                crashing.runDailySweep(today);
+                return false;
+            } catch (IllegalStateException expected) {
+                // Process dies; a new engine is rebuilt from the active records
+            }
+            
+            List<String> resumedRun = new ArrayList<>();
+            FineEngine resumed = new FineEngine(FineSchedule.defaultSchedule(), 8, checkpoint);
+            loans.forEach(record -> resumed.register(record, PatronType.STUDENT));
+            resumed.attach(resumedRun::add);
+            resumed.runDailySweep(today);
+            Set<String> all = new HashSet<>(firstRun);
+            all.addAll(resumedRun);
+            return all.size() == loans.size() &&
+                   resumedRun.size() < loans.size() &&
+                   resumed.getOverdueLoanCount() == loans.size() &&
+                   today.equals(resumed.getSweptThrough());
+        });
+        
+        // Test 4: LendingService feeds the engine through lending events
+        test("Lending Events Drive Fine Engine", () -> {
+            FineEngine engine = new FineEngine(FineSchedule.defaultSchedule(), 2, null);
+            lendingService.addListener(engine);
+            try {
+                LibraryBranch branch = branchService.getAllBranches().get(0);
+                Book book = new Book("FINE-LEND-001", "Fine Book", "Author", 2024, branch.getBranchId());
+                bookService.addBook(book);
+                Patron patron = PatronFactory.createStudent("Fine Patron", "fine@test.com", "555-8001");
+                patronService.addPatron(patron);
+                BorrowingRecord record = lendingService.checkoutBook(
+                    patron.getPatronId(), book.getIsbn(), branch.getBranchId());
+                
+                LocalDate later = record.getDueDate().plusDays(6);
+                int overdue = engine.runDailySweep(later);
+                long accrued = engine.getAccruedFineCents(record.getRecordId(), later);
+                lendingService.returnBook(book.getIsbn(), patron.getPatronId());
+                return overdue == 1 && accrued == 60 && engine.getOverdueLoanCount() == 0;
+            } finally {
+                lendingService.removeListener(engine);
+            }
+        });
+        
+        // Test 5: Fines settled at renewal are counted up to the renewal date, not the wall clock
+        test("Renewal Settles Fines As Of Renewal Date", () -> {
+            FineEngine engine = new FineEngine(FineSchedule.defaultSchedule(), 2, null);
+            BorrowingRecord record = new BorrowingRecord("RENEW-R1", "RENEW-P1", "RENEW-B1",
+                today.minusDays(24), today.minusDays(10), "BR");
+            engine.register(record, PatronType.STUDENT);
+            LocalDate previousDueDate = record.getDueDate();
+            record.setDueDate(today.plusDays(4));
+            Patron patron = PatronFactory.createStudent("Renew Patron", "renew@test.com", "555-8002");
+            engine.onRenew(record, patron, previousDueDate, today.minusDays(5));
+            return engine.getOutstandingFineCents("RENEW-P1", today) == 50 &&
+                   engine.getAccruedFineCents("RENEW-R1", today) == 0;
+        });
+        
+        // Test 6: Renewing an overdue loan never charges a day twice, and the cap covers the whole loan
+        test("Overdue Renewal Charges Each Day Once Within Cap", () -> {
+            FineEngine engine = new FineEngine(FineSchedule.defaultSchedule(), 2, null);
+            BorrowingRecord record = new BorrowingRecord("RENEW-R2", "RENEW-P2", "RENEW-B2",
+                today.minusDays(34), today.minusDays(20), "BR");
+            engine.register(record, PatronType.STUDENT);
+            engine.runDailySweep(today);
+            Patron patron = PatronFactory.createStudent("Late Renewer", "late@test.com", "555-8003");
+            
+            // Renewed 19 days late; the new due date (today - 6) is before the renewal date
+            LocalDate previousDueDate = record.getDueDate();
+            record.setDueDate(previousDueDate.plusDays(PatronType.STUDENT.getMaxBorrowDays()));
+            engine.onRenew(record, patron, previousDueDate, today.minusDays(1));
+            long afterFirst = engine.getOutstandingFineCents("RENEW-P2", today);
+            long accruedToday = engine.getAccruedFineCents("RENEW-R2", today);
+            
+            // A second late renewal settles up to the cap, after which nothing more accrues
+            previousDueDate = record.getDueDate();
+            record.setDueDate(previousDueDate.plusDays(PatronType.STUDENT.getMaxBorrowDays()));
+            engine.onRenew(record, patron, previousDueDate, today.plusDays(60));
+            long capped = engine.getOutstandingFineCents("RENEW-P2", today.plusDays(200));
+            return afterFirst == 200 && accruedToday == 10 && capped == 500 &&
+                   engine.getAccruedFineCents("RENEW-R2", today.plusDays(200)) == 0;
+        });
+    }
+    
+    // ============= BORROWING HISTORY TESTS =============
+    
+    private void runBorrowingHistoryTests() {
+        System.out.println("\n🔍 TESTING: Tiered Borrowing History");
+        System.out.println("═══════════════════════════════════════");
+        
+        LocalDate today = LocalDate.now();
+        
+        // Test 1: Older returned records move to disk and are still readable in order
+        test("History Spills Older Records to Disk Segment", () -> {
+            HistoryArchive archive = new HistoryArchive(Files.createTempDirectory("history-test"), 4, 4, 1000);
+            Patron patron = new Patron("HIST-P1", "History Patron", "hist@test.com", "555-9001",
+                                       PatronType.GENERAL, archive);
+            for (int i = 0; i < 10; i++) {
+                BorrowingRecord record = new BorrowingRecord("HIST-R" + i, "HIST-P1", "HIST-B" + i,
+                    today.minusDays(30 - i), today.minusDays(9 - i), "BR");
+                record.setReturnDate(today.minusDays(10 - i));
+                patron.addBorrowingRecord(record);
+            }
+            List<String> streamed = new ArrayList<>();
+            patron.forEachBorrowingRecord(record -> streamed.add(record.getRecordId()));
+            List<BorrowingRecord> page = patron.getBorrowingHistoryPage(1, 3);
+            return patron.getBorrowingHistorySize() == 10 &&
+                   patron.getRecentBorrowingHistory().size() == 4 &&
+                   streamed.equals(List.of("HIST-R0", "HIST-R1", "HIST-R2", "HIST-R3", "HIST-R4",
+                                           "HIST-R5", "HIST-R6", "HIST-R7", "HIST-R8", "HIST-R9")) &&
+                   page.size() == 3 && page.get(0).getRecordId().equals("HIST-R3") &&
+                   page.get(0).getReturnDate().equals(today.minusDays(7));
+        });
+        
+        // Test 2: In-memory records across all patrons stay within the budget
+        test("History Memory Budget Bounded Across Patrons", () -> {
+            HistoryArchive archive = new HistoryArchive(Files.createTempDirectory("history-test"), 4, 100, 20);
+            List<Patron> patrons = new ArrayList<>();
+            for (int p = 0; p < 5; p++) {
+                Patron patron = new Patron("BUDGET-P" + p, "Budget " + p, "b@test.com", "555-9002",
+                                           PatronType.STUDENT, archive);
+                patrons.add(patron);
+                for (int i = 0; i < 10; i++) {
+                    BorrowingRecord record = new BorrowingRecord("BUDGET-R" + p + "-" + i, patron.getPatronId(),
+                        "BUDGET-B" + i, today.minusDays(20), today.minusDays(6), "BR");
+                    record.setReturnDate(today.minusDays(7));
+                    patron.addBorrowingRecord(record);
+                }
+            }
+            return archive.getHotRecordCount() <= 20 &&
+                   patrons.stream().allMatch(p -> p.getBorrowingHistorySize() == 10);
+        });
+        
+        // Test 3: Records still on loan stay in memory
+        test("Active Loans Are Never Archived", () -> {
+            HistoryArchive archive = new HistoryArchive(Files.createTempDirectory("history-test"), 2, 0, 1000);
+            Patron patron = new Patron("ACTIVE-P1", "Active Patron", "a@test.com", "555-9003",
+                                       PatronType.FACULTY, archive);
+            for (int i = 0; i < 3; i++) {
+                patron.addBorrowingRecord(new BorrowingRecord("ACTIVE-R" + i, "ACTIVE-P1", "ACTIVE-B" + i,
+                    today, today.plusDays(30), "BR"));
+            }
+            return patron.getRecentBorrowingHistory().size() == 3 && patron.getBorrowingHistorySize() == 3;
+        });
+        
+        // Test 4: A reopened archive rebuilds offsets from its segments and cuts off a torn record
+        test("History Offsets Rebuilt After Reopening", () -> {
+            Path directory = Files.createTempDirectory("history-test");
+            try (HistoryArchive archive = new HistoryArchive(directory, 2, 0, 1000)) {
+                for (String patronId : List.of("REOPEN-P1", "REOPEN-P2")) {
+                    Patron patron = new Patron(patronId, "Reopen Patron", "reopen@test.com", "555-9004",
+                                               PatronType.GENERAL, archive);
+                    for (int i = 0; i < 5; i++) {
+                        BorrowingRecord record = new BorrowingRecord(patronId + "-R" + i, patronId, "REOPEN-B" + i,
+                            today.minusDays(20), today.minusDays(6), "BR");
+                        record.setReturnDate(today.minusDays(7));
+                        patron.addBorrowingRecord(record);
+                    }
+                }
+            }
+            Path segment = directory.resolve("history-" + Math.floorMod("REOPEN-P1".hashCode(), 2) + ".seg");
+            Files.write(segment, new byte[] {0, 0, 1}, StandardOpenOption.APPEND);
+            try (HistoryArchive reopened = new HistoryArchive(directory, 2, 0, 1000)) {
+                Patron patron = new Patron("REOPEN-P1", "Reopen Patron", "reopen@test.com", "555-9004",
+                                           PatronType.GENERAL);
+                new PatronService(new PatronRepository(), reopened).addPatron(patron);
+                BorrowingRecord record = new BorrowingRecord("REOPEN-P1-R5", "REOPEN-P1", "REOPEN-B5",
+                    today.minusDays(5), today.plusDays(9), "BR");
+                record.setReturnDate(today);
+                patron.addBorrowingRecord(record);
+                List<String> streamed = new ArrayList<>();
+                patron.forEachBorrowingRecord(r -> streamed.add(r.getRecordId()));
+                return streamed.equals(List.of("REOPEN-P1-R0", "REOPEN-P1-R1", "REOPEN-P1-R2",
+                                               "REOPEN-P1-R3", "REOPEN-P1-R4", "REOPEN-P1-R5")) &&
+                       patron.getArchivedBorrowingHistorySize() == 6;
+            }
+        });
+        
+        // Test 5: Histories stay in memory, and nothing is written, until the patron is registered
+        test("Archive Attached When Patron Is Registered", () -> {
+            Path directory = Files.createTempDirectory("history-test").resolve("segments");
+            Patron patron = PatronFactory.createStudent("Unregistered Patron", "unreg@test.com", "555-9005");
+            for (int i = 0; i < 3; i++) {
+                BorrowingRecord record = new BorrowingRecord("UNREG-R" + i, patron.getPatronId(), "UNREG-B" + i,
+                    today.minusDays(20), today.minusDays(6), "BR");
+                record.setReturnDate(today.minusDays(7));
+                patron.addBorrowingRecord(record);
+            }
+            try (HistoryArchive archive = new HistoryArchive(directory, 2, 1, 1000)) {
+                boolean inMemory = patron.getRecentBorrowingHistory().size() == 3 && !Files.exists(directory);
+                new PatronService(new PatronRepository(), archive).addPatron(patron);
+                return inMemory && Files.exists(directory) &&
+                       patron.getRecentBorrowingHistory().size() == 1 && patron.getBorrowingHistorySize() == 3;
+            }
+        });
+        
+        // Test 6: The record repository lets go of records once the history archives them
+        test("Archived Records Leave The Record Repository", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            BorrowingRecordRepository records = new BorrowingRecordRepository();
+            LendingService lending = new LendingService(books, patrons, records);
+            books.save(new Book("EVICT-ISBN", "Evict Book", "Author", 2024, "BR"));
+            Logger.Level previous = logger.getLevel();
+            logger.setLevel(Logger.Level.WARN);
+            try (HistoryArchive archive = new HistoryArchive(Files.createTempDirectory("history-test"), 2, 4, 1000)) {
+                archive.setOnArchived(records::evict);
+                new PatronService(patrons, archive).addPatron(
+                    new Patron("EVICT-P1", "Evict Patron", "evict@test.com", "555-9006", PatronType.FACULTY));
+                for (int i = 0; i < 50; i++) {
+                    lending.checkoutBook("EVICT-P1", "EVICT-ISBN", "BR");
+                    lending.returnBook("EVICT-ISBN", "EVICT-P1");
+                }
+                return records.findAll().size() <= 5 &&
+                       lending.getPatronBorrowingHistory("EVICT-P1").size() == 50;
+            } finally {
+                logger.setLevel(previous);
+            }
+        });
+    }
+    
+    // ============= LENDING ALLOCATION TESTS =============
+    
+    private void runLendingAllocationTests() {
+        System.out.println("\n🔍 TESTING: Allocation-Free Lending Hot Path");
+        System.out.println("═══════════════════════════════════════");
+        
+        // Test 1: Steady-state checkout/renew/return cycle stays within its allocation budget
+        test("Lending Cycle Allocation Budget", () -> {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+                return true;
+            }
+            com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            LendingService lending = new LendingService(books, patrons, new BorrowingRecordRepository());
+            books.save(new Book("ALLOC-ISBN", "Allocation Book", "Author", 2024, "BR"));
+            patrons.save(new Patron("ALLOC-P1", "Allocation Patron", "alloc@test.com", "555-9100",
+                                    PatronType.FACULTY,
+                                    new HistoryArchive(Files.createTempDirectory("alloc-test"), 2, 32, 1_000_000)));
+            Logger.Level previous = logger.getLevel();
+            logger.setLevel(Logger.Level.WARN);
+            try {
+                for (int i = 0; i < 20_000; i++) {
+                    lendingCycle(lending);
+                }
+                int cycles = 10_000;
+                long threadId = Thread.currentThread().getId();
+                long before = allocations.getThreadAllocatedBytes(threadId);
+                for (int i = 0; i < cycles; i++) {
+                    lendingCycle(lending);
+                }
+                long perCycle = (allocations.getThreadAllocatedBytes(threadId) - before) / cycles;
+                System.out.println("   Bytes per checkout/renew/return cycle: " + perCycle);
+                return perCycle < 2048;
+            } finally {
+                logger.setLevel(previous);
+            }
+        });
+        
+        // Test 2: Filtered log levels drop messages
+        test("Logger Level Filters Info Messages", () -> {
+            Logger.Level previous = logger.getLevel();
+            logger.setLevel(Logger.Level.WARN);
+            try {
+                return !logger.isInfoEnabled() && !logger.isDebugEnabled();
+            } finally {
+                logger.setLevel(previous);
+            }
+        });
+        
+        // Test 3: Record ids stay unique and fixed-width
+        test("Generated Record Ids Are Unique", () -> {
+            Set<String> ids = new HashSet<>();
+            for (int i = 0; i < 100_000; i++) {
+                String id = IdGenerator.generateRecordId();
+                if (id.length() != 11 || !ids.add(id)) {
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+    
+    /**
+     * A FIFO queue of the given depth with every other hold cancelled; {@code holds} receives all
+     * of them in order
+     */
+    private static ReservationQueue halfCancelledQueue(int depth, List<Reservation> holds) {
+        ReservationQueue queue = new FifoReservationQueue();
+        for (int i = 0; i < depth; i++) {
+            Reservation reservation = new Reservation("QBENCH-" + depth + "-" + i, "QBENCH-P" + i, "QBENCH-ISBN");
+            queue.add(reservation);
+            holds.add(reservation);
+        }
+        for (int i = 0; i < depth; i += 2) {
+            queue.remove(holds.get(i));
+        }
+        return queue;
+    }
+    
+    /**
+     * Average position lookup time for holds near the back of a {@link #halfCancelledQueue}, or
+     * Long.MAX_VALUE if a position is wrong. The same few holds are looked up over and over, so
+     * the time is the lookup's own work rather than cache misses.
+     */
+    private static long queuePositionNanos(ReservationQueue queue, List<Reservation> holds) {
+        int depth = holds.size();
+        Random random = new Random(7);
+        int lookups = 200_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            int index = depth - 1 - random.nextInt(64) * 2;
+            if (queue.positionOf(holds.get(index)) != (index + 1) / 2) {
+                return Long.MAX_VALUE;
+            }
+        }
+        return Math.max(1, (System.nanoTime() - start) / lookups);
+    }
+    
+    /**
+     * Average time of a position lookup or promotion to faculty of a random hold in a tiered queue
+     * of the given depth, best of several rounds, or -1 if a position is out of range
+     */
+    private static long tieredQueueNanos(int depth) {
+        ReservationPriorityPolicy policy = ReservationPriorityPolicy.defaultPolicy();
+        TieredReservationQueue queue = new TieredReservationQueue();
+        PatronType[] types = PatronType.values();
+        LocalDateTime start = LocalDateTime.of(2026, 1, 1, 0, 0);
+        List<Reservation> holds = new ArrayList<>(depth);
+        for (int i = 0; i < depth; i++) {
+            Reservation reservation = new Reservation("TDEEP-" + depth + "-" + i, "TDEEP-P" + i, "TDEEP-ISBN");
+            reservation.setPriorityKey(policy.priorityKey(types[i % types.length], start.plusSeconds(i * 10L)));
+            queue.add(reservation);
+            holds.add(reservation);
+        }
+        System.gc();
+        Random random = new Random(11);
+        int operations = 20_000;
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            long begin = System.nanoTime();
+            for (int i = 0; i < operations; i++) {
+                Reservation reservation = holds.get(random.nextInt(depth));
+                int position = queue.positionOf(reservation);
+                if (position < 1 || position > depth) {
+                    return -1;
+                }
+                queue.reprioritize(reservation, policy.priorityKey(PatronType.FACULTY, reservation.getReservationDate()));
+            }
+            best = Math.min(best, System.nanoTime() - begin);
+        }
+        return Math.max(1, best / (operations * 2L));
+    }
+    
+    private static void lendingCycle(LendingService lending) {
+        lending.checkoutBook("ALLOC-P1", "ALLOC-ISBN", "BR");
+        lending.renewBook("ALLOC-ISBN", "ALLOC-P1");
+        lending.returnBook("ALLOC-ISBN", "ALLOC-P1");
+    }
+    
+    // ============= RESERVATION QUEUE TESTS =============
+    
+    private void runReservationQueueTests() {
+        System.out.println("\n🔍 TESTING: Reservation Queue Positions");
+        System.out.println("═══════════════════════════════════════");
+        
+        // Test 1: Positions match a plain list under random cancels, polls and appends
+        test("Queue Positions Match Reference Ordering", () -> {
+            ReservationQueue queue = new FifoReservationQueue();
+            List<Reservation> reference = new ArrayList<>();
+            Random random = new Random(42);
+            for (int i = 0; i < 5000; i++) {
+                int op = random.nextInt(10);
+                if (op < 6 || reference.isEmpty()) {
+                    Reservation reservation = new Reservation("QPOS-" + i, "QPOS-P" + i, "QPOS-ISBN");
+                    queue.add(reservation);
+                    reference.add(reservation);
+                } else if (op < 9) {
+                    Reservation victim = reference.remove(random.nextInt(reference.size()));
+                    if (!queue.remove(victim) || queue.positionOf(victim) != 0) {
+                        return false;
+                    }
+                } else if (queue.poll() != reference.remove(0)) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < reference.size(); i++) {
+                if (queue.positionOf(reference.get(i)) != i + 1) {
+                    return false;
+                }
+            }
+            return queue.size() == reference.size() && queue.toList().equals(reference) &&
+                   (reference.isEmpty() || queue.peek() == reference.get(0));
+        });
+        
+        // Test 2: Cancelling ahead of a reservation moves it up through the service
+        test("Cancellation Ahead Advances Queue Position", () -> {
+            LibraryBranch branch = branchService.getAllBranches().get(0);
+            Book book = new Book("QPOS-001", "Queue Position Book", "Author", 2024, branch.getBranchId());
+            bookService.addBook(book);
+            Patron borrower = PatronFactory.createFaculty("Queue Borrower", "qb@test.com", "555-9200");
+            patronService.addPatron(borrower);
+            lendingService.checkoutBook(borrower.getPatronId(), book.getIsbn(), branch.getBranchId());
+            List<Reservation> holds = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                Patron patron = PatronFactory.createStudent("Queue Patron " + i, "q" + i + "@test.com", "555-9201");
+                patronService.addPatron(patron);
+                holds.add(reservationService.reserveBook(patron.getPatronId(), book.getIsbn()));
+            }
+            boolean before = reservationService.getQueuePosition(holds.get(2).getReservationId()) == 3;
+            reservationService.cancelReservation(holds.get(0).getReservationId());
+            return before &&
+                   reservationService.getQueuePosition(holds.get(2).getReservationId()) == 2 &&
+                   reservationService.getQueuePosition(holds.get(0).getReservationId()) == 0 &&
+                   reservationService.getReservationsForBook(book.getIsbn()).size() == 2;
+        });
+        
+        // Test 3: Position lookups stay flat from a 10k-deep to a 320k-deep queue
+        test("Queue Position Lookup Flat From 10k To 320k Deep", () -> {
+            List<Reservation> shallowHolds = new ArrayList<>();
+            List<Reservation> deepHolds = new ArrayList<>();
+            ReservationQueue shallowQueue = halfCancelledQueue(10_000, shallowHolds);
+            ReservationQueue deepQueue = halfCancelledQueue(320_000, deepHolds);
+            queuePositionNanos(shallowQueue, shallowHolds); // JIT warm-up
+            System.gc();
+            long shallow = Long.MAX_VALUE;
+            long deep = Long.MAX_VALUE;
+            // Rounds alternate between the depths, so a collection or a busy thread hits both alike
+            for (int round = 0; round < 5; round++) {
+                shallow = Math.min(shallow, queuePositionNanos(shallowQueue, shallowHolds));
+                deep = Math.min(deep, queuePositionNanos(deepQueue, deepHolds));
+            }
+            System.out.println("   Position lookup: " + shallow + " ns at depth 10000, " + deep + " ns at depth 320000");
+            // A walk over the segments ahead of the tail would cost about 30 times more
+            return shallow != Long.MAX_VALUE && deep != Long.MAX_VALUE && deep < shallow * 4;
+        });
+        
+        // Test 4: Reserve/collect churn on one title moves the head instead of piling up segments
+        test("Queue Head Follows Reserve And Collect Churn", () -> {
+            FifoReservationQueue queue = new FifoReservationQueue();
+            int cycles = 50_000;
+            for (int i = 0; i < cycles; i++) {
+                Reservation reservation = new Reservation("QCHURN-" + i, "QCHURN-P" + i, "QCHURN-ISBN");
+                queue.add(reservation);
+                // The service only ever looks at the head through peekFirst, positionOf and toList
+                if (queue.peekFirst(r -> r.getStatus() == ReservationStatus.ACTIVE) != reservation ||
+                    queue.positionOf(reservation) != 1 || queue.toList().size() != 1) {
+                    return false;
+                }
+                queue.remove(reservation);
+            }
+            Reservation last = new Reservation("QCHURN-LAST", "QCHURN-PL", "QCHURN-ISBN");
+            queue.add(last);
+            return queue.getSegmentCount() <= 2 && queue.positionOf(last) == 1 && queue.size() == 1;
+        });
+    }
+    
+    // ============= PATRON RESERVATION INDEX TESTS =============
+    
+    private void runPatronReservationIndexTests() {
+        System.out.println("\n🔍 TESTING: Patron Reservation Index");
+        System.out.println("═══════════════════════════════════════");
+        
+        LibraryBranch branch = branchService.getAllBranches().get(0);
+        Patron borrower = PatronFactory.createFaculty("Index Borrower", "ib@test.com", "555-9300");
+        Patron holder = PatronFactory.createStudent("Index Holder", "ih@test.com", "555-9301");
+        Patron other = PatronFactory.createStudent("Index Other", "io@test.com", "555-9302");
+        patronService.addPatron(borrower);
+        patronService.addPatron(holder);
+        patronService.addPatron(other);
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Book book = new Book("IDX-00" + i, "Index Book " + i, "Author", 2024, branch.getBranchId());
+            bookService.addBook(book);
+            lendingService.checkoutBook(borrower.getPatronId(), book.getIsbn(), branch.getBranchId());
+            books.add(book);
+        }
+        
+        // Test 1: "My holds" lists every open hold in placement order, and drops cancelled ones
+        test("Patron Holds Listed From Index", () -> {
+            List<Reservation> placed = new ArrayList<>();
+            for (Book book : books) {
+                placed.add(reservationService.reserveBook(holder.getPatronId(), book.getIsbn()));
+            }
+            boolean listed = reservationService.getReservationsForPatron(holder.getPatronId()).equals(placed);
+            reservationService.cancelReservation(placed.get(1).getReservationId());
+            List<Reservation> remaining = reservationService.getReservationsForPatron(holder.getPatronId());
+            return listed && remaining.equals(List.of(placed.get(0), placed.get(2))) &&
+                   !reservationService.hasReservation(holder.getPatronId(), books.get(1).getIsbn()) &&
+                   reservationService.getReservationsForPatron(other.getPatronId()).isEmpty();
+        });
+        
+        // Test 2: A cancelled hold can be placed again, but not duplicated
+        test("Re-reserve After Cancel, Reject Duplicate", () -> {
+            reservationService.reserveBook(holder.getPatronId(), books.get(1).getIsbn());
+            try {
+                reservationService.reserveBook(holder.getPatronId(), books.get(1).getIsbn());
+                return false;
+            } catch (IllegalStateException e) {
+                return reservationService.hasReservation(holder.getPatronId(), books.get(1).getIsbn());
+            }
+        });
+        
+        // Test 3: Fulfilling by a patron who is not at the head leaves the queue untouched
+        test("Fulfill Only Removes Head Patron's Hold", () -> {
+            String isbn = books.get(0).getIsbn();
+            Reservation second = reservationService.reserveBook(other.getPatronId(), isbn);
+            reservationService.fulfillReservation(isbn, other.getPatronId());
+            boolean untouched = reservationService.getReservationsForBook(isbn).size() == 2 &&
+                                second.getStatus() == ReservationStatus.ACTIVE;
+            reservationService.fulfillReservation(isbn, holder.getPatronId());
+            return untouched &&
+                   !reservationService.hasReservation(holder.getPatronId(), isbn) &&
+                   reservationService.getQueuePosition(second.getReservationId()) == 1;
+        });
+    }
+    
+    // ============= HOLD EXPIRY TESTS =============
+    
+    private void runHoldExpiryTests() {
+        System.out.println("\n🔍 TESTING: Hold Expiry Scheduler");
+        System.out.println("═══════════════════════════════════════");
+        
+        // Test 1: An uncollected hold expires after the hold period and passes to the next patron
+        test("Uncollected Hold Expires and Moves to Next Patron", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            LendingService lending = new LendingService(books, patrons, new BorrowingRecordRepository());
+            ReservationService reservations = new ReservationService(books, patrons);
+            reservations.setHoldExpiryScheduler(HoldExpiryScheduler.inMemory(60_000));
+            Book book = new Book("EXP-001", "Expiry Book", "Author", 2024, "BR");
+            books.save(book);
+            List<Patron> people = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                Patron patron = PatronFactory.createStudent("Expiry " + i, "e" + i + "@test.com", "555-9400");
+                patrons.save(patron);
+                people.add(patron);
+            }
+            lending.checkoutBook(people.get(0).getPatronId(), book.getIsbn(), "BR");
+            Reservation first = reservations.reserveBook(people.get(1).getPatronId(), book.getIsbn());
+            Reservation second = reservations.reserveBook(people.get(2).getPatronId(), book.getIsbn());
+            lending.returnBook(book.getIsbn(), people.get(0).getPatronId());
+            reservations.notifyNextInQueue(book.getIsbn());
+            
+            LocalDateTime now = LocalDateTime.now();
+            boolean early = reservations.expireHolds(now.plusDays(1)) == 0 &&
+                            first.getStatus() == ReservationStatus.NOTIFIED;
+            int expired = reservations.expireHolds(now.plusDays(3));
+            return early && expired == 1 &&
+                   first.getStatus() == ReservationStatus.EXPIRED &&
+                   second.getStatus() == ReservationStatus.NOTIFIED &&
+                   book.getStatus() == BookStatus.RESERVED &&
+                   reservations.getQueuePosition(second.getReservationId()) == 1 &&
+                   !reservations.hasReservation(people.get(1).getPatronId(), book.getIsbn()) &&
+                   reservations.expireHolds(now.plusDays(6)) == 1 &&
+                   book.getStatus() == BookStatus.AVAILABLE;
+        });
+        
+        // Test 2: Pending deadlines survive a restart; cancelled and fired ones do not
+        test("Hold Deadlines Survive Restart", () -> {
+            Path dir = Files.createTempDirectory("hold-expiry-test");
+            long now = System.currentTimeMillis();
+            try (HoldExpiryScheduler scheduler = HoldExpiryScheduler.open(dir, "holds", 1000)) {
+                scheduler.schedule("HOLD-A", now + 60_000);
+                scheduler.schedule("HOLD-B", now + 120_000);
+                scheduler.schedule("HOLD-C", now + 180_000);
+                scheduler.cancel("HOLD-B");
+                if (!scheduler.advanceTo(now + 90_000).equals(List.of("HOLD-A"))) {
+                    return false;
+                }
+            }
+            try (HoldExpiryScheduler reopened = HoldExpiryScheduler.open(dir, "holds", 1000)) {
+                return reopened.size() == 1 && reopened.isScheduled("HOLD-C") &&
+                       reopened.advanceTo(now + 170_000).isEmpty() &&
+                       reopened.advanceTo(now + 181_000).equals(List.of("HOLD-C"));
+            }
+        });
+        
+        // Test 3: A million pending deadlines fire once each, in deadline order
+        test("Million Pending Deadlines Fire In Order", () -> {
+            int count = 1_000_000;
+            long now = System.currentTimeMillis();
+            long tick = 60_000;
+            Random random = new Random(11);
+            String[] keys = new String[count];
+            long[] deadlines = new long[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = Integer.toString(i);
+                deadlines[i] = now + 1 + random.nextInt(2 * 24 * 60) * tick;
+            }
+            HoldExpiryScheduler scheduler = HoldExpiryScheduler.inMemory(tick);
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            long threadId = Thread.currentThread().getId();
+            boolean measured = threads instanceof com.sun.management.ThreadMXBean;
+            long before = measured ? ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threadId) : 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                scheduler.schedule(keys[i], deadlines[i]);
+            }
+            long scheduleNanos = System.nanoTime() - start;
+            long allocated = measured
+                ? ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threadId) - before : 0;
+            start = System.nanoTime();
+            List<String> fired = new ArrayList<>();
+            for (int minute = 0; minute <= 2 * 24 * 60 + 1; minute += 30) {
+                fired.addAll(scheduler.advanceTo(now + minute * tick));
+            }
+            long advanceNanos = System.nanoTime() - start;
+            System.out.println("   Schedule: " + (scheduleNanos / count) + " ns, expire: " + (advanceNanos / count) +
+                               " ns, allocated " + (allocated / count) + " bytes per deadline");
+            long previous = Long.MIN_VALUE;
+            for (String key : fired) {
+                long deadline = deadlines[Integer.parseInt(key)];
+                if (deadline < previous) {
+                    return false;
+                }
+                previous = deadline;
+            }
+            return fired.size() == count && scheduler.size() == 0;
+        });
+        
+        // Test 4: Advancing over billions of empty ticks jumps between the occupied ones
+        test("Idle Clock Skips Empty Ticks", () -> {
+            long now = System.currentTimeMillis();
+            HoldExpiryScheduler scheduler = HoldExpiryScheduler.inMemory(1);
+            scheduler.schedule("SKIP-NEAR", now + 10);
+            scheduler.schedule("SKIP-FAR", now + 3_000_000_000L);
+            scheduler.schedule("SKIP-BEYOND", now + (1L << 33));
+            // Stepping an empty wheel one tick per call is what skipping 2^33 ticks must beat
+            HoldExpiryScheduler stepped = HoldExpiryScheduler.inMemory(1);
+            long start = System.nanoTime();
+            for (int tick = 1; tick <= 1 << 16; tick++) {
+                stepped.advanceTo(now + tick);
+            }
+            long steppedNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            List<String> first = scheduler.advanceTo(now + 3_000_000_001L);
+            List<String> early = scheduler.advanceTo(now + (1L << 33) - 1);
+            List<String> last = scheduler.advanceTo(now + (1L << 33));
+            long skipped = System.nanoTime() - start;
+            System.out.println("   Advanced 2^33 one-millisecond ticks in " + skipped / 1000 + " µs, 2^16 single ticks in " +
+                               steppedNanos / 1000 + " µs");
+            return first.equals(List.of("SKIP-NEAR", "SKIP-FAR")) && early.isEmpty() &&
+                   last.equals(List.of("SKIP-BEYOND")) && skipped < steppedNanos;
+        });
+        
+        // Test 5: The driver expires due holds in the background without anyone calling expireHolds
+        test("Expiry Driver Expires Holds In Background", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            LendingService lending = new LendingService(books, patrons, new BorrowingRecordRepository());
+            ReservationService reservations = new ReservationService(books, patrons);
+            reservations.setHoldExpiryScheduler(HoldExpiryScheduler.inMemory(60_000));
+            books.save(new Book("DRIVE-001", "Driver Book", "Author", 2024, "BR"));
+            Patron borrower = PatronFactory.createStudent("Driver Borrower", "db@test.com", "555-9401");
+            Patron waiting = PatronFactory.createStudent("Driver Waiting", "dw@test.com", "555-9402");
+            patrons.save(borrower);
+            patrons.save(waiting);
+            lending.checkoutBook(borrower.getPatronId(), "DRIVE-001", "BR");
+            Reservation hold = reservations.reserveBook(waiting.getPatronId(), "DRIVE-001");
+            lending.returnBook("DRIVE-001", borrower.getPatronId());
+            reservations.notifyNextInQueue("DRIVE-001");
+            
+            // The driver's clock runs three days ahead, past the hold period
+            try (HoldExpiryDriver driver = new HoldExpiryDriver(reservations, 10,
+                                                                () -> LocalDateTime.now().plusDays(3))) {
+                driver.start();
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                // The count is added once the sweep that expired the hold has finished
+                while (driver.getExpiredCount() == 0 && System.nanoTime() < deadline) {
+                    Thread.sleep(5);
+                }
+                return hold.getStatus() == ReservationStatus.EXPIRED && driver.getExpiredCount() == 1 &&
+                       books.getByIsbn("DRIVE-001").getStatus() == BookStatus.AVAILABLE;
+            }
+        });
+    }
+    
+    // ============= RESERVATION RECLAIM TESTS =============
+    
+    private void runReservationReclaimTests() {
+        System.out.println("\n🔍 TESTING: Terminal Reservation Reclaim");
+        System.out.println("═══════════════════════════════════════");
+        
+        // Test 1: Finished reservations move to the archive and empty queues are dropped
+        test("Finished Reservations Archived, Empty Queues Dropped", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            ReservationService reservations = new ReservationService(books, patrons, new ReservationArchive(10));
+            Book book = new Book("RECL-001", "Reclaim Book", "Author", 2024, "BR");
+            book.setStatus(BookStatus.CHECKED_OUT);
+            books.save(book);
+            Patron patron = PatronFactory.createStudent("Reclaim Patron", "rp@test.com", "555-9500");
+            patrons.save(patron);
+            Reservation reservation = reservations.reserveBook(patron.getPatronId(), book.getIsbn());
+            reservations.cancelReservation(reservation.getReservationId());
+            boolean pending = reservations.getTrackedReservationCount() == 1;
+            int reclaimed = reservations.reclaimTerminalReservations(100);
+            List<Reservation> archived = reservations.getArchive().findByPatronId(patron.getPatronId());
+            return pending && reclaimed == 1 &&
+                   reservations.getTrackedReservationCount() == 0 &&
+                   reservations.getQueuedBookCount() == 0 &&
+                   reservations.getQueuePosition(reservation.getReservationId()) == -1 &&
+                   archived.size() == 1 && archived.get(0).equals(reservation) &&
+                   archived.get(0).getStatus() == ReservationStatus.CANCELLED;
+        });
+        
+        // Test 2: Retention keeps only the newest archived reservations
+        test("Archive Retention Drops Oldest", () -> {
+            ReservationArchive archive = new ReservationArchive(3);
+            for (int i = 0; i < 5; i++) {
+                Reservation reservation = new Reservation("RET-" + i, "RET-P", "RET-ISBN");
+                reservation.setStatus(ReservationStatus.FULFILLED);
+                archive.add(reservation);
+            }
+            List<String> ids = new ArrayList<>();
+            archive.forEach(reservation -> ids.add(reservation.getReservationId()));
+            return archive.size() == 3 && archive.getArchivedTotal() == 5 &&
+                   ids.equals(List.of("RET-2", "RET-3", "RET-4"));
+        });
+        
+        // Test 3: Heap stays flat across a long reserve/cancel soak
+        test("Reservation Soak Keeps Heap Flat", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            ReservationService reservations = new ReservationService(books, patrons, new ReservationArchive(1000));
+            List<Book> titles = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                Book book = new Book("SOAK-" + i, "Soak Book " + i, "Author", 2024, "BR");
+                book.setStatus(BookStatus.CHECKED_OUT);
+                books.save(book);
+                titles.add(book);
+            }
+            List<Patron> people = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                Patron patron = PatronFactory.createStudent("Soak " + i, "soak@test.com", "555-9501");
+                patrons.save(patron);
+                people.add(patron);
+            }
+            Logger.Level previous = logger.getLevel();
+            logger.setLevel(Logger.Level.WARN);
+            try {
+                Runtime runtime = Runtime.getRuntime();
+                long baseline = 0;
+                int rounds = 300_000;
+                int maxTracked = 0;
+                for (int i = 0; i < rounds; i++) {
+                    if (i == rounds / 10) {
+                        System.gc();
+                        baseline = runtime.totalMemory() - runtime.freeMemory();
+                    }
+                    Reservation reservation = reservations.reserveBook(people.get(i % people.size()).getPatronId(),
+                                                                       titles.get(i % titles.size()).getIsbn());
+                    reservations.cancelReservation(reservation.getReservationId());
+                    maxTracked = Math.max(maxTracked, reservations.getTrackedReservationCount());
+                }
+                System.gc();
+                long growth = runtime.totalMemory() - runtime.freeMemory() - baseline;
+                System.out.println("   Heap growth over " + (rounds * 9 / 10) + " reservations: " +
+                                   (growth / 1024) + " KB, peak tracked: " + maxTracked);
+                return maxTracked <= 2 && reservations.getArchive().size() == 1000 &&
+                       growth < 16L * 1024 * 1024;
+            } finally {
+                logger.setLevel(previous);
+            }
+        });        
+        // Test 4: With no new reservations, the background reclaimer still empties the hot maps
+        test("Reclaimer Drains Quiet Service In Batches", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            ReservationService reservations = new ReservationService(books, patrons);
+            Book book = new Book("RECL-QUIET", "Quiet Title", "Author", 2024, "BR");
+            book.setStatus(BookStatus.CHECKED_OUT);
+            books.save(book);
+            Logger.Level previous = logger.getLevel();
+            logger.setLevel(Logger.Level.WARN);
+            try {
+                List<Reservation> placed = new ArrayList<>();
+                for (int i = 0; i < 50; i++) {
+                    Patron patron = new Patron("RECL-Q" + i, "Quiet " + i, "q@test.com", "555-9510", PatronType.STUDENT);
+                    patrons.save(patron);
+                    placed.add(reservations.reserveBook(patron.getPatronId(), book.getIsbn()));
+                }
+                for (Reservation reservation : placed) {
+                    reservations.cancelReservation(reservation.getReservationId());
+                }
+                int tracked = reservations.getTrackedReservationCount();
+                try (ReservationReclaimer reclaimer = new ReservationReclaimer(reservations, 10, 8)) {
+                    reclaimer.start();
+                    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                    while (reclaimer.getReclaimedCount() < tracked && System.nanoTime() < deadline) {
+                        Thread.sleep(5);
+                    }
+                    return tracked > 8 && reservations.getTrackedReservationCount() == 0 &&
+                           reservations.getQueuedBookCount() == 0 && reclaimer.getReclaimedCount() == tracked;
+                }
+            } finally {
+                logger.setLevel(previous);
+            }
+        });
+    }
+    
+    // ============= CONCURRENT RESERVATION TESTS =============
+    
+    private void runConcurrentReservationTests() {
+        System.out.println("\n🔍 TESTING: Concurrent Reservation Queues");
+        System.out.println("═══════════════════════════════════════");
+        
+        int threads = 64;
+        
+        // Test 1: Parallel offers, cancels and head claims neither lose nor duplicate a hold
+        test("Concurrent Queue Loses and Duplicates Nothing", () -> {
+            ReservationQueue queue = new FifoReservationQueue();
+            int perThread = 2000;
+            Map<String, Integer> outcomes = new ConcurrentHashMap<>();
+            AtomicInteger duplicates = new AtomicInteger();
+            runConcurrently(threads, worker -> {
+                List<Reservation> mine = new ArrayList<>();
+                for (int i = 0; i < perThread; i++) {
+                    Reservation reservation = new Reservation("CQ-" + worker + "-" + i, "CQ-P" + worker, "CQ-ISBN");
+                    queue.add(reservation);
+                    mine.add(reservation);
+                    if (i % 3 == 2) {
+                        Reservation victim = mine.get(i - 1);
+                        if (queue.remove(victim) && outcomes.put(victim.getReservationId(), 1) != null) {
+                            duplicates.incrementAndGet();
+                        }
+                    }
+                    if (i % 2 == 1) {
+                        Reservation claimed = queue.poll();
+                        if (claimed != null && outcomes.put(claimed.getReservationId(), 2) != null) {
+                            duplicates.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            int remaining = queue.size();
+            Reservation claimed;
+            while ((claimed = queue.poll()) != null) {
+                if (outcomes.put(claimed.getReservationId(), 3) != null) {
+                    duplicates.incrementAndGet();
+                }
+            }
+            return duplicates.get() == 0 && outcomes.size() == threads * perThread &&
+                   remaining == outcomes.values().stream().filter(v -> v == 3).count() && queue.isEmpty();
+        });
+        
+        // Test 2: With many producers, one claimer sees each producer's holds in the order placed
+        test("Concurrent Queue Preserves FIFO Per Producer", () -> {
+            ReservationQueue queue = new FifoReservationQueue();
+            int producers = threads - 1;
+            int perThread = 2000;
+            int[] lastSeen = new int[producers];
+            Arrays.fill(lastSeen, -1);
+            boolean[] ordered = {true};
+            Thread claimer = new Thread(() -> {
+                int claimedCount = 0;
+                while (claimedCount < producers * perThread) {
+                    Reservation reservation = queue.poll();
+                    if (reservation == null) {
+                        Thread.onSpinWait();
+                        continue;
+                    }
+                    String[] parts = reservation.getReservationId().split("-");
+                    int producer = Integer.parseInt(parts[1]);
+                    int sequence = Integer.parseInt(parts[2]);
+                    if (sequence <= lastSeen[producer]) {
+                        ordered[0] = false;
+                    }
+                    lastSeen[producer] = sequence;
+                    claimedCount++;
+                }
+            });
+            claimer.start();
+            runConcurrently(producers, worker -> {
+                for (int i = 0; i < perThread; i++) {
+                    queue.add(new Reservation("FIFO-" + worker + "-" + i, "FIFO-P" + worker, "FIFO-ISBN"));
+                }
+            });
+            claimer.join(30_000);
+            return !claimer.isAlive() && ordered[0] && queue.isEmpty();
+        });
+        
+        // Test 3: 64 threads placing holds on one blockbuster title through the service
+        test("64-Thread Hot Title Reservation Benchmark", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            ReservationService reservations = new ReservationService(books, patrons);
+            Book book = new Book("HOT-001", "Blockbuster", "Author", 2024, "BR");
+            book.setStatus(BookStatus.CHECKED_OUT);
+            books.save(book);
+            int perThread = 500;
+            List<List<Patron>> patronsByThread = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                List<Patron> group = new ArrayList<>();
+                for (int i = 0; i < perThread; i++) {
+                    Patron patron = new Patron("HOT-P" + t + "-" + i, "Hot Patron", "hot@test.com", "555-9600",
+                                               PatronType.STUDENT);
+                    patrons.save(patron);
+                    group.add(patron);
+                }
+                patronsByThread.add(group);
+            }
+            Logger.Level previous = logger.getLevel();
+            logger.setLevel(Logger.Level.WARN);
+            List<Reservation> placed = Collections.synchronizedList(new ArrayList<>());
+            long start = System.nanoTime();
+            try {
+                runConcurrently(threads, worker -> {
+                    for (Patron patron : patronsByThread.get(worker)) {
+                        Reservation reservation = reservations.reserveBook(patron.getPatronId(), book.getIsbn());
+                        if (patron.getPatronId().endsWith("0")) {
+                            reservations.cancelReservation(reservation.getReservationId());
+                        } else {
+                            placed.add(reservation);
+                        }
+                    }
+                });
+            } finally {
+                logger.setLevel(previous);
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.println("   " + (threads * perThread * 1_000_000_000L / elapsed) +
+                               " reservations/s with " + threads + " threads on one title");
+            Set<Integer> positions = new HashSet<>();
+            for (Reservation reservation : placed) {
+                positions.add(reservations.getQueuePosition(reservation.getReservationId()));
+            }
+            return reservations.getReservationsForBook(book.getIsbn()).size() == placed.size() &&
+                   positions.size() == placed.size() && !positions.contains(0) &&
+                   Collections.max(positions) == placed.size();
+        });
+        
+        // Test 4: Cancelling the head hold while a returned book is claimed for it never strands the book
+        test("Concurrent Cancel And Claim Pass The Book On", () -> {
+            int rounds = 2000;
+            int stranded = 0;
+            Logger.Level previous = logger.getLevel();
+            logger.setLevel(Logger.Level.WARN);
+            try {
+                for (int round = 0; round < rounds; round++) {
+                    BookRepository books = new BookRepository();
+                    PatronRepository patrons = new PatronRepository();
+                    ReservationService reservations = new ReservationService(books, patrons);
+                    Book book = new Book("CC-" + round, "Contested", "Author", 2024, "BR");
+                    book.setStatus(BookStatus.CHECKED_OUT);
+                    books.save(book);
+                    patrons.save(new Patron("CC-P1", "First", "first@test.com", "555-9701", PatronType.STUDENT));
+                    patrons.save(new Patron("CC-P2", "Second", "second@test.com", "555-9702", PatronType.STUDENT));
+                    Reservation first = reservations.reserveBook("CC-P1", book.getIsbn());
+                    Reservation second = reservations.reserveBook("CC-P2", book.getIsbn());
+                    book.setStatus(BookStatus.AVAILABLE);
+                    runConcurrently(2, worker -> {
+                        if (worker == 0) {
+                            reservations.cancelReservation(first.getReservationId());
+                        } else {
+                            reservations.claimForNextInQueue(book.getIsbn(), "BR");
+                        }
+                    });
+                    // Whichever ran first, the book ends up set aside for the second patron
+                    if (first.getStatus() != ReservationStatus.CANCELLED ||
+                        second.getStatus() != ReservationStatus.NOTIFIED ||
+                        book.getStatus() != BookStatus.RESERVED) {
+                        stranded++;
+                    }
+                }
+            } finally {
+                logger.setLevel(previous);
+            }
+            return stranded == 0;
+        });
+        
+        // Test 5: Cancel and fulfill racing on a notified head end it exactly once
+        test("Concurrent Cancel And Fulfill End Hold Once", () -> {
+            int rounds = 2000;
+            int inconsistent = 0;
+            Logger.Level previous = logger.getLevel();
+            logger.setLevel(Logger.Level.WARN);
+            try {
+                for (int round = 0; round < rounds; round++) {
+                    BookRepository books = new BookRepository();
+                    PatronRepository patrons = new PatronRepository();
+                    ReservationService reservations = new ReservationService(books, patrons);
+                    Book book = new Book("CF-" + round, "Contested", "Author", 2024, "BR");
+                    book.setStatus(BookStatus.CHECKED_OUT);
+                    books.save(book);
+                    patrons.save(new Patron("CF-P1", "First", "first@test.com", "555-9711", PatronType.STUDENT));
+                    patrons.save(new Patron("CF-P2", "Second", "second@test.com", "555-9712", PatronType.STUDENT));
+                    Reservation first = reservations.reserveBook("CF-P1", book.getIsbn());
+                    Reservation second = reservations.reserveBook("CF-P2", book.getIsbn());
+                    book.setStatus(BookStatus.AVAILABLE);
+                    reservations.claimForNextInQueue(book.getIsbn(), "BR");
+                    runConcurrently(2, worker -> {
+                        if (worker == 0) {
+                            reservations.cancelReservation(first.getReservationId());
+                        } else {
+                            reservations.fulfillReservation(book.getIsbn(), "CF-P1");
+                        }
+                    });
+                    // Either way the held book is passed on once, and the hold is archived once
+                    ReservationStatus ended = first.getStatus();
+                    if ((ended != ReservationStatus.CANCELLED && ended != ReservationStatus.FULFILLED) ||
+                        second.getStatus() != ReservationStatus.NOTIFIED ||
+                        book.getStatus() != BookStatus.RESERVED ||
+                        reservations.reclaimTerminalReservations(10) != 1) {
+                        inconsistent++;
+                    }
+                }
+            } finally {
+                logger.setLevel(previous);
+            }
+            return inconsistent == 0;
+        });
+        
+        // Test 6: Fulfilling a notified hold puts its held copy back for the next patron
+        test("Fulfilled Notified Hold Passes Held Copy On", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            CopyRepository copies = new CopyRepository();
+            BookService catalog = new BookService(books, copies);
+            ReservationService reservations = new ReservationService(books, patrons);
+            reservations.setCopyRepository(copies);
+            Book book = new Book("CF-COPY", "Held Copy", "Author", 2024, "BR");
+            catalog.addBook(book);
+            BookCopy copy = catalog.addCopy(book.getIsbn(), "BR");
+            copies.claim(book.getIsbn(), "BR", BookStatus.CHECKED_OUT);
+            book.setStatus(BookStatus.CHECKED_OUT);
+            patrons.save(new Patron("CF-P3", "Third", "third@test.com", "555-9713", PatronType.STUDENT));
+            patrons.save(new Patron("CF-P4", "Fourth", "fourth@test.com", "555-9714", PatronType.STUDENT));
+            Reservation first = reservations.reserveBook("CF-P3", book.getIsbn());
+            Reservation second = reservations.reserveBook("CF-P4", book.getIsbn());
+            copies.release(copy);
+            reservations.claimForNextInQueue(book.getIsbn(), "BR");
+            boolean held = first.getStatus() == ReservationStatus.NOTIFIED &&
+                           copy.getBarcode().equals(first.getHeldCopyBarcode());
+            reservations.fulfillReservation(book.getIsbn(), "CF-P3");
+            return held && first.getStatus() == ReservationStatus.FULFILLED &&
+                   second.getStatus() == ReservationStatus.NOTIFIED &&
+                   copy.getBarcode().equals(second.getHeldCopyBarcode()) &&
+                   copy.getStatus() == BookStatus.RESERVED;
+        });
+    }
+    
+    // ============= BOOK COPY TESTS =============
+    
+    private void runBookCopyTests() {
+        System.out.println("\n🔍 TESTING: Multi-Copy Availability");
+        System.out.println("═══════════════════════════════════════");
+        
+        // Test 1: Checkout claims a copy at the checkout branch and the title stays available
+        test("Checkout Claims Copy At Branch", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            CopyRepository copies = new CopyRepository();
+            BookService catalog = new BookService(books, copies);
+            LendingService lending = new LendingService(books, patrons, new BorrowingRecordRepository(), copies);
+            Book book = new Book("COPY-001", "Copied Title", "Author", 2020, "BR-A");
+            catalog.addBook(book);
+            catalog.addCopy(book.getIsbn(), "BR-A");
+            catalog.addCopy(book.getIsbn(), "BR-A");
+            catalog.addCopy(book.getIsbn(), "BR-B");
+            Patron first = PatronFactory.createFaculty("Copy Reader 1", "copy1@test.com", "555-7001");
+            Patron second = PatronFactory.createFaculty("Copy Reader 2", "copy2@test.com", "555-7002");
+            patrons.save(first);
+            patrons.save(second);
+            
+            BorrowingRecord record = lending.checkoutBook(first.getPatronId(), book.getIsbn(), "BR-B");
+            boolean branchBEmpty = !catalog.isAvailableAt(book.getIsbn(), "BR-B") &&
+                                   catalog.isAvailableAt(book.getIsbn(), "BR-A");
+            boolean rejected = false;
+            try {
+                lending.checkoutBook(second.getPatronId(), book.getIsbn(), "BR-B");
+            } catch (IllegalStateException e) {
+                rejected = true;
+            }
+            lending.checkoutBook(second.getPatronId(), book.getIsbn(), "BR-A");
+            return record.getCopyBarcode() != null && branchBEmpty && rejected &&
+                   catalog.getAvailableCopyCount(book.getIsbn()) == 1 &&
+                   book.getStatus() == BookStatus.AVAILABLE &&
+                   copies.getByBarcode(record.getCopyBarcode()).getStatus() == BookStatus.CHECKED_OUT;
+        });
+        
+        // Test 2: Returning puts the borrowed copy back on its branch's shelf
+        test("Return Releases Copy", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            CopyRepository copies = new CopyRepository();
+            BookService catalog = new BookService(books, copies);
+            LendingService lending = new LendingService(books, patrons, new BorrowingRecordRepository(), copies);
+            Book book = new Book("COPY-002", "Single Copy", "Author", 2020, "BR-A");
+            catalog.addBook(book);
+            catalog.addCopy(book.getIsbn(), "BR-A");
+            Patron patron = PatronFactory.createStudent("Copy Returner", "copyret@test.com", "555-7003");
+            patrons.save(patron);
+            
+            BorrowingRecord record = lending.checkoutBook(patron.getPatronId(), book.getIsbn(), "BR-A");
+            boolean checkedOut = book.getStatus() == BookStatus.CHECKED_OUT &&
+                                 catalog.getAvailableCopyCount(book.getIsbn()) == 0;
+            lending.returnBook(book.getIsbn(), patron.getPatronId());
+            return checkedOut && book.getStatus() == BookStatus.AVAILABLE &&
+                   catalog.isAvailableAt(book.getIsbn(), "BR-A") &&
+                   copies.getByBarcode(record.getCopyBarcode()).getStatus() == BookStatus.AVAILABLE;
+        });
+        
+        // Test 3: Concurrent claims never hand out more copies than a branch has
+        test("Concurrent Claims Never Over-Claim", () -> {
+            CopyRepository copies = new CopyRepository();
+            int copyCount = 500;
+            for (int i = 0; i < copyCount; i++) {
+                copies.save(new BookCopy("CC-" + i, "COPY-003", i % 2 == 0 ? "BR-A" : "BR-B"));
+            }
+            Set<String> claimed = ConcurrentHashMap.newKeySet();
+            AtomicInteger duplicates = new AtomicInteger();
+            runConcurrently(64, worker -> {
+                String branch = worker % 2 == 0 ? "BR-A" : "BR-B";
+                for (int i = 0; i < 100; i++) {
+                    BookCopy copy = copies.claim("COPY-003", branch, BookStatus.CHECKED_OUT);
+                    if (copy != null && !claimed.add(copy.getBarcode())) {
+                        duplicates.incrementAndGet();
+                    }
+                    if (copy != null && i % 4 == 0) {
+                        claimed.remove(copy.getBarcode());
+                        copies.release(copy);
+                    }
+                }
+            });
+            return duplicates.get() == 0 && claimed.size() == copyCount &&
+                   copies.getAvailableCount("COPY-003") == 0 &&
+                   copies.getAvailableCount("COPY-003", "BR-A") == 0;
+        });
+        
+        // Test 4: Transferring moves one copy and keeps both branches' counters in step
+        test("Transfer Moves Single Copy", () -> {
+            BookRepository books = new BookRepository();
+            BranchRepository branches = new BranchRepository();
+            CopyRepository copies = new CopyRepository();
+            BookService catalog = new BookService(books, copies);
+            BookTransferService transfers = new BookTransferService(books, branches, copies);
+            branches.save(new LibraryBranch("BR-A", "Branch A", "1 A St"));
+            branches.save(new LibraryBranch("BR-B", "Branch B", "2 B St"));
+            Book book = new Book("COPY-004", "Moving Title", "Author", 2020, "BR-A");
+            catalog.addBook(book);
+            catalog.addCopy(book.getIsbn(), "BR-A");
+            catalog.addCopy(book.getIsbn(), "BR-A");
+            
+            transfers.transferBook(book.getIsbn(), "BR-A", "BR-B");
+            return copies.getAvailableCount(book.getIsbn(), "BR-A") == 1 &&
+                   copies.getAvailableCount(book.getIsbn(), "BR-B") == 1 &&
+                   copies.getCopyCount(book.getIsbn(), "BR-B") == 1 &&
+                   branches.findById("BR-B").get().getInventory().contains(book.getIsbn()) &&
+                   transfers.canTransferBook(book.getIsbn(), "BR-A");
+        });
+        
+        // Test 5: A BookService without the shared repository refuses copies nobody else would see
+        test("Copies Require Shared Repository", () -> {
+            BookRepository books = new BookRepository();
+            BookService catalog = new BookService(books);
+            catalog.addBook(new Book("COPY-005", "Unshared Title", "Author", 2020, "BR-A"));
+            try {
+                catalog.addCopy("COPY-005", "BR-A");
+                return false;
+            } catch (IllegalStateException expected) {
+                return catalog.getAvailableCopyCount("COPY-005") == 1 && catalog.isAvailableAt("COPY-005", "BR-A");
+            }
+        });
+        
+        // Test 6: The first copy is the book itself, so it waits until a lent book is back on its shelf
+        test("First Copy Waits For Lent Book", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            CopyRepository copies = new CopyRepository();
+            BookService catalog = new BookService(books, copies);
+            LendingService lending = new LendingService(books, patrons, new BorrowingRecordRepository(), copies);
+            Book book = new Book("COPY-006", "Lent Title", "Author", 2020, "BR-A");
+            catalog.addBook(book);
+            Patron borrower = PatronFactory.createStudent("First Copy Borrower", "fc@test.com", "555-7006");
+            patrons.save(borrower);
+            lending.checkoutBook(borrower.getPatronId(), book.getIsbn(), "BR-A");
+            boolean refusedWhileLent;
+            try {
+                catalog.addCopy(book.getIsbn(), "BR-A");
+                refusedWhileLent = false;
+            } catch (IllegalStateException expected) {
+                refusedWhileLent = book.getStatus() == BookStatus.CHECKED_OUT && !copies.hasCopies(book.getIsbn());
+            }
+            lending.returnBook(book.getIsbn(), borrower.getPatronId());
+            boolean refusedElsewhere;
+            try {
+                catalog.addCopy(book.getIsbn(), "BR-B");
+                refusedElsewhere = false;
+            } catch (IllegalArgumentException expected) {
+                refusedElsewhere = book.getStatus() == BookStatus.AVAILABLE;
+            }
+            catalog.addCopy(book.getIsbn(), "BR-A");
+            catalog.addCopy(book.getIsbn(), "BR-B");
+            return refusedWhileLent && refusedElsewhere && copies.getCopyCount(book.getIsbn()) == 2 &&
+                   catalog.getAvailableCopyCount(book.getIsbn()) == 2 && book.getStatus() == BookStatus.AVAILABLE;
+        });
+    }
+    
+    // ============= HOLD HAND-OFF TESTS =============
+    
+    private void runHoldHandoffTests() {
+        System.out.println("\n🔍 TESTING: Automatic Hold Hand-off");
+        System.out.println("═══════════════════════════════════════");
+        
+        // Test 1: A return sets the book aside for the head of the queue, ahead of walk-ins
+        test("Return Hands Book To Waiting Patron", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            LendingService lending = new LendingService(books, patrons, new BorrowingRecordRepository());
+            ReservationService reservations = new ReservationService(books, patrons);
+            HoldHandoffPipeline handoff = new HoldHandoffPipeline(reservations);
+            lending.setReservationService(reservations);
+            lending.addListener(handoff);
+            Book book = new Book("HANDOFF-001", "Handed Off", "Author", 2020, "BR-A");
+            books.save(book);
+            Patron borrower = PatronFactory.createStudent("Handoff Borrower", "hb@test.com", "555-8001");
+            Patron waiting = PatronFactory.createStudent("Handoff Waiting", "hw@test.com", "555-8002");
+            Patron walkIn = PatronFactory.createStudent("Handoff Walk-in", "hwi@test.com", "555-8003");
+            patrons.save(borrower);
+            patrons.save(waiting);
+            patrons.save(walkIn);
+            
+            lending.checkoutBook(borrower.getPatronId(), book.getIsbn(), "BR-A");
+            Reservation hold = reservations.reserveBook(waiting.getPatronId(), book.getIsbn());
+            lending.returnBook(book.getIsbn(), borrower.getPatronId());
+            boolean setAside = hold.getStatus() == ReservationStatus.NOTIFIED && book.getStatus() == BookStatus.RESERVED;
+            boolean walkInRejected = false;
+            try {
+                lending.checkoutBook(walkIn.getPatronId(), book.getIsbn(), "BR-A");
+            } catch (IllegalStateException e) {
+                walkInRejected = true;
+            }
+            lending.checkoutBook(waiting.getPatronId(), book.getIsbn(), "BR-A");
+            System.out.println("   Return-to-notified latency: " + handoff.getAverageLatencyNanos() + " ns");
+            return setAside && walkInRejected && hold.getStatus() == ReservationStatus.FULFILLED &&
+                   book.getStatus() == BookStatus.CHECKED_OUT && handoff.getHandoffCount() == 1 &&
+                   handoff.getLatencyPercentileNanos(99) >= handoff.getMaxLatencyNanos() &&
+                   !reservations.hasReservation(waiting.getPatronId(), book.getIsbn());
+        });
+        
+        // Test 2: Returned and transferred copies go to waiting patrons at the branch they land at
+        test("Copies Handed Off On Return And Arrival", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            BranchRepository branches = new BranchRepository();
+            CopyRepository copies = new CopyRepository();
+            BookService catalog = new BookService(books, copies);
+            LendingService lending = new LendingService(books, patrons, new BorrowingRecordRepository(), copies);
+            BookTransferService transfers = new BookTransferService(books, branches, copies);
+            ReservationService reservations = new ReservationService(books, patrons);
+            reservations.setCopyRepository(copies);
+            lending.setReservationService(reservations);
+            HoldHandoffPipeline handoff = new HoldHandoffPipeline(reservations);
+            lending.addListener(handoff);
+            transfers.addListener(handoff);
+            branches.save(new LibraryBranch("BR-A", "Branch A", "1 A St"));
+            branches.save(new LibraryBranch("BR-B", "Branch B", "2 B St"));
+            Book book = new Book("HANDOFF-002", "Handed Off Copies", "Author", 2020, "BR-A");
+            catalog.addBook(book);
+            catalog.addCopy(book.getIsbn(), "BR-A");
+            List<Patron> people = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                Patron patron = PatronFactory.createFaculty("Copy Holder " + i, "ch" + i + "@test.com", "555-810" + i);
+                patrons.save(patron);
+                people.add(patron);
+            }
+            
+            lending.checkoutBook(people.get(0).getPatronId(), book.getIsbn(), "BR-A");
+            Reservation first = reservations.reserveBook(people.get(1).getPatronId(), book.getIsbn());
+            Reservation second = reservations.reserveBook(people.get(2).getPatronId(), book.getIsbn());
+            lending.returnBook(book.getIsbn(), people.get(0).getPatronId());
+            boolean firstHeld = first.getStatus() == ReservationStatus.NOTIFIED && first.getHeldCopyBarcode() != null &&
+                                second.getStatus() == ReservationStatus.ACTIVE;
+            
+            catalog.addCopy(book.getIsbn(), "BR-B");
+            transfers.transferBook(book.getIsbn(), "BR-B", "BR-A");
+            BorrowingRecord collected = lending.checkoutBook(people.get(2).getPatronId(), book.getIsbn(), "BR-A");
+            return firstHeld && second.getStatus() == ReservationStatus.FULFILLED &&
+                   collected.getCopyBarcode().equals(second.getHeldCopyBarcode()) &&
+                   !first.getHeldCopyBarcode().equals(second.getHeldCopyBarcode()) &&
+                   copies.getAvailableCount(book.getIsbn()) == 0 && handoff.getHandoffCount() == 2;
+        });
+        
+        // Test 3: Hand-offs racing walk-in claims never give the same copy to two people
+        test("Concurrent Hand-off Never Double-Allocates", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            CopyRepository copies = new CopyRepository();
+            ReservationService reservations = new ReservationService(books, patrons);
+            reservations.setCopyRepository(copies);
+            Book book = new Book("HANDOFF-003", "Contended Copies", "Author", 2020, "BR-A");
+            book.setStatus(BookStatus.CHECKED_OUT);
+            books.save(book);
+            int copyCount = 400;
+            List<BookCopy> out = new ArrayList<>();
+            for (int i = 0; i < copyCount; i++) {
+                BookCopy copy = new BookCopy("HC-" + i, book.getIsbn(), "BR-A");
+                copy.setStatus(BookStatus.CHECKED_OUT);
+                copies.save(copy);
+                out.add(copy);
+            }
+            int waitingCount = 300;
+            List<Reservation> holds = new ArrayList<>();
+            Logger.Level previous = logger.getLevel();
+            logger.setLevel(Logger.Level.WARN);
+            try {
+                for (int i = 0; i < waitingCount; i++) {
+                    Patron patron = PatronFactory.createStudent("Contender " + i, "c" + i + "@test.com", "555-0000");
+                    patrons.save(patron);
+                    holds.add(reservations.reserveBook(patron.getPatronId(), book.getIsbn()));
+                }
+                
+                int threads = 16;
+                Set<String> walkIns = ConcurrentHashMap.newKeySet();
+                runConcurrently(threads, worker -> {
+                    for (int i = worker; i < copyCount; i += threads) {
+                        copies.release(out.get(i));
+                        if (worker % 2 == 0) {
+                            reservations.claimForNextInQueue(book.getIsbn(), "BR-A");
+                        } else {
+                            BookCopy copy = copies.claim(book.getIsbn(), "BR-A", BookStatus.CHECKED_OUT);
+                            if (copy != null) {
+                                walkIns.add(copy.getBarcode());
+                            }
+                        }
+                    }
+                });
+                while (reservations.claimForNextInQueue(book.getIsbn(), "BR-A") != null) {
+                    // hand whatever is left on the shelf to the remaining patrons
+                }
+                
+                Set<String> held = new HashSet<>();
+                int notified = 0;
+                for (Reservation hold : holds) {
+                    if (hold.getStatus() == ReservationStatus.NOTIFIED) {
+                        notified++;
+                        held.add(hold.getHeldCopyBarcode());
+                    }
+                }
+                boolean disjoint = Collections.disjoint(held, walkIns);
+                return disjoint && held.size() == notified &&
+                       notified == Math.min(waitingCount, copyCount - walkIns.size()) &&
+                       held.size() + walkIns.size() + copies.getAvailableCount(book.getIsbn()) == copyCount;
+            } finally {
+                logger.setLevel(previous);
+            }
+        });
+        
+        // Test 4: With the background worker, hand-offs complete off the returning thread
+        test("Background Hand-off Publishes Latency", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            LendingService lending = new LendingService(books, patrons, new BorrowingRecordRepository());
+            ReservationService reservations = new ReservationService(books, patrons);
+            lending.setReservationService(reservations);
+            HoldHandoffPipeline handoff = new HoldHandoffPipeline(reservations);
+            lending.addListener(handoff);
+            handoff.start();
+            Logger.Level previous = logger.getLevel();
+            logger.setLevel(Logger.Level.WARN);
+            try {
+                int titles = 200;
+                List<Reservation> holds = new ArrayList<>();
+                for (int i = 0; i < titles; i++) {
+                    Book book = new Book("HANDOFF-BG-" + i, "Background " + i, "Author", 2020, "BR-A");
+                    books.save(book);
+                    Patron borrower = PatronFactory.createFaculty("BG Borrower " + i, "bgb@test.com", "555-0000");
+                    Patron waiting = PatronFactory.createFaculty("BG Waiting " + i, "bgw@test.com", "555-0000");
+                    patrons.save(borrower);
+                    patrons.save(waiting);
+                    lending.checkoutBook(borrower.getPatronId(), book.getIsbn(), "BR-A");
+                    holds.add(reservations.reserveBook(waiting.getPatronId(), book.getIsbn()));
+                    lending.returnBook(book.getIsbn(), borrower.getPatronId());
+                }
+                boolean idle = handoff.awaitIdle(10, TimeUnit.SECONDS);
+                handoff.close();
+                System.out.println("   Return-to-notified latency: p50 < " + handoff.getLatencyPercentileNanos(50) +
+                                   " ns, p99 < " + handoff.getLatencyPercentileNanos(99) + " ns");
+                return idle && handoff.getHandoffCount() == titles &&
+                       holds.stream().allMatch(h -> h.getStatus() == ReservationStatus.NOTIFIED) &&
+                       handoff.getLatencyPercentileNanos(50) <= handoff.getLatencyPercentileNanos(99);
+            } finally {
+                logger.setLevel(previous);
+            }
+        });
+        
+        // Test 5: A walk-in racing a return never gets the book a patron is waiting for, even with
+        // the notification still queued on the background worker
+        test("Walk-in Racing Return Never Takes Held Book", () -> {
+            int rounds = 500;
+            int taken = 0;
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            LendingService lending = new LendingService(books, patrons, new BorrowingRecordRepository());
+            ReservationService reservations = new ReservationService(books, patrons);
+            lending.setReservationService(reservations);
+            HoldHandoffPipeline handoff = new HoldHandoffPipeline(reservations);
+            lending.addListener(handoff);
+            handoff.start();
+            Logger.Level previous = logger.getLevel();
+            logger.setLevel(Logger.Level.ERROR);
+            try {
+                for (int round = 0; round < rounds; round++) {
+                    Book book = new Book("HANDOFF-RACE-" + round, "Raced " + round, "Author", 2020, "BR-A");
+                    books.save(book);
+                    Patron borrower = PatronFactory.createFaculty("Race Borrower", "rb@test.com", "555-0000");
+                    Patron waiting = PatronFactory.createFaculty("Race Waiting", "rw@test.com", "555-0000");
+                    Patron walkIn = PatronFactory.createFaculty("Race Walk-in", "rwi@test.com", "555-0000");
+                    patrons.save(borrower);
+                    patrons.save(waiting);
+                    patrons.save(walkIn);
+                    lending.checkoutBook(borrower.getPatronId(), book.getIsbn(), "BR-A");
+                    Reservation hold = reservations.reserveBook(waiting.getPatronId(), book.getIsbn());
+                    runConcurrently(2, worker -> {
+                        if (worker == 0) {
+                            lending.returnBook(book.getIsbn(), borrower.getPatronId());
+                            return;
+                        }
+                        try {
+                            lending.checkoutBook(walkIn.getPatronId(), book.getIsbn(), "BR-A");
+                        } catch (IllegalStateException e) {
+                            // Still out, or already set aside
+                        }
+                    });
+                    if (walkIn.getCurrentBorrowedBooks().contains(book.getIsbn()) ||
+                        hold.getStatus() != ReservationStatus.NOTIFIED || book.getStatus() != BookStatus.RESERVED) {
+                        taken++;
+                    }
+                }
+                boolean idle = handoff.awaitIdle(10, TimeUnit.SECONDS);
+                handoff.close();
+                return taken == 0 && idle && handoff.getHandoffCount() == rounds;
+            } finally {
+                logger.setLevel(previous);
+            }
+        });
+        
+        // Test 6: Latency runs from the start of the return, and a hold that ended before its
+        // event was handled is not a hand-off
+        test("Hand-off Latency From Return, Ended Holds Skipped", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            LendingService lending = new LendingService(books, patrons, new BorrowingRecordRepository());
+            ReservationService reservations = new ReservationService(books, patrons);
+            lending.setReservationService(reservations);
+            HoldHandoffPipeline handoff = new HoldHandoffPipeline(reservations);
+            List<Reservation> holds = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                Book book = new Book("HANDOFF-END-" + i, "Ended " + i, "Author", 2020, "BR-A");
+                books.save(book);
+                Patron borrower = PatronFactory.createFaculty("End Borrower " + i, "eb@test.com", "555-0000");
+                Patron waiting = PatronFactory.createFaculty("End Waiting " + i, "ew@test.com", "555-0000");
+                patrons.save(borrower);
+                patrons.save(waiting);
+                lending.checkoutBook(borrower.getPatronId(), book.getIsbn(), "BR-A");
+                holds.add(reservations.reserveBook(waiting.getPatronId(), book.getIsbn()));
+                lending.returnBook(book.getIsbn(), borrower.getPatronId());
+            }
+            reservations.cancelReservation(holds.get(0).getReservationId());
+            long returnedNanos = System.nanoTime() - 5_000_000;
+            handoff.onHoldSetAside(holds.get(0), returnedNanos);
+            handoff.onHoldSetAside(holds.get(1), returnedNanos);
+            return handoff.getUnmatchedCount() == 1 && handoff.getHandoffCount() == 1 &&
+                   handoff.getMaxLatencyNanos() >= 5_000_000;
+        });
+    }
+    
+    // ============= RESERVATION PRIORITY TESTS =============
+    
+    private void runReservationPriorityTests() {
+        System.out.println("\n🔍 TESTING: Reservation Priority Tiers");
+        System.out.println("═══════════════════════════════════════");
+        
+        // Test 1: Faculty go ahead of general members, who go ahead of students; FIFO within a tier
+        test("Tiers Order Queue, FIFO Within Tier", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            ReservationService reservations = new ReservationService(books, patrons);
+            reservations.setPriorityPolicy(ReservationPriorityPolicy.defaultPolicy());
+            Book book = new Book("TIER-001", "Course Reserve", "Author", 2020, "BR-A");
+            book.setStatus(BookStatus.CHECKED_OUT);
+            books.save(book);
+            List<Reservation> expected = new ArrayList<>();
+            List<Reservation> students = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                Patron student = PatronFactory.createStudent("Tier Student " + i, "ts@test.com", "555-0000");
+                patrons.save(student);
+                students.add(reservations.reserveBook(student.getPatronId(), book.getIsbn()));
+            }
+            Patron general = PatronFactory.createGeneralMember("Tier General", "tg@test.com", "555-0000");
+            Patron faculty = PatronFactory.createFaculty("Tier Faculty", "tf@test.com", "555-0000");
+            patrons.save(general);
+            patrons.save(faculty);
+            Reservation generalHold = reservations.reserveBook(general.getPatronId(), book.getIsbn());
+            Reservation facultyHold = reservations.reserveBook(faculty.getPatronId(), book.getIsbn());
+            expected.add(facultyHold);
+            expected.add(generalHold);
+            expected.addAll(students);
+            
+            reservations.cancelReservation(students.get(1).getReservationId());
+            expected.remove(students.get(1));
+            return reservations.getReservationsForBook(book.getIsbn()).equals(expected) &&
+                   reservations.getQueuePosition(facultyHold.getReservationId()) == 1 &&
+                   reservations.getQueuePosition(students.get(4).getReservationId()) == expected.size();
+        });
+        
+        // Test 2: A hold that has waited longer than the head start can no longer be overtaken
+        test("Aging Stops Low Tiers Starving", () -> {
+            ReservationPriorityPolicy policy = ReservationPriorityPolicy.defaultPolicy();
+            TieredReservationQueue queue = new TieredReservationQueue();
+            LocalDateTime now = LocalDateTime.of(2026, 3, 1, 12, 0);
+            Reservation oldStudent = new Reservation("AGE-1", "AGE-P1", "AGE-ISBN");
+            oldStudent.setPriorityKey(policy.priorityKey(PatronType.STUDENT, now.minusDays(8)));
+            Reservation recentStudent = new Reservation("AGE-2", "AGE-P2", "AGE-ISBN");
+            recentStudent.setPriorityKey(policy.priorityKey(PatronType.STUDENT, now.minusDays(3)));
+            Reservation newFaculty = new Reservation("AGE-3", "AGE-P3", "AGE-ISBN");
+            newFaculty.setPriorityKey(policy.priorityKey(PatronType.FACULTY, now));
+            queue.add(recentStudent);
+            queue.add(oldStudent);
+            queue.add(newFaculty);
+            boolean aged = queue.toList().equals(List.of(oldStudent, newFaculty, recentStudent));
+            
+            // Promoting the recent student to the faculty tier puts it ahead of the later faculty hold
+            queue.reprioritize(recentStudent, policy.priorityKey(PatronType.FACULTY, now.minusDays(3)));
+            return aged && queue.positionOf(recentStudent) == 1 && queue.poll() == recentStudent &&
+                   queue.positionOf(newFaculty) == 2 && queue.size() == 2;
+        });
+        
+        // Test 3: Positions match a sorted reference under random adds, cancels, claims and promotions
+        test("Tiered Positions Match Reference Ordering", () -> {
+            TieredReservationQueue queue = new TieredReservationQueue();
+            List<Reservation> reference = new ArrayList<>();
+            Map<Reservation, Integer> arrival = new IdentityHashMap<>();
+            Random random = new Random(7);
+            Comparator<Reservation> order = Comparator
+                .comparingLong(Reservation::getPriorityKey).thenComparing(arrival::get);
+            for (int i = 0; i < 5000; i++) {
+                int op = random.nextInt(10);
+                if (op < 5 || reference.isEmpty()) {
+                    Reservation reservation = new Reservation("TPOS-" + i, "TPOS-P" + i, "TPOS-ISBN");
+                    reservation.setPriorityKey(random.nextInt(50));
+                    arrival.put(reservation, i);
+                    queue.add(reservation);
+                    reference.add(reservation);
+                } else if (op < 7) {
+                    Reservation victim = reference.remove(random.nextInt(reference.size()));
+                    if (!queue.remove(victim) || queue.positionOf(victim) != 0) {
+                        return false;
+                    }
+                } else if (op < 9) {
+                    Reservation promoted = reference.get(random.nextInt(reference.size()));
+                    queue.reprioritize(promoted, random.nextInt(50));
+                } else {
+                    reference.sort(order);
+                    if (queue.poll() != reference.remove(0)) {
+                        return false;
+                    }
+                }
+            }
+            reference.sort(order);
+            for (int i = 0; i < reference.size(); i++) {
+                if (queue.positionOf(reference.get(i)) != i + 1) {
+                    return false;
+                }
+            }
+            return queue.toList().equals(reference) && queue.peek() == reference.get(0);
+        });
+        
+        // Test 4: Promotion and position lookup grow logarithmically with a tiered queue's depth
+        test("Tiered Queue Flat From 10k To 320k Deep", () -> {
+            tieredQueueNanos(10_000); // JIT warm-up
+            long shallow = tieredQueueNanos(10_000);
+            long deep = tieredQueueNanos(320_000);
+            System.out.println("   Position lookup or promotion: " + shallow + " ns at depth 10000, " + deep +
+                               " ns at depth 320000");
+            // A scan of the tier would be 32 times slower; a treap path is only a few levels longer
+            return shallow > 0 && deep > 0 && deep < shallow * 8;
+        });
+    }
+    
+    // ============= CO-BORROW MODEL TESTS =============
+    
+    private void runCoBorrowModelTests() {
+        System.out.println("\n🔍 TESTING: Co-Borrow Recommendation Model");
+        System.out.println("═══════════════════════════════════════");
+        
+        // Test 1: Checkouts update the model and drive collaborative recommendations
+        test("Checkouts Feed Collaborative Recommendations", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            BorrowingRecordRepository records = new BorrowingRecordRepository();
+            LendingService lending = new LendingService(books, patrons, records);
+            CoBorrowModel model = new CoBorrowModel();
+            lending.addListener(model);
+            RecommendationService recommendations = new RecommendationService(books, patrons, records);
+            recommendations.setCoBorrowModel(model);
+            for (String isbn : List.of("CB-A", "CB-B", "CB-C", "CB-D")) {
+                books.save(new Book(isbn, "Title " + isbn, "Author", 2020, "BR-A"));
+            }
+            List<Patron> readers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                Patron reader = PatronFactory.createFaculty("CB Reader " + i, "cb" + i + "@test.com", "555-0000");
+                patrons.save(reader);
+                readers.add(reader);
+            }
+            // Three readers pair A with B, one pairs A with C
+            for (int i = 0; i < 4; i++) {
+                String other = i < 3 ? "CB-B" : "CB-C";
+                lending.checkoutBook(readers.get(i).getPatronId(), "CB-A", "BR-A");
+                lending.returnBook("CB-A", readers.get(i).getPatronId());
+                lending.checkoutBook(readers.get(i).getPatronId(), other, "BR-A");
+                lending.returnBook(other, readers.get(i).getPatronId());
+            }
+            Patron newcomer = PatronFactory.createStudent("CB Newcomer", "cbn@test.com", "555-0000");
+            patrons.save(newcomer);
+            lending.checkoutBook(newcomer.getPatronId(), "CB-A", "BR-A");
+            
+            List<Book> suggested = recommendations.getCollaborativeRecommendations(newcomer.getPatronId(), 5);
+            return model.getCoBorrowCount("CB-A", "CB-B") == 3 && model.getCoBorrowCount("CB-B", "CB-A") == 3 &&
+                   model.getCoBorrowCount("CB-A", "CB-C") == 1 && suggested.size() == 2 &&
+                   suggested.get(0).getIsbn().equals("CB-B") && suggested.get(1).getIsbn().equals("CB-C");
+        });
+        
+        // Test 2: Neighbor lists stay bounded and keep the frequent pairings
+        test("Neighbor Lists Stay Bounded", () -> {
+            CoBorrowModel model = new CoBorrowModel(20, 16);
+            for (int i = 0; i < 1000; i++) {
+                model.addCoBorrows("BOUND-HUB", List.of("BOUND-" + i));
+                if (i % 10 == 0) {
+                    model.addCoBorrows("BOUND-HUB", List.of("BOUND-FAVOURITE"));
+                }
+            }
+            List<String> top = model.recommend(List.of("BOUND-HUB"), Collections.emptySet(), 1);
+            return model.getNeighborCount("BOUND-HUB") <= 16 && top.equals(List.of("BOUND-FAVOURITE")) &&
+                   model.getCoBorrowCount("BOUND-HUB", "BOUND-FAVOURITE") == 100;
+        });
+        
+        // Test 3: Recommendation latency for a population of 1M patrons stays in milliseconds
+        test("1M-Patron Recommendation Latency", () -> {
+            CoBorrowModel model = new CoBorrowModel();
+            int patronCount = 1_000_000;
+            int titles = 50_000;
+            int perPatron = 4;
+            Random random = new Random(5);
+            String[] isbns = new String[titles];
+            for (int i = 0; i < titles; i++) {
+                isbns[i] = "CB1M-" + i;
+            }
+            List<String> session = new ArrayList<>(perPatron);
+            long buildStart = System.nanoTime();
+            for (int p = 0; p < patronCount; p++) {
+                session.clear();
+                // Skewed towards low-numbered titles, like real circulation
+                int cluster = (int) (titles * Math.pow(random.nextDouble(), 3));
+                for (int i = 0; i < perPatron; i++) {
+                    String isbn = isbns[Math.min(titles - 1, cluster + random.nextInt(50))];
+                    model.addCoBorrows(isbn, session);
+                    session.add(isbn);
+                }
+            }
+            long buildMillis = (System.nanoTime() - buildStart) / 1_000_000;
+            
+            int queries = 10_000;
+            long[] latencies = new long[queries];
+            for (int q = 0; q < queries; q++) {
+                List<String> recent = new ArrayList<>();
+                for (int i = 0; i < 10; i++) {
+                    recent.add(isbns[(int) (titles * Math.pow(random.nextDouble(), 3))]);
+                }
+                long start = System.nanoTime();
+                model.recommend(recent, new HashSet<>(recent), 10);
+                latencies[q] = System.nanoTime() - start;
+            }
+            Arrays.sort(latencies);
+            long p50 = latencies[queries / 2];
+            long p99 = latencies[queries * 99 / 100];
+            System.out.println("   Built from " + patronCount * perPatron + " checkouts in " + buildMillis +
+                               " ms; recommend p50 " + p50 / 1000 + " µs, p99 " + p99 / 1000 + " µs");
+            return p99 < 10_000_000L;
+        });
+    }
+    
+    // ============= POPULARITY TRACKER TESTS =============
+    
+    private void runPopularityTrackerTests() {
+        System.out.println("\n🔍 TESTING: Streaming Popular Books");
+        System.out.println("═══════════════════════════════════════");
+        
+        // Test 1: Popular books come from the tracker and match a full scan on small data
+        test("Popular Books Match Full Scan", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            BorrowingRecordRepository records = new BorrowingRecordRepository();
+            LendingService lending = new LendingService(books, patrons, records);
+            PopularityTracker tracker = new PopularityTracker(16);
+            lending.addListener(tracker);
+            RecommendationService tracked = new RecommendationService(books, patrons, records);
+            tracked.setPopularityTracker(tracker);
+            RecommendationService scanning = new RecommendationService(books, patrons, records);
+            Patron reader = PatronFactory.createFaculty("Popular Reader", "pop@test.com", "555-0000");
+            patrons.save(reader);
+            for (int i = 0; i < 5; i++) {
+                books.save(new Book("POP-" + i, "Popular " + i, "Author", 2020, "BR-A"));
+                // Title i is borrowed i + 1 times
+                for (int n = 0; n <= i; n++) {
+                    lending.checkoutBook(reader.getPatronId(), "POP-" + i, "BR-A");
+                    lending.returnBook("POP-" + i, reader.getPatronId());
+                }
+            }
+            List<Book> fromTracker = tracked.getPopularBooks(3);
+            return fromTracker.equals(scanning.getPopularBooks(3)) &&
+                   fromTracker.get(0).getIsbn().equals("POP-4") &&
+                   tracker.getEstimatedCount("POP-4") == 5 && tracker.getMaxError("POP-4") == 0;
+        });
+        
+        // Test 2: On a skewed stream far larger than capacity, heavy hitters and error bounds hold
+        test("Heavy Hitters Within Error Bound", () -> {
+            int capacity = 500;
+            int titles = 100_000;
+            int events = 2_000_000;
+            PopularityTracker tracker = new PopularityTracker(capacity);
+            int[] truth = new int[titles];
+            Random random = new Random(13);
+            for (int i = 0; i < events; i++) {
+                int title = (int) (titles * Math.pow(random.nextDouble(), 4));
+                truth[title]++;
+                tracker.offer("HH-" + title);
+            }
+            long bound = tracker.getErrorBound();
+            for (int title = 0; title < titles; title++) {
+                String isbn = "HH-" + title;
+                long estimate = tracker.getEstimatedCount(isbn);
+                if (truth[title] > bound && estimate == 0) {
+                    return false;
+                }
+                if (estimate != 0 && (estimate < truth[title] || estimate - truth[title] > tracker.getMaxError(isbn) ||
+                                      tracker.getMaxError(isbn) > bound)) {
+                    return false;
+                }
+            }
+            Integer[] order = new Integer[titles];
+            for (int i = 0; i < titles; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Integer.compare(truth[b], truth[a]));
+            Set<String> trueTop = new HashSet<>();
+            for (int i = 0; i < 10; i++) {
+                trueTop.add("HH-" + order[i]);
+            }
+            System.out.println("   " + events + " checkouts, " + capacity + " counters, error bound " + bound);
+            return tracker.getTrackedCount() == capacity && new HashSet<>(tracker.top(10)).equals(trueTop);
+        });
+        
+        // Test 3: Reading the top k does not depend on how many checkouts were seen
+        test("Top-k Query Is O(k)", () -> {
+            PopularityTracker few = new PopularityTracker(1024);
+            PopularityTracker many = new PopularityTracker(1024);
+            Random random = new Random(17);
+            for (int i = 0; i < 1_000_000; i++) {
+                String isbn = "TOPK-" + random.nextInt(5000);
+                many.offer(isbn);
+                if (i < 10_000) {
+                    few.offer(isbn);
+                }
+            }
+            topNanos(() -> few.top(10).size(), 10); // JIT warm-up
+            topNanos(() -> many.top(10).size(), 10);
+            long afterFew = Long.MAX_VALUE;
+            long afterMany = Long.MAX_VALUE;
+            for (int round = 0; round < 5; round++) {
+                afterFew = Math.min(afterFew, topNanos(() -> few.top(10).size(), 10));
+                afterMany = Math.min(afterMany, topNanos(() -> many.top(10).size(), 10));
+            }
+            System.out.println("   top(10): " + afterFew + " ns per query after 10000 checkouts, " + afterMany +
+                               " ns after 1000000");
+            return afterFew != Long.MAX_VALUE && afterMany != Long.MAX_VALUE && afterMany < afterFew * 4;
+        });
+    }
+    
+    /**
+     * Average time of a top-k query, or Long.MAX_VALUE if it returns the wrong number of entries.
+     * Callers alternate rounds between the cases they compare, so a collection or a busy thread
+     * hits both alike.
+     */
+    private static long topNanos(IntSupplier query, int expected) {
+        int queries = 20_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            if (query.getAsInt() != expected) {
+                return Long.MAX_VALUE;
+            }
+        }
+        return Math.max(1, (System.nanoTime() - start) / queries);
+    }
+    
+    // ============= TRENDING TESTS =============
+    
+    private void runTrendingTests() {
+        System.out.println("\n🔍 TESTING: Trending Now Rankings");
+        System.out.println("═══════════════════════════════════════");
+        
+        long hour = 3_600_000L;
+        long day = 24 * hour;
+        
+        // Test 1: A burst today outranks a steady classic in the 24h window but not over 30 days
+        test("Recent Burst Trends Today", () -> {
+            TrendingEngine engine = new TrendingEngine();
+            long now = System.currentTimeMillis();
+            for (int d = 30; d >= 1; d--) {
+                for (int n = 0; n < 4; n++) {
+                    engine.record("CLASSIC", "BR-A", 1.0, now - d * day);
+                }
+            }
+            for (int n = 0; n < 10; n++) {
+                engine.record("BURST", "BR-A", 1.0, now - n * 60_000L);
+            }
+            double burst = engine.getScore(TrendingEngine.Window.DAY, "BURST", null, now);
+            return engine.top(TrendingEngine.Window.DAY, 2).equals(Arrays.asList("BURST", "CLASSIC")) &&
+                   engine.top(TrendingEngine.Window.MONTH, 2).equals(Arrays.asList("CLASSIC", "BURST")) &&
+                   burst > 9.9 && burst <= 10.0;
+        });
+        
+        // Test 2: Branch rankings only see their own checkouts; reservations count globally
+        test("Per-Branch And Global Scopes", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            LendingService lending = new LendingService(books, patrons, new BorrowingRecordRepository());
+            ReservationService reservations = new ReservationService(books, patrons);
+            TrendingEngine engine = new TrendingEngine();
+            lending.addListener(engine);
+            reservations.addListener(engine);
+            Patron reader = PatronFactory.createFaculty("Trend Reader", "trend@test.com", "555-0000");
+            Patron waiting = PatronFactory.createStudent("Trend Waiter", "wait@test.com", "555-0001");
+            patrons.save(reader);
+            patrons.save(waiting);
+            books.save(new Book("TR-EAST", "East Hit", "Author", 2020, "BR-EAST"));
+            books.save(new Book("TR-WEST", "West Hit", "Author", 2020, "BR-WEST"));
+            lending.checkoutBook(reader.getPatronId(), "TR-EAST", "BR-EAST");
+            lending.returnBook("TR-EAST", reader.getPatronId());
+            lending.checkoutBook(reader.getPatronId(), "TR-WEST", "BR-WEST");
+            reservations.reserveBook(waiting.getPatronId(), "TR-WEST");
+            return engine.top(TrendingEngine.Window.WEEK, "BR-EAST", 5).equals(Arrays.asList("TR-EAST")) &&
+                   engine.top(TrendingEngine.Window.WEEK, "BR-WEST", 5).equals(Arrays.asList("TR-WEST")) &&
+                   engine.top(TrendingEngine.Window.WEEK, 5).equals(Arrays.asList("TR-WEST", "TR-EAST")) &&
+                   engine.top(TrendingEngine.Window.WEEK, "BR-NONE", 5).isEmpty();
+        });
+        
+        // Test 3: Titles that go quiet are dropped, so memory follows the active titles
+        test("Inactive Titles Are Pruned", () -> {
+            TrendingEngine engine = new TrendingEngine();
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < 10_000; i++) {
+                engine.record("OLD-" + i, "BR-" + (i % 5), 1.0, start);
+            }
+            int before = engine.getTrackedCount();
+            // Five months later only a handful of titles are still being borrowed
+            long later = start + 150 * day;
+            for (int i = 0; i < 10; i++) {
+                engine.record("NEW-" + i, "BR-0", 1.0, later);
+            }
+            return before == 20_000 && engine.getTrackedCount() == 20 &&
+                   engine.getScore(TrendingEngine.Window.MONTH, "OLD-1", null, later) == 0;
+        });
+        
+        // Test 4: Reading the top k does not depend on how many titles are trending
+        test("Trending Top-k Query Is O(k)", () -> {
+            TrendingEngine few = new TrendingEngine();
+            TrendingEngine many = new TrendingEngine();
+            Random random = new Random(19);
+            long now = System.currentTimeMillis();
+            int events = 500_000;
+            long start = System.nanoTime();
+            for (int i = 0; i < events; i++) {
+                many.record("HOT-" + random.nextInt(50_000), "BR-" + random.nextInt(8), 1.0, now + i * 1_000L);
+            }
+            long perEvent = (System.nanoTime() - start) / events;
+            for (int i = 0; i < events; i++) {
+                few.record("HOT-" + random.nextInt(500), "BR-" + random.nextInt(8), 1.0, now + i * 1_000L);
+            }
+            topNanos(() -> few.top(TrendingEngine.Window.DAY, 10).size(), 10); // JIT warm-up
+            topNanos(() -> many.top(TrendingEngine.Window.DAY, 10).size(), 10);
+            long fewTitles = Long.MAX_VALUE;
+            long manyTitles = Long.MAX_VALUE;
+            for (int round = 0; round < 5; round++) {
+                fewTitles = Math.min(fewTitles, topNanos(() -> few.top(TrendingEngine.Window.DAY, 10).size(), 10));
+                manyTitles = Math.min(manyTitles, topNanos(() -> many.top(TrendingEngine.Window.DAY, 10).size(), 10));
+            }
+            System.out.println("   record: " + perEvent + " ns per event, top(10): " + fewTitles + " ns per query over " +
+                               "500 titles, " + manyTitles + " ns over 50000");
+            return fewTitles != Long.MAX_VALUE && manyTitles != Long.MAX_VALUE && manyTitles < fewTitles * 4;
+        });
+    }
+    
+    // ============= AUTHOR INDEX TESTS =============
+    
+    private void runAuthorIndexTests() {
+        System.out.println("\n🔍 TESTING: Author Index and Affinity");
+        System.out.println("═══════════════════════════════════════");
+        
+        // Test 1: The index matches normalized names and follows edits and deletes
+        test("Author Index Follows Updates", () -> {
+            BookRepository books = new BookRepository();
+            BookService service = new BookService(books);
+            service.addBook(new Book("AI-1", "First", "Ursula K. Le Guin", 1969, "BR-A"));
+            service.addBook(new Book("AI-2", "Second", "ursula k.  le guin ", 1974, "BR-A"));
+            service.addBook(new Book("AI-3", "Third", "Other Author", 1990, "BR-A"));
+            boolean normalized = books.findByAuthor("URSULA K. LE GUIN").size() == 2;
+            service.updateBook("AI-3", "Third", "Ursula K. Le Guin", 1990);
+            boolean moved = books.findByAuthor("Other Author").isEmpty() &&
+                            books.findByAuthor("Ursula K. Le Guin").size() == 3;
+            books.delete("AI-1");
+            return normalized && moved && books.findByAuthor("ursula k. le guin").size() == 2;
+        });
+        
+        // Test 2: Indexed recommendations pick the same books as the history-based fallback
+        test("Affinity Recommendations Match Fallback", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            BorrowingRecordRepository records = new BorrowingRecordRepository();
+            LendingService lending = new LendingService(books, patrons, records);
+            AuthorAffinityModel model = new AuthorAffinityModel(books);
+            lending.addListener(model);
+            RecommendationService indexed = new RecommendationService(books, patrons, records);
+            indexed.setAuthorAffinityModel(model);
+            RecommendationService fallback = new RecommendationService(books, patrons, records);
+            Patron reader = PatronFactory.createFaculty("Affinity Reader", "aff@test.com", "555-0000");
+            patrons.save(reader);
+            for (int a = 0; a < 4; a++) {
+                for (int b = 0; b < 3; b++) {
+                    books.save(new Book("AF-" + a + "-" + b, "Book " + b, "Author " + a, 2000, "BR-A"));
+                }
+            }
+            // Author 0 twice, author 1 once; author 2 and 3 never
+            for (String isbn : Arrays.asList("AF-0-0", "AF-0-1", "AF-1-0")) {
+                lending.checkoutBook(reader.getPatronId(), isbn, "BR-A");
+                lending.returnBook(isbn, reader.getPatronId());
+            }
+            List<Book> fromIndex = indexed.getRecommendations(reader.getPatronId(), 10);
+            List<Book> fromHistory = fallback.getRecommendations(reader.getPatronId(), 10);
+            List<Book> byAuthor = indexed.getRecommendationsByAuthor(reader.getPatronId(), "author 0", 10);
+            return fromIndex.equals(fromHistory) && fromIndex.size() == 3 &&
+                   fromIndex.get(0).getIsbn().equals("AF-0-2") &&
+                   byAuthor.size() == 1 && byAuthor.get(0).getIsbn().equals("AF-0-2");
+        });
+        
+        // Test 3: Profiles are built once from history, then updated by each checkout
+        test("Affinity Profile Updates Incrementally", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            LendingService lending = new LendingService(books, patrons, new BorrowingRecordRepository());
+            AuthorAffinityModel model = new AuthorAffinityModel(books);
+            Patron reader = PatronFactory.createStudent("Profile Reader", "prof@test.com", "555-0001");
+            patrons.save(reader);
+            for (int i = 0; i < 4; i++) {
+                books.save(new Book("PR-" + i, "Book " + i, "Profile Author", 2000, "BR-A"));
+            }
+            lending.checkoutBook(reader.getPatronId(), "PR-0", "BR-A");
+            lending.returnBook("PR-0", reader.getPatronId());
+            // Registered late: the first query builds the profile from the history
+            lending.addListener(model);
+            boolean seeded = model.getAffinity(reader, "profile author") == 1;
+            lending.checkoutBook(reader.getPatronId(), "PR-1", "BR-A");
+            lending.checkoutBook(reader.getPatronId(), "PR-2", "BR-A");
+            return seeded && model.getAffinity(reader, "Profile Author") == 3 &&
+                   model.hasBorrowed(reader, "PR-2") && !model.hasBorrowed(reader, "PR-3") &&
+                   model.recommend(reader, 5).size() == 1;
+        });
+        
+        // Test 4: Cost follows the favorite authors' books, not the catalog
+        test("Content Recommendations Avoid Catalog Scan", () -> {
+            contentRecommendationNanos(2_000); // JIT warm-up
+            long small = contentRecommendationNanos(2_000);
+            long large = contentRecommendationNanos(200_000);
+            System.out.println("   2000 books: " + small + " ns per recommendation, 200000 books: " + large + " ns");
+            // A catalog scan would be 100 times slower on the larger catalog
+            return small > 0 && large > 0 && large < small * 4;
+        });
+    }
+    
+    /**
+     * Average time of 20 content recommendations for a reader of five authors, in a catalog of
+     * the given size with ten books per author, or -1 if fewer are found
+     */
+    private static long contentRecommendationNanos(int catalogSize) {
+        BookRepository books = new BookRepository();
+        PatronRepository patrons = new PatronRepository();
+        BorrowingRecordRepository records = new BorrowingRecordRepository();
+        LendingService lending = new LendingService(books, patrons, records);
+        AuthorAffinityModel model = new AuthorAffinityModel(books);
+        lending.addListener(model);
+        RecommendationService indexed = new RecommendationService(books, patrons, records);
+        indexed.setAuthorAffinityModel(model);
+        for (int i = 0; i < catalogSize; i++) {
+            books.save(new Book("CAT-" + i, "Catalog " + i, "Author " + (i / 10), 2000, "BR-A"));
+        }
+        Patron reader = PatronFactory.createFaculty("Scan Reader", "scan@test.com", "555-0002");
+        patrons.save(reader);
+        for (int i = 0; i < 5; i++) {
+            lending.checkoutBook(reader.getPatronId(), "CAT-" + (i * catalogSize / 5), "BR-A");
+        }
+        int queries = 10_000;
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                if (indexed.getRecommendations(reader.getPatronId(), 20).size() != 20) {
+                    return -1;
+                }
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return Math.max(1, best / queries);
+    }
+    
+    // ============= RECOMMENDATION CACHE TESTS =============
+    
+    private void runRecommendationCacheTests() {
+        System.out.println("\n🔍 TESTING: Recommendation Cache");
+        System.out.println("═══════════════════════════════════════");
+        
+        // Test 1: Repeated page views are hits; the patron's own checkout invalidates
+        test("Cache Hits And Own Checkout Invalidates", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            BorrowingRecordRepository records = new BorrowingRecordRepository();
+            LendingService lending = new LendingService(books, patrons, records);
+            RecommendationService recommendations = new RecommendationService(books, patrons, records);
+            try (RecommendationCache cache = new RecommendationCache(recommendations, patrons, 100,
+                                                                     Duration.ofMinutes(10), false)) {
+                lending.addListener(cache);
+                Patron reader = PatronFactory.createFaculty("Cache Reader", "cache@test.com", "555-0000");
+                patrons.save(reader);
+                for (int i = 0; i < 4; i++) {
+                    books.save(new Book("RC-A" + i, "A " + i, "Author A", 2000, "BR-A"));
+                    books.save(new Book("RC-B" + i, "B " + i, "Author B", 2000, "BR-A"));
+                }
+                lending.checkoutBook(reader.getPatronId(), "RC-A0", "BR-A");
+                List<Book> first = cache.getRecommendations(reader.getPatronId(), 10);
+                List<Book> second = cache.getRecommendations(reader.getPatronId(), 2);
+                boolean hit = cache.getHitCount() == 1 && cache.getMissCount() == 1 &&
+                              second.equals(first.subList(0, 2));
+                lending.checkoutBook(reader.getPatronId(), "RC-B0", "BR-A");
+                List<Book> after = cache.getRecommendations(reader.getPatronId(), 10);
+                return hit && first.size() == 3 && after.size() == 6 && cache.getMissCount() == 2;
+            }
+        });
+        
+        // Test 2: A neighbor's checkout refreshes collaborative results in the background
+        test("Neighbor Checkout Refreshes Collaborative", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            BorrowingRecordRepository records = new BorrowingRecordRepository();
+            LendingService lending = new LendingService(books, patrons, records);
+            CoBorrowModel model = new CoBorrowModel();
+            lending.addListener(model);
+            RecommendationService recommendations = new RecommendationService(books, patrons, records);
+            recommendations.setCoBorrowModel(model);
+            try (RecommendationCache cache = new RecommendationCache(recommendations, patrons)) {
+                lending.addListener(cache);
+                Patron reader = PatronFactory.createFaculty("Watcher", "watch@test.com", "555-0001");
+                Patron neighbor = PatronFactory.createFaculty("Neighbor", "nb@test.com", "555-0002");
+                patrons.save(reader);
+                patrons.save(neighbor);
+                for (String isbn : Arrays.asList("NB-X", "NB-Y", "NB-Z")) {
+                    books.save(new Book(isbn, isbn, "Author", 2000, "BR-A"));
+                }
+                lending.checkoutBook(reader.getPatronId(), "NB-X", "BR-A");
+                lending.returnBook("NB-X", reader.getPatronId());
+                boolean empty = cache.getCollaborativeRecommendations(reader.getPatronId(), 5).isEmpty();
+                lending.checkoutBook(neighbor.getPatronId(), "NB-X", "BR-A");
+                lending.checkoutBook(neighbor.getPatronId(), "NB-Y", "BR-A");
+                cache.awaitIdle(5, TimeUnit.SECONDS);
+                List<Book> refreshed = cache.getCollaborativeRecommendations(reader.getPatronId(), 5);
+                return empty && refreshed.size() == 1 && refreshed.get(0).getIsbn().equals("NB-Y") &&
+                       cache.getRefreshCount() >= 1 && cache.getMissCount() == 1;
+            }
+        });
+        
+        // Test 3: The cache holds at most maxPatrons and recomputes expired results
+        test("Cache Size And Time Bounds", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            BorrowingRecordRepository records = new BorrowingRecordRepository();
+            RecommendationService recommendations = new RecommendationService(books, patrons, records);
+            try (RecommendationCache cache = new RecommendationCache(recommendations, patrons, 10,
+                                                                     Duration.ofMillis(50), false)) {
+                List<String> ids = new ArrayList<>();
+                for (int i = 0; i < 25; i++) {
+                    Patron patron = PatronFactory.createStudent("Bound " + i, "b" + i + "@test.com", "555-1000");
+                    patrons.save(patron);
+                    ids.add(patron.getPatronId());
+                    cache.getRecommendations(patron.getPatronId(), 3);
+                }
+                boolean bounded = cache.size() == 10;
+                String last = ids.get(ids.size() - 1);
+                cache.getRecommendations(last, 3);
+                long missesBefore = cache.getMissCount();
+                Thread.sleep(80);
+                cache.getRecommendations(last, 3);
+                return bounded && cache.getHitCount() == 1 && cache.getMissCount() == missesBefore + 1;
+            }
+        });
+        
+        // Test 4: With stale-while-revalidate a slow recomputation never reaches the page
+        test("Stale While Revalidate Keeps Latency Flat", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            BorrowingRecordRepository records = new BorrowingRecordRepository();
+            RecommendationService slow = new RecommendationService(books, patrons, records) {
+                @Override
+                public List<Book> getRecommendations(String patronId, int limit) {
+                    try {
+                        Thread.sleep(30);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return super.getRecommendations(patronId, limit);
+                }
+            };
+            try (RecommendationCache cache = new RecommendationCache(slow, patrons)) {
+                Patron reader = PatronFactory.createGeneralMember("SWR Reader", "swr@test.com", "555-0003");
+                patrons.save(reader);
+                long start = System.nanoTime();
+                cache.getRecommendations(reader.getPatronId(), 5);
+                long miss = System.nanoTime() - start;
+                long worst = 0;
+                for (int i = 0; i < 200; i++) {
+                    if (i % 20 == 0) {
+                        cache.invalidate(reader.getPatronId());
+                    }
+                    start = System.nanoTime();
+                    cache.getRecommendations(reader.getPatronId(), 5);
+                    worst = Math.max(worst, System.nanoTime() - start);
+                }
+                cache.awaitIdle(5, TimeUnit.SECONDS);
+                System.out.println("   worst page view during refreshes: " + worst / 1000 + " µs, cold miss: " +
+                                   miss / 1000 + " µs");
+                // Only the cold miss waits for the 30 ms recomputation
+                return worst < miss && cache.getMissCount() == 1 && cache.getStaleHitCount() > 0 &&
+                       cache.getRefreshCount() >= 1;
+            }
+        });
+    }
+    
+    // ============= PATRON SIMILARITY INDEX TESTS =============
+    
+    private void runPatronSimilarityTests() {
+        System.out.println("\n🔍 TESTING: MinHash/LSH Patron Similarity");
+        System.out.println("═══════════════════════════════════════");
+        
+        // Test 1: Signatures follow checkouts and estimate Jaccard similarity
+        test("MinHash Estimates Track Checkouts", () -> {
+            PatronSimilarityIndex index = new PatronSimilarityIndex();
+            for (int i = 0; i < 30; i++) {
+                index.add("SIM-A", "MH-" + i);
+                index.add("SIM-B", "MH-" + i);
+                index.add("SIM-C", "MH-" + (i + 15)); // Half of C overlaps A: Jaccard 15/45
+                index.add("SIM-D", "OTHER-" + i);
+            }
+            double identical = index.estimateSimilarity("SIM-A", "SIM-B");
+            double third = index.estimateSimilarity("SIM-A", "SIM-C");
+            index.add("SIM-B", "MH-EXTRA");
+            return identical == 1.0 && Math.abs(third - 1.0 / 3) < 0.2 &&
+                   index.estimateSimilarity("SIM-A", "SIM-B") < 1.0 &&
+                   index.estimateSimilarity("SIM-A", "SIM-D") < 0.1 &&
+                   index.candidates("SIM-A").contains("SIM-B") && !index.candidates("SIM-A").contains("SIM-D");
+        });
+        
+        // Test 2: Collaborative recommendations over LSH candidates match the exhaustive scan
+        test("Indexed Collaborative Matches Exhaustive", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            BorrowingRecordRepository records = new BorrowingRecordRepository();
+            LendingService lending = new LendingService(books, patrons, records);
+            PatronSimilarityIndex index = new PatronSimilarityIndex();
+            lending.addListener(index);
+            RecommendationService indexed = new RecommendationService(books, patrons, records);
+            indexed.setSimilarityIndex(index);
+            RecommendationService exhaustive = new RecommendationService(books, patrons, records);
+            List<Patron> readers = new ArrayList<>();
+            for (int g = 0; g < 3; g++) {
+                for (int b = 0; b < 12; b++) {
+                    books.save(new Book("LSH-" + g + "-" + b, "Book " + b, "Author", 2000, "BR-A"));
+                }
+                for (int p = 0; p < 4; p++) {
+                    Patron reader = PatronFactory.createFaculty("Group " + g + " " + p, "g@test.com", "555-0000");
+                    patrons.save(reader);
+                    readers.add(reader);
+                    // Each group member reads the group's first 8 books plus one of their own
+                    for (int b = 0; b < 8; b++) {
+                        lending.checkoutBook(reader.getPatronId(), "LSH-" + g + "-" + b, "BR-A");
+                        lending.returnBook("LSH-" + g + "-" + b, reader.getPatronId());
+                    }
+                    lending.checkoutBook(reader.getPatronId(), "LSH-" + g + "-" + (8 + p), "BR-A");
+                }
+            }
+            for (Patron reader : readers) {
+                Set<Book> fromIndex = new HashSet<>(indexed.getCollaborativeRecommendations(reader.getPatronId(), 10));
+                Set<Book> fromScan = new HashSet<>(exhaustive.getCollaborativeRecommendations(reader.getPatronId(), 10));
+                if (fromIndex.size() != 3 || !fromIndex.equals(fromScan)) {
+                    return false;
+                }
+            }
+            return index.size() == readers.size();
+        });
+        
+        // Test 3: Recall and latency against exact Jaccard over every patron, for two band settings
+        test("LSH Recall And Latency Benchmark", () -> {
+            int patronCount = 20_000;
+            int clusters = 1_000;
+            Random random = new Random(23);
+            List<Set<String>> borrowed = new ArrayList<>(patronCount);
+            for (int p = 0; p < patronCount; p++) {
+                int cluster = random.nextInt(clusters);
+                Set<String> isbns = new HashSet<>();
+                while (isbns.size() < 15) {
+                    isbns.add("BM-" + cluster + "-" + random.nextInt(20));
+                }
+                borrowed.add(isbns);
+            }
+            int queries = 200;
+            // Exact top 10 by Jaccard among patrons at or above 0.5
+            List<Set<String>> truth = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int q = 0; q < queries; q++) {
+                Set<String> mine = borrowed.get(q);
+                List<double[]> scored = new ArrayList<>();
+                for (int p = 0; p < patronCount; p++) {
+                    if (p == q) {
+                        continue;
+                    }
+                    int common = 0;
+                    for (String isbn : borrowed.get(p)) {
+                        if (mine.contains(isbn)) {
+                            common++;
+                        }
+                    }
+                    double jaccard = (double) common / (mine.size() + borrowed.get(p).size() - common);
+                    if (jaccard >= 0.5) {
+                        scored.add(new double[] {jaccard, p});
+                    }
+                }
+                scored.sort((a, b) -> Double.compare(b[0], a[0]));
+                Set<String> top = new HashSet<>();
+                for (int i = 0; i < Math.min(10, scored.size()); i++) {
+                    top.add("BMP-" + (int) scored.get(i)[1]);
+                }
+                truth.add(top);
+            }
+            long exhaustiveNanos = (System.nanoTime() - start) / queries;
+            System.out.println("   exhaustive: " + exhaustiveNanos / 1000 + " µs per query");
+            
+            double strictRecall = 0;
+            long strictNanos = 0;
+            for (int[] setting : new int[][] {{32, 2}, {16, 4}}) {
+                PatronSimilarityIndex index = new PatronSimilarityIndex(setting[0], setting[1]);
+                for (int p = 0; p < patronCount; p++) {
+                    for (String isbn : borrowed.get(p)) {
+                        index.add("BMP-" + p, isbn);
+                    }
+                }
+                int found = 0;
+                int expected = 0;
+                start = System.nanoTime();
+                for (int q = 0; q < queries; q++) {
+                    Set<String> similar = new HashSet<>(index.findSimilar("BMP-" + q, 50));
+                    for (String patronId : truth.get(q)) {
+                        expected++;
+                        if (similar.contains(patronId)) {
+                            found++;
+                        }
+                    }
+                }
+                long nanos = (System.nanoTime() - start) / queries;
+                double recall = expected == 0 ? 1 : (double) found / expected;
+                System.out.printf("   %d bands x %d rows (threshold %.2f): recall %.3f, %d µs per query%n",
+                                  setting[0], setting[1], index.getThreshold(), recall, nanos / 1000);
+                strictRecall = recall;
+                strictNanos = nanos;
+            }
+            return strictRecall >= 0.9 && strictNanos < exhaustiveNanos;
+        });
+        
+        // Test 4: Patrons who borrowed before the index was set up, or that it never saw, still
+        // get the same collaborative recommendations as the exhaustive scan
+        test("Unindexed Patrons Keep Collaborative Recommendations", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            BorrowingRecordRepository records = new BorrowingRecordRepository();
+            LendingService lending = new LendingService(books, patrons, records);
+            List<Patron> readers = new ArrayList<>();
+            for (int b = 0; b < 6; b++) {
+                books.save(new Book("LSH-LATE-" + b, "Late Book " + b, "Author", 2000, "BR-A"));
+            }
+            for (int p = 0; p < 3; p++) {
+                Patron reader = PatronFactory.createFaculty("Late Reader " + p, "late@test.com", "555-0001");
+                patrons.save(reader);
+                readers.add(reader);
+                for (int b = 0; b < 4; b++) {
+                    lending.checkoutBook(reader.getPatronId(), "LSH-LATE-" + b, "BR-A");
+                    lending.returnBook("LSH-LATE-" + b, reader.getPatronId());
+                }
+                lending.checkoutBook(reader.getPatronId(), "LSH-LATE-" + (4 + p % 2), "BR-A");
+                lending.returnBook("LSH-LATE-" + (4 + p % 2), reader.getPatronId());
+            }
+            
+            PatronSimilarityIndex index = new PatronSimilarityIndex();
+            lending.addListener(index);
+            RecommendationService indexed = new RecommendationService(books, patrons, records);
+            indexed.setSimilarityIndex(index);
+            RecommendationService exhaustive = new RecommendationService(books, patrons, records);
+            boolean bulkIndexed = index.size() == readers.size();
+            index.remove(readers.get(0).getPatronId());
+            for (Patron reader : readers) {
+                List<Book> fromIndex = indexed.getCollaborativeRecommendations(reader.getPatronId(), 10);
+                if (fromIndex.isEmpty() ||
+                    !new HashSet<>(fromIndex).equals(new HashSet<>(
+                        exhaustive.getCollaborativeRecommendations(reader.getPatronId(), 10)))) {
+                    return false;
+                }
+            }
+            return bulkIndexed && index.contains(readers.get(0).getPatronId());
+        });
+    }
+    
+    // ============= RECOMMENDATION BATCH TESTS =============
+    
+    private void runRecommendationBatchTests() {
+        System.out.println("\n🔍 TESTING: Recommendation Batch Job");
+        System.out.println("═══════════════════════════════════════");
+        
+        // Test 1: Parallel output has one line per patron matching the service
+        test("Batch Output Matches Service", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            RecommendationService recommendations = batchFixture(books, patrons, 600);
+            Path output = Files.createTempDirectory("batch-test").resolve("newsletter.tsv");
+            RecommendationBatchJob job = new RecommendationBatchJob(recommendations, patrons, output, 5, 4, 37);
+            long[] lastProgress = new long[1];
+            job.setProgressListener((completed, total) -> lastProgress[0] = completed);
+            Logger.Level previous = logger.getLevel();
+            logger.setLevel(Logger.Level.WARN);
+            try {
+                long start = System.nanoTime();
+                boolean finished = job.run();
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                System.out.println("   " + job.getTotalPatrons() + " patrons in " + millis + " ms");
+                return finished && lastProgress[0] == 600 && batchOutputMatches(output, recommendations, 5, 600) &&
+                       !Files.exists(Paths.get(output + ".checkpoint")) && !Files.exists(Paths.get(output + ".patrons"));
+            } finally {
+                logger.setLevel(previous);
+            }
+        });
+        
+        // Test 2: A cancelled run resumes from its checkpoint, ignoring a torn tail
+        test("Batch Resumes From Checkpoint", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            RecommendationService recommendations = batchFixture(books, patrons, 500);
+            Path output = Files.createTempDirectory("batch-test").resolve("newsletter.tsv");
+            RecommendationBatchJob first = new RecommendationBatchJob(recommendations, patrons, output, 5, 2, 25);
+            first.setProgressListener((completed, total) -> {
+                if (completed >= 150) {
+                    first.cancel();
+                }
+            });
+            Logger.Level previous = logger.getLevel();
+            logger.setLevel(Logger.Level.WARN);
+            try {
+                boolean stopped = !first.run() && first.getCompletedPatrons() < 500;
+                // A crash in the middle of the next write leaves partial lines behind
+                Files.write(output, "P-torn\tISBN".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+                Files.write(Paths.get(output + ".checkpoint"), "7 12".getBytes(StandardCharsets.UTF_8),
+                            StandardOpenOption.APPEND);
+                // Patrons added after the first start are not part of this run
+                patrons.save(PatronFactory.createStudent("Late Patron", "late@test.com", "555-0009"));
+                RecommendationBatchJob resumed = new RecommendationBatchJob(recommendations, patrons, output, 5, 2, 25);
+                return stopped && resumed.run() && batchOutputMatches(output, recommendations, 5, 500);
+            } finally {
+                logger.setLevel(previous);
+            }
+        });
+        
+        // Test 3: A patron whose recommendations fail is written empty and the batch goes on
+        test("Batch Survives Failing Patrons", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            RecommendationService working = batchFixture(books, patrons, 50);
+            String broken = patrons.findAll().get(0).getPatronId();
+            RecommendationService failing = new RecommendationService(books, patrons, new BorrowingRecordRepository()) {
+                @Override
+                public List<String> getRecommendations(RecommendationSnapshot snapshot, String patronId) {
+                    if (patronId.equals(broken)) {
+                        throw new IllegalStateException("Simulated failure");
+                    }
+                    return working.getRecommendations(snapshot, patronId);
+                }
+            };
+            Path output = Files.createTempDirectory("batch-test").resolve("newsletter.tsv");
+            RecommendationBatchJob job = new RecommendationBatchJob(failing, patrons, output, 5, 2, 8);
+            Logger.Level previous = logger.getLevel();
+            logger.setLevel(Logger.Level.ERROR);
+            try {
+                boolean finished = job.run();
+                List<String> lines = Files.readAllLines(output, StandardCharsets.UTF_8);
+                return finished && lines.size() == 50 && job.getFailedPatrons() == 1 && lines.contains(broken + "\t");
+            } finally {
+                logger.setLevel(previous);
+            }
+        });
+        
+        // Test 4: Lending while the job runs does not change what it writes
+        test("Batch Reads Inputs Frozen At Start", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            RecommendationService recommendations = batchFixture(books, patrons, 100);
+            Map<String, List<Book>> before = new HashMap<>();
+            for (Patron patron : patrons.findAll()) {
+                before.put(patron.getPatronId(), recommendations.getRecommendations(patron.getPatronId(), 5));
+            }
+            LendingService lending = new LendingService(books, patrons, new BorrowingRecordRepository());
+            for (int i = 0; i < 5; i++) {
+                books.save(new Book("BATCH-LATE-" + i, "Late " + i, "Author Late", 2020, "BR-A"));
+            }
+            Path output = Files.createTempDirectory("batch-test").resolve("newsletter.tsv");
+            RecommendationBatchJob job = new RecommendationBatchJob(recommendations, patrons, output, 5, 1, 10);
+            // After the first chunk every patron takes up a new favorite author
+            job.setProgressListener((completed, total) -> {
+                if (completed == 10) {
+                    for (Patron patron : patrons.findAll()) {
+                        // Four beats the three checkouts any fixture patron has of one author
+                        for (int i = 0; i < 4; i++) {
+                            lending.checkoutBook(patron.getPatronId(), "BATCH-LATE-" + i, "BR-A");
+                            lending.returnBook("BATCH-LATE-" + i, patron.getPatronId());
+                        }
+                    }
+                }
+            });
+            Logger.Level previous = logger.getLevel();
+            logger.setLevel(Logger.Level.WARN);
+            try {
+                boolean finished = job.run();
+                boolean changedSince = !recommendations.getRecommendations(patrons.findAll().get(0).getPatronId(), 5)
+                    .equals(before.get(patrons.findAll().get(0).getPatronId()));
+                List<String> lines = Files.readAllLines(output, StandardCharsets.UTF_8);
+                for (String line : lines) {
+                    String[] parts = line.split("\t", -1);
+                    List<String> expected = new ArrayList<>();
+                    for (Book book : before.get(parts[0])) {
+                        expected.add(book.getIsbn());
+                    }
+                    if (!parts[1].equals(String.join(",", expected))) {
+                        return false;
+                    }
+                }
+                return finished && changedSince && lines.size() == 100;
+            } finally {
+                logger.setLevel(previous);
+            }
+        });
+    }
+    
+    /**
+     * Patrons who each borrowed a few books by one of a handful of authors
+     */
+    private static RecommendationService batchFixture(BookRepository books, PatronRepository patrons, int patronCount) {
+        BorrowingRecordRepository records = new BorrowingRecordRepository();
+        LendingService lending = new LendingService(books, patrons, records);
+        for (int i = 0; i < 200; i++) {
+            books.save(new Book("BATCH-" + i, "Batch " + i, "Author " + (i % 20), 2000, "BR-A"));
+        }
+        Random random = new Random(29);
+        for (int p = 0; p < patronCount; p++) {
+            Patron patron = PatronFactory.createFaculty("Batch " + p, "batch@test.com", "555-0000");
+            patrons.save(patron);
+            for (int n = 0; n < 3; n++) {
+                String isbn = "BATCH-" + random.nextInt(200);
+                lending.checkoutBook(patron.getPatronId(), isbn, "BR-A");
+                lending.returnBook(isbn, patron.getPatronId());
+            }
+        }
+        return new RecommendationService(books, patrons, records);
+    }
+    
+    /**
+     * Whether the output has exactly one line for each of the first snapshot's patrons, listing
+     * what the service recommends
+     */
+    private static boolean batchOutputMatches(Path output, RecommendationService recommendations, int limit,
+                                              int patronCount) throws IOException {
+        List<String> lines = Files.readAllLines(output, StandardCharsets.UTF_8);
+        Set<String> seen = new HashSet<>();
+        for (String line : lines) {
+            String[] parts = line.split("\t", -1);
+            List<String> expected = new ArrayList<>();
+            for (Book book : recommendations.getRecommendations(parts[0], limit)) {
+                expected.add(book.getIsbn());
+            }
+            if (!seen.add(parts[0]) || !parts[1].equals(String.join(",", expected))) {
+                return false;
+            }
+        }
+        return seen.size() == patronCount;
+    }
+    
+    // ============= MATRIX FACTORIZATION TESTS =============
+    
+    private void runMatrixFactorizationTests() {
+        System.out.println("\n🔍 TESTING: ALS Matrix Factorization");
+        System.out.println("═══════════════════════════════════════");
+        
+        // Test 1: Factors separate two reading groups, even for a patron with a single checkout
+        test("ALS Learns Taste Groups", () -> {
+            List<BorrowingRecord> records = new ArrayList<>();
+            Map<String, Set<String>> borrowed = new HashMap<>();
+            Random random = new Random(31);
+            for (int p = 0; p < 100; p++) {
+                String patronId = "ALS-P" + p;
+                int group = p % 2;
+                int books = p == 0 ? 1 : 8;
+                Set<String> mine = new HashSet<>();
+                while (mine.size() < books) {
+                    mine.add("ALS-G" + group + "-" + random.nextInt(20));
+                }
+                for (String isbn : mine) {
+                    records.add(new BorrowingRecord("ALS-R" + records.size(), patronId, isbn, LocalDate.now(),
+                                                    LocalDate.now().plusDays(14), "BR-A"));
+                }
+                borrowed.put(patronId, mine);
+            }
+            Path file = Files.createTempDirectory("als-test").resolve("factors.bin");
+            LatentFactorModel model = new ImplicitAlsTrainer(8, 10, 10.0, 20.0, 2).train(records, file);
+            for (Map.Entry<String, Set<String>> entry : borrowed.entrySet()) {
+                String group = "ALS-G" + (Integer.parseInt(entry.getKey().substring(5)) % 2) + "-";
+                for (String isbn : model.recommend(entry.getKey(), 5, entry.getValue())) {
+                    if (!isbn.startsWith(group) || entry.getValue().contains(isbn)) {
+                        return false;
+                    }
+                }
+            }
+            return model.getPatronCount() == 100 && model.getBookCount() == 40 &&
+                   model.recommend("ALS-P0", 5, borrowed.get("ALS-P0")).size() == 5;
+        });
+        
+        // Test 2: The factor file can be reopened and served through RecommendationService
+        test("Factor Model Serves From Mapped File", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            BorrowingRecordRepository records = new BorrowingRecordRepository();
+            LendingService lending = new LendingService(books, patrons, records);
+            RecommendationService recommendations = new RecommendationService(books, patrons, records);
+            for (int i = 0; i < 10; i++) {
+                books.save(new Book("MF-" + i, "Factor " + i, "Author", 2000, "BR-A"));
+            }
+            List<Patron> readers = new ArrayList<>();
+            for (int p = 0; p < 6; p++) {
+                Patron reader = PatronFactory.createFaculty("Factor Reader " + p, "mf@test.com", "555-0000");
+                patrons.save(reader);
+                readers.add(reader);
+                for (int b = 0; b < 4; b++) {
+                    String isbn = "MF-" + ((p + b) % 10);
+                    lending.checkoutBook(reader.getPatronId(), isbn, "BR-A");
+                    lending.returnBook(isbn, reader.getPatronId());
+                }
+            }
+            Path file = Files.createTempDirectory("als-test").resolve("factors.bin");
+            LatentFactorModel trained = new ImplicitAlsTrainer(4, 5, 0.1, 10.0, 2).train(records.findAll(), file);
+            LatentFactorModel reopened = LatentFactorModel.open(file);
+            recommendations.setFactorModel(reopened);
+            Patron newcomer = PatronFactory.createStudent("Newcomer", "new@test.com", "555-0001");
+            patrons.save(newcomer);
+            String first = readers.get(0).getPatronId();
+            List<Book> served = recommendations.getFactorRecommendations(first, 3);
+            
+            // Retraining into the same file, here a smaller one, leaves the served model readable
+            List<String> before = reopened.recommend(first, 3, Collections.emptySet());
+            new ImplicitAlsTrainer(4, 5, 0.1, 10.0, 2).train(records.findAll().subList(0, 4), file);
+            boolean servedAfterRetrain = reopened.recommend(first, 3, Collections.emptySet()).equals(before);
+            return servedAfterRetrain && trained.recommend(first, 3, Collections.emptySet()).equals(before) &&
+                   served.size() == 3 && served.stream().noneMatch(b -> b.getIsbn().equals("MF-0")) &&
+                   recommendations.getFactorRecommendations(newcomer.getPatronId(), 3)
+                       .equals(recommendations.getCollaborativeRecommendations(newcomer.getPatronId(), 3));
+        });
+        
+        // Test 3: Norm-bounded scoring returns the exact top k while reading part of the catalog
+        test("Pruned Top-k Matches Full Scan", () -> {
+            List<BorrowingRecord> records = new ArrayList<>();
+            Random random = new Random(37);
+            int bookCount = 20_000;
+            for (int p = 0; p < 3_000; p++) {
+                for (int n = 0; n < 20; n++) {
+                    // Skewed popularity so book norms vary widely
+                    int book = (int) (bookCount * Math.pow(random.nextDouble(), 3));
+                    records.add(new BorrowingRecord("MFP-R" + records.size(), "MFP-P" + p, "MFP-" + book,
+                                                    LocalDate.now(), LocalDate.now().plusDays(14), "BR-A"));
+                }
+            }
+            Path file = Files.createTempDirectory("als-test").resolve("factors.bin");
+            Logger.Level previous = logger.getLevel();
+            logger.setLevel(Logger.Level.WARN);
+            LatentFactorModel model;
+            long trainStart = System.nanoTime();
+            try {
+                model = new ImplicitAlsTrainer(16, 3, 0.1, 20.0, Runtime.getRuntime().availableProcessors())
+                    .train(records, file);
+            } finally {
+                logger.setLevel(previous);
+            }
+            long trainMillis = (System.nanoTime() - trainStart) / 1_000_000;
+            long pruned = 0;
+            long full = 0;
+            for (int p = 0; p < 50; p++) {
+                String patronId = "MFP-P" + p;
+                long start = System.nanoTime();
+                List<String> top = model.recommend(patronId, 10, Collections.emptySet());
+                pruned += System.nanoTime() - start;
+                start = System.nanoTime();
+                List<double[]> scored = new ArrayList<>();
+                for (int book = 0; book < bookCount; book++) {
+                    if (model.score(patronId, "MFP-" + book) != 0) {
+                        scored.add(new double[] {model.score(patronId, "MFP-" + book), book});
+                    }
+                }
+                scored.sort((a, b) -> Double.compare(b[0], a[0]));
+                full += System.nanoTime() - start;
+                for (int i = 0; i < 10; i++) {
+                    if (!top.get(i).equals("MFP-" + (int) scored.get(i)[1])) {
+                        return false;
+                    }
+                }
+            }
+            System.out.println("   trained " + model.getBookCount() + " books in " + trainMillis + " ms; top-10 " +
+                               pruned / 50_000 + " µs pruned vs " + full / 50_000 + " µs full scan");
+            return pruned < full;
+        });
+    }
+    
+    // ============= BRANCH INVENTORY TESTS =============
+    private void runBranchInventoryTests() {
+        System.out.println("\n🔍 TESTING: Branch Inventory");
+        System.out.println("═══════════════════════════════════════════════════════════════");
+        
+        // Test 1: Adding is idempotent and removal only affects the given book
+        test("Inventory Membership And Size", () -> {
+            LibraryBranch branch = new LibraryBranch("INV-BR", "Inventory", "1 Shelf St");
+            branch.addBookToInventory("INV-1");
+            branch.addBookToInventory("INV-2");
+            branch.addBookToInventory("INV-1");
+            branch.removeBookFromInventory("INV-2");
+            branch.removeBookFromInventory("INV-NEVER-SEEN");
+            return branch.hasBook("INV-1") && !branch.hasBook("INV-2") && !branch.hasBook("INV-NEVER-SEEN") &&
+                   branch.getInventorySize() == 1 && branch.getInventory().size() == 1;
+        });
+        
+        // Test 2: getInventory is a live, read-only view rather than a copy
+        test("Inventory View Is Live And Read-Only", () -> {
+            LibraryBranch branch = new LibraryBranch("INV-BR2", "Inventory", "2 Shelf St");
+            Set<String> view = branch.getInventory();
+            branch.addBookToInventory("INV-VIEW-1");
+            branch.addBookToInventory("INV-VIEW-2");
+            boolean live = view.size() == 2 && view.contains("INV-VIEW-1") &&
+                           new HashSet<>(view).equals(new HashSet<>(Arrays.asList("INV-VIEW-1", "INV-VIEW-2")));
+            try {
+                view.add("INV-VIEW-3");
+                return false;
+            } catch (UnsupportedOperationException e) {
+                // Expected
+            }
+            try {
+                Iterator<String> iterator = view.iterator();
+                iterator.next();
+                iterator.remove();
+                return false;
+            } catch (UnsupportedOperationException e) {
+                return live && branch.getInventorySize() == 2;
+            }
+        });
+        
+        // Test 3: Membership stays constant-time on a large branch
+        test("Large Branch Membership Is Constant Time", () -> {
+            inventoryUpdateNanos(2_000); // JIT warm-up
+            long small = inventoryUpdateNanos(2_000);
+            long large = inventoryUpdateNanos(200_000);
+            System.out.println("   Lookup and update: " + small + " ns on 2000 items, " + large + " ns on 200000 items");
+            return small > 0 && large > 0 && large < small * 4;
+        });
+    }
+    
+    /**
+     * Average time of a membership check plus a remove and re-add on a branch of the given size,
+     * or -1 if the inventory comes out wrong
+     */
+    private static long inventoryUpdateNanos(int items) {
+        LibraryBranch branch = new LibraryBranch("INV-BR3", "Central", "3 Shelf St");
+        for (int i = 0; i < items; i++) {
+            branch.addBookToInventory("INV-BIG-" + i);
+        }
+        String[] sample = new String[1024];
+        Random random = new Random(3);
+        for (int i = 0; i < sample.length; i++) {
+            sample[i] = "INV-BIG-" + random.nextInt(items);
+        }
+        int operations = 100_000;
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < operations; i++) {
+                String isbn = sample[i & (sample.length - 1)];
+                if (!branch.hasBook(isbn)) {
+                    return -1;
+                }
+                branch.removeBookFromInventory(isbn);
+                branch.addBookToInventory(isbn);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        int iterated = 0;
+        for (String isbn : branch.getInventory()) {
+            iterated++;
+        }
+        return iterated == items && branch.getInventorySize() == items ? Math.max(1, best / operations) : -1;
+    }
+    
+    // ============= TRANSFER MANIFEST TESTS =============
+    private void runTransferManifestTests() {
+        System.out.println("\n🔍 TESTING: Transfer Manifests");
+        System.out.println("═══════════════════════════════════════════════════════════════");
+        
+        // Test 1: Bad items are rejected with a reason while the rest go in transit
+        test("Manifest Dispatch Rejects Per Item", () -> {
+            BookRepository books = new BookRepository();
+            BranchRepository branches = new BranchRepository();
+            BookTransferService transfers = new BookTransferService(books, branches);
+            LibraryBranch from = new LibraryBranch("MAN-A", "Manifest A", "1 A St");
+            branches.save(from);
+            branches.save(new LibraryBranch("MAN-B", "Manifest B", "2 B St"));
+            for (String isbn : Arrays.asList("MAN-1", "MAN-2", "MAN-OUT")) {
+                books.save(new Book(isbn, "Manifest " + isbn, "Author", 2020, "MAN-A"));
+                from.addBookToInventory(isbn);
+            }
+            books.save(new Book("MAN-ELSEWHERE", "Elsewhere", "Author", 2020, "MAN-B"));
+            books.getByIsbn("MAN-OUT").setStatus(BookStatus.CHECKED_OUT);
+            
+            TransferManifest manifest = transfers.dispatchManifest("MAN-A", "MAN-B", Arrays.asList(
+                "MAN-1", "MAN-OUT", "MAN-MISSING", "MAN-ELSEWHERE", "MAN-2", "MAN-1"));
+            boolean singleRejected;
+            try {
+                transfers.transferBook("MAN-1", "MAN-A", "MAN-B");
+                singleRejected = false;
+            } catch (IllegalStateException e) {
+                singleRejected = true;
+            }
+            return manifest.getDispatchedIsbns().equals(Arrays.asList("MAN-1", "MAN-2")) &&
+                   manifest.getRejectedIsbns().keySet().equals(new HashSet<>(Arrays.asList(
+                       "MAN-OUT", "MAN-MISSING", "MAN-ELSEWHERE", "MAN-1"))) &&
+                   manifest.getStatus() == TransferManifest.Status.IN_TRANSIT &&
+                   books.getByIsbn("MAN-1").getStatus() == BookStatus.IN_TRANSIT &&
+                   !from.hasBook("MAN-1") && from.hasBook("MAN-OUT") &&
+                   !branches.findById("MAN-B").get().hasBook("MAN-1") &&
+                   transfers.getInTransitManifests().size() == 1 && singleRejected;
+        });
+        
+        // Test 2: Receiving makes every item available at the destination and notifies listeners
+        test("Manifest Receipt Lands Items", () -> {
+            BookRepository books = new BookRepository();
+            BranchRepository branches = new BranchRepository();
+            BookTransferService transfers = new BookTransferService(books, branches);
+            branches.save(new LibraryBranch("MAN-A", "Manifest A", "1 A St"));
+            LibraryBranch to = new LibraryBranch("MAN-B", "Manifest B", "2 B St");
+            branches.save(to);
+            List<String> isbns = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                books.save(new Book("MAN-R" + i, "Received " + i, "Author", 2020, "MAN-A"));
+                isbns.add("MAN-R" + i);
+            }
+            List<String> arrivals = new ArrayList<>();
+            transfers.addListener((isbn, fromBranchId, toBranchId, receivedNanos) -> arrivals.add(isbn));
+            TransferManifest manifest = transfers.dispatchManifest("MAN-A", "MAN-B", isbns);
+            boolean quietInTransit = arrivals.isEmpty();
+            transfers.receiveManifest(manifest.getManifestId());
+            boolean receivedTwice;
+            try {
+                transfers.receiveManifest(manifest.getManifestId());
+                receivedTwice = true;
+            } catch (IllegalArgumentException e) {
+                receivedTwice = false;
+            }
+            for (String isbn : isbns) {
+                Book book = books.getByIsbn(isbn);
+                if (book.getStatus() != BookStatus.AVAILABLE || !"MAN-B".equals(book.getCurrentBranchId()) ||
+                    !to.hasBook(isbn)) {
+                    return false;
+                }
+            }
+            return quietInTransit && arrivals.equals(isbns) && !receivedTwice &&
+                   manifest.getStatus() == TransferManifest.Status.RECEIVED && manifest.getReceivedDate() != null &&
+                   transfers.getInTransitManifests().isEmpty();
+        });
+        
+        // Test 3: Multi-copy titles move one copy per listing, up to what the shelf holds
+        test("Manifest Moves Copies Per Listing", () -> {
+            BookRepository books = new BookRepository();
+            BranchRepository branches = new BranchRepository();
+            CopyRepository copies = new CopyRepository();
+            BookService catalog = new BookService(books, copies);
+            BookTransferService transfers = new BookTransferService(books, branches, copies);
+            LibraryBranch from = new LibraryBranch("MAN-A", "Manifest A", "1 A St");
+            branches.save(from);
+            branches.save(new LibraryBranch("MAN-B", "Manifest B", "2 B St"));
+            Book book = new Book("MAN-COPY", "Copied Title", "Author", 2020, "MAN-A");
+            catalog.addBook(book);
+            for (int i = 0; i < 3; i++) {
+                catalog.addCopy(book.getIsbn(), "MAN-A");
+            }
+            from.addBookToInventory(book.getIsbn());
+            
+            TransferManifest manifest = transfers.dispatchManifest("MAN-A", "MAN-B", Collections.nCopies(4, "MAN-COPY"));
+            boolean inTransit = manifest.getDispatchedIsbns().size() == 3 &&
+                                manifest.getRejectedIsbns().containsKey("MAN-COPY") &&
+                                copies.getAvailableCount("MAN-COPY") == 0 && !from.hasBook("MAN-COPY");
+            transfers.receiveManifest(manifest.getManifestId());
+            return inTransit && copies.getAvailableCount("MAN-COPY", "MAN-B") == 3 &&
+                   copies.getCopyCount("MAN-COPY", "MAN-A") == 0 &&
+                   branches.findById("MAN-B").get().hasBook("MAN-COPY");
+        });
+        
+        // Test 4: A 10k-item manifest against the same moves one transfer at a time. Both run at
+        // INFO, since the per-item log lines are part of what a manifest saves, writing to a temp
+        // file that is flushed on every line as the console is.
+        test("Manifest Throughput For 10k Items", () -> {
+            int items = 10_000;
+            long single = Long.MAX_VALUE;
+            long batch = Long.MAX_VALUE;
+            boolean moved = true;
+            PrintStream console = System.out;
+            Path log = Files.createTempFile("manifest-bench", ".log");
+            PrintStream sink = new PrintStream(Files.newOutputStream(log), true);
+            Logger.Level previous = logger.getLevel();
+            logger.setLevel(Logger.Level.INFO);
+            System.setOut(sink);
+            try {
+                // Best of several rounds from a collected heap, so that neither GC pauses nor the
+                // manifest methods, entered once per round, still running uncompiled decide it
+                for (int round = 0; round < 8; round++) {
+                    String prefix = "MAN-T" + round + "-";
+                    BookRepository books = new BookRepository();
+                    BranchRepository branches = new BranchRepository();
+                    BookTransferService transfers = new BookTransferService(books, branches);
+                    LibraryBranch from = new LibraryBranch("MAN-A", "Manifest A", "1 A St");
+                    LibraryBranch to = new LibraryBranch("MAN-B", "Manifest B", "2 B St");
+                    branches.save(from);
+                    branches.save(to);
+                    List<String> isbns = new ArrayList<>(items);
+                    for (int i = 0; i < 2 * items; i++) {
+                        books.save(new Book(prefix + i, "Throughput " + i, "Author", 2020, "MAN-A"));
+                        from.addBookToInventory(prefix + i);
+                        if (i < items) {
+                            isbns.add(prefix + i);
+                        }
+                    }
+                    System.gc();
+                    long start = System.nanoTime();
+                    for (int i = items; i < 2 * items; i++) {
+                        transfers.transferBook(prefix + i, "MAN-A", "MAN-B");
+                    }
+                    single = Math.min(single, System.nanoTime() - start);
+                    System.gc();
+                    start = System.nanoTime();
+                    TransferManifest manifest = transfers.dispatchManifest("MAN-A", "MAN-B", isbns);
+                    transfers.receiveManifest(manifest.getManifestId());
+                    batch = Math.min(batch, System.nanoTime() - start);
+                    moved &= from.getInventorySize() == 0 && to.getInventorySize() == 2 * items &&
+                             books.findByBranch("MAN-B").size() == 2 * items;
+                }
+            } finally {
+                System.setOut(console);
+                logger.setLevel(previous);
+                sink.close();
+                Files.deleteIfExists(log);
+            }
+            System.out.println("   " + items + " items: manifest " + batch / 1_000_000 + " ms, one at a time " +
+                               single / 1_000_000 + " ms");
+            return moved && batch < single;
+        });
+        
+        // Test 5: Items lost on the way stay out of the destination, and items sent for maintenance
+        // arrive without going on the shelf
+        test("Lost And Maintenance Items Not Shelved On Receipt", () -> {
+            BookRepository books = new BookRepository();
+            BranchRepository branches = new BranchRepository();
+            CopyRepository copies = new CopyRepository();
+            BookService catalog = new BookService(books, copies);
+            BookTransferService transfers = new BookTransferService(books, branches, copies);
+            branches.save(new LibraryBranch("MAN-A", "Manifest A", "1 A St"));
+            LibraryBranch to = new LibraryBranch("MAN-B", "Manifest B", "2 B St");
+            branches.save(to);
+            Book lostBook = new Book("MAN-LOST", "Lost Book", "Author", 2020, "MAN-A");
+            Book repairBook = new Book("MAN-REPAIR", "Repair Book", "Author", 2020, "MAN-A");
+            books.save(lostBook);
+            books.save(repairBook);
+            Book multi = new Book("MAN-LOSTCOPY", "Lost Copy", "Author", 2020, "MAN-A");
+            catalog.addBook(multi);
+            catalog.addCopy(multi.getIsbn(), "MAN-A");
+            catalog.addCopy(multi.getIsbn(), "MAN-A");
+            List<String> arrivals = new ArrayList<>();
+            transfers.addListener((isbn, fromBranchId, toBranchId, receivedNanos) -> arrivals.add(isbn));
+            
+            TransferManifest manifest = transfers.dispatchManifest("MAN-A", "MAN-B",
+                List.of("MAN-LOST", "MAN-REPAIR", "MAN-LOSTCOPY", "MAN-LOSTCOPY"));
+            lostBook.setStatus(BookStatus.LOST);
+            repairBook.setStatus(BookStatus.MAINTENANCE);
+            BookCopy lostCopy = copies.findByIsbn(multi.getIsbn()).get(0);
+            lostCopy.setStatus(BookStatus.LOST);
+            transfers.receiveManifest(manifest.getManifestId());
+            
+            InventoryReconciler reconciler = new InventoryReconciler(books, branches, copies);
+            return lostBook.getStatus() == BookStatus.LOST && !to.hasBook("MAN-LOST") &&
+                   repairBook.getStatus() == BookStatus.MAINTENANCE && to.hasBook("MAN-REPAIR") &&
+                   lostCopy.getStatus() == BookStatus.LOST && to.hasBook("MAN-LOSTCOPY") &&
+                   copies.getAvailableCount("MAN-LOSTCOPY", "MAN-B") == 1 &&
+                   arrivals.equals(List.of("MAN-LOSTCOPY")) &&
+                   reconciler.reconcile(InventoryReconciler.Mode.REPORT) == 0;
+        });
+    }
+    
+    // ============= REBALANCING PLANNER TESTS =============
+    private void runRebalancingTests() {
+        System.out.println("\n🔍 TESTING: Rebalancing Planner");
+        System.out.println("═══════════════════════════════════════════════════════════════");
+        
+        // Test 1: The plan is the cheapest overall, not the cheapest lane first
+        test("Plan Is Minimum Cost", () -> {
+            Map<String, Double> lanes = new HashMap<>();
+            lanes.put("RB-A>RB-C", 1.0);
+            lanes.put("RB-A>RB-D", 2.0);
+            lanes.put("RB-B>RB-C", 2.0);
+            lanes.put("RB-B>RB-D", 100.0);
+            RebalancingPlanner planner = new RebalancingPlanner(
+                new BookRepository(), new BranchRepository(), null, null, null,
+                (from, to) -> lanes.getOrDefault(from + ">" + to, 1000.0), 4.0);
+            RebalancingPlanner.Snapshot snapshot = new RebalancingPlanner.Snapshot(
+                Arrays.asList("RB-A", "RB-B", "RB-C", "RB-D"));
+            snapshot.add("RB-1", "RB-A", 1);
+            snapshot.add("RB-1", "RB-B", 1);
+            snapshot.add("RB-1", "RB-C", -1);
+            snapshot.add("RB-1", "RB-D", -1);
+            // Shortage larger than the surplus: the cheaper destination wins
+            snapshot.add("RB-2", "RB-B", 2);
+            snapshot.add("RB-2", "RB-C", -3);
+            snapshot.add("RB-2", "RB-D", -3);
+            RebalancingPlanner.Plan plan = planner.solve(snapshot);
+            Set<String> moves = new HashSet<>();
+            for (RebalancingPlanner.Move move : plan.getMoves()) {
+                moves.add(move.toString());
+            }
+            return plan.getTotalCost() == 8.0 && plan.getCopyCount() == 4 &&
+                   moves.equals(new HashSet<>(Arrays.asList("RB-1 x1 RB-A -> RB-D", "RB-1 x1 RB-B -> RB-C",
+                                                            "RB-2 x2 RB-B -> RB-C")));
+        });
+        
+        // Test 2: Idle copies go where recent demand and waiting holds are, and the plan dispatches
+        test("Plan From Demand And Holds", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            BranchRepository branches = new BranchRepository();
+            CopyRepository copies = new CopyRepository();
+            BookService catalog = new BookService(books, copies);
+            ReservationService reservations = new ReservationService(books, patrons);
+            TrendingEngine trending = new TrendingEngine();
+            BookTransferService transfers = new BookTransferService(books, branches, copies);
+            branches.save(new LibraryBranch("RB-A", "Rebalance A", "1 A St"));
+            branches.save(new LibraryBranch("RB-B", "Rebalance B", "2 B St"));
+            branches.save(new LibraryBranch("RB-C", "Rebalance C", "3 C St"));
+            Book book = new Book("RB-HOT", "Hot Title", "Author", 2020, "RB-A");
+            catalog.addBook(book);
+            for (int i = 0; i < 5; i++) {
+                catalog.addCopy(book.getIsbn(), "RB-A");
+            }
+            book.setStatus(BookStatus.CHECKED_OUT);
+            for (int p = 0; p < 2; p++) {
+                patrons.save(new Patron("RB-P" + p, "Rebalance " + p, "rb@test.com", "555-9300", PatronType.GENERAL));
+                reservations.reserveBook("RB-P" + p, book.getIsbn());
+            }
+            long now = System.currentTimeMillis();
+            trending.record(book.getIsbn(), "RB-B", 1.0, now);
+            
+            RebalancingPlanner planner = new RebalancingPlanner(books, branches, copies, reservations, trending);
+            RebalancingPlanner.Plan plan = planner.solve(planner.snapshot(now));
+            // B wants one copy for its demand plus both holds, since it is the only branch with demand
+            boolean planned = plan.getMoves().size() == 1 && plan.getCopyCount() == 3 &&
+                              plan.getMoves().get(0).getToBranchId().equals("RB-B");
+            List<TransferManifest> manifests = planner.dispatch(plan, transfers);
+            transfers.receiveManifest(manifests.get(0).getManifestId());
+            return planned && manifests.size() == 1 && copies.getAvailableCount(book.getIsbn(), "RB-B") == 3 &&
+                   copies.getAvailableCount(book.getIsbn(), "RB-A") == 2;
+        });
+        
+        // Test 3: Planning again before a manifest arrives does not ship the same shortage twice
+        test("Replan Counts Copies In Transit", () -> {
+            BookRepository books = new BookRepository();
+            PatronRepository patrons = new PatronRepository();
+            BranchRepository branches = new BranchRepository();
+            CopyRepository copies = new CopyRepository();
+            BookService catalog = new BookService(books, copies);
+            ReservationService reservations = new ReservationService(books, patrons);
+            TrendingEngine trending = new TrendingEngine();
+            BookTransferService transfers = new BookTransferService(books, branches, copies);
+            branches.save(new LibraryBranch("RB-A", "Rebalance A", "1 A St"));
+            branches.save(new LibraryBranch("RB-B", "Rebalance B", "2 B St"));
+            Book book = new Book("RB-VAN", "On The Van", "Author", 2020, "RB-A");
+            catalog.addBook(book);
+            for (int i = 0; i < 6; i++) {
+                catalog.addCopy(book.getIsbn(), "RB-A");
+            }
+            long now = System.currentTimeMillis();
+            trending.record(book.getIsbn(), "RB-B", 8.0, now);
+            
+            RebalancingPlanner planner = new RebalancingPlanner(books, branches, copies, reservations, trending);
+            planner.setTransferService(transfers);
+            RebalancingPlanner.Plan first = planner.solve(planner.snapshot(now));
+            List<TransferManifest> manifests = planner.dispatch(first, transfers);
+            RebalancingPlanner.Plan whileInTransit = planner.solve(planner.snapshot(now));
+            transfers.receiveManifest(manifests.get(0).getManifestId());
+            RebalancingPlanner.Plan afterArrival = planner.solve(planner.snapshot(now));
+            return first.getCopyCount() == 2 && whileInTransit.getCopyCount() == 0 && afterArrival.getCopyCount() == 0 &&
+                   copies.getAvailableCount(book.getIsbn(), "RB-B") == 2;
+        });
+        
+        // Test 4: 50 branches by 1M titles solves in time linear in the titles from a sparse snapshot
+        test("Plan 50 Branches By 1M Titles", () -> {
+            Logger.Level previous = logger.getLevel();
+            logger.setLevel(Logger.Level.WARN);
+            try {
+                rebalanceNanosPerTitle(10_000); // JIT warm-up
+                long small = rebalanceNanosPerTitle(10_000);
+                long large = rebalanceNanosPerTitle(1_000_000);
+                System.out.println("   " + small + " ns per title over 10000 titles, " + large + " ns over 1000000");
+                return small > 0 && large > 0 && large < small * 4;
+            } finally {
+                logger.setLevel(previous);
+            }
+        });
+    }
+    
+    /**
+     * Time per title to solve a random snapshot of 50 branches with two to five out-of-balance
+     * branches per title, or -1 if the plan moves nothing or more copies than were supplied
+     */
+    private static long rebalanceNanosPerTitle(int titles) {
+        List<String> branchIds = new ArrayList<>();
+        for (int b = 0; b < 50; b++) {
+            branchIds.add("RBL-" + b);
+        }
+        RebalancingPlanner planner = new RebalancingPlanner(
+            new BookRepository(), new BranchRepository(), null, null, null,
+            (from, to) -> Math.abs(Integer.parseInt(from.substring(4)) - Integer.parseInt(to.substring(4))), 4.0);
+        RebalancingPlanner.Snapshot snapshot = new RebalancingPlanner.Snapshot(branchIds);
+        Random random = new Random(49);
+        long supplied = 0;
+        for (int t = 0; t < titles; t++) {
+            String isbn = "RBL-T" + t;
+            int first = random.nextInt(50);
+            int entries = 2 + random.nextInt(4);
+            for (int e = 0; e < entries; e++) {
+                int delta = (e % 2 == 0 ? 1 : -1) * (1 + random.nextInt(3));
+                snapshot.add(isbn, branchIds.get((first + 7 * e) % 50), delta);
+                if (delta > 0) {
+                    supplied += delta;
+                }
+            }
+        }
+        System.gc();
+        long start = System.nanoTime();
+        RebalancingPlanner.Plan plan = planner.solve(snapshot);
+        long elapsed = System.nanoTime() - start;
+        if (snapshot.getTitleCount() != titles || plan.getCopyCount() == 0 || plan.getCopyCount() > supplied) {
+            return -1;
+        }
+        return Math.max(1, elapsed / titles);
+    }
+    
+    // ============= INVENTORY RECONCILIATION TESTS =============
+    private void runInventoryReconciliationTests() {
+        System.out.println("\n🔍 TESTING: Inventory Reconciliation");
+        System.out.println("═══════════════════════════════════════════════════════════════");
+        
+        // Test 1: Missing, misplaced and deleted books are found, and repair makes the views agree
+        test("Reconciler Detects And Repairs Drift", () -> {
+            BookRepository books = new BookRepository();
+            BranchRepository branches = new BranchRepository();
+            LibraryBranch a = new LibraryBranch("REC-A", "Reconcile A", "1 A St");
+            LibraryBranch b = new LibraryBranch("REC-B", "Reconcile B", "2 B St");
+            branches.save(a);
+            branches.save(b);
+            books.save(new Book("REC-1", "In Place", "Author", 2020, "REC-A"));
+            a.addBookToInventory("REC-1");
+            // Added to the catalog but never shelved
+            books.save(new Book("REC-2", "Unshelved", "Author", 2020, "REC-A"));
+            // Moved to B, but the transfer died before the inventories were updated
+            Book moved = new Book("REC-3", "Half Moved", "Author", 2020, "REC-A");
+            books.save(moved);
+            a.addBookToInventory("REC-3");
+            moved.setCurrentBranchId("REC-B");
+            books.save(moved);
+            // Deleted from the catalog but still listed
+            books.save(new Book("REC-4", "Withdrawn", "Author", 2020, "REC-A"));
+            a.addBookToInventory("REC-4");
+            books.delete("REC-4");
+            
+            InventoryReconciler reconciler = new InventoryReconciler(books, branches);
+            int reported = reconciler.reconcile(InventoryReconciler.Mode.REPORT);
+            int reportedAgain = reconciler.reconcile(InventoryReconciler.Mode.REPORT);
+            int repaired = reconciler.reconcile(InventoryReconciler.Mode.REPAIR);
+            int after = reconciler.reconcile(InventoryReconciler.Mode.REPORT);
+            return reported == 4 && reportedAgain == 4 && repaired == 4 && after == 0 &&
+                   reconciler.getLastDirtyBucketCount() == 0 && reconciler.getRepairCount() == 4 &&
+                   a.hasBook("REC-1") && a.hasBook("REC-2") && !a.hasBook("REC-3") && b.hasBook("REC-3") &&
+                   !a.hasBook("REC-4");
+        });
+        
+        // Test 2: Copies at several branches and books in transit are not drift
+        test("Reconciler Accepts Copies And Transit", () -> {
+            BookRepository books = new BookRepository();
+            BranchRepository branches = new BranchRepository();
+            CopyRepository copies = new CopyRepository();
+            BookService catalog = new BookService(books, copies);
+            BookTransferService transfers = new BookTransferService(books, branches, copies);
+            LibraryBranch a = new LibraryBranch("REC-A", "Reconcile A", "1 A St");
+            LibraryBranch b = new LibraryBranch("REC-B", "Reconcile B", "2 B St");
+            branches.save(a);
+            branches.save(b);
+            Book multi = new Book("REC-COPIES", "Many Copies", "Author", 2020, "REC-A");
+            catalog.addBook(multi);
+            catalog.addCopy(multi.getIsbn(), "REC-A");
+            catalog.addCopy(multi.getIsbn(), "REC-B");
+            a.addBookToInventory(multi.getIsbn());
+            b.addBookToInventory(multi.getIsbn());
+            books.save(new Book("REC-VAN", "On The Van", "Author", 2020, "REC-A"));
+            a.addBookToInventory("REC-VAN");
+            transfers.dispatchManifest("REC-A", "REC-B", Collections.singletonList("REC-VAN"));
+            
+            InventoryReconciler reconciler = new InventoryReconciler(books, branches, copies);
+            int first = reconciler.reconcile(InventoryReconciler.Mode.REPORT);
+            int firstDirty = reconciler.getLastDirtyBucketCount();
+            int second = reconciler.reconcile(InventoryReconciler.Mode.REPORT);
+            return first == 0 && firstDirty > 0 && second == 0 && reconciler.getLastDirtyBucketCount() == 0 &&
+                   reconciler.getLastCheckedTitleCount() == 0;
+        });
+        
+        // Test 3: A few drifted books among many are found by re-checking only their buckets
+        test("Reconciler Checks Only Changed Buckets", () -> {
+            BookRepository books = new BookRepository();
+            BranchRepository branches = new BranchRepository();
+            List<LibraryBranch> branchList = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                LibraryBranch branch = new LibraryBranch("REC-BR" + i, "Reconcile " + i, i + " Main St");
+                branches.save(branch);
+                branchList.add(branch);
+            }
+            int bookCount = 200_000;
+            for (int i = 0; i < bookCount; i++) {
+                LibraryBranch branch = branchList.get(i % 20);
+                books.save(new Book("REC-BIG-" + i, "Big " + i, "Author", 2020, branch.getBranchId()));
+                branch.addBookToInventory("REC-BIG-" + i);
+            }
+            InventoryReconciler reconciler = new InventoryReconciler(books, branches);
+            boolean clean = reconciler.reconcile(InventoryReconciler.Mode.REPORT) == 0;
+            for (int i = 0; i < 5; i++) {
+                branchList.get(i).removeBookFromInventory("REC-BIG-" + (i * 20_000 + i));
+            }
+            long start = System.nanoTime();
+            int divergence = reconciler.reconcile(InventoryReconciler.Mode.REPORT);
+            long micros = (System.nanoTime() - start) / 1_000;
+            System.out.println("   " + divergence + " drifted of " + bookCount + ": " +
+                               reconciler.getLastDirtyBucketCount() + " buckets, " +
+                               reconciler.getLastCheckedTitleCount() + " titles re-checked in " + micros + " µs");
+            return clean && divergence == 5 && reconciler.getLastDirtyBucketCount() == 5 &&
+                   reconciler.getLastCheckedTitleCount() <= 5 * (IsbnDictionary.size() / BucketDigest.BUCKETS + 1);
+        });
+    }
+    
+    /**
+     * Run {@code task} on {@code threads} threads started together and wait for all of them
+     */
+    private static void runConcurrently(int threads, IntConsumer task) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < threads; t++) {
+            int worker = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    task.accept(worker);
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+            thread.start();
+            workers.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : workers) {
+            thread.join();
+        }
+        if (!failures.isEmpty()) {
+            throw new IllegalStateException("Worker failed: " + failures.get(0), failures.get(0));
+        }
+    }
+    
     // ============= TEST UTILITIES =============
     
     private void test(String testName, TestCase testCase) {
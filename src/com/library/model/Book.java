@@ -10,7 +10,7 @@ public class Book {
     private String title;
     private String author;
     private int publicationYear;
-    private BookStatus status;
+    private volatile BookStatus status;
     private String currentBranchId;
     
     public Book(String isbn, String title, String author, int publicationYear, String branchId) {
@@ -58,10 +58,22 @@ public class Book {
         this.publicationYear = publicationYear;
     }
     
-    public void setStatus(BookStatus status) {
+    public synchronized void setStatus(BookStatus status) {
         this.status = status;
     }
     
+    /**
+     * Change the status only if it is still {@code expected}, so that two callers racing for the
+     * same book cannot both claim it
+     */
+    public synchronized boolean compareAndSetStatus(BookStatus expected, BookStatus status) {
+        if (this.status != expected) {
+            return false;
+        }
+        this.status = status;
+        return true;
+    }
+    
     public void setCurrentBranchId(String currentBranchId) {
         this.currentBranchId = currentBranchId;
     }
@@ -0,0 +1,67 @@
+package com.library.model;
+
+import java.util.Objects;
+
+/**
+ * Represents one physical copy (item) of a title, identified by its barcode.
+ */
+public class BookCopy {
+    private final String barcode;
+    private final String isbn;
+    private volatile String branchId;
+    private volatile BookStatus status;
+    
+    public BookCopy(String barcode, String isbn, String branchId) {
+        this.barcode = barcode;
+        this.isbn = isbn;
+        this.branchId = branchId;
+        this.status = BookStatus.AVAILABLE;
+    }
+    
+    public String getBarcode() {
+        return barcode;
+    }
+    
+    public String getIsbn() {
+        return isbn;
+    }
+    
+    public String getBranchId() {
+        return branchId;
+    }
+    
+    public BookStatus getStatus() {
+        return status;
+    }
+    
+    public void setBranchId(String branchId) {
+        this.branchId = branchId;
+    }
+    
+    public void setStatus(BookStatus status) {
+        this.status = status;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        BookCopy bookCopy = (BookCopy) o;
+        return Objects.equals(barcode, bookCopy.barcode);
+    }
+    
+    @Override
+    public int hashCode() {
+        return Objects.hash(barcode);
+    }
+    
+    @Override
+    public String toString() {
+        return "BookCopy{" +
+                "barcode='" + barcode + '\'' +
+                ", isbn='" + isbn + '\'' +
+                ", branchId='" + branchId + '\'' +
+                ", status=" + status +
+                '}';
+    }
+}
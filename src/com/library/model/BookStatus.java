@@ -8,5 +8,6 @@ public enum BookStatus {
     CHECKED_OUT,
     RESERVED,
     MAINTENANCE,
+    IN_TRANSIT,
     LOST
 }
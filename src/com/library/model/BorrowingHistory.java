@@ -0,0 +1,159 @@
+package com.library.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Tiered borrowing history of one patron.
+ * The most recent records stay in memory; older returned records are moved to the patron's
+ * shard in a {@link HistoryArchive} and only their segment offsets are kept. Records still on
+ * loan are never archived, since they will change when returned. Iteration order is archived
+ * records (oldest first) followed by the in-memory records. Until an archive is attached the
+ * whole history stays in memory.
+ */
+public class BorrowingHistory {
+    private final String patronId;
+    private HistoryArchive archive;
+    private final List<BorrowingRecord> recent;
+    private long[] archivedOffsets;
+    private int archivedCount;
+    
+    /**
+     * @param archive where older records go, or null to keep the history in memory until {@link #attach}
+     */
+    public BorrowingHistory(String patronId, HistoryArchive archive) {
+        this.patronId = patronId;
+        this.archive = archive;
+        this.recent = new ArrayList<>();
+        this.archivedOffsets = archive == null ? new long[0] : archive.recover(patronId);
+        this.archivedCount = archivedOffsets.length;
+    }
+    
+    public void add(BorrowingRecord record) {
+        HistoryArchive target;
+        synchronized (this) {
+            recent.add(record);
+            target = archive;
+        }
+        // Called without holding this lock: the archive may spill other histories
+        if (target != null) {
+            target.recordsAdded(this, 1);
+        }
+    }
+    
+    /**
+     * Keep older returned records in {@code archive} from now on, picking up the records it
+     * already holds for this patron; a history is attached to at most one archive
+     */
+    public void attach(HistoryArchive archive) {
+        int hot;
+        synchronized (this) {
+            if (this.archive == archive) {
+                return;
+            }
+            if (this.archive != null) {
+                throw new IllegalStateException("Borrowing history of " + patronId + " is already archived elsewhere");
+            }
+            archivedOffsets = archive.recover(patronId);
+            archivedCount = archivedOffsets.length;
+            this.archive = archive;
+            hot = recent.size();
+        }
+        if (hot > 0) {
+            archive.recordsAdded(this, hot);
+        }
+    }
+    
+    public synchronized int size() {
+        return archivedCount + recent.size();
+    }
+    
+    public synchronized boolean isEmpty() {
+        return archivedCount == 0 && recent.isEmpty();
+    }
+    
+    synchronized int getHotSize() {
+        return recent.size();
+    }
+    
+    public synchronized int getArchivedCount() {
+        return archivedCount;
+    }
+    
+    /**
+     * Read-only view of the in-memory records, without copying
+     */
+    public List<BorrowingRecord> recent() {
+        return Collections.unmodifiableList(recent);
+    }
+    
+    /**
+     * Stream every record to the consumer, reading archived ones from disk one at a time
+     */
+    public void forEach(Consumer<BorrowingRecord> consumer) {
+        HistoryArchive source;
+        long[] offsets;
+        int archived;
+        BorrowingRecord[] hot;
+        synchronized (this) {
+            source = archive;
+            offsets = archivedOffsets;
+            archived = archivedCount;
+            hot = recent.toArray(new BorrowingRecord[0]);
+        }
+        for (int i = 0; i < archived; i++) {
+            consumer.accept(source.read(patronId, offsets[i]));
+        }
+        for (BorrowingRecord record : hot) {
+            consumer.accept(record);
+        }
+    }
+    
+    /**
+     * One page of the history; only the records of that page are materialised
+     */
+    public synchronized List<BorrowingRecord> page(int pageNumber, int pageSize) {
+        if (pageNumber < 0 || pageSize <= 0) {
+            throw new IllegalArgumentException("Page number must be >= 0 and page size > 0");
+        }
+        int total = archivedCount + recent.size();
+        int from = (int) Math.min(total, (long) pageNumber * pageSize);
+        int to = (int) Math.min(total, (long) from + pageSize);
+        List<BorrowingRecord> page = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            page.add(i < archivedCount ? archive.read(patronId, archivedOffsets[i]) : recent.get(i - archivedCount));
+        }
+        return page;
+    }
+    
+    /**
+     * Move returned records to the archive until at most {@code keep} records remain in memory;
+     * returns the number of records moved
+     */
+    synchronized int spill(int keep) {
+        int excess = recent.size() - keep;
+        if (archive == null || excess <= 0) {
+            return 0;
+        }
+        int moved = 0;
+        Iterator<BorrowingRecord> oldestFirst = recent.iterator();
+        while (moved < excess && oldestFirst.hasNext()) {
+            BorrowingRecord record = oldestFirst.next();
+            if (!record.isReturned()) {
+                continue;
+            }
+            if (archivedCount == archivedOffsets.length) {
+                archivedOffsets = Arrays.copyOf(archivedOffsets, Math.max(8, archivedCount * 2));
+            }
+            archivedOffsets[archivedCount++] = archive.append(patronId, record);
+            oldestFirst.remove();
+            archive.archived(record);
+            moved++;
+        }
+        return moved;
+    }
+}
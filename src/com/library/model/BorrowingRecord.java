@@ -1,5 +1,7 @@
 package com.library.model;
 
+import com.library.util.SystemDate;
+
 import java.time.LocalDate;
 import java.util.Objects;
 
@@ -14,6 +16,7 @@ public class BorrowingRecord {
     private LocalDate dueDate;
     private LocalDate returnDate;
     private String branchId;
+    private String copyBarcode;
     
     public BorrowingRecord(String recordId, String patronId, String isbn, 
                           LocalDate checkoutDate, LocalDate dueDate, String branchId) {
@@ -53,6 +56,17 @@ public class BorrowingRecord {
         return branchId;
     }
     
+    /**
+     * Barcode of the physical copy lent, or null for titles without registered copies
+     */
+    public String getCopyBarcode() {
+        return copyBarcode;
+    }
+    
+    public void setCopyBarcode(String copyBarcode) {
+        this.copyBarcode = copyBarcode;
+    }
+    
     public void setDueDate(LocalDate dueDate) {
         this.dueDate = dueDate;
     }
@@ -62,7 +76,7 @@ public class BorrowingRecord {
     }
     
     public boolean isOverdue() {
-        return returnDate == null && LocalDate.now().isAfter(dueDate);
+        return returnDate == null && SystemDate.today().isAfter(dueDate);
     }
     
     public boolean isReturned() {
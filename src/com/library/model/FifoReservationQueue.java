@@ -0,0 +1,494 @@
+package com.library.model;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+/**
+ * Lock-free FIFO {@link ReservationQueue}, with position lookup and cancellation from anywhere.
+ *
+ * Each offer takes a ticket from an atomic counter and publishes the reservation into that slot
+ * of a linked list of array segments, so enqueuers on the same title never block each other and
+ * ticket order is FIFO order. Claiming the head and cancelling are single CASes on the slot. If a
+ * claimer finds the head ticket taken but not yet published, it waits briefly and then marks the
+ * slot skipped, and the stalled enqueuer takes a new ticket. No thread ever waits on a lock.
+ *
+ * Each segment keeps a Fenwick tree of atomic counters over its live slots, and a second level
+ * of Fenwick trees counts the live slots per segment, so a position is two prefix sums and takes
+ * O(log n) however many segments are ahead. Segments start at 16 slots and double up to 1024, so
+ * short queues stay small. Segments behind the head become garbage; every walk from the head
+ * first moves it past the dead slots at the front.
+ */
+public class FifoReservationQueue implements ReservationQueue {
+    private static final int FIRST_SEGMENT = 16;
+    private static final int MAX_SEGMENT = 1024;
+    private static final int SPINS_BEFORE_SKIP = 256;
+    private static final int CLOSED = Integer.MIN_VALUE;
+    
+    // A slot holds null (ticket not yet published), a Reservation, or one of these markers
+    private static final Object CANCELLED = new Object();
+    private static final Object CLAIMED = new Object();
+    private static final Object SKIPPED = new Object();
+    
+    private static final class Segment {
+        final long start;
+        final long ordinal;
+        final int size;
+        final AtomicReferenceArray<Object> slots;
+        final AtomicIntegerArray tree;
+        final AtomicInteger live;
+        final AtomicReference<Segment> next;
+        
+        Segment(long start, long ordinal, int size) {
+            this.start = start;
+            this.ordinal = ordinal;
+            this.size = size;
+            this.slots = new AtomicReferenceArray<>(size);
+            this.tree = new AtomicIntegerArray(size + 1);
+            this.live = new AtomicInteger();
+            this.next = new AtomicReference<>();
+        }
+        
+        Segment nextSegment() {
+            Segment following = next.get();
+            if (following == null) {
+                next.compareAndSet(null, new Segment(start + size, ordinal + 1, Math.min(size * 2, MAX_SEGMENT)));
+                following = next.get();
+            }
+            return following;
+        }
+        
+        void count(SegmentCounts counts, int index, int delta) {
+            live.addAndGet(delta);
+            counts.add(ordinal, delta);
+            for (int i = index + 1; i <= size; i += i & -i) {
+                tree.getAndAdd(i, delta);
+            }
+        }
+        
+        int prefixCount(int index) {
+            int count = 0;
+            for (int i = index + 1; i > 0; i -= i & -i) {
+                count += tree.get(i);
+            }
+            return count;
+        }
+    }
+    
+    /**
+     * Live slots per segment, by segment ordinal. Ordinals are split into levels of doubling size,
+     * each a fixed Fenwick tree with a running total, so new levels are added without resizing and
+     * the levels wholly behind the head are dropped.
+     */
+    private static final class SegmentCounts {
+        private static final int FIRST_LEVEL = 64;
+        private static final int MAX_LEVELS = 48;
+        
+        private final AtomicReferenceArray<AtomicIntegerArray> trees = new AtomicReferenceArray<>(MAX_LEVELS);
+        private final AtomicIntegerArray totals = new AtomicIntegerArray(MAX_LEVELS);
+        
+        void add(long ordinal, int delta) {
+            int level = levelOf(ordinal);
+            AtomicIntegerArray tree = treeFor(level);
+            totals.getAndAdd(level, delta);
+            int size = tree.length() - 1;
+            for (int i = (int) (ordinal - baseOf(level)) + 1; i <= size; i += i & -i) {
+                tree.getAndAdd(i, delta);
+            }
+        }
+        
+        /**
+         * Live slots in the segments before the given one
+         */
+        int liveBefore(long ordinal) {
+            int level = levelOf(ordinal);
+            int count = 0;
+            for (int earlier = 0; earlier < level; earlier++) {
+                count += totals.get(earlier);
+            }
+            AtomicIntegerArray tree = trees.get(level);
+            if (tree != null) {
+                for (int i = (int) (ordinal - baseOf(level)); i > 0; i -= i & -i) {
+                    count += tree.get(i);
+                }
+            }
+            return count;
+        }
+        
+        /**
+         * Drop the trees of levels that end before the given segment; their totals are zero
+         */
+        void dropBefore(long ordinal) {
+            for (int level = levelOf(ordinal) - 1; level >= 0; level--) {
+                trees.set(level, null);
+            }
+        }
+        
+        private AtomicIntegerArray treeFor(int level) {
+            AtomicIntegerArray tree = trees.get(level);
+            if (tree == null) {
+                trees.compareAndSet(level, null, new AtomicIntegerArray((FIRST_LEVEL << level) + 1));
+                tree = trees.get(level);
+            }
+            return tree;
+        }
+        
+        private static int levelOf(long ordinal) {
+            return 63 - Long.numberOfLeadingZeros(ordinal / FIRST_LEVEL + 1);
+        }
+        
+        private static long baseOf(int level) {
+            return FIRST_LEVEL * ((1L << level) - 1);
+        }
+    }
+    
+    private static final class Ticket {
+        final Segment segment;
+        final int index;
+        
+        Ticket(Segment segment, int index) {
+            this.segment = segment;
+            this.index = index;
+        }
+    }
+    
+    private final AtomicLong head;
+    private final AtomicLong tail;
+    private final AtomicReference<Segment> headSegment;
+    private final AtomicInteger size;
+    private final AtomicInteger offers; // offers in flight, or CLOSED
+    private final ConcurrentHashMap<String, Ticket> tickets;
+    private final SegmentCounts counts;
+    private volatile Segment tailSegment;
+    
+    public FifoReservationQueue() {
+        Segment first = new Segment(0, 0, FIRST_SEGMENT);
+        this.head = new AtomicLong();
+        this.tail = new AtomicLong();
+        this.headSegment = new AtomicReference<>(first);
+        this.size = new AtomicInteger();
+        this.offers = new AtomicInteger();
+        this.tickets = new ConcurrentHashMap<>();
+        this.counts = new SegmentCounts();
+        this.tailSegment = first;
+    }
+    
+    /**
+     * Append a reservation to the back of the queue
+     */
+    @Override
+    public void add(Reservation reservation) {
+        if (!offer(reservation)) {
+            throw new IllegalStateException("Reservation queue is closed");
+        }
+    }
+    
+    /**
+     * Append a reservation to the back of the queue
+     * @return false if the queue was closed by {@link #closeIfEmpty}
+     */
+    @Override
+    public boolean offer(Reservation reservation) {
+        int state;
+        do {
+            state = offers.get();
+            if (state == CLOSED) {
+                return false;
+            }
+        } while (!offers.compareAndSet(state, state + 1));
+        try {
+            if (tickets.containsKey(reservation.getReservationId())) {
+                throw new IllegalStateException("Reservation is already queued: " + reservation.getReservationId());
+            }
+            while (true) {
+                long number = tail.getAndIncrement();
+                Segment segment = segmentFor(number);
+                if (segment == null) {
+                    // Stalled long enough for claimers to skip the ticket and drop its segment
+                    continue;
+                }
+                int index = (int) (number - segment.start);
+                tickets.put(reservation.getReservationId(), new Ticket(segment, index));
+                // Counted before publishing, so a claim can never drive the counters negative
+                segment.count(counts, index, 1);
+                size.incrementAndGet();
+                if (segment.slots.compareAndSet(index, null, reservation)) {
+                    return true;
+                }
+                // A claimer skipped this ticket while we were stalled; take a new one
+                segment.count(counts, index, -1);
+                size.decrementAndGet();
+            }
+        } finally {
+            offers.decrementAndGet();
+        }
+    }
+    
+    /**
+     * Remove a reservation from anywhere in the queue
+     * @return false if the reservation was not queued, or was claimed concurrently
+     */
+    @Override
+    public boolean remove(Reservation reservation) {
+        while (true) {
+            Ticket ticket = tickets.get(reservation.getReservationId());
+            if (ticket == null) {
+                return false;
+            }
+            Object value = ticket.segment.slots.get(ticket.index);
+            if (value == reservation) {
+                if (ticket.segment.slots.compareAndSet(ticket.index, reservation, CANCELLED)) {
+                    ticket.segment.count(counts, ticket.index, -1);
+                    size.decrementAndGet();
+                    tickets.remove(reservation.getReservationId(), ticket);
+                    return true;
+                }
+            } else if (value == null || value == SKIPPED) {
+                // The offer of this reservation is still in flight
+                Thread.onSpinWait();
+            } else {
+                return false;
+            }
+        }
+    }
+    
+    /**
+     * First queued reservation without claiming it, or null if the queue is empty
+     */
+    @Override
+    public Reservation peek() {
+        long limit = tail.get();
+        for (long number = head.get(); number < limit; number++) {
+            Segment segment = segmentFor(number);
+            if (segment == null) {
+                // The head moved past this ticket; start again from the new head
+                number = head.get() - 1;
+                continue;
+            }
+            Object value = segment.slots.get((int) (number - segment.start));
+            if (value instanceof Reservation) {
+                return (Reservation) value;
+            }
+            if (value != null) {
+                advanceHead(number, segment);
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * First queued reservation that matches, without claiming it, or null if there is none.
+     * Walks from the head, so it is cheap when a match is near the front.
+     */
+    @Override
+    public Reservation peekFirst(Predicate<Reservation> filter) {
+        skipDeadSlots();
+        long limit = tail.get();
+        Segment segment = headSegment.get();
+        for (long number = Math.max(head.get(), segment.start); number < limit; number++) {
+            while (number >= segment.start + segment.size) {
+                segment = segment.nextSegment();
+            }
+            Object value = segment.slots.get((int) (number - segment.start));
+            if (value instanceof Reservation && filter.test((Reservation) value)) {
+                return (Reservation) value;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Claim and remove the first queued reservation; exactly one caller wins each reservation
+     */
+    @Override
+    public Reservation poll() {
+        while (true) {
+            long number = head.get();
+            if (number >= tail.get()) {
+                return null;
+            }
+            Segment segment = segmentFor(number);
+            if (segment == null) {
+                continue;
+            }
+            int index = (int) (number - segment.start);
+            Object value = segment.slots.get(index);
+            if (value == null) {
+                value = awaitPublished(segment, index);
+            }
+            if (value instanceof Reservation) {
+                Reservation reservation = (Reservation) value;
+                if (!segment.slots.compareAndSet(index, reservation, CLAIMED)) {
+                    continue;
+                }
+                segment.count(counts, index, -1);
+                size.decrementAndGet();
+                tickets.remove(reservation.getReservationId());
+                advanceHead(number, segment);
+                return reservation;
+            }
+            advanceHead(number, segment);
+        }
+    }
+    
+    /**
+     * 1-based position of a reservation, or 0 if it is not queued
+     */
+    @Override
+    public int positionOf(Reservation reservation) {
+        Ticket ticket = tickets.get(reservation.getReservationId());
+        if (ticket == null || ticket.segment.slots.get(ticket.index) != reservation) {
+            return 0;
+        }
+        // Everything behind the head is dead, so the segments ahead contribute their live count
+        return counts.liveBefore(ticket.segment.ordinal) + ticket.segment.prefixCount(ticket.index);
+    }
+    
+    @Override
+    public boolean contains(Reservation reservation) {
+        Ticket ticket = tickets.get(reservation.getReservationId());
+        return ticket != null && ticket.segment.slots.get(ticket.index) == reservation;
+    }
+    
+    @Override
+    public int size() {
+        return Math.max(0, size.get());
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+    
+    /**
+     * Close the queue against further offers if it is empty, so it can be dropped safely
+     * @return true if the queue is now closed
+     */
+    @Override
+    public boolean closeIfEmpty() {
+        if (size.get() != 0 || !offers.compareAndSet(0, CLOSED)) {
+            return false;
+        }
+        if (size.get() != 0) {
+            offers.set(0);
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Queued reservations in order, as a new list; weakly consistent under concurrent updates
+     */
+    @Override
+    public List<Reservation> toList() {
+        skipDeadSlots();
+        List<Reservation> list = new ArrayList<>(size());
+        long limit = tail.get();
+        Segment segment = headSegment.get();
+        for (long number = Math.max(head.get(), segment.start); number < limit; number++) {
+            while (number >= segment.start + segment.size) {
+                segment = segment.nextSegment();
+            }
+            Object value = segment.slots.get((int) (number - segment.start));
+            if (value instanceof Reservation) {
+                list.add((Reservation) value);
+            }
+        }
+        return list;
+    }
+    
+    @Override
+    public Iterator<Reservation> iterator() {
+        return toList().iterator();
+    }
+    
+    /**
+     * Segments from the head segment to the tail; the ones behind the head are no longer counted
+     */
+    public int getSegmentCount() {
+        int count = 0;
+        for (Segment segment = headSegment.get(); segment != null; segment = segment.next.get()) {
+            count++;
+        }
+        return count;
+    }
+    
+    /**
+     * Segment holding the given ticket, or null if the head has already moved past its segment
+     */
+    private Segment segmentFor(long number) {
+        Segment segment = tailSegment;
+        if (segment.start > number) {
+            segment = headSegment.get();
+            if (segment.start > number) {
+                return null;
+            }
+        }
+        while (number >= segment.start + segment.size) {
+            segment = segment.nextSegment();
+        }
+        if (segment.start > tailSegment.start) {
+            tailSegment = segment;
+        }
+        return segment;
+    }
+    
+    private Object awaitPublished(Segment segment, int index) {
+        for (int spin = 0; spin < SPINS_BEFORE_SKIP; spin++) {
+            Object value = segment.slots.get(index);
+            if (value != null) {
+                return value;
+            }
+            Thread.onSpinWait();
+        }
+        if (segment.slots.compareAndSet(index, null, SKIPPED)) {
+            return SKIPPED;
+        }
+        return segment.slots.get(index);
+    }
+    
+    /**
+     * Move the head past the cancelled, claimed and skipped slots at the front, as {@link #peek}
+     * does, so walks from the head start at the first slot that may still be live
+     */
+    private void skipDeadSlots() {
+        long limit = tail.get();
+        while (true) {
+            long number = head.get();
+            if (number >= limit) {
+                return;
+            }
+            Segment segment = segmentFor(number);
+            if (segment == null) {
+                continue;
+            }
+            Object value = segment.slots.get((int) (number - segment.start));
+            if (value == null || value instanceof Reservation) {
+                return;
+            }
+            advanceHead(number, segment);
+        }
+    }
+    
+    /**
+     * Move the head past a dead slot, and the head segment along with it at a segment boundary
+     */
+    private void advanceHead(long number, Segment segment) {
+        if (!head.compareAndSet(number, number + 1) || number + 1 != segment.start + segment.size) {
+            return;
+        }
+        Segment following = segment.nextSegment();
+        Segment current = headSegment.get();
+        while (current.start < following.start && !headSegment.compareAndSet(current, following)) {
+            current = headSegment.get();
+        }
+        counts.dropBefore(following.ordinal);
+    }
+}
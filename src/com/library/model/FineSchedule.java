@@ -0,0 +1,64 @@
+package com.library.model;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Per-PatronType late fee rate table: a daily rate and a cap per loan, in cents.
+ */
+public class FineSchedule {
+    private final Map<PatronType, long[]> rates;
+    
+    public FineSchedule() {
+        this.rates = new EnumMap<>(PatronType.class);
+        for (PatronType type : PatronType.values()) {
+            rates.put(type, new long[] {0, 0});
+        }
+    }
+    
+    public static FineSchedule defaultSchedule() {
+        FineSchedule schedule = new FineSchedule();
+        schedule.setRate(PatronType.STUDENT, 10, 500);
+        schedule.setRate(PatronType.FACULTY, 5, 300);
+        schedule.setRate(PatronType.GENERAL, 25, 1000);
+        return schedule;
+    }
+    
+    public void setRate(PatronType patronType, long dailyRateCents, long maxFineCents) {
+        if (dailyRateCents < 0 || maxFineCents < 0) {
+            throw new IllegalArgumentException("Fine rates must not be negative");
+        }
+        rates.put(patronType, new long[] {dailyRateCents, maxFineCents});
+    }
+    
+    public long getDailyRateCents(PatronType patronType) {
+        return rates.get(patronType)[0];
+    }
+    
+    public long getMaxFineCents(PatronType patronType) {
+        return rates.get(patronType)[1];
+    }
+    
+    /**
+     * Fine for a loan that is the given number of days late, capped per loan
+     */
+    public long fineFor(PatronType patronType, long daysLate) {
+        if (daysLate <= 0) {
+            return 0;
+        }
+        long[] rate = rates.get(patronType);
+        return Math.min(rate[1], daysLate * rate[0]);
+    }
+    
+    /**
+     * Fine for further days late on a loan that was already charged {@code chargedCents}; the
+     * loan's total stays within the cap however many times it is settled
+     */
+    public long fineFor(PatronType patronType, long daysLate, long chargedCents) {
+        if (daysLate <= 0) {
+            return 0;
+        }
+        long[] rate = rates.get(patronType);
+        return Math.max(0, Math.min(rate[1], chargedCents + daysLate * rate[0]) - chargedCents);
+    }
+}
@@ -0,0 +1,304 @@
+package com.library.model;
+
+import com.library.util.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Cold tier for patron borrowing histories.
+ *
+ * Returned borrowing records that fall out of a patron's recent window are appended to one of
+ * a fixed number of shard segment files ({@code history-N.seg}, chosen by patron id). The archive
+ * also enforces a global budget on the number of records held in memory by all histories,
+ * spilling the least recently used histories first when the budget is exceeded.
+ *
+ * The archive is created by the bootstrap and handed to histories when their patrons are
+ * registered; nothing is written until then. Segments outlive the process: when a shard is
+ * opened it is scanned once to rebuild each patron's offsets, which are handed over when that
+ * patron's history is attached, and an incomplete record left at the end by a crash is cut off.
+ *
+ * Segment record layout: {@code [int length][payload]} where the payload holds the record id,
+ * patron id, ISBN, branch id and copy barcode as length-prefixed UTF-8 plus the dates as epoch days.
+ */
+public class HistoryArchive implements Closeable {
+    private final Path directory;
+    private final FileChannel[] shards;
+    private final int recentCapacity;
+    private final long memoryBudget;
+    private final Map<BorrowingHistory, Boolean> lruHistories;
+    private final Map<String, Offsets> recovered; // Patron id -> offsets found on disk, until claimed
+    private final Logger logger;
+    private Consumer<BorrowingRecord> onArchived;
+    private boolean closed;
+    private long hotRecords;
+    
+    public HistoryArchive(Path directory, int shardCount, int recentCapacity, long memoryBudget) {
+        if (shardCount <= 0 || recentCapacity < 0 || memoryBudget <= 0) {
+            throw new IllegalArgumentException("Invalid history archive configuration");
+        }
+        this.directory = directory;
+        this.shards = new FileChannel[shardCount];
+        this.recentCapacity = recentCapacity;
+        this.memoryBudget = memoryBudget;
+        this.lruHistories = new LinkedHashMap<>(16, 0.75f, true);
+        this.recovered = new HashMap<>();
+        this.logger = Logger.getInstance();
+    }
+    
+    /**
+     * Called with each record once it is on disk, e.g. to drop it from the record repository.
+     * Runs on the thread that triggered the spill, while the spilled history is locked.
+     */
+    public void setOnArchived(Consumer<BorrowingRecord> onArchived) {
+        this.onArchived = onArchived;
+    }
+    
+    public int getRecentCapacity() {
+        return recentCapacity;
+    }
+    
+    public synchronized long getHotRecordCount() {
+        return hotRecords;
+    }
+    
+    /**
+     * Account for records added to a history and spill histories while over budget
+     */
+    void recordsAdded(BorrowingHistory history, int count) {
+        if (history.getHotSize() > recentCapacity) {
+            int spilled = history.spill(recentCapacity);
+            synchronized (this) {
+                hotRecords -= spilled;
+            }
+        }
+        synchronized (this) {
+            hotRecords += count;
+            lruHistories.put(history, Boolean.TRUE);
+            Iterator<BorrowingHistory> eldest = lruHistories.keySet().iterator();
+            int inspected = 0;
+            int candidates = lruHistories.size();
+            while (hotRecords > memoryBudget && inspected++ < candidates && eldest.hasNext()) {
+                BorrowingHistory victim = eldest.next();
+                hotRecords -= victim.spill(0);
+                if (victim.getHotSize() == 0) {
+                    eldest.remove();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Hand over the offsets found on disk for a patron's records, oldest first; each patron's
+     * offsets are handed over once
+     */
+    long[] recover(String patronId) {
+        shardFor(patronId);
+        Offsets offsets;
+        synchronized (recovered) {
+            offsets = recovered.remove(patronId);
+        }
+        return offsets == null ? new long[0] : Arrays.copyOf(offsets.values, offsets.count);
+    }
+    
+    /**
+     * Close the segment files; the archive cannot be used afterwards
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (shards) {
+            closed = true;
+            for (int i = 0; i < shards.length; i++) {
+                if (shards[i] != null) {
+                    shards[i].close();
+                    shards[i] = null;
+                }
+            }
+        }
+    }
+    
+    void archived(BorrowingRecord record) {
+        Consumer<BorrowingRecord> listener = onArchived;
+        if (listener != null) {
+            listener.accept(record);
+        }
+    }
+    
+    // ============= SEGMENT I/O =============
+    
+    long append(String patronId, BorrowingRecord record) {
+        byte[] recordId = utf8(record.getRecordId());
+        byte[] patron = utf8(patronId);
+        byte[] isbn = utf8(record.getIsbn());
+        byte[] branch = utf8(record.getBranchId() == null ? "" : record.getBranchId());
+        byte[] barcode = utf8(record.getCopyBarcode() == null ? "" : record.getCopyBarcode());
+        int payloadLength = 20 + recordId.length + patron.length + isbn.length + branch.length + barcode.length + 12;
+        ByteBuffer buffer = ByteBuffer.allocate(4 + payloadLength);
+        buffer.putInt(payloadLength);
+        putString(buffer, recordId);
+        putString(buffer, patron);
+        putString(buffer, isbn);
+        putString(buffer, branch);
+        putString(buffer, barcode);
+        buffer.putInt((int) record.getCheckoutDate().toEpochDay());
+        buffer.putInt((int) record.getDueDate().toEpochDay());
+        buffer.putInt(record.getReturnDate() == null ? Integer.MIN_VALUE : (int) record.getReturnDate().toEpochDay());
+        buffer.flip();
+        
+        FileChannel shard = shardFor(patronId);
+        synchronized (shard) {
+            try {
+                long offset = shard.size();
+                long position = offset;
+                while (buffer.hasRemaining()) {
+                    position += shard.write(buffer, position);
+                }
+                return offset;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to append to history segment in " + directory, e);
+            }
+        }
+    }
+    
+    BorrowingRecord read(String patronId, long offset) {
+        FileChannel shard = shardFor(patronId);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            readFully(shard, header, offset);
+            ByteBuffer payload = ByteBuffer.allocate(header.getInt(0));
+            readFully(shard, payload, offset + 4);
+            payload.flip();
+            String recordId = getString(payload);
+            String patron = getString(payload);
+            String isbn = getString(payload);
+            String branch = getString(payload);
+            String barcode = getString(payload);
+            LocalDate checkoutDate = LocalDate.ofEpochDay(payload.getInt());
+            LocalDate dueDate = LocalDate.ofEpochDay(payload.getInt());
+            int returned = payload.getInt();
+            BorrowingRecord record = new BorrowingRecord(recordId, patron, isbn, checkoutDate, dueDate,
+                                                         branch.isEmpty() ? null : branch);
+            if (!barcode.isEmpty()) {
+                record.setCopyBarcode(barcode);
+            }
+            if (returned != Integer.MIN_VALUE) {
+                record.setReturnDate(LocalDate.ofEpochDay(returned));
+            }
+            return record;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read history segment in " + directory, e);
+        }
+    }
+    
+    private FileChannel shardFor(String patronId) {
+        int index = Math.floorMod(patronId.hashCode(), shards.length);
+        synchronized (shards) {
+            if (closed) {
+                throw new IllegalStateException("History archive in " + directory + " is closed");
+            }
+            if (shards[index] == null) {
+                try {
+                    Files.createDirectories(directory);
+                    Path file = directory.resolve("history-" + index + ".seg");
+                    FileChannel shard = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                         StandardOpenOption.WRITE);
+                    scan(shard, file);
+                    shards[index] = shard;
+                    logger.info("Opened borrowing history segment " + file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to open history segment in " + directory, e);
+                }
+            }
+            return shards[index];
+        }
+    }
+    
+    /**
+     * Rebuild the offsets of every record in a shard, reading only up to each record's patron id
+     */
+    private void scan(FileChannel shard, Path file) throws IOException {
+        long size = shard.size();
+        long offset = 0;
+        // Not closed: that would close the shard
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(shard.position(0)),
+                                                                         1 << 16));
+        while (size - offset >= 4) {
+            int length = in.readInt();
+            if (length < 32 || length > size - offset - 4) {
+                break;
+            }
+            int recordIdLength = in.readInt();
+            if (recordIdLength < 0 || recordIdLength > length - 32) {
+                break;
+            }
+            in.skipNBytes(recordIdLength);
+            int patronLength = in.readInt();
+            if (patronLength < 0 || patronLength > length - 32 - recordIdLength) {
+                break;
+            }
+            byte[] patron = new byte[patronLength];
+            in.readFully(patron);
+            in.skipNBytes(length - 8 - recordIdLength - patronLength);
+            synchronized (recovered) {
+                recovered.computeIfAbsent(new String(patron, StandardCharsets.UTF_8), k -> new Offsets()).add(offset);
+            }
+            offset += 4 + length;
+        }
+        if (offset < size) {
+            logger.warn("Dropping " + (size - offset) + " bytes of incomplete history records at the end of " + file);
+            shard.truncate(offset);
+        }
+    }
+    
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of history segment");
+            }
+        }
+    }
+    
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private static void putString(ByteBuffer buffer, byte[] value) {
+        buffer.putInt(value.length).put(value);
+    }
+    
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+    
+    private static final class Offsets {
+        long[] values = new long[4];
+        int count;
+        
+        void add(long offset) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = offset;
+        }
+    }
+}
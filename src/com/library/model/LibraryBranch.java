@@ -1,23 +1,38 @@
 package com.library.model;
 
-import java.util.ArrayList;
-import java.util.List;
+import com.library.util.BucketDigest;
+import com.library.util.IsbnDictionary;
+
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Set;
 
 /**
  * Represents a Library Branch in a multi-branch system.
+ * The inventory is a bitmap over {@link IsbnDictionary} ids, so adding, removing and checking a
+ * book are O(1) and a branch costs about one bit per catalogued title rather than an object per
+ * book it holds.
  */
 public class LibraryBranch {
     private final String branchId;
     private String branchName;
     private String address;
-    private List<String> inventory;
+    private final BitSet inventory;
+    private int inventorySize;
+    private final BucketDigest inventoryDigest;
+    private final Set<String> inventoryView;
     
     public LibraryBranch(String branchId, String branchName, String address) {
         this.branchId = branchId;
         this.branchName = branchName;
         this.address = address;
-        this.inventory = new ArrayList<>();
+        this.inventory = new BitSet();
+        this.inventoryDigest = new BucketDigest();
+        this.inventoryView = new InventoryView();
     }
     
     public String getBranchId() {
@@ -32,8 +47,17 @@ public class LibraryBranch {
         return address;
     }
     
-    public List<String> getInventory() {
-        return new ArrayList<>(inventory);
+    /**
+     * Read-only live view of the ISBNs held by this branch, in ISBN id order.
+     * Iterating while the inventory changes never fails; books added or removed meanwhile may or
+     * may not be seen.
+     */
+    public Set<String> getInventory() {
+        return inventoryView;
+    }
+    
+    public synchronized int getInventorySize() {
+        return inventorySize;
     }
     
     public void setBranchName(String branchName) {
@@ -44,18 +68,102 @@ public class LibraryBranch {
         this.address = address;
     }
     
-    public void addBookToInventory(String isbn) {
-        if (!inventory.contains(isbn)) {
-            inventory.add(isbn);
+    public synchronized void addBookToInventory(String isbn) {
+        int id = IsbnDictionary.idOf(isbn);
+        if (!inventory.get(id)) {
+            inventory.set(id);
+            inventorySize++;
+            inventoryDigest.toggle(id);
+        }
+    }
+    
+    public synchronized void removeBookFromInventory(String isbn) {
+        int id = IsbnDictionary.lookup(isbn);
+        if (id >= 0 && inventory.get(id)) {
+            inventory.clear(id);
+            inventorySize--;
+            inventoryDigest.toggle(id);
+        }
+    }
+    
+    /**
+     * Add a batch of books under a single acquisition of the inventory lock
+     */
+    public synchronized void addAllToInventory(Collection<String> isbns) {
+        for (String isbn : isbns) {
+            addBookToInventory(isbn);
+        }
+    }
+    
+    /**
+     * Remove a batch of books under a single acquisition of the inventory lock
+     */
+    public synchronized void removeAllFromInventory(Collection<String> isbns) {
+        for (String isbn : isbns) {
+            removeBookFromInventory(isbn);
         }
     }
     
-    public void removeBookFromInventory(String isbn) {
-        inventory.remove(isbn);
+    public synchronized boolean hasBook(String isbn) {
+        int id = IsbnDictionary.lookup(isbn);
+        return id >= 0 && inventory.get(id);
+    }
+    
+    /**
+     * Checksum over the inventory ISBNs that fall in a {@link BucketDigest} bucket
+     */
+    public synchronized long getInventoryChecksum(int bucket) {
+        return inventoryDigest.getBucket(bucket);
     }
     
-    public boolean hasBook(String isbn) {
-        return inventory.contains(isbn);
+    /**
+     * Checksum over the whole inventory
+     */
+    public synchronized long getInventoryChecksum() {
+        return inventoryDigest.getTotal();
+    }
+    
+    private synchronized int nextInventoryId(int from) {
+        return inventory.nextSetBit(from);
+    }
+    
+    private final class InventoryView extends AbstractSet<String> {
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof String && hasBook((String) o);
+        }
+        
+        @Override
+        public int size() {
+            return getInventorySize();
+        }
+        
+        @Override
+        public boolean isEmpty() {
+            return getInventorySize() == 0;
+        }
+        
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                private int next = nextInventoryId(0);
+                
+                @Override
+                public boolean hasNext() {
+                    return next >= 0;
+                }
+                
+                @Override
+                public String next() {
+                    if (next < 0) {
+                        throw new NoSuchElementException();
+                    }
+                    String isbn = IsbnDictionary.isbnOf(next);
+                    next = next == Integer.MAX_VALUE ? -1 : nextInventoryId(next + 1);
+                    return isbn;
+                }
+            };
+        }
     }
     
     @Override
@@ -77,7 +185,7 @@ public class LibraryBranch {
                 "branchId='" + branchId + '\'' +
                 ", branchName='" + branchName + '\'' +
                 ", address='" + address + '\'' +
-                ", inventory size=" + inventory.size() +
+                ", inventory size=" + getInventorySize() +
                 '}';
     }
 }
@@ -3,6 +3,7 @@ package com.library.model;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Consumer;
 
 /**
  * Represents a Patron (library member).
@@ -12,18 +13,27 @@ public class Patron {
     private String name;
     private String email;
     private String phone;
-    private List<BorrowingRecord> borrowingHistory;
+    private final BorrowingHistory borrowingHistory;
     private List<String> currentBorrowedBooks;
     private List<String> reservedBooks;
     private PatronType patronType;
     
+    /**
+     * The borrowing history stays in memory until the patron is registered with a service that
+     * attaches a {@link HistoryArchive}
+     */
     public Patron(String patronId, String name, String email, String phone, PatronType patronType) {
+        this(patronId, name, email, phone, patronType, null);
+    }
+    
+    public Patron(String patronId, String name, String email, String phone, PatronType patronType,
+                  HistoryArchive historyArchive) {
         this.patronId = patronId;
         this.name = name;
         this.email = email;
         this.phone = phone;
         this.patronType = patronType;
-        this.borrowingHistory = new ArrayList<>();
+        this.borrowingHistory = new BorrowingHistory(patronId, historyArchive);
         this.currentBorrowedBooks = new ArrayList<>();
         this.reservedBooks = new ArrayList<>();
     }
@@ -44,8 +54,47 @@ public class Patron {
         return phone;
     }
     
+    /**
+     * Full borrowing history as a new list, including archived records read back from disk.
+     * Prefer the streaming or paged accessors below for long histories.
+     */
     public List<BorrowingRecord> getBorrowingHistory() {
-        return new ArrayList<>(borrowingHistory);
+        List<BorrowingRecord> history = new ArrayList<>(borrowingHistory.size());
+        borrowingHistory.forEach(history::add);
+        return history;
+    }
+    
+    /**
+     * Stream the borrowing history without copying it
+     */
+    public void forEachBorrowingRecord(Consumer<BorrowingRecord> consumer) {
+        borrowingHistory.forEach(consumer);
+    }
+    
+    public List<BorrowingRecord> getBorrowingHistoryPage(int pageNumber, int pageSize) {
+        return borrowingHistory.page(pageNumber, pageSize);
+    }
+    
+    /**
+     * Read-only view of the most recent, in-memory part of the borrowing history
+     */
+    public List<BorrowingRecord> getRecentBorrowingHistory() {
+        return borrowingHistory.recent();
+    }
+    
+    public int getBorrowingHistorySize() {
+        return borrowingHistory.size();
+    }
+    
+    /**
+     * Move older returned records to {@code archive}, including records archived there by earlier runs
+     */
+    public void attachHistoryArchive(HistoryArchive archive) {
+        borrowingHistory.attach(archive);
+    }
+    
+    public int getArchivedBorrowingHistorySize() {
+        return borrowingHistory.getArchivedCount();
     }
     
     public List<String> getCurrentBorrowedBooks() {
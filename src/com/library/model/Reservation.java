@@ -11,14 +11,23 @@ public class Reservation {
     private final String patronId;
     private final String isbn;
     private final LocalDateTime reservationDate;
-    private ReservationStatus status;
-    private LocalDateTime notificationSentDate;
+    private volatile ReservationStatus status;
+    private volatile LocalDateTime notificationSentDate;
+    private volatile String heldCopyBarcode;
+    private volatile long priorityKey;
     
     public Reservation(String reservationId, String patronId, String isbn) {
+        this(reservationId, patronId, isbn, LocalDateTime.now());
+    }
+    
+    /**
+     * Restore a reservation placed at a known time, e.g. from {@link ReservationArchive}
+     */
+    Reservation(String reservationId, String patronId, String isbn, LocalDateTime reservationDate) {
         this.reservationId = reservationId;
         this.patronId = patronId;
         this.isbn = isbn;
-        this.reservationDate = LocalDateTime.now();
+        this.reservationDate = reservationDate;
         this.status = ReservationStatus.ACTIVE;
     }
     
@@ -46,14 +55,47 @@ public class Reservation {
         return notificationSentDate;
     }
     
-    public void setStatus(ReservationStatus status) {
+    /**
+     * Barcode of the copy set aside for this hold, or null for titles without registered copies
+     */
+    public String getHeldCopyBarcode() {
+        return heldCopyBarcode;
+    }
+    
+    /**
+     * Order of the hold in a tiered queue; lower keys are served first
+     */
+    public long getPriorityKey() {
+        return priorityKey;
+    }
+    
+    public synchronized void setStatus(ReservationStatus status) {
         this.status = status;
     }
     
+    /**
+     * Change the status only if it is still {@code expected}
+     */
+    public synchronized boolean compareAndSetStatus(ReservationStatus expected, ReservationStatus status) {
+        if (this.status != expected) {
+            return false;
+        }
+        this.status = status;
+        return true;
+    }
+    
     public void setNotificationSentDate(LocalDateTime notificationSentDate) {
         this.notificationSentDate = notificationSentDate;
     }
     
+    public void setHeldCopyBarcode(String heldCopyBarcode) {
+        this.heldCopyBarcode = heldCopyBarcode;
+    }
+    
+    public void setPriorityKey(long priorityKey) {
+        this.priorityKey = priorityKey;
+    }
+    
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,151 @@
+package com.library.model;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Bounded archive of reservations that reached a terminal status.
+ *
+ * Each reservation is packed into a single byte array (status, dates as epoch milliseconds and
+ * the ids as UTF-8), a fraction of the size of the live object graph. The archive keeps the most
+ * recent {@code retention} reservations in a ring and drops the oldest beyond that, so memory is
+ * bounded regardless of lifetime traffic.
+ *
+ * Record layout: {@code [byte status][long reservedMillis][long notifiedMillis][id][patronId][isbn]},
+ * each string prefixed with its length as an unsigned short.
+ */
+public class ReservationArchive {
+    private static final long NOT_NOTIFIED = Long.MIN_VALUE;
+    private static final ReservationStatus[] STATUSES = ReservationStatus.values();
+    
+    private final byte[][] records;
+    private int next;
+    private int size;
+    private long archivedTotal;
+    
+    public ReservationArchive(int retention) {
+        if (retention <= 0) {
+            throw new IllegalArgumentException("Retention must be positive");
+        }
+        this.records = new byte[retention][];
+    }
+    
+    public synchronized void add(Reservation reservation) {
+        if (reservation.getStatus() == ReservationStatus.ACTIVE || reservation.getStatus() == ReservationStatus.NOTIFIED) {
+            throw new IllegalStateException("Only terminal reservations can be archived: " + reservation.getReservationId());
+        }
+        byte[] id = utf8(reservation.getReservationId());
+        byte[] patron = utf8(reservation.getPatronId());
+        byte[] isbn = utf8(reservation.getIsbn());
+        ByteBuffer buffer = ByteBuffer.allocate(17 + 6 + id.length + patron.length + isbn.length);
+        buffer.put((byte) reservation.getStatus().ordinal());
+        buffer.putLong(toMillis(reservation.getReservationDate()));
+        LocalDateTime notified = reservation.getNotificationSentDate();
+        buffer.putLong(notified == null ? NOT_NOTIFIED : toMillis(notified));
+        putString(buffer, id);
+        putString(buffer, patron);
+        putString(buffer, isbn);
+        records[next] = buffer.array();
+        next = (next + 1) % records.length;
+        size = Math.min(size + 1, records.length);
+        archivedTotal++;
+    }
+    
+    /**
+     * Number of reservations currently retained
+     */
+    public synchronized int size() {
+        return size;
+    }
+    
+    /**
+     * Number of reservations ever archived, including those dropped by retention
+     */
+    public synchronized long getArchivedTotal() {
+        return archivedTotal;
+    }
+    
+    public int getRetention() {
+        return records.length;
+    }
+    
+    /**
+     * Visit retained reservations, oldest first; each is decoded into a new object
+     */
+    public void forEach(Consumer<Reservation> consumer) {
+        for (byte[] record : snapshot()) {
+            consumer.accept(decode(record));
+        }
+    }
+    
+    /**
+     * Retained reservations of a patron, oldest first. Scans the whole archive.
+     */
+    public List<Reservation> findByPatronId(String patronId) {
+        List<Reservation> matches = new ArrayList<>();
+        forEach(reservation -> {
+            if (reservation.getPatronId().equals(patronId)) {
+                matches.add(reservation);
+            }
+        });
+        return matches;
+    }
+    
+    private synchronized List<byte[]> snapshot() {
+        List<byte[]> snapshot = new ArrayList<>(size);
+        int start = (next - size + records.length) % records.length;
+        for (int i = 0; i < size; i++) {
+            snapshot.add(records[(start + i) % records.length]);
+        }
+        return snapshot;
+    }
+    
+    private static Reservation decode(byte[] record) {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        ReservationStatus status = STATUSES[buffer.get()];
+        LocalDateTime reserved = fromMillis(buffer.getLong());
+        long notifiedMillis = buffer.getLong();
+        String id = getString(buffer);
+        String patronId = getString(buffer);
+        String isbn = getString(buffer);
+        Reservation reservation = new Reservation(id, patronId, isbn, reserved);
+        reservation.setStatus(status);
+        if (notifiedMillis != NOT_NOTIFIED) {
+            reservation.setNotificationSentDate(fromMillis(notifiedMillis));
+        }
+        return reservation;
+    }
+    
+    private static long toMillis(LocalDateTime dateTime) {
+        return dateTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+    
+    private static LocalDateTime fromMillis(long millis) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000), Math.floorMod(millis, 1000) * 1_000_000,
+                                           ZoneOffset.UTC);
+    }
+    
+    private static byte[] utf8(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Identifier too long to archive");
+        }
+        return bytes;
+    }
+    
+    private static void putString(ByteBuffer buffer, byte[] value) {
+        buffer.putShort((short) value.length).put(value);
+    }
+    
+    private static String getString(ByteBuffer buffer) {
+        int length = Short.toUnsignedInt(buffer.getShort());
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
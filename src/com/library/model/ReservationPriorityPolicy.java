@@ -0,0 +1,51 @@
+package com.library.model;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Per-PatronType priority tiers for reservation queues, expressed as a head start.
+ *
+ * A hold queues as if it had been placed {@code headStart} earlier than it was, so a new faculty
+ * hold with a 7-day head start goes ahead of student holds placed within the last 7 days but
+ * behind older ones. Holds age into the front: once a hold has waited longer than the gap between
+ * two tiers, nothing from the higher tier can overtake it. Within a tier the order stays FIFO.
+ */
+public class ReservationPriorityPolicy {
+    private final Map<PatronType, Duration> headStarts;
+    
+    public ReservationPriorityPolicy() {
+        this.headStarts = new EnumMap<>(PatronType.class);
+        for (PatronType type : PatronType.values()) {
+            headStarts.put(type, Duration.ZERO);
+        }
+    }
+    
+    public static ReservationPriorityPolicy defaultPolicy() {
+        ReservationPriorityPolicy policy = new ReservationPriorityPolicy();
+        policy.setHeadStart(PatronType.FACULTY, Duration.ofDays(7));
+        policy.setHeadStart(PatronType.GENERAL, Duration.ofDays(1));
+        return policy;
+    }
+    
+    public void setHeadStart(PatronType patronType, Duration headStart) {
+        if (headStart.isNegative()) {
+            throw new IllegalArgumentException("Head start must not be negative");
+        }
+        headStarts.put(patronType, headStart);
+    }
+    
+    public Duration getHeadStart(PatronType patronType) {
+        return headStarts.get(patronType);
+    }
+    
+    /**
+     * Queue key of a hold placed at {@code reservedAt}; lower keys are served first
+     */
+    public long priorityKey(PatronType patronType, LocalDateTime reservedAt) {
+        return reservedAt.toInstant(ZoneOffset.UTC).toEpochMilli() - headStarts.get(patronType).toMillis();
+    }
+}
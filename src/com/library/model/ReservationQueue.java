@@ -0,0 +1,66 @@
+package com.library.model;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Waiting line of reservations for one title, with position lookup and cancellation from anywhere.
+ * Implementations are safe for concurrent use.
+ */
+public interface ReservationQueue extends Iterable<Reservation> {
+    
+    /**
+     * Add a reservation to the queue
+     * @throws IllegalStateException if the queue was closed by {@link #closeIfEmpty}
+     */
+    void add(Reservation reservation);
+    
+    /**
+     * Add a reservation to the queue
+     * @return false if the queue was closed by {@link #closeIfEmpty}
+     */
+    boolean offer(Reservation reservation);
+    
+    /**
+     * Remove a reservation from anywhere in the queue
+     * @return false if the reservation was not queued, or was claimed concurrently
+     */
+    boolean remove(Reservation reservation);
+    
+    /**
+     * First reservation in line without claiming it, or null if the queue is empty
+     */
+    Reservation peek();
+    
+    /**
+     * First reservation in line that matches, without claiming it, or null if there is none
+     */
+    Reservation peekFirst(Predicate<Reservation> filter);
+    
+    /**
+     * Claim and remove the first reservation in line; exactly one caller wins each reservation
+     */
+    Reservation poll();
+    
+    /**
+     * 1-based position of a reservation, or 0 if it is not queued
+     */
+    int positionOf(Reservation reservation);
+    
+    boolean contains(Reservation reservation);
+    
+    int size();
+    
+    boolean isEmpty();
+    
+    /**
+     * Close the queue against further offers if it is empty, so it can be dropped safely
+     * @return true if the queue is now closed
+     */
+    boolean closeIfEmpty();
+    
+    /**
+     * Queued reservations in line order, as a new list
+     */
+    List<Reservation> toList();
+}
@@ -0,0 +1,299 @@
+package com.library.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * {@link ReservationQueue} ordered by {@link Reservation#getPriorityKey()}, FIFO among equal keys.
+ *
+ * Reservations sit in a treap ordered by (priority key, arrival number), where each node also
+ * counts its subtree. Adding, cancelling, claiming the head, looking up a position and moving a
+ * reservation to another tier are all O(log n) expected, and nothing is ever re-sorted: keys are
+ * fixed when a hold is placed (see {@link ReservationPriorityPolicy}), so aging needs no updates.
+ * All operations take the queue's lock, which is per title.
+ */
+public class TieredReservationQueue implements ReservationQueue {
+    
+    private static final class Node {
+        final Reservation reservation;
+        final long arrival;
+        final int weight;
+        long key;
+        int size;
+        Node left;
+        Node right;
+        
+        Node(Reservation reservation, long key, long arrival, int weight) {
+            this.reservation = reservation;
+            this.key = key;
+            this.arrival = arrival;
+            this.weight = weight;
+            this.size = 1;
+        }
+    }
+    
+    private final Map<String, Node> nodes; // ReservationId -> node
+    private Node root;
+    private long arrivals;
+    private int seed;
+    private boolean closed;
+    
+    public TieredReservationQueue() {
+        this.nodes = new HashMap<>();
+        this.seed = 0x9E3779B9;
+    }
+    
+    @Override
+    public void add(Reservation reservation) {
+        if (!offer(reservation)) {
+            throw new IllegalStateException("Reservation queue is closed");
+        }
+    }
+    
+    @Override
+    public synchronized boolean offer(Reservation reservation) {
+        if (closed) {
+            return false;
+        }
+        if (nodes.containsKey(reservation.getReservationId())) {
+            throw new IllegalStateException("Reservation is already queued: " + reservation.getReservationId());
+        }
+        Node node = new Node(reservation, reservation.getPriorityKey(), arrivals++, nextWeight());
+        nodes.put(reservation.getReservationId(), node);
+        root = insert(root, node);
+        return true;
+    }
+    
+    @Override
+    public synchronized boolean remove(Reservation reservation) {
+        Node node = nodes.get(reservation.getReservationId());
+        if (node == null || node.reservation != reservation) {
+            return false;
+        }
+        nodes.remove(reservation.getReservationId());
+        root = erase(root, node);
+        return true;
+    }
+    
+    /**
+     * Move a queued reservation to the place its new priority key puts it, keeping its arrival
+     * order among holds with the same key
+     * @return false if the reservation is not queued
+     */
+    public synchronized boolean reprioritize(Reservation reservation, long priorityKey) {
+        Node node = nodes.get(reservation.getReservationId());
+        if (node == null || node.reservation != reservation) {
+            return false;
+        }
+        root = erase(root, node);
+        node.key = priorityKey;
+        node.left = null;
+        node.right = null;
+        node.size = 1;
+        root = insert(root, node);
+        reservation.setPriorityKey(priorityKey);
+        return true;
+    }
+    
+    @Override
+    public synchronized Reservation peek() {
+        Node node = root;
+        if (node == null) {
+            return null;
+        }
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node.reservation;
+    }
+    
+    /**
+     * First matching reservation in line; walks in order from the head, so it is cheap when a
+     * match is near the front
+     */
+    @Override
+    public synchronized Reservation peekFirst(Predicate<Reservation> filter) {
+        Deque<Node> path = new ArrayDeque<>();
+        Node node = root;
+        while (node != null || !path.isEmpty()) {
+            while (node != null) {
+                path.push(node);
+                node = node.left;
+            }
+            node = path.pop();
+            if (filter.test(node.reservation)) {
+                return node.reservation;
+            }
+            node = node.right;
+        }
+        return null;
+    }
+    
+    @Override
+    public synchronized Reservation poll() {
+        Reservation head = peek();
+        if (head != null) {
+            remove(head);
+        }
+        return head;
+    }
+    
+    @Override
+    public synchronized int positionOf(Reservation reservation) {
+        Node target = nodes.get(reservation.getReservationId());
+        if (target == null || target.reservation != reservation) {
+            return 0;
+        }
+        int position = 0;
+        Node node = root;
+        while (node != target) {
+            if (before(node, target)) {
+                position += size(node.left) + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return position + size(node.left) + 1;
+    }
+    
+    @Override
+    public synchronized boolean contains(Reservation reservation) {
+        Node node = nodes.get(reservation.getReservationId());
+        return node != null && node.reservation == reservation;
+    }
+    
+    @Override
+    public synchronized int size() {
+        return size(root);
+    }
+    
+    @Override
+    public synchronized boolean isEmpty() {
+        return root == null;
+    }
+    
+    @Override
+    public synchronized boolean closeIfEmpty() {
+        if (root == null) {
+            closed = true;
+        }
+        return closed;
+    }
+    
+    @Override
+    public synchronized List<Reservation> toList() {
+        List<Reservation> list = new ArrayList<>(size(root));
+        collect(root, list);
+        return list;
+    }
+    
+    @Override
+    public Iterator<Reservation> iterator() {
+        return toList().iterator();
+    }
+    
+    private static boolean before(Node a, Node b) {
+        return a.key != b.key ? a.key < b.key : a.arrival < b.arrival;
+    }
+    
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+    
+    private static void update(Node node) {
+        node.size = size(node.left) + size(node.right) + 1;
+    }
+    
+    private static Node insert(Node node, Node added) {
+        if (node == null) {
+            return added;
+        }
+        if (added.weight > node.weight) {
+            split(node, added);
+            update(added);
+            return added;
+        }
+        if (before(added, node)) {
+            node.left = insert(node.left, added);
+        } else {
+            node.right = insert(node.right, added);
+        }
+        update(node);
+        return node;
+    }
+    
+    /**
+     * Split a subtree around {@code pivot} into its left and right children
+     */
+    private static void split(Node node, Node pivot) {
+        if (node == null) {
+            pivot.left = null;
+            pivot.right = null;
+            return;
+        }
+        if (before(node, pivot)) {
+            split(node.right, pivot);
+            node.right = pivot.left;
+            update(node);
+            pivot.left = node;
+        } else {
+            split(node.left, pivot);
+            node.left = pivot.right;
+            update(node);
+            pivot.right = node;
+        }
+    }
+    
+    private static Node erase(Node node, Node removed) {
+        if (node == removed) {
+            return merge(node.left, node.right);
+        }
+        if (before(removed, node)) {
+            node.left = erase(node.left, removed);
+        } else {
+            node.right = erase(node.right, removed);
+        }
+        update(node);
+        return node;
+    }
+    
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.weight > right.weight) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        update(right);
+        return right;
+    }
+    
+    private static void collect(Node node, List<Reservation> list) {
+        while (node != null) {
+            collect(node.left, list);
+            list.add(node.reservation);
+            node = node.right;
+        }
+    }
+    
+    private int nextWeight() {
+        // xorshift; only needs to be well spread, not unpredictable
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed;
+    }
+}
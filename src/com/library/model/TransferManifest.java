@@ -0,0 +1,116 @@
+package com.library.model;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A batch of books sent from one branch to another in a single van run.
+ * Lists the ISBNs that were dispatched, one entry per item, and the ones that were rejected with
+ * the reason; dispatched items are {@link BookStatus#IN_TRANSIT} until the manifest is received.
+ */
+public class TransferManifest {
+    
+    public enum Status {
+        IN_TRANSIT,
+        RECEIVED
+    }
+    
+    private final String manifestId;
+    private final String fromBranchId;
+    private final String toBranchId;
+    private final List<String> dispatchedIsbns;
+    private final Map<String, String> rejectedIsbns;
+    private final LocalDateTime dispatchedDate;
+    private volatile LocalDateTime receivedDate;
+    private volatile Status status;
+    
+    public TransferManifest(String manifestId, String fromBranchId, String toBranchId,
+                            List<String> dispatchedIsbns, Map<String, String> rejectedIsbns) {
+        this.manifestId = manifestId;
+        this.fromBranchId = fromBranchId;
+        this.toBranchId = toBranchId;
+        this.dispatchedIsbns = Collections.unmodifiableList(dispatchedIsbns);
+        this.rejectedIsbns = Collections.unmodifiableMap(rejectedIsbns);
+        this.dispatchedDate = LocalDateTime.now();
+        this.status = Status.IN_TRANSIT;
+    }
+    
+    public String getManifestId() {
+        return manifestId;
+    }
+    
+    public String getFromBranchId() {
+        return fromBranchId;
+    }
+    
+    public String getToBranchId() {
+        return toBranchId;
+    }
+    
+    /**
+     * ISBNs put on the van, once per item; a title may appear once per copy moved
+     */
+    public List<String> getDispatchedIsbns() {
+        return dispatchedIsbns;
+    }
+    
+    /**
+     * ISBNs left behind, with the reason for the first rejection of each
+     */
+    public Map<String, String> getRejectedIsbns() {
+        return rejectedIsbns;
+    }
+    
+    public LocalDateTime getDispatchedDate() {
+        return dispatchedDate;
+    }
+    
+    public LocalDateTime getReceivedDate() {
+        return receivedDate;
+    }
+    
+    public Status getStatus() {
+        return status;
+    }
+    
+    /**
+     * Mark the manifest received
+     * @return false if it had already been received
+     */
+    public synchronized boolean markReceived() {
+        if (status == Status.RECEIVED) {
+            return false;
+        }
+        receivedDate = LocalDateTime.now();
+        status = Status.RECEIVED;
+        return true;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TransferManifest that = (TransferManifest) o;
+        return Objects.equals(manifestId, that.manifestId);
+    }
+    
+    @Override
+    public int hashCode() {
+        return Objects.hash(manifestId);
+    }
+    
+    @Override
+    public String toString() {
+        return "TransferManifest{" +
+                "manifestId='" + manifestId + '\'' +
+                ", fromBranchId='" + fromBranchId + '\'' +
+                ", toBranchId='" + toBranchId + '\'' +
+                ", dispatched=" + dispatchedIsbns.size() +
+                ", rejected=" + rejectedIsbns.size() +
+                ", status=" + status +
+                '}';
+    }
+}
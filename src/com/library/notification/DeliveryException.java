@@ -0,0 +1,38 @@
+package com.library.notification;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown by a {@link NotificationTransport} when some notifications of a batch were not delivered.
+ * Retryable notifications hit a transient failure and may be sent again; rejected ones must not.
+ */
+public class DeliveryException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    
+    private final List<Notification> retryable;
+    private final List<Notification> rejected;
+    
+    public DeliveryException(String message, List<Notification> retryable, List<Notification> rejected) {
+        this(message, retryable, rejected, null);
+    }
+    
+    public DeliveryException(String message, List<Notification> retryable, List<Notification> rejected,
+                             Throwable cause) {
+        super(message, cause);
+        this.retryable = Collections.unmodifiableList(retryable);
+        this.rejected = Collections.unmodifiableList(rejected);
+    }
+    
+    public boolean isTransient() {
+        return !retryable.isEmpty();
+    }
+    
+    public List<Notification> getRetryable() {
+        return retryable;
+    }
+    
+    public List<Notification> getRejected() {
+        return rejected;
+    }
+}
@@ -0,0 +1,199 @@
+package com.library.notification;
+
+import com.library.util.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for an SMTP relay / SMS gateway, listening on the loopback interface.
+ * Speaks the {@link WireFormat} protocol, counts what it accepted and can inject transient
+ * failures so retry behaviour can be exercised in tests and throughput measurements.
+ * Like a real idempotent gateway it acknowledges, but does not deliver again, a notification
+ * whose idempotency key it has already seen for the same recipient.
+ */
+public class LocalDeliveryServer implements AutoCloseable {
+    private static final int SEEN_KEY_CAPACITY = 1_000_000;
+    
+    private final Map<NotificationChannel, AtomicLong> delivered;
+    private final Set<String> seenKeys;
+    private final AtomicLong duplicates;
+    private final AtomicLong transientFailures;
+    private final ExecutorService connectionHandlers;
+    private final Logger logger;
+    private volatile double transientFailureRate;
+    private volatile boolean running;
+    private ServerSocket serverSocket;
+    
+    public LocalDeliveryServer() {
+        this.delivered = new EnumMap<>(NotificationChannel.class);
+        for (NotificationChannel channel : NotificationChannel.values()) {
+            delivered.put(channel, new AtomicLong());
+        }
+        this.seenKeys = Collections.newSetFromMap(Collections.synchronizedMap(
+            new LinkedHashMap<String, Boolean>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > SEEN_KEY_CAPACITY;
+                }
+            }));
+        this.duplicates = new AtomicLong();
+        this.transientFailures = new AtomicLong();
+        this.connectionHandlers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "local-delivery-connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.logger = Logger.getInstance();
+    }
+    
+    /**
+     * Bind to an ephemeral loopback port and start accepting connections
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        running = true;
+        Thread acceptor = new Thread(this::acceptLoop, "local-delivery-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        logger.info("Local delivery server listening on port " + serverSocket.getLocalPort());
+    }
+    
+    public int getPort() {
+        if (serverSocket == null) {
+            throw new IllegalStateException("Server not started");
+        }
+        return serverSocket.getLocalPort();
+    }
+    
+    /**
+     * Fraction (0..1) of notifications answered with a transient failure instead of being accepted
+     */
+    public void setTransientFailureRate(double transientFailureRate) {
+        if (transientFailureRate < 0 || transientFailureRate >= 1) {
+            throw new IllegalArgumentException("Failure rate must be in [0, 1)");
+        }
+        this.transientFailureRate = transientFailureRate;
+    }
+    
+    public long getDeliveredCount(NotificationChannel channel) {
+        return delivered.get(channel).get();
+    }
+    
+    public long getDeliveredCount() {
+        long total = 0;
+        for (AtomicLong count : delivered.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+    
+    /**
+     * Number of notifications acknowledged without delivery because their idempotency key was already seen
+     */
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+    
+    public long getTransientFailureCount() {
+        return transientFailures.get();
+    }
+    
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                connectionHandlers.execute(() -> handle(socket));
+            } catch (SocketException e) {
+                // Socket closed by close()
+                return;
+            } catch (IOException e) {
+                logger.error("Local delivery server accept failed: " + e.getMessage());
+            }
+        }
+    }
+    
+    private void handle(Socket socket) {
+        try (socket;
+             BufferedReader reader = new BufferedReader(
+                 new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter writer = new BufferedWriter(
+                 new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                writer.write(accept(line));
+                writer.write('\n');
+                // Pipelined clients send many lines at once; only flush when the burst is consumed
+                if (!reader.ready()) {
+                    writer.flush();
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                logger.warn("Local delivery connection closed: " + e.getMessage());
+            }
+        }
+    }
+    
+    private String accept(String line) {
+        String[] fields = WireFormat.decode(line);
+        if (fields == null) {
+            return WireFormat.REPLY_REJECT;
+        }
+        NotificationChannel channel;
+        try {
+            channel = NotificationChannel.valueOf(fields[0]);
+        } catch (IllegalArgumentException e) {
+            return WireFormat.REPLY_REJECT;
+        }
+        String dedupKey = fields[1].isEmpty() ? null : fields[0] + '\t' + fields[2] + '\t' + fields[1];
+        if (dedupKey != null && seenKeys.contains(dedupKey)) {
+            duplicates.incrementAndGet();
+            return WireFormat.REPLY_OK;
+        }
+        double failureRate = transientFailureRate;
+        if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            transientFailures.incrementAndGet();
+            return WireFormat.REPLY_RETRY;
+        }
+        if (dedupKey != null && !seenKeys.add(dedupKey)) {
+            duplicates.incrementAndGet();
+            return WireFormat.REPLY_OK;
+        }
+        delivered.get(channel).incrementAndGet();
+        return WireFormat.REPLY_OK;
+    }
+    
+    @Override
+    public synchronized void close() {
+        running = false;
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close local delivery server: " + e.getMessage());
+            }
+        }
+        connectionHandlers.shutdownNow();
+    }
+}
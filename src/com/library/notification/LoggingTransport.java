@@ -0,0 +1,29 @@
+package com.library.notification;
+
+import com.library.util.Logger;
+
+import java.util.List;
+
+/**
+ * Transport that only logs notifications. Used when no real delivery backend is configured.
+ */
+public class LoggingTransport implements NotificationTransport {
+    private final Logger logger;
+    
+    public LoggingTransport() {
+        this.logger = Logger.getInstance();
+    }
+    
+    @Override
+    public void send(List<Notification> batch) {
+        for (Notification notification : batch) {
+            if (notification.getChannel() == NotificationChannel.EMAIL) {
+                logger.info("EMAIL sent to " + notification.getRecipient() + ": " + notification.getMessage());
+                System.out.println("📧 Email sent to " + notification.getRecipient() + ": " + notification.getMessage());
+            } else {
+                logger.info("SMS sent to " + notification.getRecipient() + ": " + notification.getMessage());
+                System.out.println("📱 SMS sent to " + notification.getRecipient() + ": " + notification.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.library.notification;
+
+import java.util.Objects;
+
+/**
+ * Immutable notification handed to a delivery transport.
+ */
+public final class Notification {
+    private final NotificationChannel channel;
+    private final String recipient;
+    private final String message;
+    private final String idempotencyKey;
+    
+    public Notification(NotificationChannel channel, String recipient, String message) {
+        this(channel, recipient, message, null);
+    }
+    
+    /**
+     * @param idempotencyKey key identifying the originating event, or null if replays need no de-duplication
+     */
+    public Notification(NotificationChannel channel, String recipient, String message, String idempotencyKey) {
+        this.channel = Objects.requireNonNull(channel, "channel");
+        this.recipient = Objects.requireNonNull(recipient, "recipient");
+        this.message = Objects.requireNonNull(message, "message");
+        this.idempotencyKey = idempotencyKey;
+    }
+    
+    public NotificationChannel getChannel() {
+        return channel;
+    }
+    
+    public String getRecipient() {
+        return recipient;
+    }
+    
+    public String getMessage() {
+        return message;
+    }
+    
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+    
+    @Override
+    public String toString() {
+        return "Notification{" +
+                "channel=" + channel +
+                ", recipient='" + recipient + '\'' +
+                ", message='" + message + '\'' +
+                '}';
+    }
+}
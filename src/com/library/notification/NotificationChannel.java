@@ -0,0 +1,9 @@
+package com.library.notification;
+
+/**
+ * Enum representing the delivery channel of a notification.
+ */
+public enum NotificationChannel {
+    EMAIL,
+    SMS
+}
@@ -0,0 +1,194 @@
+package com.library.notification;
+
+import com.library.util.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous, batching front-end for a {@link NotificationTransport}.
+ * Notifications are queued, drained by worker threads into batches of up to {@code batchSize},
+ * and retried according to a {@link RetryPolicy} when the transport reports transient failures.
+ */
+public class NotificationDispatcher implements AutoCloseable {
+    private static final long POLL_MILLIS = 50;
+    
+    private final NotificationTransport transport;
+    private final RetryPolicy retryPolicy;
+    private final int batchSize;
+    private final BlockingQueue<Notification> queue;
+    private final List<Thread> workers;
+    private final AtomicLong outstanding;
+    private final AtomicLong delivered;
+    private final AtomicLong failed;
+    private final AtomicLong retries;
+    private final Object idleMonitor;
+    private final Logger logger;
+    private volatile boolean running;
+    
+    public NotificationDispatcher(NotificationTransport transport) {
+        this(transport, 2, 256, 100_000, RetryPolicy.defaultPolicy());
+    }
+    
+    public NotificationDispatcher(NotificationTransport transport, int workerCount, int batchSize,
+                                  int queueCapacity, RetryPolicy retryPolicy) {
+        if (workerCount <= 0 || batchSize <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("Worker count, batch size and queue capacity must be positive");
+        }
+        this.transport = transport;
+        this.retryPolicy = retryPolicy;
+        this.batchSize = batchSize;
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.workers = new ArrayList<>();
+        this.outstanding = new AtomicLong();
+        this.delivered = new AtomicLong();
+        this.failed = new AtomicLong();
+        this.retries = new AtomicLong();
+        this.idleMonitor = new Object();
+        this.logger = Logger.getInstance();
+        this.running = true;
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::workLoop, "notification-dispatcher-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+    
+    /**
+     * Queue a notification for delivery. Blocks while the queue is full (backpressure).
+     */
+    public void submit(Notification notification) {
+        if (!running) {
+            throw new IllegalStateException("Dispatcher is closed");
+        }
+        outstanding.incrementAndGet();
+        try {
+            queue.put(notification);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            complete(1);
+            throw new IllegalStateException("Interrupted while queueing notification", e);
+        }
+    }
+    
+    /**
+     * Wait until every submitted notification has been delivered or given up on
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (idleMonitor) {
+            while (outstanding.get() > 0) {
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMillis <= 0) {
+                    return false;
+                }
+                idleMonitor.wait(remainingMillis);
+            }
+        }
+        return true;
+    }
+    
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+    
+    public long getFailedCount() {
+        return failed.get();
+    }
+    
+    public long getRetryCount() {
+        return retries.get();
+    }
+    
+    public int getQueuedCount() {
+        return queue.size();
+    }
+    
+    private void workLoop() {
+        List<Notification> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Notification first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                deliver(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                complete(batch.size());
+                batch.clear();
+            }
+        }
+    }
+    
+    private void deliver(List<Notification> batch) throws InterruptedException {
+        List<Notification> pending = batch;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                transport.send(pending);
+                delivered.addAndGet(pending.size());
+                return;
+            } catch (DeliveryException e) {
+                int notDelivered = e.getRetryable().size() + e.getRejected().size();
+                delivered.addAndGet(pending.size() - notDelivered);
+                if (!e.getRejected().isEmpty()) {
+                    failed.addAndGet(e.getRejected().size());
+                    logger.error("Notification delivery rejected for " + e.getRejected().size() +
+                                " notifications: " + e.getMessage());
+                }
+                if (!e.isTransient()) {
+                    return;
+                }
+                pending = new ArrayList<>(e.getRetryable());
+            } catch (RuntimeException e) {
+                // Unknown transport failure: assume nothing from this attempt was accepted
+                logger.warn("Notification transport failed: " + e.getMessage());
+            }
+            
+            if (attempt >= retryPolicy.getMaxAttempts()) {
+                failed.addAndGet(pending.size());
+                logger.error("Giving up on " + pending.size() + " notifications after " + attempt + " attempts");
+                return;
+            }
+            retries.addAndGet(pending.size());
+            long delay = retryPolicy.backoffMillis(attempt);
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+        }
+    }
+    
+    private void complete(int count) {
+        if (count > 0 && outstanding.addAndGet(-count) == 0) {
+            synchronized (idleMonitor) {
+                idleMonitor.notifyAll();
+            }
+        }
+    }
+    
+    /**
+     * Stop accepting notifications, drain the queue and close the transport
+     */
+    @Override
+    public void close() {
+        running = false;
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        transport.close();
+    }
+}
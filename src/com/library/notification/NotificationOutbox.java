@@ -0,0 +1,325 @@
+package com.library.notification;
+
+import com.library.util.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, file-backed outbox for notifications (transactional outbox pattern).
+ * Services append an entry as part of a state change; an {@link OutboxRelay} delivers entries
+ * later and acknowledges them in batches by advancing a persisted high-water mark.
+ *
+ * File layout: {@code [long baseOffset]} followed by records
+ * {@code [int payloadLength][int crc32][long sequence][int keyLength][key][message]}.
+ * On open only the region after the high-water mark is scanned, and a torn tail is truncated.
+ *
+ * Entry offsets are logical: they keep growing across compactions, which rewrite the log without
+ * its delivered prefix and record the offset the new file starts at as its base. Compaction runs
+ * on acknowledgement once the delivered prefix is large and at least as long as the rest, so each
+ * byte is copied a bounded number of times. Reading and acknowledging belong to a single reader,
+ * normally the relay, since compaction replaces the file under it.
+ */
+public class NotificationOutbox implements AutoCloseable {
+    private static final int HEADER_BYTES = 8;
+    private static final int FILE_HEADER_BYTES = 8;
+    private static final long COMPACT_THRESHOLD_BYTES = 1 << 20;
+    
+    private final Path logFile;
+    private final Path markFile;
+    private final boolean syncOnAppend;
+    private final Logger logger;
+    private volatile FileChannel channel;
+    private volatile long baseOffset;
+    private volatile long appendPosition;
+    private volatile long acknowledgedOffset;
+    private volatile long acknowledgedSequence;
+    private long nextSequence;
+    
+    private NotificationOutbox(Path directory, String name, boolean syncOnAppend) throws IOException {
+        Files.createDirectories(directory);
+        this.logFile = directory.resolve(name + ".log");
+        this.markFile = directory.resolve(name + ".hwm");
+        this.channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE);
+        this.syncOnAppend = syncOnAppend;
+        this.logger = Logger.getInstance();
+        recover();
+    }
+    
+    /**
+     * Open (or create) the outbox {@code name} in the given directory
+     */
+    public static NotificationOutbox open(Path directory, String name) throws IOException {
+        return new NotificationOutbox(directory, name, true);
+    }
+    
+    /**
+     * Open an outbox that leaves flushing to the OS; faster, but may lose the newest entries on power loss
+     */
+    public static NotificationOutbox openUnsynced(Path directory, String name) throws IOException {
+        return new NotificationOutbox(directory, name, false);
+    }
+    
+    private void recover() throws IOException {
+        long offset = 0;
+        long sequence = 0;
+        if (Files.exists(markFile)) {
+            String[] mark = Files.readString(markFile, StandardCharsets.UTF_8).trim().split(" ");
+            offset = Long.parseLong(mark[0]);
+            sequence = Long.parseLong(mark[1]);
+        }
+        acknowledgedOffset = offset;
+        acknowledgedSequence = sequence;
+        
+        if (channel.size() < FILE_HEADER_BYTES) {
+            // A new log; a compacted one only replaces the old file once it is complete
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES).putLong(0L);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+            readFully(header, 0);
+            baseOffset = header.getLong(0);
+        }
+        
+        // Only the undelivered tail is scanned to find the append position and last sequence
+        long position = Math.max(offset, baseOffset);
+        long end = baseOffset + channel.size() - FILE_HEADER_BYTES;
+        long lastSequence = sequence;
+        while (position < end) {
+            OutboxEntry entry = readAt(position, end);
+            if (entry == null) {
+                logger.warn("Truncating torn outbox tail at offset " + position + " in " + logFile);
+                channel.truncate(filePosition(position));
+                break;
+            }
+            lastSequence = entry.getSequence();
+            position = entry.getNextOffset();
+        }
+        appendPosition = position;
+        nextSequence = lastSequence + 1;
+        if (position > offset) {
+            logger.info("Outbox " + logFile.getFileName() + " recovered " + (lastSequence - sequence) +
+                       " undelivered entries");
+        }
+    }
+    
+    /**
+     * Append a notification; returns its sequence number once it is durably recorded
+     */
+    public synchronized long append(String idempotencyKey, String message) {
+        byte[] key = idempotencyKey.getBytes(StandardCharsets.UTF_8);
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        long sequence = nextSequence;
+        int payloadLength = 8 + 4 + key.length + body.length;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payloadLength);
+        buffer.putInt(payloadLength).putInt(0).putLong(sequence).putInt(key.length).put(key).put(body);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_BYTES, payloadLength);
+        buffer.putInt(4, (int) crc.getValue());
+        buffer.flip();
+        try {
+            long position = filePosition(appendPosition);
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            if (syncOnAppend) {
+                channel.force(false);
+            }
+            appendPosition = baseOffset + position - FILE_HEADER_BYTES;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to outbox " + logFile, e);
+        }
+        nextSequence = sequence + 1;
+        notifyAll();
+        return sequence;
+    }
+    
+    /**
+     * Read up to {@code maxEntries} entries starting at the given offset
+     */
+    public List<OutboxEntry> read(long fromOffset, int maxEntries) {
+        List<OutboxEntry> entries = new ArrayList<>();
+        long limit = appendPosition;
+        long position = fromOffset;
+        try {
+            while (position < limit && entries.size() < maxEntries) {
+                OutboxEntry entry = readAt(position, limit);
+                if (entry == null) {
+                    throw new IllegalStateException("Corrupt outbox record at offset " + position);
+                }
+                entries.add(entry);
+                position = entry.getNextOffset();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read outbox " + logFile, e);
+        }
+        return entries;
+    }
+    
+    private OutboxEntry readAt(long position, long limit) throws IOException {
+        if (limit - position < HEADER_BYTES) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(header, filePosition(position));
+        int payloadLength = header.getInt(0);
+        int checksum = header.getInt(4);
+        if (payloadLength < 12 || position + HEADER_BYTES + payloadLength > limit) {
+            return null;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+        readFully(payload, filePosition(position) + HEADER_BYTES);
+        CRC32 crc = new CRC32();
+        crc.update(payload.array(), 0, payloadLength);
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        payload.flip();
+        long sequence = payload.getLong();
+        int keyLength = payload.getInt();
+        if (keyLength < 0 || keyLength > payloadLength - 12) {
+            return null;
+        }
+        String key = new String(payload.array(), 12, keyLength, StandardCharsets.UTF_8);
+        String message = new String(payload.array(), 12 + keyLength, payloadLength - 12 - keyLength,
+                                    StandardCharsets.UTF_8);
+        return new OutboxEntry(sequence, key, message, position, position + HEADER_BYTES + payloadLength);
+    }
+    
+    private long filePosition(long offset) {
+        return offset - baseOffset + FILE_HEADER_BYTES;
+    }
+    
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of outbox file");
+            }
+        }
+    }
+    
+    /**
+     * Persist the high-water mark: every entry up to and including {@code lastDelivered} was delivered
+     */
+    public synchronized void acknowledge(OutboxEntry lastDelivered) {
+        if (lastDelivered.getNextOffset() <= acknowledgedOffset) {
+            return;
+        }
+        Path temp = markFile.resolveSibling(markFile.getFileName() + ".tmp");
+        String mark = lastDelivered.getNextOffset() + " " + lastDelivered.getSequence();
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                out.write(ByteBuffer.wrap(mark.getBytes(StandardCharsets.UTF_8)));
+                if (syncOnAppend) {
+                    out.force(true);
+                }
+            }
+            Files.move(temp, markFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to persist outbox high-water mark " + markFile, e);
+        }
+        acknowledgedOffset = lastDelivered.getNextOffset();
+        acknowledgedSequence = lastDelivered.getSequence();
+        long delivered = acknowledgedOffset - baseOffset;
+        if (delivered >= COMPACT_THRESHOLD_BYTES && delivered >= appendPosition - acknowledgedOffset) {
+            compact();
+        }
+    }
+    
+    /**
+     * Rewrite the log without the entries delivered so far; offsets of the remaining entries do not change
+     */
+    public synchronized void compact() {
+        long start = acknowledgedOffset;
+        if (start == baseOffset) {
+            return;
+        }
+        Path temp = logFile.resolveSibling(logFile.getFileName() + ".compact");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES).putLong(start);
+                header.flip();
+                while (header.hasRemaining()) {
+                    out.write(header);
+                }
+                long from = filePosition(start);
+                long to = filePosition(appendPosition);
+                while (from < to) {
+                    from += channel.transferTo(from, to - from, out);
+                }
+                if (syncOnAppend) {
+                    out.force(true);
+                }
+            }
+            Files.move(temp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            FileChannel previous = channel;
+            channel = FileChannel.open(logFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            baseOffset = start;
+            previous.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to compact outbox " + logFile, e);
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info("Compacted outbox " + logFile.getFileName() + " to offset " + start);
+        }
+    }
+    
+    /**
+     * Bytes of the log file, including delivered entries not yet compacted away
+     */
+    public long getLogSize() {
+        return appendPosition - baseOffset + FILE_HEADER_BYTES;
+    }
+    
+    /**
+     * Wait until something is appended beyond {@code offset}, or the timeout elapses
+     */
+    synchronized void awaitAppend(long offset, long timeoutMillis) throws InterruptedException {
+        if (appendPosition <= offset) {
+            wait(timeoutMillis);
+        }
+    }
+    
+    public long getAcknowledgedOffset() {
+        return acknowledgedOffset;
+    }
+    
+    public long getAcknowledgedSequence() {
+        return acknowledgedSequence;
+    }
+    
+    public synchronized long getLastSequence() {
+        return nextSequence - 1;
+    }
+    
+    public long getPendingCount() {
+        return getLastSequence() - acknowledgedSequence;
+    }
+    
+    @Override
+    public synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close outbox " + logFile + ": " + e.getMessage());
+        }
+    }
+}
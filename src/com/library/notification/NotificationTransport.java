@@ -0,0 +1,20 @@
+package com.library.notification;
+
+import java.util.List;
+
+/**
+ * Transport SPI used to deliver notifications to an external system (SMTP relay, SMS gateway, ...).
+ * Implementations receive whole batches so they can reuse connections and pipeline sends.
+ */
+public interface NotificationTransport extends AutoCloseable {
+    
+    /**
+     * Deliver a batch of notifications. Returns normally only when every notification was accepted;
+     * otherwise throws a {@link DeliveryException} listing the notifications that were not.
+     */
+    void send(List<Notification> batch);
+    
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,90 @@
+package com.library.notification;
+
+import com.library.observer.Observer;
+import com.library.observer.Subject;
+import com.library.util.Logger;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Notification side of a service: its observers and, optionally, a durable outbox.
+ *
+ * Without an outbox, {@link #publish} calls the observers directly. With one, it only appends to
+ * the outbox, and an {@link OutboxRelay} bound to {@link #deliver} hands entries to the observers
+ * later. Services publish before they save the state change an entry describes, so a failed
+ * append aborts the change instead of losing its notification.
+ */
+public class Notifier implements Subject {
+    private final String owner;
+    private final List<Observer> observers;
+    private final Logger logger;
+    private volatile NotificationOutbox outbox;
+    
+    /**
+     * @param owner name of the service, used in log messages
+     */
+    public Notifier(String owner) {
+        this.owner = owner;
+        this.observers = new CopyOnWriteArrayList<>();
+        this.logger = Logger.getInstance();
+    }
+    
+    /**
+     * Route notifications through a durable outbox instead of calling observers directly
+     */
+    public void setOutbox(NotificationOutbox outbox) {
+        this.outbox = outbox;
+    }
+    
+    public boolean hasOutbox() {
+        return outbox != null;
+    }
+    
+    /**
+     * Whether a published notification would reach anyone; lets callers skip building messages
+     */
+    public boolean hasSubscribers() {
+        return outbox != null || !observers.isEmpty();
+    }
+    
+    /**
+     * Append the notification to the outbox if there is one, otherwise notify the observers now
+     */
+    public void publish(String idempotencyKey, String message) {
+        NotificationOutbox target = outbox;
+        if (target != null) {
+            target.append(idempotencyKey, message);
+        } else {
+            notifyObservers(message);
+        }
+    }
+    
+    /**
+     * Deliver a notification to all observers, tagged with the idempotency key of its event
+     */
+    public void deliver(String idempotencyKey, String message) {
+        for (Observer observer : observers) {
+            observer.update(idempotencyKey, message);
+        }
+    }
+    
+    @Override
+    public void attach(Observer observer) {
+        observers.add(observer);
+        logger.info("Observer attached to " + owner);
+    }
+    
+    @Override
+    public void detach(Observer observer) {
+        observers.remove(observer);
+        logger.info("Observer detached from " + owner);
+    }
+    
+    @Override
+    public void notifyObservers(String message) {
+        for (Observer observer : observers) {
+            observer.update(message);
+        }
+    }
+}
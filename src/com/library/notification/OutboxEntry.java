@@ -0,0 +1,49 @@
+package com.library.notification;
+
+/**
+ * A notification persisted in the {@link NotificationOutbox}, addressed by its file offset.
+ */
+public final class OutboxEntry {
+    private final long sequence;
+    private final String idempotencyKey;
+    private final String message;
+    private final long offset;
+    private final long nextOffset;
+    
+    OutboxEntry(long sequence, String idempotencyKey, String message, long offset, long nextOffset) {
+        this.sequence = sequence;
+        this.idempotencyKey = idempotencyKey;
+        this.message = message;
+        this.offset = offset;
+        this.nextOffset = nextOffset;
+    }
+    
+    public long getSequence() {
+        return sequence;
+    }
+    
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+    
+    public String getMessage() {
+        return message;
+    }
+    
+    public long getOffset() {
+        return offset;
+    }
+    
+    public long getNextOffset() {
+        return nextOffset;
+    }
+    
+    @Override
+    public String toString() {
+        return "OutboxEntry{" +
+                "sequence=" + sequence +
+                ", idempotencyKey='" + idempotencyKey + '\'' +
+                ", offset=" + offset +
+                '}';
+    }
+}
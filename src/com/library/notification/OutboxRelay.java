@@ -0,0 +1,134 @@
+package com.library.notification;
+
+import com.library.util.Logger;
+
+import java.util.List;
+
+/**
+ * Background relay that delivers {@link NotificationOutbox} entries to a sink.
+ * Delivery starts at the outbox high-water mark, so after a restart only undelivered entries
+ * are replayed. Entries are acknowledged once per batch; an entry delivered but not yet
+ * acknowledged when the process dies is replayed with the same idempotency key, which lets
+ * the downstream transport drop the duplicate.
+ */
+public class OutboxRelay implements AutoCloseable {
+    private static final long IDLE_WAIT_MILLIS = 200;
+    
+    /**
+     * Receives each outbox entry; throwing makes the relay retry the entry later
+     */
+    @FunctionalInterface
+    public interface Sink {
+        void deliver(String idempotencyKey, String message);
+    }
+    
+    private final NotificationOutbox outbox;
+    private final Sink sink;
+    private final int batchSize;
+    private final RetryPolicy retryPolicy;
+    private final Logger logger;
+    private long position;
+    private volatile boolean running;
+    private Thread worker;
+    
+    public OutboxRelay(NotificationOutbox outbox, Sink sink) {
+        this(outbox, sink, 256, RetryPolicy.defaultPolicy());
+    }
+    
+    public OutboxRelay(NotificationOutbox outbox, Sink sink, int batchSize, RetryPolicy retryPolicy) {
+        this.outbox = outbox;
+        this.sink = sink;
+        this.batchSize = batchSize;
+        this.retryPolicy = retryPolicy;
+        this.logger = Logger.getInstance();
+        this.position = outbox.getAcknowledgedOffset();
+    }
+    
+    /**
+     * Start delivering in a background thread
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        worker = new Thread(this::runLoop, "outbox-relay");
+        worker.setDaemon(true);
+        worker.start();
+    }
+    
+    /**
+     * Deliver and acknowledge one batch of pending entries; returns how many were delivered
+     */
+    public synchronized int deliverPending() {
+        List<OutboxEntry> batch = outbox.read(position, batchSize);
+        OutboxEntry lastDelivered = null;
+        try {
+            for (OutboxEntry entry : batch) {
+                sink.deliver(entry.getIdempotencyKey(), entry.getMessage());
+                lastDelivered = entry;
+            }
+        } finally {
+            // Acknowledge whatever prefix of the batch made it, even if a later entry failed
+            if (lastDelivered != null) {
+                outbox.acknowledge(lastDelivered);
+                position = lastDelivered.getNextOffset();
+            }
+        }
+        return batch.size();
+    }
+    
+    /**
+     * Deliver until the outbox is drained; returns the number of entries delivered
+     */
+    public int drain() {
+        int total = 0;
+        int delivered;
+        while ((delivered = deliverPending()) > 0) {
+            total += delivered;
+        }
+        return total;
+    }
+    
+    private void runLoop() {
+        int failedAttempts = 0;
+        while (running) {
+            try {
+                if (deliverPending() == 0) {
+                    outbox.awaitAppend(position, IDLE_WAIT_MILLIS);
+                }
+                failedAttempts = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                failedAttempts++;
+                logger.warn("Outbox delivery failed (attempt " + failedAttempts + "): " + e.getMessage());
+                try {
+                    Thread.sleep(retryPolicy.backoffMillis(Math.min(failedAttempts, retryPolicy.getMaxAttempts())));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+    
+    @Override
+    public void close() {
+        Thread current;
+        synchronized (this) {
+            running = false;
+            current = worker;
+            worker = null;
+        }
+        if (current != null) {
+            current.interrupt();
+            try {
+                current.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
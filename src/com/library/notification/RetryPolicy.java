@@ -0,0 +1,40 @@
+package com.library.notification;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with full jitter for transient delivery failures.
+ * The delay before attempt {@code n + 1} is uniform in {@code [0, min(maxDelay, baseDelay * 2^(n-1))]},
+ * which spreads retries of many failed notifications instead of synchronising them.
+ */
+public class RetryPolicy {
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        if (maxAttempts < 1 || baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis) {
+            throw new IllegalArgumentException("Invalid retry policy");
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+    
+    public static RetryPolicy defaultPolicy() {
+        return new RetryPolicy(5, 50, 5000);
+    }
+    
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+    
+    /**
+     * Jittered delay to wait after the given (1-based) failed attempt
+     */
+    public long backoffMillis(int failedAttempt) {
+        int shift = Math.min(failedAttempt - 1, 30);
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << shift);
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+}
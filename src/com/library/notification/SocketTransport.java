@@ -0,0 +1,181 @@
+package com.library.notification;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transport speaking the {@link WireFormat} protocol over a pool of reusable TCP connections.
+ * A batch is written as one pipelined burst (up to {@code maxInFlight} lines) before the
+ * replies are read back, so a batch costs one round trip per window instead of one per message.
+ */
+public class SocketTransport implements NotificationTransport {
+    private static final int DEFAULT_MAX_IN_FLIGHT = 512;
+    
+    private final String host;
+    private final int port;
+    private final int maxConnections;
+    private final int maxInFlight;
+    private final int timeoutMillis;
+    private final BlockingQueue<Connection> idleConnections;
+    private final AtomicInteger openConnections;
+    private volatile boolean closed;
+    
+    public SocketTransport(String host, int port, int maxConnections) {
+        this(host, port, maxConnections, DEFAULT_MAX_IN_FLIGHT, 5000);
+    }
+    
+    public SocketTransport(String host, int port, int maxConnections, int maxInFlight, int timeoutMillis) {
+        if (maxConnections <= 0 || maxInFlight <= 0) {
+            throw new IllegalArgumentException("Connection pool size and in-flight window must be positive");
+        }
+        this.host = host;
+        this.port = port;
+        this.maxConnections = maxConnections;
+        this.maxInFlight = maxInFlight;
+        this.timeoutMillis = timeoutMillis;
+        this.idleConnections = new ArrayBlockingQueue<>(maxConnections);
+        this.openConnections = new AtomicInteger();
+    }
+    
+    @Override
+    public void send(List<Notification> batch) {
+        if (closed) {
+            throw new DeliveryException("Transport is closed", List.of(), batch);
+        }
+        Connection connection;
+        try {
+            connection = borrow();
+        } catch (IOException e) {
+            throw new DeliveryException("Could not connect to " + host + ":" + port, batch, List.of(), e);
+        }
+        
+        List<Notification> rejected = new ArrayList<>();
+        List<Notification> retryable = new ArrayList<>();
+        int sent = 0;
+        try {
+            StringBuilder burst = new StringBuilder();
+            while (sent < batch.size()) {
+                int end = Math.min(batch.size(), sent + maxInFlight);
+                burst.setLength(0);
+                for (int i = sent; i < end; i++) {
+                    WireFormat.encode(batch.get(i), burst);
+                }
+                connection.output.write(burst.toString().getBytes(StandardCharsets.UTF_8));
+                connection.output.flush();
+                
+                for (int i = sent; i < end; i++) {
+                    String reply = connection.input.readLine();
+                    if (reply == null) {
+                        throw new IOException("Connection closed by server");
+                    }
+                    if (WireFormat.REPLY_RETRY.equals(reply)) {
+                        retryable.add(batch.get(i));
+                    } else if (!WireFormat.REPLY_OK.equals(reply)) {
+                        rejected.add(batch.get(i));
+                    }
+                    sent = i + 1;
+                }
+            }
+            release(connection);
+        } catch (IOException e) {
+            discard(connection);
+            retryable.addAll(batch.subList(sent, batch.size()));
+            throw new DeliveryException("I/O failure after " + sent + " of " + batch.size() + " notifications",
+                                        retryable, rejected, e);
+        }
+        
+        if (!retryable.isEmpty() || !rejected.isEmpty()) {
+            throw new DeliveryException("Server deferred " + retryable.size() + " and rejected " +
+                                        rejected.size() + " notifications", retryable, rejected);
+        }
+    }
+    
+    public int getOpenConnectionCount() {
+        return openConnections.get();
+    }
+    
+    private Connection borrow() throws IOException {
+        Connection connection = idleConnections.poll();
+        if (connection != null) {
+            return connection;
+        }
+        while (true) {
+            int open = openConnections.get();
+            if (open < maxConnections) {
+                if (openConnections.compareAndSet(open, open + 1)) {
+                    try {
+                        return new Connection(host, port, timeoutMillis);
+                    } catch (IOException e) {
+                        openConnections.decrementAndGet();
+                        throw e;
+                    }
+                }
+            } else {
+                try {
+                    connection = idleConnections.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for a connection", e);
+                }
+                if (connection != null) {
+                    return connection;
+                }
+                throw new IOException("Timed out waiting for a pooled connection");
+            }
+        }
+    }
+    
+    private void release(Connection connection) {
+        if (closed || !idleConnections.offer(connection)) {
+            discard(connection);
+        }
+    }
+    
+    private void discard(Connection connection) {
+        openConnections.decrementAndGet();
+        connection.close();
+    }
+    
+    @Override
+    public void close() {
+        closed = true;
+        Connection connection;
+        while ((connection = idleConnections.poll()) != null) {
+            discard(connection);
+        }
+    }
+    
+    private static final class Connection {
+        private final Socket socket;
+        private final OutputStream output;
+        private final BufferedReader input;
+        
+        Connection(String host, int port, int timeoutMillis) throws IOException {
+            this.socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            this.output = socket.getOutputStream();
+            this.input = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        }
+        
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Nothing useful to do with a failing close
+            }
+        }
+    }
+}
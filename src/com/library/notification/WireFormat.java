@@ -0,0 +1,70 @@
+package com.library.notification;
+
+/**
+ * Line-oriented wire format shared by {@link SocketTransport} and {@link LocalDeliveryServer}.
+ * One notification per line: {@code CHANNEL \t idempotencyKey \t recipient \t message}, with tab,
+ * newline and backslash escaped and an empty key meaning "no key". The server answers every
+ * line, in order, with one of the reply codes below.
+ */
+final class WireFormat {
+    static final String REPLY_OK = "OK";
+    static final String REPLY_RETRY = "RETRY";
+    static final String REPLY_REJECT = "REJECT";
+    
+    private WireFormat() {
+    }
+    
+    static void encode(Notification notification, StringBuilder out) {
+        out.append(notification.getChannel().name()).append('\t');
+        if (notification.getIdempotencyKey() != null) {
+            escape(notification.getIdempotencyKey(), out);
+        }
+        out.append('\t');
+        escape(notification.getRecipient(), out);
+        out.append('\t');
+        escape(notification.getMessage(), out);
+        out.append('\n');
+    }
+    
+    /**
+     * Decode one line into its fields, or return null if the line is malformed.
+     */
+    static String[] decode(String line) {
+        String[] fields = new String[4];
+        StringBuilder current = new StringBuilder();
+        int field = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length()) {
+                char next = line.charAt(++i);
+                current.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else if (c == '\t') {
+                if (field == fields.length - 1) {
+                    return null;
+                }
+                fields[field++] = current.toString();
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        if (field != fields.length - 1) {
+            return null;
+        }
+        fields[field] = current.toString();
+        return fields;
+    }
+    
+    private static void escape(String value, StringBuilder out) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\': out.append("\\\\"); break;
+                case '\t': out.append("\\t"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                default: out.append(c);
+            }
+        }
+    }
+}
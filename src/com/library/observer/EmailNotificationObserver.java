@@ -1,25 +1,44 @@
 package com.library.observer;
 
+import com.library.notification.Notification;
+import com.library.notification.NotificationChannel;
+import com.library.notification.NotificationDispatcher;
 import com.library.util.Logger;
 
 /**
  * Concrete Observer for Email notifications.
+ * Without a dispatcher the email is only logged; with one it is queued for real delivery.
  */
 public class EmailNotificationObserver implements Observer {
     private final String email;
     private final Logger logger;
+    private final NotificationDispatcher dispatcher;
     
     public EmailNotificationObserver(String email) {
+        this(email, null);
+    }
+    
+    public EmailNotificationObserver(String email, NotificationDispatcher dispatcher) {
         this.email = email;
         this.logger = Logger.getInstance();
+        this.dispatcher = dispatcher;
     }
     
     @Override
     public void update(String message) {
-        sendEmail(message);
+        sendEmail(null, message);
+    }
+    
+    @Override
+    public void update(String idempotencyKey, String message) {
+        sendEmail(idempotencyKey, message);
     }
     
-    private void sendEmail(String message) {
+    private void sendEmail(String idempotencyKey, String message) {
+        if (dispatcher != null) {
+            dispatcher.submit(new Notification(NotificationChannel.EMAIL, email, message, idempotencyKey));
+            return;
+        }
         logger.info("EMAIL sent to " + email + ": " + message);
         System.out.println("📧 Email sent to " + email + ": " + message);
     }
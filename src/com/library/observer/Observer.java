@@ -5,4 +5,11 @@ package com.library.observer;
  */
 public interface Observer {
     void update(String message);
+    
+    /**
+     * Receive a notification tagged with an idempotency key, so replays can be de-duplicated downstream
+     */
+    default void update(String idempotencyKey, String message) {
+        update(message);
+    }
 }
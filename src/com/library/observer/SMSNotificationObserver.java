@@ -1,25 +1,44 @@
 package com.library.observer;
 
+import com.library.notification.Notification;
+import com.library.notification.NotificationChannel;
+import com.library.notification.NotificationDispatcher;
 import com.library.util.Logger;
 
 /**
  * Concrete Observer for SMS notifications.
+ * Without a dispatcher the SMS is only logged; with one it is queued for real delivery.
  */
 public class SMSNotificationObserver implements Observer {
     private final String phoneNumber;
     private final Logger logger;
+    private final NotificationDispatcher dispatcher;
     
     public SMSNotificationObserver(String phoneNumber) {
+        this(phoneNumber, null);
+    }
+    
+    public SMSNotificationObserver(String phoneNumber, NotificationDispatcher dispatcher) {
         this.phoneNumber = phoneNumber;
         this.logger = Logger.getInstance();
+        this.dispatcher = dispatcher;
     }
     
     @Override
     public void update(String message) {
-        sendSMS(message);
+        sendSMS(null, message);
+    }
+    
+    @Override
+    public void update(String idempotencyKey, String message) {
+        sendSMS(idempotencyKey, message);
     }
     
-    private void sendSMS(String message) {
+    private void sendSMS(String idempotencyKey, String message) {
+        if (dispatcher != null) {
+            dispatcher.submit(new Notification(NotificationChannel.SMS, phoneNumber, message, idempotencyKey));
+            return;
+        }
         logger.info("SMS sent to " + phoneNumber + ": " + message);
         System.out.println("📱 SMS sent to " + phoneNumber + ": " + message);
     }
@@ -2,6 +2,8 @@ package com.library.repository;
 
 import com.library.model.Book;
 import com.library.model.BookStatus;
+import com.library.util.BucketDigest;
+import com.library.util.IsbnDictionary;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -10,23 +12,127 @@ import java.util.stream.Collectors;
  */
 public class BookRepository {
     private final Map<String, Book> books;
+    private final Map<String, Set<String>> isbnsByAuthor; // Normalized author -> ISBNs
+    private final Map<String, String> indexedAuthors; // ISBN -> author name it is indexed under
+    private final Map<String, String> indexedBranches; // ISBN -> branch it is digested under
+    private final Map<String, BucketDigest> branchDigests; // Branch id -> digest of its books
     
     public BookRepository() {
         this.books = new HashMap<>();
+        this.isbnsByAuthor = new HashMap<>();
+        this.indexedAuthors = new HashMap<>();
+        this.indexedBranches = new HashMap<>();
+        this.branchDigests = new HashMap<>();
     }
     
     public void save(Book book) {
         books.put(book.getIsbn(), book);
+        // Books are edited in place and saved again, so re-digest when the branch has changed
+        String branchId = book.getCurrentBranchId();
+        String previousBranch = indexedBranches.put(book.getIsbn(), branchId);
+        if (!Objects.equals(previousBranch, branchId)) {
+            int id = IsbnDictionary.idOf(book.getIsbn());
+            toggle(previousBranch, id);
+            toggle(branchId, id);
+        }
+        // and re-index when the author has changed
+        String author = book.getAuthor();
+        String previous = indexedAuthors.put(book.getIsbn(), author);
+        if (previous != null && previous.equals(author)) {
+            return;
+        }
+        if (previous != null) {
+            unindex(book.getIsbn(), previous);
+        }
+        isbnsByAuthor.computeIfAbsent(normalizeAuthor(author), a -> new LinkedHashSet<>()).add(book.getIsbn());
+    }
+    
+    /**
+     * Save a batch of books with the same effect as {@link #save} on each. A book already stored
+     * under the same branch and author costs lookups rather than index writes, and the branch
+     * digests are looked up once per run of books moving between the same two branches.
+     */
+    public void saveAll(Collection<Book> batch) {
+        String fromBranch = null;
+        String toBranch = null;
+        BucketDigest fromDigest = null;
+        BucketDigest toDigest = null;
+        for (Book book : batch) {
+            String isbn = book.getIsbn();
+            String indexedAuthor = indexedAuthors.get(isbn);
+            if (indexedAuthor == null || !indexedAuthor.equals(book.getAuthor())) {
+                save(book); // New or re-authored books are indexed one at a time
+                continue;
+            }
+            if (books.get(isbn) != book) {
+                books.put(isbn, book);
+            }
+            String branchId = book.getCurrentBranchId();
+            String previousBranch = indexedBranches.get(isbn);
+            if (Objects.equals(previousBranch, branchId)) {
+                continue;
+            }
+            indexedBranches.put(isbn, branchId);
+            int id = IsbnDictionary.idOf(isbn);
+            if (previousBranch != null) {
+                if (!previousBranch.equals(fromBranch)) {
+                    fromBranch = previousBranch;
+                    fromDigest = digestOf(previousBranch);
+                }
+                fromDigest.toggle(id);
+            }
+            if (branchId != null) {
+                if (!branchId.equals(toBranch)) {
+                    toBranch = branchId;
+                    toDigest = digestOf(branchId);
+                }
+                toDigest.toggle(id);
+            }
+        }
     }
     
     public Optional<Book> findByIsbn(String isbn) {
         return Optional.ofNullable(books.get(isbn));
     }
     
+    /**
+     * Look up a book without wrapping it in an Optional; returns null if absent
+     */
+    public Book getByIsbn(String isbn) {
+        return books.get(isbn);
+    }
+    
     public List<Book> findAll() {
         return new ArrayList<>(books.values());
     }
     
+    /**
+     * Books by an author, matched on the normalized name (see {@link #normalizeAuthor});
+     * O(books by the author)
+     */
+    public List<Book> findByAuthor(String author) {
+        Set<String> isbns = isbnsByAuthor.get(normalizeAuthor(author));
+        if (isbns == null) {
+            return new ArrayList<>();
+        }
+        List<Book> byAuthor = new ArrayList<>(isbns.size());
+        for (String isbn : isbns) {
+            byAuthor.add(books.get(isbn));
+        }
+        return byAuthor;
+    }
+    
+    /**
+     * Immutable copy of the author index: normalized author -> ISBNs, in {@link #findByAuthor} order
+     */
+    public Map<String, List<String>> copyAuthorIndex() {
+        Map<String, List<String>> copy = new HashMap<>(isbnsByAuthor.size() * 2);
+        for (Map.Entry<String, Set<String>> entry : isbnsByAuthor.entrySet()) {
+            copy.put(entry.getKey(), List.copyOf(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+    
     public List<Book> findByBranch(String branchId) {
         return books.values().stream()
                 .filter(book -> book.getCurrentBranchId().equals(branchId))
@@ -40,6 +146,14 @@ public class BookRepository {
     }
     
     public boolean delete(String isbn) {
+        String branchId = indexedBranches.remove(isbn);
+        if (branchId != null) {
+            toggle(branchId, IsbnDictionary.idOf(isbn));
+        }
+        String author = indexedAuthors.remove(isbn);
+        if (author != null) {
+            unindex(isbn, author);
+        }
         return books.remove(isbn) != null;
     }
     
@@ -50,4 +164,49 @@ public class BookRepository {
     public int count() {
         return books.size();
     }
+    
+    /**
+     * Checksum over the ISBNs of the books last saved at a branch that fall in a
+     * {@link BucketDigest} bucket; the counterpart of the branch's inventory checksum
+     */
+    public long getBranchChecksum(String branchId, int bucket) {
+        BucketDigest digest = branchDigests.get(branchId);
+        return digest == null ? 0 : digest.getBucket(bucket);
+    }
+    
+    /**
+     * Checksum over the ISBNs of all books last saved at a branch
+     */
+    public long getBranchChecksum(String branchId) {
+        BucketDigest digest = branchDigests.get(branchId);
+        return digest == null ? 0 : digest.getTotal();
+    }
+    
+    /**
+     * Author name as used by the author index: trimmed, inner whitespace collapsed, lower case
+     */
+    public static String normalizeAuthor(String author) {
+        return author == null ? "" : author.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+    
+    private void toggle(String branchId, int id) {
+        if (branchId != null) {
+            digestOf(branchId).toggle(id);
+        }
+    }
+    
+    private BucketDigest digestOf(String branchId) {
+        return branchDigests.computeIfAbsent(branchId, k -> new BucketDigest());
+    }
+    
+    private void unindex(String isbn, String author) {
+        String normalized = normalizeAuthor(author);
+        Set<String> isbns = isbnsByAuthor.get(normalized);
+        if (isbns != null) {
+            isbns.remove(isbn);
+            if (isbns.isEmpty()) {
+                isbnsByAuthor.remove(normalized);
+            }
+        }
+    }
 }
@@ -6,16 +6,51 @@ import java.util.stream.Collectors;
 
 /**
  * Repository for managing BorrowingRecord data.
+ * Active (not yet returned) records are additionally indexed by patron and ISBN. Returned
+ * records are dropped again once their patron's history has archived them (see {@link #evict}),
+ * so the repository only holds what the histories hold in memory.
  */
 public class BorrowingRecordRepository {
     private final Map<String, BorrowingRecord> records;
+    private final Map<String, Map<String, BorrowingRecord>> activeByPatron; // PatronId -> ISBN -> Record
     
     public BorrowingRecordRepository() {
         this.records = new HashMap<>();
+        this.activeByPatron = new HashMap<>();
     }
     
     public void save(BorrowingRecord record) {
         records.put(record.getRecordId(), record);
+        Map<String, BorrowingRecord> active = activeByPatron.get(record.getPatronId());
+        if (record.isReturned()) {
+            if (active != null && active.get(record.getIsbn()) == record) {
+                // Empty per-patron maps are kept: frequent borrowers would otherwise reallocate them
+                active.remove(record.getIsbn());
+            }
+        } else {
+            if (active == null) {
+                active = new HashMap<>();
+                activeByPatron.put(record.getPatronId(), active);
+            }
+            active.put(record.getIsbn(), record);
+        }
+    }
+    
+    /**
+     * Drop a returned record that now lives in its patron's history archive
+     */
+    public void evict(BorrowingRecord record) {
+        if (record.isReturned()) {
+            records.remove(record.getRecordId(), record);
+        }
+    }
+    
+    /**
+     * The patron's unreturned record for a book, or null if there is none
+     */
+    public BorrowingRecord getActiveRecord(String patronId, String isbn) {
+        Map<String, BorrowingRecord> active = activeByPatron.get(patronId);
+        return active == null ? null : active.get(isbn);
     }
     
     public Optional<BorrowingRecord> findById(String recordId) {
@@ -39,13 +74,14 @@ public class BorrowingRecordRepository {
     }
     
     public List<BorrowingRecord> findActiveRecords() {
-        return records.values().stream()
-                .filter(record -> !record.isReturned())
+        return activeByPatron.values().stream()
+                .flatMap(active -> active.values().stream())
                 .collect(Collectors.toList());
     }
     
     public List<BorrowingRecord> findOverdueRecords() {
-        return records.values().stream()
+        return activeByPatron.values().stream()
+                .flatMap(active -> active.values().stream())
                 .filter(BorrowingRecord::isOverdue)
                 .collect(Collectors.toList());
     }
@@ -0,0 +1,240 @@
+package com.library.repository;
+
+import com.library.model.BookCopy;
+import com.library.model.BookStatus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Repository for physical book copies, keyed by barcode, with availability counters per title
+ * and per (title, branch).
+ *
+ * The available copies of a title at a branch sit in a pool guarded by an atomic counter, used
+ * like a semaphore: a claim first decrements the counter (only if positive) and then takes any
+ * copy from the pool, and a release adds the copy before incrementing. Claiming a copy, releasing
+ * it and asking whether a branch has one are therefore O(1) and lock-free, without scanning copies.
+ * Copy status changes must go through {@link #claim} and {@link #release} to keep the counters right.
+ */
+public class CopyRepository {
+    private final Map<String, BookCopy> copies; // Barcode -> copy
+    private final Map<String, TitleCopies> titles; // ISBN -> copies and availability
+    
+    private static final class TitleCopies {
+        final List<BookCopy> all = new CopyOnWriteArrayList<>();
+        final AtomicInteger available = new AtomicInteger();
+        final Map<String, BranchPool> branches = new ConcurrentHashMap<>();
+        
+        BranchPool pool(String branchId) {
+            return branches.computeIfAbsent(branchId, k -> new BranchPool());
+        }
+    }
+    
+    private static final class BranchPool {
+        final AtomicInteger total = new AtomicInteger();
+        final AtomicInteger available = new AtomicInteger();
+        final Queue<BookCopy> copies = new ConcurrentLinkedQueue<>();
+    }
+    
+    public CopyRepository() {
+        this.copies = new ConcurrentHashMap<>();
+        this.titles = new ConcurrentHashMap<>();
+    }
+    
+    /**
+     * Register a copy; a new available copy joins its branch's pool
+     */
+    public void save(BookCopy copy) {
+        if (copies.putIfAbsent(copy.getBarcode(), copy) != null) {
+            return;
+        }
+        TitleCopies title = titles.computeIfAbsent(copy.getIsbn(), k -> new TitleCopies());
+        title.all.add(copy);
+        title.pool(copy.getBranchId()).total.incrementAndGet();
+        if (copy.getStatus() == BookStatus.AVAILABLE) {
+            makeAvailable(title, copy);
+        }
+    }
+    
+    public Optional<BookCopy> findByBarcode(String barcode) {
+        return Optional.ofNullable(copies.get(barcode));
+    }
+    
+    /**
+     * Look up a copy without wrapping it in an Optional; returns null if absent
+     */
+    public BookCopy getByBarcode(String barcode) {
+        return copies.get(barcode);
+    }
+    
+    public List<BookCopy> findByIsbn(String isbn) {
+        TitleCopies title = titles.get(isbn);
+        return title == null ? Collections.emptyList() : new ArrayList<>(title.all);
+    }
+    
+    public boolean hasCopies(String isbn) {
+        return titles.containsKey(isbn);
+    }
+    
+    public int getCopyCount(String isbn) {
+        TitleCopies title = titles.get(isbn);
+        return title == null ? 0 : title.all.size();
+    }
+    
+    /**
+     * Number of available copies of a title across all branches
+     */
+    public int getAvailableCount(String isbn) {
+        TitleCopies title = titles.get(isbn);
+        return title == null ? 0 : title.available.get();
+    }
+    
+    public int getAvailableCount(String isbn, String branchId) {
+        TitleCopies title = titles.get(isbn);
+        if (title == null) {
+            return 0;
+        }
+        BranchPool pool = title.branches.get(branchId);
+        return pool == null ? 0 : pool.available.get();
+    }
+    
+    /**
+     * Number of copies of a title at a branch, whatever their status
+     */
+    public int getCopyCount(String isbn, String branchId) {
+        TitleCopies title = titles.get(isbn);
+        if (title == null) {
+            return 0;
+        }
+        BranchPool pool = title.branches.get(branchId);
+        return pool == null ? 0 : pool.total.get();
+    }
+    
+    public boolean isAvailableAt(String isbn, String branchId) {
+        return getAvailableCount(isbn, branchId) > 0;
+    }
+    
+    /**
+     * Take an available copy of the title at the branch and give it the new status
+     * @return the claimed copy, or null if the branch has no available copy
+     */
+    public BookCopy claim(String isbn, String branchId, BookStatus newStatus) {
+        TitleCopies title = titles.get(isbn);
+        if (title == null) {
+            return null;
+        }
+        BranchPool pool = title.branches.get(branchId);
+        if (pool == null) {
+            return null;
+        }
+        BookCopy copy = take(pool);
+        if (copy == null) {
+            return null;
+        }
+        title.available.decrementAndGet();
+        copy.setStatus(newStatus);
+        return copy;
+    }
+    
+    /**
+     * Move an available copy of the title from one branch's shelf to another's
+     * @return the moved copy, or null if the source branch has no available copy
+     */
+    public BookCopy move(String isbn, String fromBranchId, String toBranchId) {
+        TitleCopies title = titles.get(isbn);
+        if (title == null) {
+            return null;
+        }
+        BranchPool from = title.branches.get(fromBranchId);
+        if (from == null) {
+            return null;
+        }
+        BookCopy copy = take(from);
+        if (copy == null) {
+            return null;
+        }
+        from.total.decrementAndGet();
+        copy.setBranchId(toBranchId);
+        BranchPool to = title.pool(toBranchId);
+        to.total.incrementAndGet();
+        to.copies.add(copy);
+        to.available.incrementAndGet();
+        return copy;
+    }
+    
+    /**
+     * Return a copy to the available pool of the branch it is at
+     */
+    public void release(BookCopy copy) {
+        synchronized (copy) {
+            if (copy.getStatus() == BookStatus.AVAILABLE) {
+                throw new IllegalStateException("Copy is already available: " + copy.getBarcode());
+            }
+            copy.setStatus(BookStatus.AVAILABLE);
+        }
+        makeAvailable(titles.get(copy.getIsbn()), copy);
+    }
+    
+    /**
+     * Return a copy to the available pool only if it is still in the expected status, e.g. a
+     * copy arriving from transit that staff did not mark lost on the way
+     * @return false if the copy's status had changed
+     */
+    public boolean release(BookCopy copy, BookStatus expected) {
+        synchronized (copy) {
+            if (copy.getStatus() != expected || expected == BookStatus.AVAILABLE) {
+                return false;
+            }
+            copy.setStatus(BookStatus.AVAILABLE);
+        }
+        makeAvailable(titles.get(copy.getIsbn()), copy);
+        return true;
+    }
+    
+    /**
+     * Record that a copy that is not on the shelf (checked out, held or in transit) is now at another branch
+     */
+    public void relocate(BookCopy copy, String branchId) {
+        if (copy.getStatus() == BookStatus.AVAILABLE) {
+            throw new IllegalStateException("Claim an available copy before moving it: " + copy.getBarcode());
+        }
+        TitleCopies title = titles.get(copy.getIsbn());
+        title.pool(copy.getBranchId()).total.decrementAndGet();
+        copy.setBranchId(branchId);
+        title.pool(branchId).total.incrementAndGet();
+    }
+    
+    public int count() {
+        return copies.size();
+    }
+    
+    /**
+     * Take a copy from a pool, or null if its counter is zero
+     */
+    private static BookCopy take(BranchPool pool) {
+        int available;
+        do {
+            available = pool.available.get();
+            if (available == 0) {
+                return null;
+            }
+        } while (!pool.available.compareAndSet(available, available - 1));
+        // The counter was positive, so a copy was added to the pool before it was incremented
+        return pool.copies.poll();
+    }
+    
+    private static void makeAvailable(TitleCopies title, BookCopy copy) {
+        BranchPool pool = title.pool(copy.getBranchId());
+        pool.copies.add(copy);
+        pool.available.incrementAndGet();
+        title.available.incrementAndGet();
+    }
+}
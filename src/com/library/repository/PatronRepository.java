@@ -21,6 +21,13 @@ public class PatronRepository {
         return Optional.ofNullable(patrons.get(patronId));
     }
     
+    /**
+     * Look up a patron without wrapping it in an Optional; returns null if absent
+     */
+    public Patron getById(String patronId) {
+        return patrons.get(patronId);
+    }
+    
     public List<Patron> findAll() {
         return new ArrayList<>(patrons.values());
     }
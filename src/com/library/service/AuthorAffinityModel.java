@@ -0,0 +1,113 @@
+package com.library.service;
+
+import com.library.model.Book;
+import com.library.model.BorrowingRecord;
+import com.library.model.Patron;
+import com.library.repository.BookRepository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-patron author affinity: how many times each patron has borrowed each author, kept up to
+ * date from checkout events.
+ *
+ * A patron's profile is built from the full borrowing history the first time it is needed and
+ * is then updated by every checkout, so content-based recommendations read only the profile and
+ * the {@link BookRepository} author index, costing O(books by the favorite authors) instead of a
+ * scan of the catalog or the history. Authors are matched on
+ * {@link BookRepository#normalizeAuthor normalized} names.
+ */
+public class AuthorAffinityModel implements LendingListener {
+    private final BookRepository bookRepository;
+    private final Map<String, Profile> profiles; // Patron id -> profile
+    
+    private static final class Profile {
+        final Map<String, int[]> authorCounts = new HashMap<>();
+        final Set<String> borrowedIsbns = new HashSet<>();
+        
+        synchronized void add(String isbn, String author) {
+            borrowedIsbns.add(isbn);
+            if (author != null) {
+                authorCounts.computeIfAbsent(author, a -> new int[1])[0]++;
+            }
+        }
+    }
+    
+    public AuthorAffinityModel(BookRepository bookRepository) {
+        this.bookRepository = bookRepository;
+        this.profiles = new ConcurrentHashMap<>();
+    }
+    
+    @Override
+    public void onCheckout(BorrowingRecord record, Patron patron) {
+        // A profile that does not exist yet will be built from the history, which has this record
+        Profile profile = profiles.get(patron.getPatronId());
+        if (profile != null) {
+            profile.add(record.getIsbn(), authorOf(record.getIsbn()));
+        }
+    }
+    
+    /**
+     * Number of the patron's checkouts of books by the author
+     */
+    public int getAffinity(Patron patron, String author) {
+        Profile profile = profileFor(patron);
+        synchronized (profile) {
+            int[] count = profile.authorCounts.get(BookRepository.normalizeAuthor(author));
+            return count == null ? 0 : count[0];
+        }
+    }
+    
+    /**
+     * Whether the patron has ever borrowed the book
+     */
+    public boolean hasBorrowed(Patron patron, String isbn) {
+        Profile profile = profileFor(patron);
+        synchronized (profile) {
+            return profile.borrowedIsbns.contains(isbn);
+        }
+    }
+    
+    /**
+     * Books by the patron's authors that the patron has not borrowed, most borrowed author first
+     */
+    public List<Book> recommend(Patron patron, int limit) {
+        Profile profile = profileFor(patron);
+        List<Book> recommendations = new ArrayList<>(limit);
+        synchronized (profile) {
+            List<Map.Entry<String, int[]>> authors = new ArrayList<>(profile.authorCounts.entrySet());
+            authors.sort((a, b) -> a.getValue()[0] != b.getValue()[0]
+                ? Integer.compare(b.getValue()[0], a.getValue()[0]) : a.getKey().compareTo(b.getKey()));
+            for (Map.Entry<String, int[]> author : authors) {
+                for (Book book : bookRepository.findByAuthor(author.getKey())) {
+                    if (recommendations.size() == limit) {
+                        return recommendations;
+                    }
+                    if (!profile.borrowedIsbns.contains(book.getIsbn())) {
+                        recommendations.add(book);
+                    }
+                }
+            }
+        }
+        return recommendations;
+    }
+    
+    private Profile profileFor(Patron patron) {
+        return profiles.computeIfAbsent(patron.getPatronId(), id -> {
+            Profile profile = new Profile();
+            patron.forEachBorrowingRecord(record -> profile.add(record.getIsbn(), authorOf(record.getIsbn())));
+            return profile;
+        });
+    }
+    
+    private String authorOf(String isbn) {
+        Book book = bookRepository.getByIsbn(isbn);
+        return book == null ? null : BookRepository.normalizeAuthor(book.getAuthor());
+    }
+}
@@ -1,9 +1,12 @@
 package com.library.service;
 
 import com.library.model.Book;
+import com.library.model.BookCopy;
 import com.library.model.BookStatus;
 import com.library.repository.BookRepository;
+import com.library.repository.CopyRepository;
 import com.library.strategy.SearchStrategy;
+import com.library.util.IdGenerator;
 import com.library.util.Logger;
 
 import java.util.List;
@@ -15,14 +18,85 @@ import java.util.Optional;
  */
 public class BookService {
     private final BookRepository bookRepository;
+    private final CopyRepository copyRepository; // Null when titles are tracked without copies
     private final Logger logger;
     private SearchStrategy searchStrategy;
     
     public BookService(BookRepository bookRepository) {
+        this(bookRepository, null);
+    }
+    
+    /**
+     * @param copyRepository the repository shared with lending, reservations and transfers
+     */
+    public BookService(BookRepository bookRepository, CopyRepository copyRepository) {
         this.bookRepository = bookRepository;
+        this.copyRepository = copyRepository;
         this.logger = Logger.getInstance();
     }
     
+    /**
+     * Register a new physical copy of an existing title at a branch.
+     * Once a title has copies, availability is tracked per copy rather than on the {@link Book}.
+     * The first copy is the item the Book stood for until then, so it is registered at the book's
+     * branch while the book is on the shelf; a book that is lent, held or away keeps its status.
+     */
+    public BookCopy addCopy(String isbn, String branchId) {
+        if (copyRepository == null) {
+            throw new IllegalStateException("Copies require a BookService built with the shared CopyRepository");
+        }
+        Optional<Book> bookOpt = bookRepository.findByIsbn(isbn);
+        if (bookOpt.isEmpty()) {
+            logger.error("Book with ISBN " + isbn + " not found");
+            throw new IllegalArgumentException("Book with ISBN " + isbn + " not found");
+        }
+        
+        Book book = bookOpt.get();
+        boolean first = !copyRepository.hasCopies(isbn);
+        if (first) {
+            if (!branchId.equals(book.getCurrentBranchId())) {
+                throw new IllegalArgumentException("The first copy is the book itself, at branch " +
+                                                   book.getCurrentBranchId());
+            }
+            // Taken off the shelf while it becomes a copy, so a concurrent checkout cannot lend it
+            if (!book.compareAndSetStatus(BookStatus.AVAILABLE, BookStatus.MAINTENANCE)) {
+                logger.warn("Book is not on the shelf: " + isbn + " (Status: " + book.getStatus() + ")");
+                throw new IllegalStateException("Add the first copy once the book is back on the shelf");
+            }
+        }
+        
+        BookCopy copy = new BookCopy(IdGenerator.generateCopyBarcode(), isbn, branchId);
+        copyRepository.save(copy);
+        
+        // The new copy is on the shelf, so the title is available
+        book.setStatus(BookStatus.AVAILABLE);
+        bookRepository.save(book);
+        logger.info("Copy added: " + book.getTitle() + " (Barcode: " + copy.getBarcode() + ", Branch: " + branchId + ")");
+        return copy;
+    }
+    
+    /**
+     * Whether any copy of the title is on the shelf at the branch; O(1)
+     */
+    public boolean isAvailableAt(String isbn, String branchId) {
+        if (copyRepository != null && copyRepository.hasCopies(isbn)) {
+            return copyRepository.isAvailableAt(isbn, branchId);
+        }
+        Book book = bookRepository.getByIsbn(isbn);
+        return book != null && book.getStatus() == BookStatus.AVAILABLE && branchId.equals(book.getCurrentBranchId());
+    }
+    
+    /**
+     * Number of available copies of a title across branches; a title without copies counts as one
+     */
+    public int getAvailableCopyCount(String isbn) {
+        if (copyRepository != null && copyRepository.hasCopies(isbn)) {
+            return copyRepository.getAvailableCount(isbn);
+        }
+        Book book = bookRepository.getByIsbn(isbn);
+        return book != null && book.getStatus() == BookStatus.AVAILABLE ? 1 : 0;
+    }
+    
     /**
      * Add a new book to the library inventory
      */
@@ -1,13 +1,26 @@
 package com.library.service;
 
 import com.library.model.Book;
+import com.library.model.BookCopy;
 import com.library.model.BookStatus;
 import com.library.model.LibraryBranch;
+import com.library.model.TransferManifest;
 import com.library.repository.BookRepository;
 import com.library.repository.BranchRepository;
+import com.library.repository.CopyRepository;
+import com.library.util.IdGenerator;
+import com.library.util.IsbnDictionary;
 import com.library.util.Logger;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Service class for transferring books between library branches.
@@ -15,11 +28,37 @@ import java.util.Optional;
 public class BookTransferService {
     private final BookRepository bookRepository;
     private final BranchRepository branchRepository;
+    private final CopyRepository copyRepository;
+    private final List<TransferListener> listeners;
+    private final Map<String, Shipment> inTransit; // Manifest id -> what is on the van
     private final Logger logger;
     
+    /**
+     * A dispatched manifest with the books and copies it moves
+     */
+    private static final class Shipment {
+        final TransferManifest manifest;
+        final List<Book> books;
+        final List<BookCopy> copies;
+        
+        Shipment(TransferManifest manifest, List<Book> books, List<BookCopy> copies) {
+            this.manifest = manifest;
+            this.books = books;
+            this.copies = copies;
+        }
+    }
+    
     public BookTransferService(BookRepository bookRepository, BranchRepository branchRepository) {
+        this(bookRepository, branchRepository, null);
+    }
+    
+    public BookTransferService(BookRepository bookRepository, BranchRepository branchRepository,
+                               CopyRepository copyRepository) {
         this.bookRepository = bookRepository;
         this.branchRepository = branchRepository;
+        this.copyRepository = copyRepository;
+        this.listeners = new ArrayList<>();
+        this.inTransit = new ConcurrentHashMap<>();
         this.logger = Logger.getInstance();
     }
     
@@ -27,6 +66,8 @@ public class BookTransferService {
      * Transfer a book from one branch to another
      */
     public void transferBook(String isbn, String fromBranchId, String toBranchId) {
+        long receivedNanos = System.nanoTime();
+        
         // Validate source branch
         Optional<LibraryBranch> fromBranchOpt = branchRepository.findById(fromBranchId);
         if (fromBranchOpt.isEmpty()) {
@@ -54,6 +95,25 @@ public class BookTransferService {
         
         Book book = bookOpt.get();
         
+        // Multi-copy titles move one available copy off the source branch's shelf
+        if (copyRepository != null && copyRepository.hasCopies(isbn)) {
+            if (copyRepository.move(isbn, fromBranchId, toBranchId) == null) {
+                logger.warn("No copy available for transfer: " + isbn + " at branch " + fromBranchId);
+                throw new IllegalStateException("Book must be available (not checked out or reserved) for transfer");
+            }
+            if (copyRepository.getCopyCount(isbn, fromBranchId) == 0) {
+                fromBranch.removeBookFromInventory(isbn);
+                branchRepository.save(fromBranch);
+            }
+            toBranch.addBookToInventory(isbn);
+            branchRepository.save(toBranch);
+            logger.info("Copy transferred: " + book.getTitle() + 
+                       " from " + fromBranch.getBranchName() + 
+                       " to " + toBranch.getBranchName());
+            notifyArrival(isbn, fromBranchId, toBranchId, receivedNanos);
+            return;
+        }
+        
         // Check if book is at source branch
         if (!book.getCurrentBranchId().equals(fromBranchId)) {
             logger.error("Book is not at source branch. Current branch: " + book.getCurrentBranchId());
@@ -79,12 +139,206 @@ public class BookTransferService {
         logger.info("Book transferred: " + book.getTitle() + 
                    " from " + fromBranch.getBranchName() + 
                    " to " + toBranch.getBranchName());
+        notifyArrival(isbn, fromBranchId, toBranchId, receivedNanos);
+    }
+    
+    /**
+     * Put a batch of books on the van from one branch to another.
+     * The manifest is checked in a single pass, and each item that passes is claimed on the spot:
+     * a single-copy book goes from AVAILABLE to IN_TRANSIT and a multi-copy title gives up one
+     * available copy per listing. Items that fail are rejected with a reason instead of failing
+     * the whole van. Dispatched items leave the source inventory in one batch, the books and the
+     * branch are saved in one batch each, and nothing reaches the destination until
+     * {@link #receiveManifest} is called.
+     */
+    public TransferManifest dispatchManifest(String fromBranchId, String toBranchId, Collection<String> isbns) {
+        Optional<LibraryBranch> fromBranchOpt = branchRepository.findById(fromBranchId);
+        if (fromBranchOpt.isEmpty()) {
+            logger.error("Source branch not found: " + fromBranchId);
+            throw new IllegalArgumentException("Source branch not found");
+        }
+        if (!branchRepository.exists(toBranchId)) {
+            logger.error("Destination branch not found: " + toBranchId);
+            throw new IllegalArgumentException("Destination branch not found");
+        }
+        if (fromBranchId.equals(toBranchId)) {
+            throw new IllegalArgumentException("Source and destination branch are the same");
+        }
+        LibraryBranch fromBranch = fromBranchOpt.get();
+        
+        List<String> dispatched = new ArrayList<>(isbns.size());
+        Map<String, String> rejected = new LinkedHashMap<>();
+        List<Book> books = new ArrayList<>(isbns.size());
+        List<BookCopy> copies = new ArrayList<>();
+        List<String> leaving = new ArrayList<>(isbns.size());
+        BitSet listed = new BitSet(); // ISBN ids seen so far
+        for (String isbn : isbns) {
+            int id = IsbnDictionary.idOf(isbn);
+            boolean firstListing = !listed.get(id);
+            listed.set(id);
+            String reason = null;
+            if (copyRepository != null && copyRepository.hasCopies(isbn)) {
+                BookCopy copy = copyRepository.claim(isbn, fromBranchId, BookStatus.IN_TRANSIT);
+                if (copy == null) {
+                    reason = "No copy available at source branch";
+                } else {
+                    copyRepository.relocate(copy, toBranchId);
+                    copies.add(copy);
+                }
+            } else {
+                Optional<Book> bookOpt = bookRepository.findByIsbn(isbn);
+                if (bookOpt.isEmpty()) {
+                    reason = "Book not found";
+                } else if (!firstListing) {
+                    reason = "Listed more than once";
+                } else if (!fromBranchId.equals(bookOpt.get().getCurrentBranchId())) {
+                    reason = "Book is not at the source branch";
+                } else if (!bookOpt.get().compareAndSetStatus(BookStatus.AVAILABLE, BookStatus.IN_TRANSIT)) {
+                    reason = "Book is not available";
+                } else {
+                    books.add(bookOpt.get());
+                    leaving.add(isbn);
+                }
+            }
+            if (reason == null) {
+                dispatched.add(isbn);
+            } else {
+                rejected.putIfAbsent(isbn, reason);
+            }
+        }
+        for (BookCopy copy : copies) {
+            if (copyRepository.getCopyCount(copy.getIsbn(), fromBranchId) == 0) {
+                leaving.add(copy.getIsbn());
+            }
+        }
+        fromBranch.removeAllFromInventory(leaving);
+        bookRepository.saveAll(books);
+        branchRepository.save(fromBranch);
+        
+        TransferManifest manifest = new TransferManifest(IdGenerator.generateManifestId(), fromBranchId, toBranchId,
+                                                         dispatched, rejected);
+        inTransit.put(manifest.getManifestId(), new Shipment(manifest, books, copies));
+        logger.info("Manifest dispatched: " + manifest.getManifestId() + " from " + fromBranch.getBranchName() +
+                   " to " + toBranchId + " (" + dispatched.size() + " items, " + rejected.size() + " rejected)");
+        return manifest;
+    }
+    
+    /**
+     * Check a manifest in at its destination. Items still in transit join the destination's
+     * inventory and become available there, and transfer listeners hear of each; an item staff
+     * sent for maintenance on the way joins the inventory without going on the shelf, and a lost
+     * one does neither.
+     */
+    public TransferManifest receiveManifest(String manifestId) {
+        long receivedNanos = System.nanoTime();
+        Shipment shipment = inTransit.get(manifestId);
+        if (shipment == null) {
+            logger.error("Manifest not in transit: " + manifestId);
+            throw new IllegalArgumentException("Manifest not in transit");
+        }
+        TransferManifest manifest = shipment.manifest;
+        Optional<LibraryBranch> toBranchOpt = branchRepository.findById(manifest.getToBranchId());
+        if (toBranchOpt.isEmpty()) {
+            logger.error("Destination branch not found: " + manifest.getToBranchId());
+            throw new IllegalStateException("Destination branch no longer exists");
+        }
+        if (inTransit.remove(manifestId) == null) {
+            throw new IllegalArgumentException("Manifest not in transit");
+        }
+        LibraryBranch toBranch = toBranchOpt.get();
+        
+        List<String> arriving = new ArrayList<>(manifest.getDispatchedIsbns().size());
+        List<String> shelved = new ArrayList<>(manifest.getDispatchedIsbns().size());
+        for (BookCopy copy : shipment.copies) {
+            if (copyRepository.release(copy, BookStatus.IN_TRANSIT)) {
+                shelved.add(copy.getIsbn());
+                arriving.add(copy.getIsbn());
+            } else if (copy.getStatus() != BookStatus.LOST) {
+                arriving.add(copy.getIsbn());
+            }
+        }
+        for (Book book : shipment.books) {
+            book.setCurrentBranchId(toBranch.getBranchId());
+            // Staff may have marked the book lost or sent it for maintenance on the way
+            if (book.compareAndSetStatus(BookStatus.IN_TRANSIT, BookStatus.AVAILABLE)) {
+                shelved.add(book.getIsbn());
+                arriving.add(book.getIsbn());
+            } else if (book.getStatus() != BookStatus.LOST) {
+                arriving.add(book.getIsbn());
+            }
+        }
+        toBranch.addAllToInventory(arriving);
+        bookRepository.saveAll(shipment.books);
+        branchRepository.save(toBranch);
+        manifest.markReceived();
+        
+        logger.info("Manifest received: " + manifestId + " at " + toBranch.getBranchName() +
+                   " (" + shelved.size() + " of " + manifest.getDispatchedIsbns().size() + " items shelved)");
+        for (String isbn : shelved) {
+            notifyArrival(isbn, manifest.getFromBranchId(), manifest.getToBranchId(), receivedNanos);
+        }
+        return manifest;
+    }
+    
+    /**
+     * Manifests dispatched and not yet received
+     */
+    public List<TransferManifest> getInTransitManifests() {
+        List<TransferManifest> manifests = new ArrayList<>(inTransit.size());
+        for (Shipment shipment : inTransit.values()) {
+            manifests.add(shipment.manifest);
+        }
+        return manifests;
+    }
+    
+    /**
+     * Items on manifests not received yet that will go on the destination's shelf, per title:
+     * ISBN -> destination branch id -> count. Items marked lost or sent for maintenance on the
+     * way are left out.
+     */
+    public Map<String, Map<String, Integer>> getInboundCounts() {
+        Map<String, Map<String, Integer>> inbound = new HashMap<>();
+        for (Shipment shipment : inTransit.values()) {
+            String toBranchId = shipment.manifest.getToBranchId();
+            for (BookCopy copy : shipment.copies) {
+                if (copy.getStatus() == BookStatus.IN_TRANSIT) {
+                    inbound.computeIfAbsent(copy.getIsbn(), k -> new HashMap<>()).merge(toBranchId, 1, Integer::sum);
+                }
+            }
+            for (Book book : shipment.books) {
+                if (book.getStatus() == BookStatus.IN_TRANSIT) {
+                    inbound.computeIfAbsent(book.getIsbn(), k -> new HashMap<>()).merge(toBranchId, 1, Integer::sum);
+                }
+            }
+        }
+        return inbound;
+    }
+    
+    /**
+     * Register a listener for books arriving at a branch
+     */
+    public void addListener(TransferListener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeListener(TransferListener listener) {
+        listeners.remove(listener);
+    }
+    
+    private void notifyArrival(String isbn, String fromBranchId, String toBranchId, long receivedNanos) {
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onArrival(isbn, fromBranchId, toBranchId, receivedNanos);
+        }
     }
     
     /**
      * Check if a book can be transferred
      */
     public boolean canTransferBook(String isbn, String fromBranchId) {
+        if (copyRepository != null && copyRepository.hasCopies(isbn)) {
+            return copyRepository.isAvailableAt(isbn, fromBranchId);
+        }
+        
         Optional<Book> bookOpt = bookRepository.findByIsbn(isbn);
         if (bookOpt.isEmpty()) {
             return false;
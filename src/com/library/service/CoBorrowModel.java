@@ -0,0 +1,224 @@
+package com.library.service;
+
+import com.library.model.BorrowingRecord;
+import com.library.model.Patron;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sparse item-to-item co-borrow counts, kept up to date from checkout events.
+ *
+ * When a patron checks out a book, the book is paired with each of the last {@code window}
+ * distinct books in the patron's recent history and both directions of each pair are counted.
+ * A checkout therefore costs O(window), and recommending for a patron only reads the neighbor
+ * lists of the patron's recent books, however many patrons there are.
+ *
+ * Each book keeps at most {@code maxNeighbors} neighbors in a small open-addressing table. When
+ * the table is full, the less frequent half is dropped, so rare pairings make room for new ones
+ * and memory stays proportional to the number of books.
+ */
+public class CoBorrowModel implements LendingListener {
+    private static final int DEFAULT_WINDOW = 20;
+    private static final int DEFAULT_MAX_NEIGHBORS = 128;
+    
+    private final int window;
+    private final int maxNeighbors;
+    private final Map<String, Item> items; // ISBN -> neighbor table
+    
+    private static final class Item {
+        final String isbn;
+        Item[] keys;
+        int[] counts;
+        int size;
+        
+        Item(String isbn) {
+            this.isbn = isbn;
+            this.keys = new Item[8];
+            this.counts = new int[8];
+        }
+        
+        synchronized void increment(Item other, int maxNeighbors) {
+            int slot = slotOf(keys, other);
+            if (keys[slot] == other) {
+                counts[slot]++;
+                return;
+            }
+            if (size >= maxNeighbors) {
+                prune();
+                slot = slotOf(keys, other);
+            } else if ((size + 1) * 2 > keys.length) {
+                resize(keys.length * 2);
+                slot = slotOf(keys, other);
+            }
+            keys[slot] = other;
+            counts[slot] = 1;
+            size++;
+        }
+        
+        synchronized int countOf(Item other) {
+            int slot = slotOf(keys, other);
+            return keys[slot] == other ? counts[slot] : 0;
+        }
+        
+        synchronized void addScores(Map<Item, long[]> scores, Set<String> exclude) {
+            for (int i = 0; i < keys.length; i++) {
+                Item neighbor = keys[i];
+                if (neighbor != null && !exclude.contains(neighbor.isbn)) {
+                    scores.computeIfAbsent(neighbor, k -> new long[1])[0] += counts[i];
+                }
+            }
+        }
+        
+        synchronized int neighborCount() {
+            return size;
+        }
+        
+        /**
+         * Keep the more frequent half of the neighbors
+         */
+        private void prune() {
+            int[] live = new int[size];
+            int n = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null) {
+                    live[n++] = counts[i];
+                }
+            }
+            Arrays.sort(live);
+            int threshold = live[n / 2];
+            int keep = n - n / 2;
+            Item[] oldKeys = keys;
+            int[] oldCounts = counts;
+            keys = new Item[oldKeys.length];
+            counts = new int[oldKeys.length];
+            size = 0;
+            // Strictly more frequent neighbors first, then ties at the threshold until half is kept
+            for (int pass = 0; pass < 2; pass++) {
+                for (int i = 0; i < oldKeys.length && size < keep; i++) {
+                    if (oldKeys[i] != null && (pass == 0 ? oldCounts[i] > threshold : oldCounts[i] == threshold)) {
+                        int slot = slotOf(keys, oldKeys[i]);
+                        keys[slot] = oldKeys[i];
+                        counts[slot] = oldCounts[i];
+                        size++;
+                    }
+                }
+            }
+        }
+        
+        private void resize(int capacity) {
+            Item[] oldKeys = keys;
+            int[] oldCounts = counts;
+            keys = new Item[capacity];
+            counts = new int[capacity];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int slot = slotOf(keys, oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    counts[slot] = oldCounts[i];
+                }
+            }
+        }
+        
+        private static int slotOf(Item[] keys, Item item) {
+            int mask = keys.length - 1;
+            int slot = item.isbn.hashCode() * 0x9E3779B9 >>> 7 & mask;
+            while (keys[slot] != null && keys[slot] != item) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+    
+    public CoBorrowModel() {
+        this(DEFAULT_WINDOW, DEFAULT_MAX_NEIGHBORS);
+    }
+    
+    public CoBorrowModel(int window, int maxNeighbors) {
+        if (window <= 0 || maxNeighbors < 2) {
+            throw new IllegalArgumentException("Window must be positive and at least two neighbors must be kept");
+        }
+        this.window = window;
+        this.maxNeighbors = maxNeighbors;
+        this.items = new ConcurrentHashMap<>();
+    }
+    
+    @Override
+    public void onCheckout(BorrowingRecord record, Patron patron) {
+        List<BorrowingRecord> recent = patron.getRecentBorrowingHistory();
+        List<String> previous = new ArrayList<>(Math.min(window, recent.size()));
+        for (int i = recent.size() - 1; i >= 0 && previous.size() < window; i--) {
+            String isbn = recent.get(i).getIsbn();
+            if (!isbn.equals(record.getIsbn()) && !previous.contains(isbn)) {
+                previous.add(isbn);
+            }
+        }
+        addCoBorrows(record.getIsbn(), previous);
+    }
+    
+    /**
+     * Count one co-borrow of {@code isbn} with each of the given books, in both directions
+     */
+    public void addCoBorrows(String isbn, Collection<String> previousIsbns) {
+        Item item = items.computeIfAbsent(isbn, Item::new);
+        for (String previousIsbn : previousIsbns) {
+            Item previous = items.computeIfAbsent(previousIsbn, Item::new);
+            item.increment(previous, maxNeighbors);
+            previous.increment(item, maxNeighbors);
+        }
+    }
+    
+    /**
+     * Number of times the two books were borrowed together, as far as the neighbor lists still
+     * remember
+     */
+    public int getCoBorrowCount(String isbn, String otherIsbn) {
+        Item item = items.get(isbn);
+        Item other = items.get(otherIsbn);
+        return item == null || other == null ? 0 : item.countOf(other);
+    }
+    
+    public int getNeighborCount(String isbn) {
+        Item item = items.get(isbn);
+        return item == null ? 0 : item.neighborCount();
+    }
+    
+    /**
+     * Books most often borrowed together with the seed books, best first, skipping excluded ones.
+     * Reads only the neighbor lists of the seeds.
+     */
+    public List<String> recommend(Collection<String> seedIsbns, Set<String> excludedIsbns, int limit) {
+        Map<Item, long[]> scores = new HashMap<>();
+        for (String isbn : new HashSet<>(seedIsbns)) {
+            Item item = items.get(isbn);
+            if (item != null) {
+                item.addScores(scores, excludedIsbns);
+            }
+        }
+        
+        // Keep the best {@code limit} in a min-heap, ties broken by ISBN for a stable order
+        PriorityQueue<Map.Entry<Item, long[]>> best = new PriorityQueue<>(
+            (a, b) -> a.getValue()[0] != b.getValue()[0]
+                ? Long.compare(a.getValue()[0], b.getValue()[0])
+                : b.getKey().isbn.compareTo(a.getKey().isbn));
+        for (Map.Entry<Item, long[]> entry : scores.entrySet()) {
+            best.add(entry);
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+        String[] ranked = new String[best.size()];
+        for (int i = ranked.length - 1; i >= 0; i--) {
+            ranked[i] = best.poll().getKey().isbn;
+        }
+        return Arrays.asList(ranked);
+    }
+}
@@ -0,0 +1,370 @@
+package com.library.service;
+
+import com.library.model.BorrowingRecord;
+import com.library.model.FineSchedule;
+import com.library.model.Patron;
+import com.library.model.PatronType;
+import com.library.observer.Observer;
+import com.library.observer.Subject;
+import com.library.util.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Incremental overdue sweep and fine accrual engine.
+ *
+ * Active loans are indexed by due date, so the daily sweep only touches loans whose due date
+ * fell between the previous run and today; loans that are already overdue are never rescanned,
+ * their fine is derived from the number of days late when queried or settled on return.
+ * Newly overdue loans are split into partitions processed in parallel, and each completed
+ * partition is checkpointed so a sweep interrupted by a crash resumes with the remaining ones.
+ */
+public class FineEngine implements LendingListener, Subject {
+    private final FineSchedule schedule;
+    private final int partitions;
+    private final Path checkpointFile;
+    private final Logger logger;
+    private final List<Observer> observers;
+    
+    // Not-yet-overdue active loans, by due date
+    private final TreeMap<LocalDate, Set<String>> dueIndex;
+    private final Map<String, Loan> activeLoans;
+    private final Map<String, Loan> overdueLoans;
+    private final Map<String, Set<String>> overdueByPatron;
+    private final Map<String, Long> assessedFines;
+    
+    // Checkpoint: loans due before sweptThrough are overdue; an in-progress run is described by
+    // runDate and the set of partitions that already finished it
+    private LocalDate sweptThrough;
+    private LocalDate runDate;
+    private final Set<Integer> completedPartitions;
+    
+    private static final class Loan {
+        private final String recordId;
+        private final String patronId;
+        private final String isbn;
+        private final PatronType patronType;
+        private LocalDate dueDate;
+        private LocalDate chargedThrough; // Days up to this date were already charged at a renewal
+        private long chargedCents;
+        
+        private Loan(BorrowingRecord record, PatronType patronType) {
+            this.recordId = record.getRecordId();
+            this.patronId = record.getPatronId();
+            this.isbn = record.getIsbn();
+            this.patronType = patronType;
+            this.dueDate = record.getDueDate();
+        }
+    }
+    
+    public FineEngine(FineSchedule schedule, int partitions, Path checkpointFile) {
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("Partition count must be positive");
+        }
+        this.schedule = schedule;
+        this.partitions = partitions;
+        this.checkpointFile = checkpointFile;
+        this.logger = Logger.getInstance();
+        this.observers = new ArrayList<>();
+        this.dueIndex = new TreeMap<>();
+        this.activeLoans = new HashMap<>();
+        this.overdueLoans = new ConcurrentHashMap<>();
+        this.overdueByPatron = new ConcurrentHashMap<>();
+        this.assessedFines = new HashMap<>();
+        this.completedPartitions = ConcurrentHashMap.newKeySet();
+        loadCheckpoint();
+    }
+    
+    /**
+     * Track an active loan, e.g. when rebuilding the engine from the record repository at startup
+     */
+    public synchronized void register(BorrowingRecord record, PatronType patronType) {
+        if (record.isReturned() || activeLoans.containsKey(record.getRecordId())) {
+            return;
+        }
+        Loan loan = new Loan(record, patronType);
+        activeLoans.put(loan.recordId, loan);
+        if (isAlreadySwept(loan)) {
+            markOverdue(loan);
+        } else {
+            dueIndex.computeIfAbsent(loan.dueDate, date -> new HashSet<>()).add(loan.recordId);
+        }
+    }
+    
+    @Override
+    public void onCheckout(BorrowingRecord record, Patron patron) {
+        register(record, patron.getPatronType());
+    }
+    
+    @Override
+    public synchronized void onReturn(BorrowingRecord record, Patron patron) {
+        Loan loan = activeLoans.remove(record.getRecordId());
+        if (loan == null) {
+            return;
+        }
+        unindex(loan);
+        long fine = fineFor(loan, record.getReturnDate());
+        if (fine > 0) {
+            assessedFines.merge(loan.patronId, fine, Long::sum);
+            logger.info("Fine assessed for patron " + loan.patronId + ": " + formatCents(fine));
+        }
+    }
+    
+    @Override
+    public synchronized void onRenew(BorrowingRecord record, Patron patron, LocalDate previousDueDate,
+                                     LocalDate renewalDate) {
+        Loan loan = activeLoans.get(record.getRecordId());
+        if (loan == null) {
+            return;
+        }
+        // Fines accrued before the renewal are settled; later days count from the renewal or the
+        // new due date, whichever is later, so no day is charged twice and the cap covers the loan
+        long accrued = fineFor(loan, renewalDate);
+        if (accrued > 0) {
+            assessedFines.merge(loan.patronId, accrued, Long::sum);
+            loan.chargedCents += accrued;
+        }
+        if (loan.chargedThrough == null || renewalDate.isAfter(loan.chargedThrough)) {
+            loan.chargedThrough = renewalDate;
+        }
+        unindex(loan);
+        loan.dueDate = record.getDueDate();
+        if (isAlreadySwept(loan)) {
+            markOverdue(loan);
+        } else {
+            dueIndex.computeIfAbsent(loan.dueDate, date -> new HashSet<>()).add(loan.recordId);
+        }
+    }
+    
+    /**
+     * Mark every loan that became overdue since the last sweep; returns the number of such loans
+     */
+    public synchronized int runDailySweep(LocalDate today) {
+        if (sweptThrough != null && !today.isAfter(sweptThrough)) {
+            return 0;
+        }
+        if (runDate != null && !runDate.equals(today)) {
+            // A previous run did not finish; finish it for its own date first
+            runDailySweep(runDate);
+        }
+        if (runDate == null) {
+            runDate = today;
+            completedPartitions.clear();
+            saveCheckpoint();
+        }
+        
+        // Only loans due since the last run are touched
+        SortedMap<LocalDate, Set<String>> crossed = dueIndex.headMap(today);
+        List<List<Loan>> work = new ArrayList<>();
+        for (int i = 0; i < partitions; i++) {
+            work.add(new ArrayList<>());
+        }
+        for (Set<String> recordIds : crossed.values()) {
+            for (String recordId : recordIds) {
+                Loan loan = activeLoans.get(recordId);
+                work.get(partitionOf(recordId)).add(loan);
+            }
+        }
+        
+        AtomicInteger newlyOverdue = new AtomicInteger();
+        IntStream.range(0, partitions).parallel()
+            .filter(partition -> !completedPartitions.contains(partition))
+            .forEach(partition -> {
+                for (Loan loan : work.get(partition)) {
+                    markOverdue(loan);
+                    String message = "Book " + loan.isbn + " borrowed by patron " + loan.patronId +
+                                     " is overdue since " + loan.dueDate + ". Late fees of " +
+                                     formatCents(schedule.getDailyRateCents(loan.patronType)) + " per day apply.";
+                    synchronized (observers) {
+                        notifyObservers(message);
+                    }
+                }
+                newlyOverdue.addAndGet(work.get(partition).size());
+                completePartition(partition);
+            });
+        
+        crossed.clear();
+        sweptThrough = today;
+        runDate = null;
+        completedPartitions.clear();
+        saveCheckpoint();
+        logger.info("Overdue sweep for " + today + " marked " + newlyOverdue.get() + " loans overdue");
+        return newlyOverdue.get();
+    }
+    
+    /**
+     * Fine accrued so far on an active loan
+     */
+    public synchronized long getAccruedFineCents(String recordId, LocalDate today) {
+        Loan loan = activeLoans.get(recordId);
+        return loan == null ? 0 : fineFor(loan, today);
+    }
+    
+    /**
+     * Fines assessed on returned loans plus fines accruing on the patron's overdue loans
+     */
+    public synchronized long getOutstandingFineCents(String patronId, LocalDate today) {
+        long total = assessedFines.getOrDefault(patronId, 0L);
+        for (String recordId : overdueByPatron.getOrDefault(patronId, Collections.emptySet())) {
+            total += fineFor(overdueLoans.get(recordId), today);
+        }
+        return total;
+    }
+    
+    /**
+     * Record a payment against the fines assessed on returned loans
+     */
+    public synchronized void payFine(String patronId, long amountCents) {
+        long assessed = assessedFines.getOrDefault(patronId, 0L);
+        if (amountCents <= 0 || amountCents > assessed) {
+            throw new IllegalArgumentException("Payment must be positive and not exceed assessed fines");
+        }
+        if (assessed == amountCents) {
+            assessedFines.remove(patronId);
+        } else {
+            assessedFines.put(patronId, assessed - amountCents);
+        }
+        logger.info("Fine payment of " + formatCents(amountCents) + " recorded for patron " + patronId);
+    }
+    
+    public synchronized int getOverdueLoanCount() {
+        return overdueLoans.size();
+    }
+    
+    public synchronized LocalDate getSweptThrough() {
+        return sweptThrough;
+    }
+    
+    /**
+     * Fine accrued on a loan up to {@code asOf} that was not already charged at a renewal
+     */
+    private long fineFor(Loan loan, LocalDate asOf) {
+        LocalDate from = loan.chargedThrough != null && loan.chargedThrough.isAfter(loan.dueDate)
+                         ? loan.chargedThrough : loan.dueDate;
+        return schedule.fineFor(loan.patronType, ChronoUnit.DAYS.between(from, asOf), loan.chargedCents);
+    }
+    
+    private boolean isAlreadySwept(Loan loan) {
+        if (sweptThrough != null && loan.dueDate.isBefore(sweptThrough)) {
+            return true;
+        }
+        return runDate != null && loan.dueDate.isBefore(runDate) &&
+               completedPartitions.contains(partitionOf(loan.recordId));
+    }
+    
+    private void markOverdue(Loan loan) {
+        overdueLoans.put(loan.recordId, loan);
+        overdueByPatron.computeIfAbsent(loan.patronId, id -> ConcurrentHashMap.newKeySet()).add(loan.recordId);
+    }
+    
+    private void unindex(Loan loan) {
+        Set<String> due = dueIndex.get(loan.dueDate);
+        if (due != null && due.remove(loan.recordId) && due.isEmpty()) {
+            dueIndex.remove(loan.dueDate);
+        }
+        if (overdueLoans.remove(loan.recordId) != null) {
+            Set<String> patronLoans = overdueByPatron.get(loan.patronId);
+            if (patronLoans != null && patronLoans.remove(loan.recordId) && patronLoans.isEmpty()) {
+                overdueByPatron.remove(loan.patronId);
+            }
+        }
+    }
+    
+    private int partitionOf(String recordId) {
+        return Math.floorMod(recordId.hashCode(), partitions);
+    }
+    
+    private void completePartition(int partition) {
+        synchronized (completedPartitions) {
+            completedPartitions.add(partition);
+            saveCheckpoint();
+        }
+    }
+    
+    private static String formatCents(long cents) {
+        return String.format("$%d.%02d", cents / 100, cents % 100);
+    }
+    
+    // ============= CHECKPOINT =============
+    
+    private void loadCheckpoint() {
+        if (checkpointFile == null || !Files.exists(checkpointFile)) {
+            return;
+        }
+        try {
+            Properties properties = new Properties();
+            try (var reader = Files.newBufferedReader(checkpointFile, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+            String swept = properties.getProperty("sweptThrough", "");
+            String run = properties.getProperty("runDate", "");
+            sweptThrough = swept.isEmpty() ? null : LocalDate.parse(swept);
+            runDate = run.isEmpty() ? null : LocalDate.parse(run);
+            for (String partition : properties.getProperty("completedPartitions", "").split(",")) {
+                if (!partition.isEmpty()) {
+                    completedPartitions.add(Integer.parseInt(partition));
+                }
+            }
+            if (runDate != null) {
+                logger.info("Resuming overdue sweep for " + runDate + " (" + completedPartitions.size() +
+                           " of " + partitions + " partitions already done)");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read fine sweep checkpoint " + checkpointFile, e);
+        }
+    }
+    
+    private void saveCheckpoint() {
+        if (checkpointFile == null) {
+            return;
+        }
+        StringBuilder completed = new StringBuilder();
+        for (Integer partition : new TreeSet<>(completedPartitions)) {
+            if (completed.length() > 0) {
+                completed.append(',');
+            }
+            completed.append(partition);
+        }
+        String content = "sweptThrough=" + (sweptThrough == null ? "" : sweptThrough) + "\n" +
+                         "runDate=" + (runDate == null ? "" : runDate) + "\n" +
+                         "completedPartitions=" + completed + "\n";
+        Path temp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try {
+            Files.writeString(temp, content, StandardCharsets.UTF_8);
+            Files.move(temp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write fine sweep checkpoint " + checkpointFile, e);
+        }
+    }
+    
+    // Observer pattern implementation
+    @Override
+    public void attach(Observer observer) {
+        observers.add(observer);
+        logger.info("Observer attached to FineEngine");
+    }
+    
+    @Override
+    public void detach(Observer observer) {
+        observers.remove(observer);
+        logger.info("Observer detached from FineEngine");
+    }
+    
+    @Override
+    public void notifyObservers(String message) {
+        for (Observer observer : observers) {
+            observer.update(message);
+        }
+    }
+}
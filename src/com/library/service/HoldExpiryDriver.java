@@ -0,0 +1,48 @@
+package com.library.service;
+
+import java.time.LocalDateTime;
+import java.util.function.Supplier;
+
+/**
+ * Background clock for hold expiry: calls {@link ReservationService#expireHolds} every
+ * {@code periodMillis} on a daemon thread, normally the tick of the service's
+ * {@link HoldExpiryScheduler}. Without a running driver, whoever owns the service must call
+ * {@code expireHolds} itself. Usually run next to a {@link ReservationReclaimer}.
+ */
+public class HoldExpiryDriver extends PeriodicWorker {
+    private final ReservationService reservationService;
+    private final Supplier<LocalDateTime> clock;
+    private long expired;
+    
+    public HoldExpiryDriver(ReservationService reservationService, long periodMillis) {
+        this(reservationService, periodMillis, LocalDateTime::now);
+    }
+    
+    /**
+     * @param clock the time each sweep expires holds up to
+     */
+    public HoldExpiryDriver(ReservationService reservationService, long periodMillis, Supplier<LocalDateTime> clock) {
+        super("hold-expiry", periodMillis);
+        this.reservationService = reservationService;
+        this.clock = clock;
+    }
+    
+    /**
+     * Expire the holds that are due now; returns how many expired
+     */
+    @Override
+    public int runOnce() {
+        int count = reservationService.expireHolds(clock.get());
+        synchronized (this) {
+            expired += count;
+        }
+        return count;
+    }
+    
+    /**
+     * Number of holds expired by this driver
+     */
+    public synchronized long getExpiredCount() {
+        return expired;
+    }
+}
@@ -0,0 +1,476 @@
+package com.library.service;
+
+import com.library.util.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Deadline scheduler for notified holds, built as a hierarchical timing wheel.
+ *
+ * Four wheels of 256 buckets cover 2^32 ticks; a deadline is placed in the lowest wheel whose
+ * span reaches it and cascades down as time advances, so scheduling and cancelling are O(1).
+ * Each wheel keeps a bitmap of its non-empty buckets, and advancing jumps straight to the next
+ * tick at which a bucket fires or cascades, so it costs O(deadlines fired + buckets cascaded)
+ * however long the clock was idle. Each pending deadline costs one small list node plus its
+ * map entry.
+ *
+ * Nothing advances the clock by itself: {@link ReservationService#expireHolds} does, and a
+ * {@link HoldExpiryDriver} calls it periodically on a background thread.
+ *
+ * When opened on a file, every schedule, cancel and expiry is appended to a journal
+ * ({@code [int payloadLength][int crc32][byte op][long tick][key]}) which is replayed on open and
+ * compacted once it holds mostly dead records. Deadlines that passed while the process was down
+ * fire on the first {@link #advanceTo}.
+ */
+public class HoldExpiryScheduler implements AutoCloseable {
+    private static final int WHEEL_BITS = 8;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_SPAN = 1L << (WHEEL_BITS * LEVELS);
+    private static final int HEADER_BYTES = 8;
+    private static final byte SCHEDULE = 1;
+    private static final byte REMOVE = 2;
+    private static final int COMPACTION_SLACK = 4096;
+    
+    private final long tickMillis;
+    private final Node[][] wheels;
+    private final long[][] occupied; // Per wheel, one bit per non-empty bucket
+    private final Node due;
+    private final Map<String, Node> pending;
+    private final Path journalFile;
+    private final boolean syncOnWrite;
+    private final Logger logger;
+    private FileChannel journal;
+    private long journalRecords;
+    private long currentTick;
+    
+    private static final class Node {
+        final String key;
+        final long deadlineTick;
+        int slot = -1; // level * WHEEL_SIZE + bucket, or -1 while on the due list
+        Node prev;
+        Node next;
+        
+        Node(String key, long deadlineTick) {
+            this.key = key;
+            this.deadlineTick = deadlineTick;
+            this.prev = this;
+            this.next = this;
+        }
+    }
+    
+    private HoldExpiryScheduler(long tickMillis, Path journalFile, boolean syncOnWrite) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("Tick must be positive");
+        }
+        this.tickMillis = tickMillis;
+        this.wheels = new Node[LEVELS][WHEEL_SIZE];
+        for (Node[] wheel : wheels) {
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                wheel[i] = new Node(null, 0);
+            }
+        }
+        this.occupied = new long[LEVELS][WHEEL_SIZE / Long.SIZE];
+        this.due = new Node(null, 0);
+        this.pending = new HashMap<>();
+        this.journalFile = journalFile;
+        this.syncOnWrite = syncOnWrite;
+        this.logger = Logger.getInstance();
+        this.currentTick = Math.floorDiv(System.currentTimeMillis(), tickMillis);
+    }
+    
+    /**
+     * Scheduler without a journal; pending deadlines are lost on restart
+     */
+    public static HoldExpiryScheduler inMemory(long tickMillis) {
+        return new HoldExpiryScheduler(tickMillis, null, false);
+    }
+    
+    /**
+     * Open (or create) the journaled scheduler {@code name} in the given directory
+     */
+    public static HoldExpiryScheduler open(Path directory, String name, long tickMillis) throws IOException {
+        Files.createDirectories(directory);
+        HoldExpiryScheduler scheduler = new HoldExpiryScheduler(tickMillis, directory.resolve(name + ".wheel"), true);
+        scheduler.recover();
+        return scheduler;
+    }
+    
+    /**
+     * Schedule (or reschedule) a deadline for the given key
+     */
+    public synchronized void schedule(String key, long deadlineMillis) {
+        Node previous = pending.remove(key);
+        if (previous != null) {
+            remove(previous);
+        }
+        Node node = new Node(key, Math.floorDiv(deadlineMillis + tickMillis - 1, tickMillis));
+        pending.put(key, node);
+        insert(node);
+        if (journal != null) {
+            ByteBuffer record = encode(SCHEDULE, node.deadlineTick, key);
+            record.flip();
+            write(record, 1);
+        }
+    }
+    
+    /**
+     * Cancel a pending deadline
+     * @return false if nothing was scheduled for the key
+     */
+    public synchronized boolean cancel(String key) {
+        Node node = pending.remove(key);
+        if (node == null) {
+            return false;
+        }
+        remove(node);
+        if (journal != null) {
+            ByteBuffer record = encode(REMOVE, node.deadlineTick, key);
+            record.flip();
+            write(record, 1);
+            compactIfSparse();
+        }
+        return true;
+    }
+    
+    /**
+     * Advance the clock and return the keys whose deadline is at or before {@code nowMillis},
+     * in deadline order
+     */
+    public synchronized List<String> advanceTo(long nowMillis) {
+        long target = Math.floorDiv(nowMillis, tickMillis);
+        List<String> fired = new ArrayList<>();
+        drain(due, fired);
+        while (currentTick < target && !pending.isEmpty()) {
+            // Ticks at which no bucket fires or cascades are skipped
+            long next = nextBusyTick();
+            if (next > target) {
+                break;
+            }
+            currentTick = next;
+            cascade();
+            // Cascading puts deadlines of exactly this tick on the due list
+            drain(due, fired);
+            int bucket = (int) (currentTick & WHEEL_MASK);
+            drain(wheels[0][bucket], fired);
+            markEmpty(0, bucket);
+        }
+        if (currentTick < target) {
+            currentTick = target;
+        }
+        if (journal != null && !fired.isEmpty()) {
+            // One write (and one sync) per batch of expiries
+            ByteBuffer batch = ByteBuffer.allocate(64 * 1024);
+            int batched = 0;
+            for (String key : fired) {
+                ByteBuffer record = encode(REMOVE, currentTick, key);
+                record.flip();
+                if (batch.remaining() < record.remaining()) {
+                    batch.flip();
+                    write(batch, batched);
+                    batch.clear();
+                    batched = 0;
+                }
+                batch.put(record);
+                batched++;
+            }
+            batch.flip();
+            write(batch, batched);
+            compactIfSparse();
+        }
+        return fired;
+    }
+    
+    public synchronized int size() {
+        return pending.size();
+    }
+    
+    public synchronized boolean isScheduled(String key) {
+        return pending.containsKey(key);
+    }
+    
+    public long getTickMillis() {
+        return tickMillis;
+    }
+    
+    // ============= TIMING WHEEL =============
+    
+    private void insert(Node node) {
+        long delta = node.deadlineTick - currentTick;
+        if (delta <= 0) {
+            node.slot = -1;
+            append(due, node);
+            return;
+        }
+        long tick = delta < MAX_SPAN ? node.deadlineTick : currentTick + MAX_SPAN - 1;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (WHEEL_BITS * (level + 1))) {
+            level++;
+        }
+        int bucket = (int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        node.slot = level * WHEEL_SIZE + bucket;
+        append(wheels[level][bucket], node);
+        occupied[level][bucket >>> 6] |= 1L << bucket;
+    }
+    
+    /**
+     * Take a node out of its bucket, keeping the occupancy bitmap in step
+     */
+    private void remove(Node node) {
+        unlink(node);
+        if (node.slot >= 0) {
+            int level = node.slot / WHEEL_SIZE;
+            int bucket = node.slot % WHEEL_SIZE;
+            Node sentinel = wheels[level][bucket];
+            if (sentinel.next == sentinel) {
+                markEmpty(level, bucket);
+            }
+        }
+    }
+    
+    private void markEmpty(int level, int bucket) {
+        occupied[level][bucket >>> 6] &= ~(1L << bucket);
+    }
+    
+    /**
+     * The first tick after the current one at which a bucket fires (level 0) or cascades (upper
+     * levels, whose bucket is reached when every lower index wraps to zero), or Long.MAX_VALUE
+     */
+    private long nextBusyTick() {
+        long next = Long.MAX_VALUE;
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = WHEEL_BITS * level;
+            long boundary = ((currentTick >>> shift) + 1) << shift;
+            int steps = stepsToOccupied(level, (int) ((boundary >>> shift) & WHEEL_MASK));
+            if (steps >= 0) {
+                next = Math.min(next, boundary + ((long) steps << shift));
+            }
+        }
+        return next;
+    }
+    
+    /**
+     * Buckets to step forward from {@code from}, wrapping around, to reach a non-empty one; -1 if all are empty
+     */
+    private int stepsToOccupied(int level, int from) {
+        long[] bits = occupied[level];
+        int word = from >>> 6;
+        long remaining = bits[word] & (-1L << from);
+        for (int i = 0; i <= bits.length; i++) {
+            if (remaining != 0) {
+                int bucket = (word << 6) + Long.numberOfTrailingZeros(remaining);
+                return (bucket - from) & WHEEL_MASK;
+            }
+            word = (word + 1) % bits.length;
+            remaining = bits[word];
+        }
+        return -1;
+    }
+    
+    /**
+     * Re-insert the upper-wheel buckets that the current tick has just reached
+     */
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            if (((currentTick >>> (WHEEL_BITS * (level - 1))) & WHEEL_MASK) != 0) {
+                return;
+            }
+            int index = (int) ((currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+            Node bucket = wheels[level][index];
+            Node node = bucket.next;
+            bucket.next = bucket;
+            bucket.prev = bucket;
+            markEmpty(level, index);
+            while (node != bucket) {
+                Node next = node.next;
+                insert(node);
+                node = next;
+            }
+        }
+    }
+    
+    private void drain(Node bucket, List<String> fired) {
+        Node node = bucket.next;
+        while (node != bucket) {
+            Node next = node.next;
+            pending.remove(node.key);
+            node.prev = node;
+            node.next = node;
+            fired.add(node.key);
+            node = next;
+        }
+        bucket.next = bucket;
+        bucket.prev = bucket;
+    }
+    
+    private static void append(Node bucket, Node node) {
+        node.prev = bucket.prev;
+        node.next = bucket;
+        bucket.prev.next = node;
+        bucket.prev = node;
+    }
+    
+    private static void unlink(Node node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = node;
+        node.next = node;
+    }
+    
+    // ============= JOURNAL =============
+    
+    private void recover() throws IOException {
+        long valid = 0;
+        long records = 0;
+        if (Files.exists(journalFile)) {
+            Map<String, Long> replayed = new HashMap<>();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalFile)))) {
+                CRC32 crc = new CRC32();
+                while (true) {
+                    int payloadLength;
+                    int checksum;
+                    byte[] payload;
+                    try {
+                        payloadLength = in.readInt();
+                        checksum = in.readInt();
+                        if (payloadLength < 9 || payloadLength > 1 << 20) {
+                            break;
+                        }
+                        payload = new byte[payloadLength];
+                        in.readFully(payload);
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    crc.reset();
+                    crc.update(payload, 0, payloadLength);
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+                    ByteBuffer buffer = ByteBuffer.wrap(payload);
+                    byte op = buffer.get();
+                    long tick = buffer.getLong();
+                    String key = new String(payload, 9, payloadLength - 9, StandardCharsets.UTF_8);
+                    if (op == SCHEDULE) {
+                        replayed.put(key, tick);
+                    } else {
+                        replayed.remove(key);
+                    }
+                    valid += HEADER_BYTES + payloadLength;
+                    records++;
+                }
+            }
+            for (Map.Entry<String, Long> entry : replayed.entrySet()) {
+                Node node = new Node(entry.getKey(), entry.getValue());
+                pending.put(node.key, node);
+                insert(node);
+            }
+        }
+        journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                   StandardOpenOption.WRITE);
+        if (journal.size() > valid) {
+            logger.warn("Truncating torn hold-expiry journal tail at offset " + valid + " in " + journalFile);
+            journal.truncate(valid);
+        }
+        journal.position(valid);
+        journalRecords = records;
+        if (!pending.isEmpty()) {
+            logger.info("Hold-expiry journal " + journalFile.getFileName() + " recovered " + pending.size() +
+                       " pending deadlines");
+        }
+    }
+    
+    private static ByteBuffer encode(byte op, long tick, String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int payloadLength = 9 + keyBytes.length;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payloadLength);
+        buffer.putInt(payloadLength).putInt(0).put(op).putLong(tick).put(keyBytes);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_BYTES, payloadLength);
+        buffer.putInt(4, (int) crc.getValue());
+        return buffer;
+    }
+    
+    private void write(ByteBuffer buffer, int records) {
+        try {
+            while (buffer.hasRemaining()) {
+                journal.write(buffer);
+            }
+            if (syncOnWrite) {
+                journal.force(false);
+            }
+            journalRecords += records;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write hold-expiry journal " + journalFile, e);
+        }
+    }
+    
+    /**
+     * Rewrite the journal with only the pending deadlines once most of its records are dead
+     */
+    private void compactIfSparse() {
+        if (journalRecords <= 2L * pending.size() + COMPACTION_SLACK) {
+            return;
+        }
+        Path temp = journalFile.resolveSibling(journalFile.getFileName() + ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer batch = ByteBuffer.allocate(64 * 1024);
+                for (Node node : pending.values()) {
+                    ByteBuffer record = encode(SCHEDULE, node.deadlineTick, node.key);
+                    record.flip();
+                    if (batch.remaining() < record.remaining()) {
+                        batch.flip();
+                        while (batch.hasRemaining()) {
+                            out.write(batch);
+                        }
+                        batch.clear();
+                    }
+                    batch.put(record);
+                }
+                batch.flip();
+                while (batch.hasRemaining()) {
+                    out.write(batch);
+                }
+                out.force(true);
+            }
+            journal.close();
+            Files.move(temp, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            journal = FileChannel.open(journalFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            journal.position(journal.size());
+            journalRecords = pending.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to compact hold-expiry journal " + journalFile, e);
+        }
+    }
+    
+    @Override
+    public synchronized void close() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close hold-expiry journal " + journalFile + ": " + e.getMessage());
+        }
+        journal = null;
+    }
+}
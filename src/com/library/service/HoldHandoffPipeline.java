@@ -0,0 +1,262 @@
+package com.library.service;
+
+import com.library.model.Reservation;
+import com.library.model.ReservationStatus;
+import com.library.util.Logger;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hands books that come back on a shelf straight to waiting patrons.
+ *
+ * A return is set aside for the first waiting reservation by {@link LendingService} itself, before
+ * the item is shelved; registered as a {@link LendingListener}, the pipeline only tells the patron.
+ * Registered as a {@link TransferListener}, it turns every arrival at a branch into a hand-off
+ * event that atomically claims the item through {@link ReservationService#claimForNextInQueue}.
+ * Events are handled on the thread that raised them, or by a background worker once
+ * {@link #start} has been called.
+ *
+ * Return-to-notified latency (from the start of the return or manifest check-in to the hold
+ * notification being sent) is recorded for every hand-off in a histogram of power-of-two
+ * nanosecond buckets. A hold cancelled or collected before its event is handled is not a hand-off.
+ */
+public class HoldHandoffPipeline implements LendingListener, TransferListener, AutoCloseable {
+    private static final long POLL_MILLIS = 50;
+    
+    private static final class Event {
+        final String isbn;
+        final String branchId;
+        final Reservation setAside; // Already claimed, only to be notified
+        final long startNanos; // Start of the return or check-in that made the item available
+        
+        Event(String isbn, String branchId, Reservation setAside, long startNanos) {
+            this.isbn = isbn;
+            this.branchId = branchId;
+            this.setAside = setAside;
+            this.startNanos = startNanos;
+        }
+    }
+    
+    private final ReservationService reservationService;
+    private final BlockingQueue<Event> queue;
+    private final AtomicLong outstanding;
+    private final AtomicLong handedOff;
+    private final AtomicLong unmatched;
+    private final AtomicLong failed;
+    private final AtomicLong totalLatencyNanos;
+    private final AtomicLong maxLatencyNanos;
+    private final AtomicLongArray latencyBuckets; // Bucket i counts latencies below 2^i ns
+    private final Object idleMonitor;
+    private final Logger logger;
+    private volatile Thread worker;
+    private volatile boolean running;
+    
+    public HoldHandoffPipeline(ReservationService reservationService) {
+        this.reservationService = reservationService;
+        this.queue = new LinkedBlockingQueue<>();
+        this.outstanding = new AtomicLong();
+        this.handedOff = new AtomicLong();
+        this.unmatched = new AtomicLong();
+        this.failed = new AtomicLong();
+        this.totalLatencyNanos = new AtomicLong();
+        this.maxLatencyNanos = new AtomicLong();
+        this.latencyBuckets = new AtomicLongArray(Long.SIZE);
+        this.idleMonitor = new Object();
+        this.logger = Logger.getInstance();
+    }
+    
+    @Override
+    public void onHoldSetAside(Reservation reservation, long returnedNanos) {
+        enqueue(new Event(reservation.getIsbn(), null, reservation, returnedNanos));
+    }
+    
+    @Override
+    public void onArrival(String isbn, String fromBranchId, String toBranchId, long receivedNanos) {
+        submit(isbn, toBranchId, receivedNanos);
+    }
+    
+    /**
+     * Raise a hand-off event for a title that became available at a branch just now
+     */
+    public void submit(String isbn, String branchId) {
+        submit(isbn, branchId, System.nanoTime());
+    }
+    
+    /**
+     * Raise a hand-off event for a title that became available at a branch
+     * @param startNanos the {@link System#nanoTime} latency is measured from
+     */
+    public void submit(String isbn, String branchId, long startNanos) {
+        enqueue(new Event(isbn, branchId, null, startNanos));
+    }
+    
+    private void enqueue(Event event) {
+        if (!running) {
+            handle(event);
+            return;
+        }
+        outstanding.incrementAndGet();
+        queue.add(event);
+    }
+    
+    /**
+     * Handle events on a background worker instead of the thread that raised them
+     */
+    public synchronized void start() {
+        if (worker != null) {
+            throw new IllegalStateException("Hold hand-off pipeline is already running");
+        }
+        running = true;
+        worker = new Thread(this::workLoop, "hold-handoff");
+        worker.setDaemon(true);
+        worker.start();
+    }
+    
+    /**
+     * Wait until every submitted event has been handled
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (idleMonitor) {
+            while (outstanding.get() > 0) {
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMillis <= 0) {
+                    return false;
+                }
+                idleMonitor.wait(remainingMillis);
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Number of events that notified a waiting patron
+     */
+    public long getHandoffCount() {
+        return handedOff.get();
+    }
+    
+    /**
+     * Number of events where nobody was waiting, the item had already been taken or the hold
+     * had ended before the patron was told
+     */
+    public long getUnmatchedCount() {
+        return unmatched.get();
+    }
+    
+    public long getFailedCount() {
+        return failed.get();
+    }
+    
+    public int getQueuedCount() {
+        return queue.size();
+    }
+    
+    public long getAverageLatencyNanos() {
+        long count = handedOff.get();
+        return count == 0 ? 0 : totalLatencyNanos.get() / count;
+    }
+    
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos.get();
+    }
+    
+    /**
+     * Upper bound of the return-to-notified latency at the given percentile (0-100), to within a
+     * factor of two
+     */
+    public long getLatencyPercentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        long count = 0;
+        for (int i = 0; i < latencyBuckets.length(); i++) {
+            count += latencyBuckets.get(i);
+        }
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < latencyBuckets.length(); i++) {
+            seen += latencyBuckets.get(i);
+            if (seen >= rank && seen > 0) {
+                return i == Long.SIZE - 1 ? Long.MAX_VALUE : 1L << i;
+            }
+        }
+        return 0;
+    }
+    
+    private void handle(Event event) {
+        try {
+            boolean notified;
+            if (event.setAside != null) {
+                notified = reservationService.notifyHolder(event.setAside);
+            } else {
+                Reservation claimed = reservationService.claimForNextInQueue(event.isbn, event.branchId);
+                notified = claimed != null && claimed.getStatus() == ReservationStatus.NOTIFIED;
+            }
+            if (!notified) {
+                unmatched.incrementAndGet();
+                return;
+            }
+            long latency = System.nanoTime() - event.startNanos;
+            handedOff.incrementAndGet();
+            totalLatencyNanos.addAndGet(latency);
+            maxLatencyNanos.accumulateAndGet(latency, Math::max);
+            latencyBuckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(latency));
+        } catch (RuntimeException e) {
+            // A failed hand-off must not undo the return or transfer that raised it
+            failed.incrementAndGet();
+            logger.error("Hold hand-off failed for book " + event.isbn + ": " + e.getMessage());
+        }
+    }
+    
+    private void workLoop() {
+        while (running || !queue.isEmpty()) {
+            try {
+                Event event = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (event != null) {
+                    handle(event);
+                    complete();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+    
+    private void complete() {
+        if (outstanding.decrementAndGet() == 0) {
+            synchronized (idleMonitor) {
+                idleMonitor.notifyAll();
+            }
+        }
+    }
+    
+    /**
+     * Stop the background worker after it has handled the queued events; later events are
+     * handled on the thread that raises them
+     */
+    @Override
+    public synchronized void close() {
+        if (worker == null) {
+            return;
+        }
+        running = false;
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        worker = null;
+        // Events queued while the worker was exiting
+        Event event;
+        while ((event = queue.poll()) != null) {
+            handle(event);
+            complete();
+        }
+    }
+}
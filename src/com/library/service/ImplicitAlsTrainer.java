@@ -0,0 +1,359 @@
+package com.library.service;
+
+import com.library.model.BorrowingRecord;
+import com.library.util.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Trains patron and book factors on borrowing history with implicit-feedback alternating least
+ * squares (Hu, Koren and Volinsky), and writes them to a file served by {@link LatentFactorModel}.
+ *
+ * Each patron/book pair that was borrowed r times is a positive preference with confidence
+ * 1 + alpha * r; every other pair is a negative preference with confidence 1. Each half-iteration
+ * fixes one side and solves a {@code factors x factors} system per row. The sum over all rows of
+ * the fixed side is precomputed once, so a row costs O(borrowed pairs * factors^2 + factors^3)
+ * instead of touching the whole catalog. Borrowing counts are held in two compressed sparse row
+ * matrices of primitives (patron-major and book-major), and rows are solved in parallel on a
+ * fork/join pool.
+ */
+public class ImplicitAlsTrainer {
+    private static final int ROWS_PER_TASK = 64;
+    
+    private final int factors;
+    private final int iterations;
+    private final double regularization;
+    private final double alpha;
+    private final int parallelism;
+    private final Logger logger;
+    
+    public ImplicitAlsTrainer() {
+        this(32, 10, 0.1, 20.0, Runtime.getRuntime().availableProcessors());
+    }
+    
+    public ImplicitAlsTrainer(int factors, int iterations, double regularization, double alpha, int parallelism) {
+        if (factors <= 0 || iterations <= 0 || regularization <= 0 || alpha < 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("Invalid ALS configuration");
+        }
+        this.factors = factors;
+        this.iterations = iterations;
+        this.regularization = regularization;
+        this.alpha = alpha;
+        this.parallelism = parallelism;
+        this.logger = Logger.getInstance();
+    }
+    
+    /**
+     * Compressed sparse rows: the entries of row r are at [rowStart[r], rowStart[r + 1])
+     */
+    private static final class SparseMatrix {
+        final int[] rowStart;
+        final int[] columns;
+        final float[] values;
+        
+        SparseMatrix(int[] rowStart, int[] columns, float[] values) {
+            this.rowStart = rowStart;
+            this.columns = columns;
+            this.values = values;
+        }
+        
+        int rows() {
+            return rowStart.length - 1;
+        }
+        
+        /**
+         * Build from (row, column, value) triples; duplicates must already be merged
+         */
+        static SparseMatrix of(int rows, int[] rowIndex, int[] columnIndex, float[] value, int size) {
+            int[] rowStart = new int[rows + 1];
+            for (int i = 0; i < size; i++) {
+                rowStart[rowIndex[i] + 1]++;
+            }
+            for (int r = 0; r < rows; r++) {
+                rowStart[r + 1] += rowStart[r];
+            }
+            int[] next = Arrays.copyOf(rowStart, rows);
+            int[] columns = new int[size];
+            float[] values = new float[size];
+            for (int i = 0; i < size; i++) {
+                int slot = next[rowIndex[i]]++;
+                columns[slot] = columnIndex[i];
+                values[slot] = value[i];
+            }
+            return new SparseMatrix(rowStart, columns, values);
+        }
+    }
+    
+    /**
+     * Train on the given records and write the factors to {@code file}, replacing it atomically so
+     * a model still serving the old file keeps reading it
+     */
+    public LatentFactorModel train(Collection<BorrowingRecord> records, Path file) {
+        // Number patrons and books, and merge repeated borrowings of the same pair into counts
+        Map<String, Integer> patronIndex = new HashMap<>();
+        Map<String, Integer> bookIndex = new HashMap<>();
+        List<String> patronIds = new ArrayList<>();
+        List<String> isbns = new ArrayList<>();
+        Map<Long, float[]> counts = new HashMap<>();
+        for (BorrowingRecord record : records) {
+            int patron = patronIndex.computeIfAbsent(record.getPatronId(), id -> {
+                patronIds.add(id);
+                return patronIds.size() - 1;
+            });
+            int book = bookIndex.computeIfAbsent(record.getIsbn(), isbn -> {
+                isbns.add(isbn);
+                return isbns.size() - 1;
+            });
+            counts.computeIfAbsent((long) patron << 32 | book, k -> new float[1])[0]++;
+        }
+        int pairs = counts.size();
+        int[] patronOf = new int[pairs];
+        int[] bookOf = new int[pairs];
+        float[] count = new float[pairs];
+        int n = 0;
+        for (Map.Entry<Long, float[]> entry : counts.entrySet()) {
+            patronOf[n] = (int) (entry.getKey() >>> 32);
+            bookOf[n] = (int) (long) entry.getKey();
+            count[n] = entry.getValue()[0];
+            n++;
+        }
+        SparseMatrix byPatron = SparseMatrix.of(patronIds.size(), patronOf, bookOf, count, pairs);
+        SparseMatrix byBook = SparseMatrix.of(isbns.size(), bookOf, patronOf, count, pairs);
+        
+        float[] patronFactors = new float[patronIds.size() * factors];
+        float[] bookFactors = new float[isbns.size() * factors];
+        Random random = new Random(42);
+        for (int i = 0; i < bookFactors.length; i++) {
+            bookFactors[i] = (float) (random.nextGaussian() * 0.01);
+        }
+        
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (int iteration = 0; iteration < iterations; iteration++) {
+                long start = System.nanoTime();
+                pool.invoke(new SolveRows(byPatron, bookFactors, patronFactors, gram(bookFactors), 0, byPatron.rows()));
+                pool.invoke(new SolveRows(byBook, patronFactors, bookFactors, gram(patronFactors), 0, byBook.rows()));
+                if (logger.isInfoEnabled()) {
+                    logger.info("ALS iteration " + (iteration + 1) + "/" + iterations + " took " +
+                                (System.nanoTime() - start) / 1_000_000 + " ms");
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        
+        write(file, patronIds, patronFactors, isbns, bookFactors);
+        logger.info("Trained " + factors + " factors for " + patronIds.size() + " patrons and " +
+                    isbns.size() + " books from " + pairs + " borrowed pairs");
+        return LatentFactorModel.open(file);
+    }
+    
+    /**
+     * Solves the rows [from, to) of one side against the fixed factors of the other side
+     */
+    private final class SolveRows extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private final SparseMatrix matrix;
+        private final float[] fixed;
+        private final float[] solved;
+        private final double[] gram;
+        private final int from;
+        private final int to;
+        
+        SolveRows(SparseMatrix matrix, float[] fixed, float[] solved, double[] gram, int from, int to) {
+            this.matrix = matrix;
+            this.fixed = fixed;
+            this.solved = solved;
+            this.gram = gram;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected void compute() {
+            if (to - from > ROWS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SolveRows(matrix, fixed, solved, gram, from, middle),
+                          new SolveRows(matrix, fixed, solved, gram, middle, to));
+                return;
+            }
+            double[] a = new double[factors * factors];
+            double[] b = new double[factors];
+            for (int row = from; row < to; row++) {
+                solveRow(row, a, b);
+            }
+        }
+        
+        /**
+         * (G + sum (c - 1) y y^T + lambda I) x = sum c y, over the row's borrowed pairs
+         */
+        private void solveRow(int row, double[] a, double[] b) {
+            System.arraycopy(gram, 0, a, 0, a.length);
+            Arrays.fill(b, 0);
+            for (int d = 0; d < factors; d++) {
+                a[d * factors + d] += regularization;
+            }
+            for (int e = matrix.rowStart[row]; e < matrix.rowStart[row + 1]; e++) {
+                int offset = matrix.columns[e] * factors;
+                double confidence = 1 + alpha * matrix.values[e];
+                for (int i = 0; i < factors; i++) {
+                    double yi = fixed[offset + i];
+                    b[i] += confidence * yi;
+                    double weighted = (confidence - 1) * yi;
+                    for (int j = 0; j <= i; j++) {
+                        a[i * factors + j] += weighted * fixed[offset + j];
+                    }
+                }
+            }
+            choleskySolve(a, b);
+            int offset = row * factors;
+            for (int i = 0; i < factors; i++) {
+                solved[offset + i] = (float) b[i];
+            }
+        }
+    }
+    
+    /**
+     * Sum of y y^T over all rows of a factor matrix; only the lower triangle is filled
+     */
+    private double[] gram(float[] factorsOf) {
+        double[] gram = new double[factors * factors];
+        for (int offset = 0; offset < factorsOf.length; offset += factors) {
+            for (int i = 0; i < factors; i++) {
+                double yi = factorsOf[offset + i];
+                for (int j = 0; j <= i; j++) {
+                    gram[i * factors + j] += yi * factorsOf[offset + j];
+                }
+            }
+        }
+        return gram;
+    }
+    
+    /**
+     * Solve a x = b in place for a symmetric positive definite a given by its lower triangle
+     */
+    private void choleskySolve(double[] a, double[] b) {
+        int k = factors;
+        for (int i = 0; i < k; i++) {
+            for (int j = 0; j <= i; j++) {
+                double sum = a[i * k + j];
+                for (int p = 0; p < j; p++) {
+                    sum -= a[i * k + p] * a[j * k + p];
+                }
+                a[i * k + j] = i == j ? Math.sqrt(Math.max(sum, 1e-12)) : sum / a[j * k + j];
+            }
+        }
+        for (int i = 0; i < k; i++) {
+            double sum = b[i];
+            for (int p = 0; p < i; p++) {
+                sum -= a[i * k + p] * b[p];
+            }
+            b[i] = sum / a[i * k + i];
+        }
+        for (int i = k - 1; i >= 0; i--) {
+            double sum = b[i];
+            for (int p = i + 1; p < k; p++) {
+                sum -= a[p * k + i] * b[p];
+            }
+            b[i] = sum / a[i * k + i];
+        }
+    }
+    
+    /**
+     * Write the factor file described in {@link LatentFactorModel}, books in decreasing norm order.
+     * The file is written beside the target and moved over it once complete: truncating a file
+     * that a live model has mapped would make that model's reads fail.
+     */
+    private void write(Path file, List<String> patronIds, float[] patronFactors, List<String> isbns,
+                       float[] bookFactors) {
+        int books = isbns.size();
+        float[] norms = new float[books];
+        Integer[] order = new Integer[books];
+        for (int book = 0; book < books; book++) {
+            double sum = 0;
+            for (int i = 0; i < factors; i++) {
+                double value = bookFactors[book * factors + i];
+                sum += value * value;
+            }
+            norms[book] = (float) Math.sqrt(sum);
+            order[book] = book;
+        }
+        Arrays.sort(order, (x, y) -> Float.compare(norms[y], norms[x]));
+        
+        List<byte[]> ids = new ArrayList<>(patronIds.size() + books);
+        long idBytes = 0;
+        for (String patronId : patronIds) {
+            ids.add(patronId.getBytes(StandardCharsets.UTF_8));
+        }
+        for (Integer book : order) {
+            ids.add(isbns.get(book).getBytes(StandardCharsets.UTF_8));
+        }
+        for (byte[] id : ids) {
+            idBytes += 4 + id.length;
+        }
+        long headerBytes = LatentFactorModel.HEADER_BYTES + idBytes;
+        long dataOffset = (headerBytes + 3) & ~3L;
+        long size = dataOffset + 4L * (patronFactors.length + books + bookFactors.length);
+        
+        Path target = file.toAbsolutePath();
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+            writeMapped(temp, size, patronIds.size(), ids, dataOffset, patronFactors, order, norms, bookFactors);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write factor file " + file, e);
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    logger.warn("Failed to delete temporary factor file " + temp);
+                }
+            }
+        }
+    }
+    
+    private void writeMapped(Path file, long size, int patronCount, List<byte[]> ids, long dataOffset,
+                             float[] patronFactors, Integer[] order, float[] norms, float[] bookFactors)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(LatentFactorModel.MAGIC).putInt(factors).putInt(patronCount).putInt(order.length);
+            for (byte[] id : ids) {
+                buffer.putInt(id.length).put(id);
+            }
+            buffer.position((int) dataOffset);
+            for (float value : patronFactors) {
+                buffer.putFloat(value);
+            }
+            for (Integer book : order) {
+                buffer.putFloat(norms[book]);
+            }
+            for (Integer book : order) {
+                for (int i = 0; i < factors; i++) {
+                    buffer.putFloat(bookFactors[book * factors + i]);
+                }
+            }
+            buffer.force();
+        }
+    }
+}
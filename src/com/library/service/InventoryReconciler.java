@@ -0,0 +1,176 @@
+package com.library.service;
+
+import com.library.model.Book;
+import com.library.model.BookCopy;
+import com.library.model.BookStatus;
+import com.library.model.LibraryBranch;
+import com.library.repository.BookRepository;
+import com.library.repository.BranchRepository;
+import com.library.repository.CopyRepository;
+import com.library.util.BucketDigest;
+import com.library.util.IsbnDictionary;
+import com.library.util.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Finds and repairs drift between where books are ({@code Book.currentBranchId}, or the copies'
+ * branches for titles with registered copies) and what each branch's inventory lists.
+ *
+ * Both sides keep rolling XOR checksums per {@link BucketDigest} bucket, updated on every save and
+ * inventory change: {@link BookRepository#getBranchChecksum} and
+ * {@link LibraryBranch#getInventoryChecksum}. A run compares the whole-branch checksums first and
+ * then the bucket checksums of branches that differ, and only re-checks the ISBNs of buckets that
+ * differ, so its cost is O(branches * buckets) plus O(titles in changed buckets) rather than a
+ * cross-join of books and inventories.
+ *
+ * Some differences are legitimate: books in transit are in no inventory, and titles with copies
+ * are listed wherever a copy is. When a re-checked bucket turns out consistent (or is repaired),
+ * its remaining checksum difference is remembered as the baseline, and the bucket is only checked
+ * again once the difference moves.
+ */
+public class InventoryReconciler {
+    
+    public enum Mode {
+        /** Count divergence only */
+        REPORT,
+        /** Make each inventory match where the books are */
+        REPAIR
+    }
+    
+    private final BookRepository bookRepository;
+    private final BranchRepository branchRepository;
+    private final CopyRepository copyRepository;
+    private final Map<String, long[]> baselines; // Branch id -> accepted difference per bucket, then in total
+    private final Logger logger;
+    private int lastDivergence;
+    private int lastDirtyBuckets;
+    private int lastCheckedTitles;
+    private long repairs;
+    
+    public InventoryReconciler(BookRepository bookRepository, BranchRepository branchRepository) {
+        this(bookRepository, branchRepository, null);
+    }
+    
+    public InventoryReconciler(BookRepository bookRepository, BranchRepository branchRepository,
+                               CopyRepository copyRepository) {
+        this.bookRepository = bookRepository;
+        this.branchRepository = branchRepository;
+        this.copyRepository = copyRepository;
+        this.baselines = new HashMap<>();
+        this.logger = Logger.getInstance();
+    }
+    
+    /**
+     * Compare every branch's inventory with where its books are
+     * @return the divergence: the number of (title, branch) pairs where the two views disagree
+     */
+    public synchronized int reconcile(Mode mode) {
+        int divergence = 0;
+        int dirtyBuckets = 0;
+        int checkedTitles = 0;
+        for (LibraryBranch branch : branchRepository.findAll()) {
+            String branchId = branch.getBranchId();
+            long[] baseline = baselines.computeIfAbsent(branchId, k -> new long[BucketDigest.BUCKETS + 1]);
+            long difference = bookRepository.getBranchChecksum(branchId) ^ branch.getInventoryChecksum();
+            if (difference == baseline[BucketDigest.BUCKETS]) {
+                continue;
+            }
+            for (int bucket = 0; bucket < BucketDigest.BUCKETS; bucket++) {
+                long bucketDifference = bookRepository.getBranchChecksum(branchId, bucket) ^
+                                        branch.getInventoryChecksum(bucket);
+                if (bucketDifference == baseline[bucket]) {
+                    continue;
+                }
+                dirtyBuckets++;
+                int mismatches = 0;
+                int ids = IsbnDictionary.size();
+                for (int id = bucket; id < ids; id += BucketDigest.BUCKETS) {
+                    checkedTitles++;
+                    String isbn = IsbnDictionary.isbnOf(id);
+                    boolean expected = isShelvedAt(isbn, branchId);
+                    if (expected == branch.hasBook(isbn)) {
+                        continue;
+                    }
+                    mismatches++;
+                    if (mode == Mode.REPAIR) {
+                        if (expected) {
+                            branch.addBookToInventory(isbn);
+                        } else {
+                            branch.removeBookFromInventory(isbn);
+                        }
+                        repairs++;
+                    }
+                }
+                divergence += mismatches;
+                if (mismatches == 0 || mode == Mode.REPAIR) {
+                    long accepted = bookRepository.getBranchChecksum(branchId, bucket) ^
+                                    branch.getInventoryChecksum(bucket);
+                    baseline[BucketDigest.BUCKETS] ^= baseline[bucket] ^ accepted;
+                    baseline[bucket] = accepted;
+                }
+            }
+            if (mode == Mode.REPAIR) {
+                branchRepository.save(branch);
+            }
+        }
+        lastDivergence = divergence;
+        lastDirtyBuckets = dirtyBuckets;
+        lastCheckedTitles = checkedTitles;
+        if (divergence > 0) {
+            logger.warn("Inventory divergence: " + divergence + " titles in " + dirtyBuckets + " buckets" +
+                       (mode == Mode.REPAIR ? " repaired" : ""));
+        }
+        return divergence;
+    }
+    
+    /**
+     * Divergence found by the last run
+     */
+    public synchronized int getLastDivergence() {
+        return lastDivergence;
+    }
+    
+    /**
+     * Buckets whose checksums differed from their baseline in the last run
+     */
+    public synchronized int getLastDirtyBucketCount() {
+        return lastDirtyBuckets;
+    }
+    
+    /**
+     * Titles re-checked by the last run
+     */
+    public synchronized int getLastCheckedTitleCount() {
+        return lastCheckedTitles;
+    }
+    
+    /**
+     * Inventory entries added or removed by all repair runs
+     */
+    public synchronized long getRepairCount() {
+        return repairs;
+    }
+    
+    /**
+     * Whether a branch's inventory should list the title: a copy that is neither in transit nor
+     * lost is there, or, for titles without copies, the book is
+     */
+    private boolean isShelvedAt(String isbn, String branchId) {
+        if (copyRepository != null && copyRepository.hasCopies(isbn)) {
+            for (BookCopy copy : copyRepository.findByIsbn(isbn)) {
+                if (branchId.equals(copy.getBranchId()) && isPresent(copy.getStatus())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        Book book = bookRepository.getByIsbn(isbn);
+        return book != null && branchId.equals(book.getCurrentBranchId()) && isPresent(book.getStatus());
+    }
+    
+    private static boolean isPresent(BookStatus status) {
+        return status != BookStatus.IN_TRANSIT && status != BookStatus.LOST;
+    }
+}
@@ -0,0 +1,179 @@
+package com.library.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Patron and book factors trained by {@link ImplicitAlsTrainer}, served from a memory-mapped file.
+ *
+ * File layout: {@code [int magic][int factors][int patrons][int books]}, then the patron ids and
+ * the ISBNs as {@code [int length][UTF-8]}, padded to 4 bytes, then the patron factors, the book
+ * norms and the book factors as floats. Books are stored in decreasing norm order. Only the ids
+ * are loaded onto the heap; the factors stay in the page cache and are shared by every process
+ * that opens the file.
+ *
+ * A book's score for a patron is the dot product of their factors, which is at most the product
+ * of their norms. Scoring walks books from the largest norm down and stops as soon as that bound
+ * cannot beat the k-th best score found, so a request usually reads only a prefix of the catalog.
+ */
+public class LatentFactorModel {
+    static final int MAGIC = 0x414C5331; // "ALS1"
+    static final int HEADER_BYTES = 16;
+    
+    private final int factors;
+    private final Map<String, Integer> patronIndex;
+    private final Map<String, Integer> bookIndex;
+    private final String[] isbns;
+    private final FloatBuffer patronFactors;
+    private final FloatBuffer bookNorms;
+    private final FloatBuffer bookFactors;
+    
+    private LatentFactorModel(int factors, Map<String, Integer> patronIndex, Map<String, Integer> bookIndex,
+                              String[] isbns, FloatBuffer patronFactors, FloatBuffer bookNorms,
+                              FloatBuffer bookFactors) {
+        this.factors = factors;
+        this.patronIndex = patronIndex;
+        this.bookIndex = bookIndex;
+        this.isbns = isbns;
+        this.patronFactors = patronFactors;
+        this.bookNorms = bookNorms;
+        this.bookFactors = bookFactors;
+    }
+    
+    /**
+     * Map a factor file written by {@link ImplicitAlsTrainer}
+     */
+    public static LatentFactorModel open(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a factor file: " + file);
+            }
+            int factors = buffer.getInt();
+            int patrons = buffer.getInt();
+            int books = buffer.getInt();
+            Map<String, Integer> patronIndex = new HashMap<>(patrons * 2);
+            for (int patron = 0; patron < patrons; patron++) {
+                patronIndex.put(readString(buffer), patron);
+            }
+            Map<String, Integer> bookIndex = new HashMap<>(books * 2);
+            String[] isbns = new String[books];
+            for (int book = 0; book < books; book++) {
+                isbns[book] = readString(buffer);
+                bookIndex.put(isbns[book], book);
+            }
+            buffer.position((buffer.position() + 3) & ~3);
+            FloatBuffer floats = buffer.slice().asFloatBuffer();
+            FloatBuffer patronFactors = slice(floats, 0, patrons * factors);
+            FloatBuffer bookNorms = slice(floats, patrons * factors, books);
+            FloatBuffer bookFactors = slice(floats, patrons * factors + books, books * factors);
+            return new LatentFactorModel(factors, patronIndex, bookIndex, isbns, patronFactors, bookNorms,
+                                         bookFactors);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open factor file " + file, e);
+        }
+    }
+    
+    public boolean hasPatron(String patronId) {
+        return patronIndex.containsKey(patronId);
+    }
+    
+    public int getFactorCount() {
+        return factors;
+    }
+    
+    public int getPatronCount() {
+        return patronIndex.size();
+    }
+    
+    public int getBookCount() {
+        return isbns.length;
+    }
+    
+    /**
+     * Predicted preference of a patron for a book; 0 if either was not in the training data
+     */
+    public double score(String patronId, String isbn) {
+        Integer patron = patronIndex.get(patronId);
+        Integer book = bookIndex.get(isbn);
+        return patron == null || book == null ? 0 : dot(patron * factors, book);
+    }
+    
+    /**
+     * Up to {@code limit} books with the highest predicted preference, best first, skipping
+     * excluded ones; empty for a patron who was not in the training data
+     */
+    public List<String> recommend(String patronId, int limit, Set<String> excludedIsbns) {
+        Integer patron = patronIndex.get(patronId);
+        if (patron == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        int offset = patron * factors;
+        double patronNorm = 0;
+        for (int i = 0; i < factors; i++) {
+            double value = patronFactors.get(offset + i);
+            patronNorm += value * value;
+        }
+        patronNorm = Math.sqrt(patronNorm);
+        
+        // Min-heap of the best scores so far as {score, book}
+        PriorityQueue<double[]> best = new PriorityQueue<>(limit + 1, (a, b) -> Double.compare(a[0], b[0]));
+        for (int book = 0; book < isbns.length; book++) {
+            if (best.size() == limit && patronNorm * bookNorms.get(book) <= best.peek()[0]) {
+                break;
+            }
+            if (excludedIsbns.contains(isbns[book])) {
+                continue;
+            }
+            double score = dot(offset, book);
+            if (best.size() < limit) {
+                best.add(new double[] {score, book});
+            } else if (score > best.peek()[0]) {
+                best.poll();
+                best.add(new double[] {score, book});
+            }
+        }
+        String[] ranked = new String[best.size()];
+        for (int i = ranked.length - 1; i >= 0; i--) {
+            ranked[i] = isbns[(int) best.poll()[1]];
+        }
+        List<String> recommendations = new ArrayList<>(ranked.length);
+        Collections.addAll(recommendations, ranked);
+        return recommendations;
+    }
+    
+    private double dot(int patronOffset, int book) {
+        int bookOffset = book * factors;
+        double sum = 0;
+        for (int i = 0; i < factors; i++) {
+            sum += patronFactors.get(patronOffset + i) * bookFactors.get(bookOffset + i);
+        }
+        return sum;
+    }
+    
+    private static FloatBuffer slice(FloatBuffer floats, int offset, int length) {
+        FloatBuffer view = floats.duplicate();
+        view.position(offset).limit(offset + length);
+        return view.slice();
+    }
+    
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,34 @@
+package com.library.service;
+
+import com.library.model.BorrowingRecord;
+import com.library.model.Patron;
+import com.library.model.Reservation;
+
+import java.time.LocalDate;
+
+/**
+ * Callback for lending events, invoked by {@link LendingService} after the state change is saved.
+ * Lets derived views (fines, statistics, indexes) stay up to date without rescanning records.
+ */
+public interface LendingListener {
+    
+    default void onCheckout(BorrowingRecord record, Patron patron) {
+    }
+    
+    default void onReturn(BorrowingRecord record, Patron patron) {
+    }
+    
+    /**
+     * The returned item was set aside for {@code reservation}, whose patron has not been told yet;
+     * see {@link ReservationService#notifyHolder}. {@code returnedNanos} is the
+     * {@link System#nanoTime} at which the return started.
+     */
+    default void onHoldSetAside(Reservation reservation, long returnedNanos) {
+    }
+    
+    /**
+     * The loan was renewed on {@code renewalDate}; {@code record} already carries the new due date
+     */
+    default void onRenew(BorrowingRecord record, Patron patron, LocalDate previousDueDate, LocalDate renewalDate) {
+    }
+}
@@ -1,53 +1,71 @@
 package com.library.service;
 
 import com.library.model.*;
+import com.library.notification.Notifier;
 import com.library.observer.Observer;
 import com.library.observer.Subject;
 import com.library.repository.BookRepository;
 import com.library.repository.BorrowingRecordRepository;
+import com.library.repository.CopyRepository;
 import com.library.repository.PatronRepository;
 import com.library.util.IdGenerator;
 import com.library.util.Logger;
+import com.library.util.SystemDate;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
 
 /**
  * Service class for managing book lending operations.
- * Demonstrates Subject in Observer pattern.
+ * Demonstrates Subject in Observer pattern; observers and the outbox are kept by its {@link Notifier}.
  */
 public class LendingService implements Subject {
     private final BookRepository bookRepository;
     private final PatronRepository patronRepository;
     private final BorrowingRecordRepository recordRepository;
+    private final CopyRepository copyRepository;
     private final Logger logger;
-    private final List<Observer> observers;
+    private final Notifier notifier;
+    private final List<LendingListener> listeners;
+    private ReservationService reservationService;
     
     public LendingService(BookRepository bookRepository, 
                          PatronRepository patronRepository,
                          BorrowingRecordRepository recordRepository) {
+        this(bookRepository, patronRepository, recordRepository, null);
+    }
+    
+    /**
+     * Lend individual copies for titles that have copies registered in {@code copyRepository};
+     * other titles keep lending the {@link Book} itself as a single copy
+     */
+    public LendingService(BookRepository bookRepository,
+                         PatronRepository patronRepository,
+                         BorrowingRecordRepository recordRepository,
+                         CopyRepository copyRepository) {
         this.bookRepository = bookRepository;
         this.patronRepository = patronRepository;
         this.recordRepository = recordRepository;
+        this.copyRepository = copyRepository;
         this.logger = Logger.getInstance();
-        this.observers = new ArrayList<>();
+        this.notifier = new Notifier("LendingService");
+        this.listeners = new ArrayList<>();
     }
     
     /**
-     * Checkout a book to a patron
+     * Checkout a book to a patron.
+     * The successful path allocates only the new record (its id and dates included); log and
+     * notification strings are built only when someone will consume them.
      */
     public BorrowingRecord checkoutBook(String patronId, String isbn, String branchId) {
         // Validate patron
-        Optional<Patron> patronOpt = patronRepository.findById(patronId);
-        if (patronOpt.isEmpty()) {
+        Patron patron = patronRepository.getById(patronId);
+        if (patron == null) {
             logger.error("Patron not found: " + patronId);
             throw new IllegalArgumentException("Patron not found");
         }
         
-        Patron patron = patronOpt.get();
-        
         // Check if patron can borrow more books
         if (!patron.canBorrowMoreBooks()) {
             logger.warn("Patron " + patronId + " has reached borrowing limit");
@@ -55,31 +73,70 @@ public class LendingService implements Subject {
         }
         
         // Validate book
-        Optional<Book> bookOpt = bookRepository.findByIsbn(isbn);
-        if (bookOpt.isEmpty()) {
+        Book book = bookRepository.getByIsbn(isbn);
+        if (book == null) {
             logger.error("Book not found: " + isbn);
             throw new IllegalArgumentException("Book not found");
         }
         
-        Book book = bookOpt.get();
-        
-        // Check if book is available
-        if (book.getStatus() != BookStatus.AVAILABLE) {
+        // Check if book is available; a patron collecting a notified hold gets the item set aside
+        // for them, and for multi-copy titles anyone else claims a copy at this branch
+        BookCopy copy = null;
+        Reservation hold = reservationService == null ? null : reservationService.collectHold(patronId, isbn);
+        if (hold != null) {
+            if (hold.getHeldCopyBarcode() != null && copyRepository != null) {
+                // A held copy is already out of the branch pool, so no counters change
+                copy = copyRepository.getByBarcode(hold.getHeldCopyBarcode());
+                copy.setStatus(BookStatus.CHECKED_OUT);
+                if (!branchId.equals(copy.getBranchId())) {
+                    copyRepository.relocate(copy, branchId);
+                }
+            } else {
+                book.setStatus(BookStatus.CHECKED_OUT);
+            }
+        } else if (copyRepository != null && copyRepository.hasCopies(isbn)) {
+            copy = copyRepository.claim(isbn, branchId, BookStatus.CHECKED_OUT);
+            if (copy == null) {
+                logger.warn("No copy available: " + isbn + " at branch " + branchId);
+                throw new IllegalStateException("Book is not available for checkout");
+            }
+        } else if (!book.compareAndSetStatus(BookStatus.AVAILABLE, BookStatus.CHECKED_OUT)) {
             logger.warn("Book is not available: " + isbn + " (Status: " + book.getStatus() + ")");
             throw new IllegalStateException("Book is not available for checkout");
         }
         
         // Create borrowing record
-        LocalDate checkoutDate = LocalDate.now();
+        LocalDate checkoutDate = SystemDate.today();
         LocalDate dueDate = checkoutDate.plusDays(patron.getPatronType().getMaxBorrowDays());
         String recordId = IdGenerator.generateRecordId();
         
         BorrowingRecord record = new BorrowingRecord(
             recordId, patronId, isbn, checkoutDate, dueDate, branchId
         );
+        if (copy != null) {
+            record.setCopyBarcode(copy.getBarcode());
+        }
+        
+        // Notify observers before anything is saved; if that fails the item goes back as if returned
+        if (notifier.hasSubscribers()) {
+            String message = "Book '" + book.getTitle() + "' checked out successfully. Due date: " + dueDate;
+            try {
+                notifier.publish("checkout:" + recordId, message);
+            } catch (RuntimeException e) {
+                long handedBackNanos = System.nanoTime();
+                Reservation next = handBack(isbn, book, copy);
+                if (next != null) {
+                    for (int i = 0; i < listeners.size(); i++) {
+                        listeners.get(i).onHoldSetAside(next, handedBackNanos);
+                    }
+                }
+                throw e;
+            }
+        }
         
-        // Update book status
-        book.setStatus(BookStatus.CHECKED_OUT);
+        // Update book status; a multi-copy title stays available while any copy is
+        book.setStatus(copy != null && copyRepository.getAvailableCount(isbn) > 0
+                       ? BookStatus.AVAILABLE : BookStatus.CHECKED_OUT);
         bookRepository.save(book);
         
         // Update patron records
@@ -90,11 +147,13 @@ public class LendingService implements Subject {
         // Save borrowing record
         recordRepository.save(record);
         
-        logger.info("Book checked out: " + book.getTitle() + " to " + patron.getName());
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onCheckout(record, patron);
+        }
         
-        // Notify observers
-        String message = "Book '" + book.getTitle() + "' checked out successfully. Due date: " + dueDate;
-        notifyObservers(message);
+        if (logger.isInfoEnabled()) {
+            logger.info("Book checked out: " + book.getTitle() + " to " + patron.getName());
+        }
         
         return record;
     }
@@ -103,60 +162,94 @@ public class LendingService implements Subject {
      * Return a book
      */
     public void returnBook(String isbn, String patronId) {
+        long returnedNanos = System.nanoTime();
+        
         // Validate patron
-        Optional<Patron> patronOpt = patronRepository.findById(patronId);
-        if (patronOpt.isEmpty()) {
+        Patron patron = patronRepository.getById(patronId);
+        if (patron == null) {
             logger.error("Patron not found: " + patronId);
             throw new IllegalArgumentException("Patron not found");
         }
         
-        Patron patron = patronOpt.get();
-        
         // Validate book
-        Optional<Book> bookOpt = bookRepository.findByIsbn(isbn);
-        if (bookOpt.isEmpty()) {
+        Book book = bookRepository.getByIsbn(isbn);
+        if (book == null) {
             logger.error("Book not found: " + isbn);
             throw new IllegalArgumentException("Book not found");
         }
         
-        Book book = bookOpt.get();
-        
         // Find active borrowing record
-        List<BorrowingRecord> records = recordRepository.findByPatronId(patronId);
-        BorrowingRecord activeRecord = records.stream()
-            .filter(r -> r.getIsbn().equals(isbn) && !r.isReturned())
-            .findFirst()
-            .orElseThrow(() -> new IllegalStateException("No active borrowing record found"));
+        BorrowingRecord activeRecord = recordRepository.getActiveRecord(patronId, isbn);
+        if (activeRecord == null) {
+            throw new IllegalStateException("No active borrowing record found");
+        }
+        
+        // Notify observers before anything is saved, so a failed append leaves the loan open;
+        // late returns are flagged
+        LocalDate returnDate = SystemDate.today();
+        if (notifier.hasSubscribers()) {
+            String eventKey = "return:" + activeRecord.getRecordId();
+            if (returnDate.isAfter(activeRecord.getDueDate())) {
+                String message = "Book '" + book.getTitle() + "' was returned late. Please check for any late fees.";
+                notifier.publish(eventKey, message);
+            } else {
+                String message = "Book '" + book.getTitle() + "' returned successfully. Thank you!";
+                notifier.publish(eventKey, message);
+            }
+        }
         
         // Update return date
-        activeRecord.setReturnDate(LocalDate.now());
+        activeRecord.setReturnDate(returnDate);
         recordRepository.save(activeRecord);
         
-        // Update book status
-        book.setStatus(BookStatus.AVAILABLE);
-        bookRepository.save(book);
+        BookCopy copy = null;
+        if (activeRecord.getCopyBarcode() != null && copyRepository != null) {
+            copy = copyRepository.getByBarcode(activeRecord.getCopyBarcode());
+        }
+        Reservation hold = handBack(isbn, book, copy);
         
         // Update patron records
         patron.removeCurrentBorrowedBook(isbn);
         patronRepository.save(patron);
         
-        logger.info("Book returned: " + book.getTitle() + " by " + patron.getName());
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onReturn(activeRecord, patron);
+            if (hold != null) {
+                listeners.get(i).onHoldSetAside(hold, returnedNanos);
+            }
+        }
         
-        // Check if overdue
-        if (activeRecord.isOverdue()) {
-            String message = "Book '" + book.getTitle() + "' was returned late. Please check for any late fees.";
-            notifyObservers(message);
-        } else {
-            String message = "Book '" + book.getTitle() + "' returned successfully. Thank you!";
-            notifyObservers(message);
+        if (logger.isInfoEnabled()) {
+            logger.info("Book returned: " + book.getTitle() + " by " + patron.getName());
+        }
+    }
+    
+    /**
+     * Set an item that came back aside for the first waiting patron, or put it back on the shelf
+     * @return the hold it was set aside for, or null if it was shelved
+     */
+    private Reservation handBack(String isbn, Book book, BookCopy copy) {
+        // A waiting patron gets the item before it is shelved, so a walk-in cannot take it in between
+        Reservation hold = reservationService == null ? null : reservationService.holdReturnedItem(isbn, copy);
+        if (hold == null) {
+            // Put the copy back on its branch's shelf
+            if (copy != null) {
+                copyRepository.release(copy);
+            }
+            
+            // Update book status
+            book.setStatus(BookStatus.AVAILABLE);
+            bookRepository.save(book);
         }
+        return hold;
     }
     
     /**
-     * Get borrowing history for a patron
+     * Get borrowing history for a patron, including records archived to disk
      */
     public List<BorrowingRecord> getPatronBorrowingHistory(String patronId) {
-        return recordRepository.findByPatronId(patronId);
+        Patron patron = patronRepository.getById(patronId);
+        return patron == null ? recordRepository.findByPatronId(patronId) : patron.getBorrowingHistory();
     }
     
     /**
@@ -178,54 +271,85 @@ public class LendingService implements Subject {
      */
     public void renewBook(String isbn, String patronId) {
         // Find active borrowing record
-        List<BorrowingRecord> records = recordRepository.findByPatronId(patronId);
-        BorrowingRecord activeRecord = records.stream()
-            .filter(r -> r.getIsbn().equals(isbn) && !r.isReturned())
-            .findFirst()
-            .orElseThrow(() -> new IllegalStateException("No active borrowing record found"));
+        BorrowingRecord activeRecord = recordRepository.getActiveRecord(patronId, isbn);
+        if (activeRecord == null) {
+            throw new IllegalStateException("No active borrowing record found");
+        }
         
         // Check if book is reserved by someone else
-        Optional<Book> bookOpt = bookRepository.findByIsbn(isbn);
-        if (bookOpt.isEmpty()) {
+        Book book = bookRepository.getByIsbn(isbn);
+        if (book == null) {
             throw new IllegalArgumentException("Book not found");
         }
         
-        Book book = bookOpt.get();
-        
         // Extend due date
-        Optional<Patron> patronOpt = patronRepository.findById(patronId);
-        if (patronOpt.isEmpty()) {
+        Patron patron = patronRepository.getById(patronId);
+        if (patron == null) {
             throw new IllegalArgumentException("Patron not found");
         }
         
-        Patron patron = patronOpt.get();
-        LocalDate newDueDate = activeRecord.getDueDate().plusDays(patron.getPatronType().getMaxBorrowDays());
+        LocalDate renewalDate = SystemDate.today();
+        LocalDate previousDueDate = activeRecord.getDueDate();
+        LocalDate newDueDate = previousDueDate.plusDays(patron.getPatronType().getMaxBorrowDays());
+        
+        // Notify observers before the new due date is saved
+        if (notifier.hasSubscribers()) {
+            String message = "Book '" + book.getTitle() + "' renewed successfully. New due date: " + newDueDate;
+            notifier.publish("renew:" + activeRecord.getRecordId() + ":" + newDueDate, message);
+        }
+        
         activeRecord.setDueDate(newDueDate);
         recordRepository.save(activeRecord);
         
-        logger.info("Book renewed: " + book.getTitle() + " for " + patron.getName() + ". New due date: " + newDueDate);
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onRenew(activeRecord, patron, previousDueDate, renewalDate);
+        }
         
-        String message = "Book '" + book.getTitle() + "' renewed successfully. New due date: " + newDueDate;
-        notifyObservers(message);
+        if (logger.isInfoEnabled()) {
+            logger.info("Book renewed: " + book.getTitle() + " for " + patron.getName() + ". New due date: " + newDueDate);
+        }
+    }
+    
+    /**
+     * Register a listener for checkout, return and renewal events
+     */
+    public void addListener(LendingListener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeListener(LendingListener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Let patrons check out books set aside for their notified holds, and set returned items aside
+     * for the first waiting patron. The patron is told by a listener such as
+     * {@link HoldHandoffPipeline} through {@link LendingListener#onHoldSetAside}.
+     */
+    public void setReservationService(ReservationService reservationService) {
+        this.reservationService = reservationService;
+    }
+    
+    /**
+     * Observers and outbox of lending notifications
+     */
+    public Notifier getNotifier() {
+        return notifier;
     }
     
     // Observer pattern implementation
     @Override
     public void attach(Observer observer) {
-        observers.add(observer);
-        logger.info("Observer attached");
+        notifier.attach(observer);
     }
     
     @Override
     public void detach(Observer observer) {
-        observers.remove(observer);
-        logger.info("Observer detached");
+        notifier.detach(observer);
     }
     
     @Override
     public void notifyObservers(String message) {
-        for (Observer observer : observers) {
-            observer.update(message);
-        }
+        notifier.notifyObservers(message);
     }
 }
@@ -1,5 +1,6 @@
 package com.library.service;
 
+import com.library.model.HistoryArchive;
 import com.library.model.Patron;
 import com.library.model.PatronType;
 import com.library.repository.PatronRepository;
@@ -14,10 +15,20 @@ import java.util.Optional;
  */
 public class PatronService {
     private final PatronRepository patronRepository;
+    private final HistoryArchive historyArchive;
     private final Logger logger;
     
     public PatronService(PatronRepository patronRepository) {
+        this(patronRepository, null);
+    }
+    
+    /**
+     * Registered patrons keep older borrowing records in {@code historyArchive}; without one
+     * their histories stay in memory
+     */
+    public PatronService(PatronRepository patronRepository, HistoryArchive historyArchive) {
         this.patronRepository = patronRepository;
+        this.historyArchive = historyArchive;
         this.logger = Logger.getInstance();
     }
     
@@ -29,6 +40,9 @@ public class PatronService {
             logger.warn("Patron with ID " + patron.getPatronId() + " already exists");
             throw new IllegalArgumentException("Patron with ID " + patron.getPatronId() + " already exists");
         }
+        if (historyArchive != null) {
+            patron.attachHistoryArchive(historyArchive);
+        }
         patronRepository.save(patron);
         logger.info("Patron added: " + patron.getName() + " (ID: " + patron.getPatronId() + ")");
     }
@@ -0,0 +1,266 @@
+package com.library.service;
+
+import com.library.model.BorrowingRecord;
+import com.library.model.Patron;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Approximate "patrons who borrow like this one" lookup using MinHash signatures and LSH banding.
+ *
+ * Each patron has a signature of {@code bands * rows} MinHash values over the ISBNs they have
+ * borrowed; two signatures agree in a position with probability equal to the Jaccard similarity
+ * of the two sets. Signatures are cut into bands of {@code rows} values and every band is hashed
+ * into a bucket, so patrons who share any whole band become candidates. A pair with similarity s
+ * becomes a candidate with probability 1 - (1 - s^rows)^bands: more rows make candidates
+ * stricter (faster, lower recall), more bands make them looser (slower, higher recall), and the
+ * crossover sits near {@link #getThreshold()}.
+ *
+ * Registered as a {@link LendingListener}, the index folds each checkout into the borrower's
+ * signature in O(bands * rows) and re-files only the bands that changed.
+ */
+public class PatronSimilarityIndex implements LendingListener {
+    private static final int DEFAULT_BANDS = 16;
+    private static final int DEFAULT_ROWS = 4;
+    
+    private final int bands;
+    private final int rows;
+    private final long[] multipliers;
+    private final long[] increments;
+    private final Map<String, Entry> entries; // Patron id -> signature
+    private final List<Map<Long, Set<String>>> buckets; // Per band: band hash -> patron ids
+    
+    private static final class Entry {
+        final int[] signature;
+        final long[] bandKeys;
+        
+        Entry(int hashes, int bands) {
+            this.signature = new int[hashes];
+            this.bandKeys = new long[bands];
+            Arrays.fill(signature, Integer.MAX_VALUE);
+        }
+    }
+    
+    public PatronSimilarityIndex() {
+        this(DEFAULT_BANDS, DEFAULT_ROWS);
+    }
+    
+    public PatronSimilarityIndex(int bands, int rows) {
+        if (bands <= 0 || rows <= 0) {
+            throw new IllegalArgumentException("Bands and rows must be positive");
+        }
+        this.bands = bands;
+        this.rows = rows;
+        this.multipliers = new long[bands * rows];
+        this.increments = new long[bands * rows];
+        Random random = new Random(0x5DEECE66DL);
+        for (int i = 0; i < multipliers.length; i++) {
+            multipliers[i] = random.nextLong() | 1;
+            increments[i] = random.nextLong();
+        }
+        this.entries = new HashMap<>();
+        this.buckets = new ArrayList<>(bands);
+        for (int band = 0; band < bands; band++) {
+            buckets.add(new HashMap<>());
+        }
+    }
+    
+    @Override
+    public void onCheckout(BorrowingRecord record, Patron patron) {
+        synchronized (this) {
+            if (entries.containsKey(patron.getPatronId())) {
+                add(patron.getPatronId(), record.getIsbn());
+                return;
+            }
+        }
+        // First time this patron is seen; the history already holds this record
+        index(patron);
+    }
+    
+    /**
+     * Build or rebuild a patron's signature from their whole borrowing history
+     */
+    public void index(Patron patron) {
+        List<String> isbns = new ArrayList<>();
+        patron.forEachBorrowingRecord(record -> isbns.add(record.getIsbn()));
+        synchronized (this) {
+            remove(patron.getPatronId());
+            for (String isbn : isbns) {
+                add(patron.getPatronId(), isbn);
+            }
+        }
+    }
+    
+    /**
+     * Index every patron that is not in the index yet, e.g. the existing patrons when the index is
+     * first set up
+     * @return the number of patrons indexed
+     */
+    public int indexAll(Collection<Patron> patrons) {
+        int indexed = 0;
+        for (Patron patron : patrons) {
+            if (!contains(patron.getPatronId())) {
+                index(patron);
+                indexed++;
+            }
+        }
+        return indexed;
+    }
+    
+    public synchronized boolean contains(String patronId) {
+        return entries.containsKey(patronId);
+    }
+    
+    /**
+     * Fold one borrowed book into a patron's signature
+     */
+    public synchronized void add(String patronId, String isbn) {
+        Entry entry = entries.get(patronId);
+        boolean added = entry == null;
+        if (added) {
+            entry = new Entry(multipliers.length, bands);
+            entries.put(patronId, entry);
+        }
+        long base = hash(isbn);
+        for (int band = 0; band < bands; band++) {
+            boolean changed = false;
+            for (int i = band * rows; i < (band + 1) * rows; i++) {
+                int value = (int) (mix(base * multipliers[i] + increments[i]) >>> 33);
+                if (value < entry.signature[i]) {
+                    entry.signature[i] = value;
+                    changed = true;
+                }
+            }
+            if (changed || added) {
+                Map<Long, Set<String>> bandBuckets = buckets.get(band);
+                if (!added) {
+                    unfile(bandBuckets, entry.bandKeys[band], patronId);
+                }
+                entry.bandKeys[band] = bandKey(entry.signature, band);
+                bandBuckets.computeIfAbsent(entry.bandKeys[band], k -> new HashSet<>()).add(patronId);
+            }
+        }
+    }
+    
+    public synchronized boolean remove(String patronId) {
+        Entry entry = entries.remove(patronId);
+        if (entry == null) {
+            return false;
+        }
+        for (int band = 0; band < bands; band++) {
+            unfile(buckets.get(band), entry.bandKeys[band], patronId);
+        }
+        return true;
+    }
+    
+    /**
+     * Patrons sharing at least one band with the patron, excluding the patron; empty if the patron
+     * is not indexed
+     */
+    public synchronized Set<String> candidates(String patronId) {
+        Set<String> candidates = new HashSet<>();
+        Entry entry = entries.get(patronId);
+        if (entry == null) {
+            return candidates;
+        }
+        for (int band = 0; band < bands; band++) {
+            candidates.addAll(buckets.get(band).get(entry.bandKeys[band]));
+        }
+        candidates.remove(patronId);
+        return candidates;
+    }
+    
+    /**
+     * Up to {@code limit} candidates ranked by estimated similarity, most similar first
+     */
+    public synchronized List<String> findSimilar(String patronId, int limit) {
+        Entry entry = entries.get(patronId);
+        List<String> ranked = new ArrayList<>(candidates(patronId));
+        if (entry == null) {
+            return ranked;
+        }
+        Map<String, Integer> agreements = new HashMap<>();
+        for (String candidate : ranked) {
+            agreements.put(candidate, agreements(entry.signature, entries.get(candidate).signature));
+        }
+        ranked.sort((a, b) -> !agreements.get(a).equals(agreements.get(b))
+            ? Integer.compare(agreements.get(b), agreements.get(a)) : a.compareTo(b));
+        return ranked.size() > limit ? new ArrayList<>(ranked.subList(0, limit)) : ranked;
+    }
+    
+    /**
+     * Estimated Jaccard similarity of two patrons' borrowed books; 0 if either is not indexed
+     */
+    public synchronized double estimateSimilarity(String patronId, String otherPatronId) {
+        Entry entry = entries.get(patronId);
+        Entry other = entries.get(otherPatronId);
+        if (entry == null || other == null) {
+            return 0;
+        }
+        return (double) agreements(entry.signature, other.signature) / entry.signature.length;
+    }
+    
+    /**
+     * Similarity at which a pair is about as likely as not to become a candidate
+     */
+    public double getThreshold() {
+        return Math.pow(1.0 / bands, 1.0 / rows);
+    }
+    
+    public synchronized int size() {
+        return entries.size();
+    }
+    
+    private static int agreements(int[] signature, int[] other) {
+        int agree = 0;
+        for (int i = 0; i < signature.length; i++) {
+            if (signature[i] == other[i]) {
+                agree++;
+            }
+        }
+        return agree;
+    }
+    
+    private long bandKey(int[] signature, int band) {
+        long key = band;
+        for (int i = band * rows; i < (band + 1) * rows; i++) {
+            key = mix(key * 31 + signature[i]);
+        }
+        return key;
+    }
+    
+    private static void unfile(Map<Long, Set<String>> bandBuckets, long key, String patronId) {
+        Set<String> bucket = bandBuckets.get(key);
+        if (bucket != null) {
+            bucket.remove(patronId);
+            if (bucket.isEmpty()) {
+                bandBuckets.remove(key);
+            }
+        }
+    }
+    
+    private static long hash(String isbn) {
+        long h = 1125899906842597L;
+        for (int i = 0; i < isbn.length(); i++) {
+            h = 31 * h + isbn.charAt(i);
+        }
+        return mix(h);
+    }
+    
+    /**
+     * 64-bit finalizer from SplitMix64
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
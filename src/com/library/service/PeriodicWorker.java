@@ -0,0 +1,89 @@
+package com.library.service;
+
+import com.library.util.Logger;
+
+/**
+ * Daemon thread that runs {@link #runOnce} every {@code periodMillis} until closed. A run that
+ * throws is logged and retried on the next period.
+ */
+abstract class PeriodicWorker implements AutoCloseable {
+    private final String name;
+    private final long periodMillis;
+    private final Logger logger;
+    private final Object wakeup;
+    private volatile boolean running;
+    private Thread worker;
+    
+    PeriodicWorker(String name, long periodMillis) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("Period must be positive");
+        }
+        this.name = name;
+        this.periodMillis = periodMillis;
+        this.logger = Logger.getInstance();
+        this.wakeup = new Object();
+    }
+    
+    /**
+     * Do one run of the work now, on the caller's thread; returns how many items it handled
+     */
+    public abstract int runOnce();
+    
+    /**
+     * Start running in a background thread
+     */
+    public synchronized void start() {
+        if (worker != null) {
+            throw new IllegalStateException(name + " is already running");
+        }
+        running = true;
+        worker = new Thread(this::runLoop, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+    
+    private void runLoop() {
+        while (running) {
+            try {
+                runOnce();
+            } catch (RuntimeException e) {
+                logger.error(name + " run failed: " + e.getMessage());
+            }
+            synchronized (wakeup) {
+                if (!running) {
+                    return;
+                }
+                try {
+                    wakeup.wait(periodMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Stop the background thread; a run in progress finishes first
+     */
+    @Override
+    public void close() {
+        Thread current;
+        synchronized (this) {
+            current = worker;
+            worker = null;
+        }
+        if (current == null) {
+            return;
+        }
+        synchronized (wakeup) {
+            running = false;
+            wakeup.notifyAll();
+        }
+        try {
+            current.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.library.service;
+
+import com.library.model.BorrowingRecord;
+import com.library.model.Patron;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming top-k of the most borrowed books (the Space-Saving algorithm), fed by checkout events.
+ *
+ * At most {@code capacity} books are tracked. A checkout of an untracked book when all counters
+ * are taken evicts the book with the smallest count and inherits that count as its error. After
+ * N checkouts:
+ * <ul>
+ *   <li>every estimate overestimates the true count by at most its recorded error, which is at
+ *       most N / capacity;</li>
+ *   <li>every book borrowed more than N / capacity times is tracked.</li>
+ * </ul>
+ * Counters sit in buckets of equal count kept in count order (a stream summary), so recording a
+ * checkout is O(1) and the top k are read in O(k), with memory bounded by {@code capacity}.
+ */
+public class PopularityTracker implements LendingListener {
+    private static final int DEFAULT_CAPACITY = 1024;
+    
+    private static final class Bucket {
+        final long count;
+        Counter first;
+        Bucket lower;
+        Bucket higher;
+        
+        Bucket(long count) {
+            this.count = count;
+        }
+    }
+    
+    private static final class Counter {
+        String isbn;
+        long error;
+        Bucket bucket;
+        Counter previous;
+        Counter next;
+    }
+    
+    private final int capacity;
+    private final Map<String, Counter> counters;
+    private Bucket lowest;
+    private Bucket highest;
+    private long total;
+    
+    public PopularityTracker() {
+        this(DEFAULT_CAPACITY);
+    }
+    
+    public PopularityTracker(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.counters = new HashMap<>(capacity * 2);
+    }
+    
+    @Override
+    public void onCheckout(BorrowingRecord record, Patron patron) {
+        offer(record.getIsbn());
+    }
+    
+    /**
+     * Count one checkout of a book
+     */
+    public synchronized void offer(String isbn) {
+        total++;
+        Counter counter = counters.get(isbn);
+        if (counter == null) {
+            if (counters.size() < capacity) {
+                counter = new Counter();
+                counter.isbn = isbn;
+                Bucket one = lowest != null && lowest.count == 1 ? lowest : insertBucket(1, null, lowest);
+                attach(counter, one);
+                counters.put(isbn, counter);
+                return;
+            }
+            // Replace the least counted book; its count becomes the newcomer's error
+            counter = lowest.first;
+            counters.remove(counter.isbn);
+            counter.isbn = isbn;
+            counter.error = lowest.count;
+            counters.put(isbn, counter);
+        }
+        increment(counter);
+    }
+    
+    /**
+     * Up to {@code k} most borrowed books, most borrowed first; O(k)
+     */
+    public synchronized List<String> top(int k) {
+        List<String> top = new ArrayList<>(Math.min(k, counters.size()));
+        for (Bucket bucket = highest; bucket != null && top.size() < k; bucket = bucket.lower) {
+            for (Counter counter = bucket.first; counter != null && top.size() < k; counter = counter.next) {
+                top.add(counter.isbn);
+            }
+        }
+        return top;
+    }
+    
+    /**
+     * Estimated checkouts of a book: never below the true count and at most
+     * {@link #getMaxError} above it; 0 for a book that is not tracked
+     */
+    public synchronized long getEstimatedCount(String isbn) {
+        Counter counter = counters.get(isbn);
+        return counter == null ? 0 : counter.bucket.count;
+    }
+    
+    /**
+     * How much {@link #getEstimatedCount} may overestimate this book's checkouts
+     */
+    public synchronized long getMaxError(String isbn) {
+        Counter counter = counters.get(isbn);
+        return counter == null ? 0 : counter.error;
+    }
+    
+    /**
+     * Bound on the overestimate of any book, and the count above which a book is always tracked
+     */
+    public synchronized long getErrorBound() {
+        return total / capacity;
+    }
+    
+    public synchronized long getTotalCount() {
+        return total;
+    }
+    
+    public synchronized int getTrackedCount() {
+        return counters.size();
+    }
+    
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    private void increment(Counter counter) {
+        Bucket from = counter.bucket;
+        long count = from.count + 1;
+        Bucket to = from.higher != null && from.higher.count == count
+            ? from.higher : insertBucket(count, from, from.higher);
+        detach(counter);
+        attach(counter, to);
+    }
+    
+    private Bucket insertBucket(long count, Bucket lower, Bucket higher) {
+        Bucket bucket = new Bucket(count);
+        bucket.lower = lower;
+        bucket.higher = higher;
+        if (lower == null) {
+            lowest = bucket;
+        } else {
+            lower.higher = bucket;
+        }
+        if (higher == null) {
+            highest = bucket;
+        } else {
+            higher.lower = bucket;
+        }
+        return bucket;
+    }
+    
+    private void attach(Counter counter, Bucket bucket) {
+        counter.bucket = bucket;
+        counter.previous = null;
+        counter.next = bucket.first;
+        if (bucket.first != null) {
+            bucket.first.previous = counter;
+        }
+        bucket.first = counter;
+    }
+    
+    private void detach(Counter counter) {
+        Bucket bucket = counter.bucket;
+        if (counter.previous == null) {
+            bucket.first = counter.next;
+        } else {
+            counter.previous.next = counter.next;
+        }
+        if (counter.next != null) {
+            counter.next.previous = counter.previous;
+        }
+        if (bucket.first == null) {
+            // Drop the empty bucket
+            if (bucket.lower == null) {
+                lowest = bucket.higher;
+            } else {
+                bucket.lower.higher = bucket.higher;
+            }
+            if (bucket.higher == null) {
+                highest = bucket.lower;
+            } else {
+                bucket.higher.lower = bucket.lower;
+            }
+        }
+    }
+}
@@ -0,0 +1,537 @@
+package com.library.service;
+
+import com.library.model.Book;
+import com.library.model.BookStatus;
+import com.library.model.LibraryBranch;
+import com.library.model.TransferManifest;
+import com.library.repository.BookRepository;
+import com.library.repository.BranchRepository;
+import com.library.repository.CopyRepository;
+import com.library.util.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Plans transfers that move idle copies to the branches that need them, at the least total cost.
+ *
+ * A branch's need for a title is a shelf target: one copy per {@code demandPerCopy} of the title's
+ * weekly trending score there, plus the title's waiting holds. Reservations do not name a branch,
+ * so holds are shared among branches in proportion to that recent demand. Available copies above
+ * the target are surplus, and a target above the available copies is a shortage. With a
+ * {@link BookTransferService} set, copies already on their way to a branch come off its target,
+ * so planning again before a manifest is received does not ship the same shortage twice.
+ *
+ * Titles do not compete for anything, so the min-cost flow over all titles splits into one small
+ * transportation problem per title, over only the branches where that title is out of balance.
+ * Each is solved exactly by successive shortest paths (Dijkstra with node potentials), moving as
+ * many copies as surplus and shortage allow at the least total lane cost. A {@link Snapshot}
+ * stores only the out-of-balance entries, so titles in balance cost nothing to plan.
+ */
+public class RebalancingPlanner {
+    private static final double DEFAULT_DEMAND_PER_COPY = 4.0;
+    
+    /**
+     * Cost of moving one copy from one branch to another; must not be negative
+     */
+    @FunctionalInterface
+    public interface LaneCost {
+        double cost(String fromBranchId, String toBranchId);
+    }
+    
+    /**
+     * Sparse per-title surplus and shortage by branch, the input of {@link #solve}.
+     * Entries are stored in CSR form: one row per title, holding (branch, delta) pairs.
+     */
+    public static final class Snapshot {
+        private final String[] branchIds;
+        private final Map<String, Integer> branchIndex;
+        private final List<String> isbns;
+        private int[] titleStarts; // Entries of title t are [titleStarts[t], titleStarts[t + 1])
+        private int[] branches;
+        private int[] deltas;
+        private int entries;
+        
+        public Snapshot(Collection<String> branchIds) {
+            this.branchIds = branchIds.toArray(new String[0]);
+            this.branchIndex = new HashMap<>();
+            for (int i = 0; i < this.branchIds.length; i++) {
+                branchIndex.put(this.branchIds[i], i);
+            }
+            this.isbns = new ArrayList<>();
+            this.titleStarts = new int[16];
+            this.branches = new int[64];
+            this.deltas = new int[64];
+        }
+        
+        /**
+         * Record that a branch has {@code delta} more available copies of a title than it needs,
+         * or a shortage when negative. All entries of a title must be added one after another.
+         */
+        public void add(String isbn, String branchId, int delta) {
+            Integer branch = branchIndex.get(branchId);
+            if (branch == null) {
+                throw new IllegalArgumentException("Unknown branch: " + branchId);
+            }
+            if (delta == 0) {
+                return;
+            }
+            if (isbns.isEmpty() || !isbns.get(isbns.size() - 1).equals(isbn)) {
+                if (isbns.size() + 1 >= titleStarts.length) {
+                    titleStarts = Arrays.copyOf(titleStarts, titleStarts.length * 2);
+                }
+                titleStarts[isbns.size()] = entries;
+                isbns.add(isbn);
+            }
+            if (entries == branches.length) {
+                branches = Arrays.copyOf(branches, entries * 2);
+                deltas = Arrays.copyOf(deltas, entries * 2);
+            }
+            branches[entries] = branch;
+            deltas[entries] = delta;
+            entries++;
+            titleStarts[isbns.size()] = entries;
+        }
+        
+        public int getTitleCount() {
+            return isbns.size();
+        }
+        
+        public int getEntryCount() {
+            return entries;
+        }
+    }
+    
+    /**
+     * Copies of one title to send along one lane
+     */
+    public static final class Move {
+        private final String isbn;
+        private final String fromBranchId;
+        private final String toBranchId;
+        private final int copies;
+        
+        Move(String isbn, String fromBranchId, String toBranchId, int copies) {
+            this.isbn = isbn;
+            this.fromBranchId = fromBranchId;
+            this.toBranchId = toBranchId;
+            this.copies = copies;
+        }
+        
+        public String getIsbn() {
+            return isbn;
+        }
+        
+        public String getFromBranchId() {
+            return fromBranchId;
+        }
+        
+        public String getToBranchId() {
+            return toBranchId;
+        }
+        
+        public int getCopies() {
+            return copies;
+        }
+        
+        @Override
+        public String toString() {
+            return isbn + " x" + copies + " " + fromBranchId + " -> " + toBranchId;
+        }
+    }
+    
+    /**
+     * A transfer plan: the moves and their total lane cost
+     */
+    public static final class Plan {
+        private final List<Move> moves;
+        private final double totalCost;
+        private final int copyCount;
+        
+        Plan(List<Move> moves, double totalCost) {
+            this.moves = Collections.unmodifiableList(moves);
+            this.totalCost = totalCost;
+            int copies = 0;
+            for (Move move : moves) {
+                copies += move.copies;
+            }
+            this.copyCount = copies;
+        }
+        
+        public List<Move> getMoves() {
+            return moves;
+        }
+        
+        public double getTotalCost() {
+            return totalCost;
+        }
+        
+        public int getCopyCount() {
+            return copyCount;
+        }
+    }
+    
+    private final BookRepository bookRepository;
+    private final BranchRepository branchRepository;
+    private final CopyRepository copyRepository;
+    private final ReservationService reservationService;
+    private final TrendingEngine trendingEngine;
+    private final LaneCost laneCost;
+    private final double demandPerCopy;
+    private final Logger logger;
+    private BookTransferService transferService;
+    
+    public RebalancingPlanner(BookRepository bookRepository, BranchRepository branchRepository,
+                              CopyRepository copyRepository, ReservationService reservationService,
+                              TrendingEngine trendingEngine) {
+        this(bookRepository, branchRepository, copyRepository, reservationService, trendingEngine,
+             (from, to) -> 1.0, DEFAULT_DEMAND_PER_COPY);
+    }
+    
+    public RebalancingPlanner(BookRepository bookRepository, BranchRepository branchRepository,
+                              CopyRepository copyRepository, ReservationService reservationService,
+                              TrendingEngine trendingEngine, LaneCost laneCost, double demandPerCopy) {
+        if (demandPerCopy <= 0) {
+            throw new IllegalArgumentException("Demand per copy must be positive");
+        }
+        this.bookRepository = bookRepository;
+        this.branchRepository = branchRepository;
+        this.copyRepository = copyRepository;
+        this.reservationService = reservationService;
+        this.trendingEngine = trendingEngine;
+        this.laneCost = laneCost;
+        this.demandPerCopy = demandPerCopy;
+        this.logger = Logger.getInstance();
+    }
+    
+    /**
+     * Count items in transit on {@code transferService}'s manifests toward their destinations
+     */
+    public void setTransferService(BookTransferService transferService) {
+        this.transferService = transferService;
+    }
+    
+    /**
+     * Plan transfers for the current state of the branches
+     */
+    public Plan plan() {
+        return solve(snapshot(System.currentTimeMillis()));
+    }
+    
+    /**
+     * Read surplus and shortage from the live services for every title that has waiting holds or
+     * recent demand at some branch
+     */
+    public Snapshot snapshot(long atMillis) {
+        List<String> branchIds = new ArrayList<>();
+        for (LibraryBranch branch : branchRepository.findAll()) {
+            branchIds.add(branch.getBranchId());
+        }
+        Collections.sort(branchIds);
+        Snapshot snapshot = new Snapshot(branchIds);
+        
+        Set<String> candidates = new TreeSet<>(reservationService.getQueuedIsbns());
+        for (String branchId : branchIds) {
+            candidates.addAll(trendingEngine.top(TrendingEngine.Window.WEEK, branchId, Integer.MAX_VALUE));
+        }
+        Map<String, Map<String, Integer>> inbound = transferService == null
+            ? Collections.emptyMap() : transferService.getInboundCounts();
+        int n = branchIds.size();
+        double[] demand = new double[n];
+        int[] wanted = new int[n];
+        int[] available = new int[n];
+        for (String isbn : candidates) {
+            double totalDemand = 0;
+            for (int b = 0; b < n; b++) {
+                demand[b] = trendingEngine.getScore(TrendingEngine.Window.WEEK, isbn, branchIds.get(b), atMillis);
+                totalDemand += demand[b];
+                wanted[b] = (int) Math.ceil(demand[b] / demandPerCopy - 1e-9);
+            }
+            if (totalDemand <= 0) {
+                continue; // Holds alone do not say where the copies are wanted
+            }
+            shareHolds(reservationService.getQueueDepth(isbn), demand, totalDemand, wanted);
+            Map<String, Integer> coming = inbound.get(isbn);
+            if (coming != null) {
+                for (int b = 0; b < n; b++) {
+                    wanted[b] = Math.max(0, wanted[b] - coming.getOrDefault(branchIds.get(b), 0));
+                }
+            }
+            if (!readAvailable(isbn, branchIds, available)) {
+                continue;
+            }
+            boolean surplus = false;
+            boolean shortage = false;
+            for (int b = 0; b < n; b++) {
+                surplus |= available[b] > wanted[b];
+                shortage |= available[b] < wanted[b];
+            }
+            if (surplus && shortage) {
+                for (int b = 0; b < n; b++) {
+                    snapshot.add(isbn, branchIds.get(b), available[b] - wanted[b]);
+                }
+            }
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Solve every title's transportation problem exactly
+     */
+    public Plan solve(Snapshot snapshot) {
+        int n = snapshot.branchIds.length;
+        double[][] costs = new double[n][n];
+        for (int from = 0; from < n; from++) {
+            for (int to = 0; to < n; to++) {
+                costs[from][to] = laneCost.cost(snapshot.branchIds[from], snapshot.branchIds[to]);
+                if (costs[from][to] < 0) {
+                    throw new IllegalArgumentException("Negative lane cost from " + snapshot.branchIds[from] +
+                                                       " to " + snapshot.branchIds[to]);
+                }
+            }
+        }
+        TitleSolver solver = new TitleSolver(n, costs);
+        List<Move> moves = new ArrayList<>();
+        double totalCost = 0;
+        for (int t = 0; t < snapshot.isbns.size(); t++) {
+            totalCost += solver.solve(snapshot, t, moves);
+        }
+        Plan plan = new Plan(moves, totalCost);
+        if (logger.isInfoEnabled()) {
+            logger.info("Rebalancing plan: " + plan.getCopyCount() + " copies in " + moves.size() + " moves across " +
+                       snapshot.getTitleCount() + " titles, cost " + totalCost);
+        }
+        return plan;
+    }
+    
+    /**
+     * Dispatch a plan as one manifest per lane
+     * @return the manifests, in transit until received at their destinations
+     */
+    public List<TransferManifest> dispatch(Plan plan, BookTransferService transferService) {
+        Map<String, Map<String, List<String>>> lanes = new LinkedHashMap<>(); // From -> to -> ISBNs
+        for (Move move : plan.getMoves()) {
+            List<String> isbns = lanes.computeIfAbsent(move.fromBranchId, k -> new LinkedHashMap<>())
+                                      .computeIfAbsent(move.toBranchId, k -> new ArrayList<>());
+            for (int i = 0; i < move.copies; i++) {
+                isbns.add(move.isbn);
+            }
+        }
+        List<TransferManifest> manifests = new ArrayList<>();
+        for (Map.Entry<String, Map<String, List<String>>> from : lanes.entrySet()) {
+            for (Map.Entry<String, List<String>> to : from.getValue().entrySet()) {
+                manifests.add(transferService.dispatchManifest(from.getKey(), to.getKey(), to.getValue()));
+            }
+        }
+        return manifests;
+    }
+    
+    /**
+     * Add holds to the targets by largest remainder, in proportion to each branch's demand
+     */
+    private static void shareHolds(int holds, double[] demand, double totalDemand, int[] wanted) {
+        if (holds == 0) {
+            return;
+        }
+        int n = demand.length;
+        double[] remainders = new double[n];
+        int given = 0;
+        for (int b = 0; b < n; b++) {
+            double share = holds * demand[b] / totalDemand;
+            int whole = (int) share;
+            wanted[b] += whole;
+            given += whole;
+            remainders[b] = share - whole;
+        }
+        while (given < holds) {
+            int best = 0;
+            for (int b = 1; b < n; b++) {
+                if (remainders[b] > remainders[best]) {
+                    best = b;
+                }
+            }
+            wanted[best]++;
+            remainders[best] = -1;
+            given++;
+        }
+    }
+    
+    /**
+     * Fill in the available copies of a title per branch
+     * @return false if the title is not in the catalog
+     */
+    private boolean readAvailable(String isbn, List<String> branchIds, int[] available) {
+        if (copyRepository != null && copyRepository.hasCopies(isbn)) {
+            for (int b = 0; b < branchIds.size(); b++) {
+                available[b] = copyRepository.getAvailableCount(isbn, branchIds.get(b));
+            }
+            return true;
+        }
+        Optional<Book> book = bookRepository.findByIsbn(isbn);
+        if (book.isEmpty()) {
+            return false;
+        }
+        Arrays.fill(available, 0);
+        int at = branchIds.indexOf(book.get().getCurrentBranchId());
+        if (at >= 0 && book.get().getStatus() == BookStatus.AVAILABLE) {
+            available[at] = 1;
+        }
+        return true;
+    }
+    
+    /**
+     * Min-cost flow on one title's graph: source -> surplus branches -> shortage branches -> sink.
+     * The graph has at most one node per branch plus two, so it is kept as dense matrices that are
+     * reused from title to title.
+     */
+    private static final class TitleSolver {
+        private static final int INFINITE = Integer.MAX_VALUE / 2;
+        
+        private final double[][] laneCosts;
+        private final int[] branchOf; // Node -> branch index
+        private final int[][] capacity; // Residual capacity
+        private final double[][] cost;
+        private final double[] potential;
+        private final double[] distance;
+        private final int[] parent;
+        private final boolean[] done;
+        
+        TitleSolver(int branches, double[][] laneCosts) {
+            int nodes = 2 * branches + 2;
+            this.laneCosts = laneCosts;
+            this.branchOf = new int[nodes];
+            this.capacity = new int[nodes][nodes];
+            this.cost = new double[nodes][nodes];
+            this.potential = new double[nodes];
+            this.distance = new double[nodes];
+            this.parent = new int[nodes];
+            this.done = new boolean[nodes];
+        }
+        
+        /**
+         * Solve title {@code t}, appending its moves
+         * @return the cost of the moves
+         */
+        double solve(Snapshot snapshot, int t, List<Move> moves) {
+            int from = snapshot.titleStarts[t];
+            int to = snapshot.titleStarts[t + 1];
+            // Node 0 is the source, then the surplus branches, then the shortage branches, then the sink
+            int surplusCount = 0;
+            for (int e = from; e < to; e++) {
+                if (snapshot.deltas[e] > 0) {
+                    branchOf[1 + surplusCount++] = snapshot.branches[e];
+                }
+            }
+            int nodes = 1 + surplusCount;
+            for (int e = from; e < to; e++) {
+                if (snapshot.deltas[e] < 0) {
+                    branchOf[nodes++] = snapshot.branches[e];
+                }
+            }
+            int sink = nodes++;
+            if (surplusCount == 0 || surplusCount == nodes - 2) {
+                return 0;
+            }
+            
+            for (int u = 0; u < nodes; u++) {
+                Arrays.fill(capacity[u], 0, nodes, 0);
+                potential[u] = 0;
+            }
+            int node = 1;
+            for (int e = from; e < to; e++) {
+                if (snapshot.deltas[e] > 0) {
+                    capacity[0][node++] = snapshot.deltas[e];
+                }
+            }
+            for (int e = from; e < to; e++) {
+                if (snapshot.deltas[e] < 0) {
+                    capacity[node][sink] = -snapshot.deltas[e];
+                    cost[node][sink] = 0;
+                    cost[sink][node] = 0;
+                    node++;
+                }
+            }
+            for (int s = 1; s <= surplusCount; s++) {
+                cost[0][s] = 0;
+                cost[s][0] = 0;
+                for (int d = surplusCount + 1; d < sink; d++) {
+                    capacity[s][d] = INFINITE;
+                    cost[s][d] = laneCosts[branchOf[s]][branchOf[d]];
+                    cost[d][s] = -cost[s][d];
+                }
+            }
+            
+            while (shortestPaths(nodes, sink)) {
+                int pushed = INFINITE;
+                for (int v = sink; v != 0; v = parent[v]) {
+                    pushed = Math.min(pushed, capacity[parent[v]][v]);
+                }
+                for (int v = sink; v != 0; v = parent[v]) {
+                    capacity[parent[v]][v] -= pushed;
+                    capacity[v][parent[v]] += pushed;
+                }
+            }
+            
+            double total = 0;
+            String isbn = snapshot.isbns.get(t);
+            for (int s = 1; s <= surplusCount; s++) {
+                for (int d = surplusCount + 1; d < sink; d++) {
+                    int copies = capacity[d][s];
+                    if (copies > 0) {
+                        moves.add(new Move(isbn, snapshot.branchIds[branchOf[s]], snapshot.branchIds[branchOf[d]],
+                                           copies));
+                        total += copies * cost[s][d];
+                    }
+                }
+            }
+            return total;
+        }
+        
+        /**
+         * Dense Dijkstra on reduced costs from the source; updates the potentials
+         * @return false if the sink cannot be reached
+         */
+        private boolean shortestPaths(int nodes, int sink) {
+            Arrays.fill(distance, 0, nodes, Double.POSITIVE_INFINITY);
+            Arrays.fill(done, 0, nodes, false);
+            distance[0] = 0;
+            for (int round = 0; round < nodes; round++) {
+                int u = -1;
+                for (int v = 0; v < nodes; v++) {
+                    if (!done[v] && distance[v] < Double.POSITIVE_INFINITY && (u < 0 || distance[v] < distance[u])) {
+                        u = v;
+                    }
+                }
+                if (u < 0) {
+                    break;
+                }
+                done[u] = true;
+                for (int v = 0; v < nodes; v++) {
+                    if (capacity[u][v] > 0) {
+                        double reduced = distance[u] + cost[u][v] + potential[u] - potential[v];
+                        if (reduced < distance[v]) {
+                            distance[v] = reduced;
+                            parent[v] = u;
+                        }
+                    }
+                }
+            }
+            if (distance[sink] == Double.POSITIVE_INFINITY) {
+                return false;
+            }
+            for (int v = 0; v < nodes; v++) {
+                potential[v] += Math.min(distance[v], distance[sink]);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package com.library.service;
+
+import com.library.model.Patron;
+import com.library.repository.PatronRepository;
+import com.library.util.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Batch job that precomputes top recommendations for every patron, in parallel and resumable.
+ *
+ * The job fixes the set of patrons when it first starts: their ids are sorted and written next
+ * to the output ({@code <output>.patrons}), then cut into chunks of {@code chunkSize} patrons.
+ * Chunks are computed on a fork/join pool, whose work stealing keeps every core busy even when
+ * some patrons take much longer than others. Each finished chunk is appended to the output as
+ * one line per patron, {@code patronId<TAB>isbn,isbn,...}, and then recorded in
+ * {@code <output>.checkpoint} together with the output length after it.
+ *
+ * A job that is cancelled or dies is resumed by running it again with the same output path:
+ * the output is cut back to the last checkpointed length and only the chunks not recorded yet
+ * are computed. Chunks appear in the output in completion order. The checkpoint and patron
+ * files are removed once every chunk is done.
+ *
+ * Each run first freezes the inputs of the patrons it still has to compute into a
+ * {@link RecommendationSnapshot}, and computes every chunk from that, so lending while the job
+ * runs does not change its output and all patrons of a run see the same catalog and popular
+ * books. A resumed run freezes the data as of its own start; the patron set stays the one taken
+ * at the first start.
+ */
+public class RecommendationBatchJob {
+    private static final int DEFAULT_CHUNK_SIZE = 1024;
+    
+    /**
+     * Receives progress after each chunk is written
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        void onProgress(long completedPatrons, long totalPatrons);
+    }
+    
+    private final RecommendationService recommendationService;
+    private final PatronRepository patronRepository;
+    private final Path output;
+    private final Path patronsFile;
+    private final Path checkpointFile;
+    private final int limit;
+    private final int parallelism;
+    private final int chunkSize;
+    private final AtomicLong completedPatrons;
+    private final AtomicLong failedPatrons;
+    private final Logger logger;
+    private volatile ProgressListener progressListener;
+    private volatile boolean cancelled;
+    private volatile long totalPatrons;
+    
+    public RecommendationBatchJob(RecommendationService recommendationService, PatronRepository patronRepository,
+                                  Path output, int limit) {
+        this(recommendationService, patronRepository, output, limit,
+             Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+    
+    public RecommendationBatchJob(RecommendationService recommendationService, PatronRepository patronRepository,
+                                  Path output, int limit, int parallelism, int chunkSize) {
+        if (limit <= 0 || parallelism <= 0 || chunkSize <= 0) {
+            throw new IllegalArgumentException("Limit, parallelism and chunk size must be positive");
+        }
+        this.recommendationService = recommendationService;
+        this.patronRepository = patronRepository;
+        this.output = output;
+        this.patronsFile = Paths.get(output + ".patrons");
+        this.checkpointFile = Paths.get(output + ".checkpoint");
+        this.limit = limit;
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+        this.completedPatrons = new AtomicLong();
+        this.failedPatrons = new AtomicLong();
+        this.logger = Logger.getInstance();
+    }
+    
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+    
+    /**
+     * Stop handing out chunks; chunks already being computed are still written
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+    
+    /**
+     * Run or resume the job
+     * @return true if every patron has been written, false if the job was cancelled first
+     */
+    public boolean run() {
+        cancelled = false;
+        try {
+            List<String> patronIds = loadOrSnapshotPatrons();
+            totalPatrons = patronIds.size();
+            int chunkCount = (patronIds.size() + chunkSize - 1) / chunkSize;
+            
+            try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileChannel checkpoint = FileChannel.open(checkpointFile, StandardOpenOption.CREATE,
+                                                           StandardOpenOption.WRITE)) {
+                BitSet done = new BitSet(chunkCount);
+                long committed = readCheckpoint(done);
+                out.truncate(committed);
+                checkpoint.position(checkpoint.size());
+                
+                List<Integer> pending = new ArrayList<>();
+                long resumed = 0;
+                for (int chunk = 0; chunk < chunkCount; chunk++) {
+                    if (done.get(chunk)) {
+                        resumed += chunkLength(chunk, patronIds.size());
+                    } else {
+                        pending.add(chunk);
+                    }
+                }
+                completedPatrons.set(resumed);
+                failedPatrons.set(0);
+                if (resumed > 0) {
+                    logger.info("Resuming recommendation batch: " + resumed + " of " + totalPatrons + " patrons done");
+                }
+                
+                List<String> pendingPatrons = new ArrayList<>(patronIds.size() - (int) resumed);
+                for (int chunk : pending) {
+                    int start = chunk * chunkSize;
+                    pendingPatrons.addAll(patronIds.subList(start, start + chunkLength(chunk, patronIds.size())));
+                }
+                RecommendationSnapshot snapshot = recommendationService.snapshot(pendingPatrons, limit);
+                
+                ChunkWriter writer = new ChunkWriter(out, checkpoint, committed);
+                ForkJoinPool pool = new ForkJoinPool(parallelism);
+                try {
+                    pool.invoke(new ChunkRange(pending, 0, pending.size(), patronIds, snapshot, writer));
+                } finally {
+                    pool.shutdown();
+                }
+            }
+            
+            if (completedPatrons.get() < totalPatrons) {
+                logger.info("Recommendation batch stopped at " + completedPatrons.get() + " of " + totalPatrons + " patrons");
+                return false;
+            }
+            Files.deleteIfExists(checkpointFile);
+            Files.deleteIfExists(patronsFile);
+            logger.info("Recommendation batch finished: " + totalPatrons + " patrons, " + failedPatrons.get() + " failed");
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Recommendation batch failed on " + output, e);
+        }
+    }
+    
+    public long getCompletedPatrons() {
+        return completedPatrons.get();
+    }
+    
+    public long getTotalPatrons() {
+        return totalPatrons;
+    }
+    
+    /**
+     * Number of patrons whose recommendations could not be computed; they are written with none
+     */
+    public long getFailedPatrons() {
+        return failedPatrons.get();
+    }
+    
+    /**
+     * Splits the pending chunks in halves until one is left, which it computes and writes
+     */
+    private final class ChunkRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private final List<Integer> pending;
+        private final int from;
+        private final int to;
+        private final List<String> patronIds;
+        private final RecommendationSnapshot snapshot;
+        private final ChunkWriter writer;
+        
+        ChunkRange(List<Integer> pending, int from, int to, List<String> patronIds, RecommendationSnapshot snapshot,
+                   ChunkWriter writer) {
+            this.pending = pending;
+            this.from = from;
+            this.to = to;
+            this.patronIds = patronIds;
+            this.snapshot = snapshot;
+            this.writer = writer;
+        }
+        
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChunkRange(pending, from, middle, patronIds, snapshot, writer),
+                          new ChunkRange(pending, middle, to, patronIds, snapshot, writer));
+                return;
+            }
+            if (to == from || cancelled) {
+                return;
+            }
+            int chunk = pending.get(from);
+            int start = chunk * chunkSize;
+            int end = start + chunkLength(chunk, patronIds.size());
+            StringBuilder lines = new StringBuilder();
+            for (int i = start; i < end; i++) {
+                appendLine(lines, snapshot, patronIds.get(i));
+            }
+            writer.write(chunk, lines.toString().getBytes(StandardCharsets.UTF_8), end - start);
+        }
+    }
+    
+    /**
+     * Appends chunks to the output and records each one in the checkpoint once it is on disk
+     */
+    private final class ChunkWriter {
+        private final FileChannel out;
+        private final FileChannel checkpoint;
+        private long length;
+        
+        ChunkWriter(FileChannel out, FileChannel checkpoint, long length) {
+            this.out = out;
+            this.checkpoint = checkpoint;
+            this.length = length;
+        }
+        
+        synchronized void write(int chunk, byte[] lines, int patrons) {
+            try {
+                writeFully(out, ByteBuffer.wrap(lines), length);
+                out.force(false);
+                length += lines.length;
+                byte[] entry = (chunk + " " + length + "\n").getBytes(StandardCharsets.UTF_8);
+                writeFully(checkpoint, ByteBuffer.wrap(entry), checkpoint.position());
+                checkpoint.position(checkpoint.position() + entry.length);
+                checkpoint.force(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to write recommendation chunk " + chunk, e);
+            }
+            long completed = completedPatrons.addAndGet(patrons);
+            ProgressListener listener = progressListener;
+            if (listener != null) {
+                listener.onProgress(completed, totalPatrons);
+            }
+        }
+    }
+    
+    private void appendLine(StringBuilder lines, RecommendationSnapshot snapshot, String patronId) {
+        lines.append(patronId).append('\t');
+        try {
+            List<String> isbns = recommendationService.getRecommendations(snapshot, patronId);
+            for (int i = 0; i < isbns.size(); i++) {
+                if (i > 0) {
+                    lines.append(',');
+                }
+                lines.append(isbns.get(i));
+            }
+        } catch (RuntimeException e) {
+            // One bad patron must not stop the newsletter for everyone else
+            failedPatrons.incrementAndGet();
+            logger.error("Recommendations failed for patron " + patronId + ": " + e.getMessage());
+        }
+        lines.append('\n');
+    }
+    
+    private int chunkLength(int chunk, int patronCount) {
+        return Math.min(chunkSize, patronCount - chunk * chunkSize);
+    }
+    
+    private List<String> loadOrSnapshotPatrons() throws IOException {
+        if (Files.exists(patronsFile)) {
+            return Files.readAllLines(patronsFile, StandardCharsets.UTF_8);
+        }
+        List<String> patronIds = new ArrayList<>();
+        for (Patron patron : patronRepository.findAll()) {
+            patronIds.add(patron.getPatronId());
+        }
+        patronIds.sort(null);
+        // A stale checkpoint belongs to an earlier patron set
+        Files.deleteIfExists(checkpointFile);
+        Path temporary = Paths.get(patronsFile + ".tmp");
+        Files.write(temporary, patronIds, StandardCharsets.UTF_8);
+        Files.move(temporary, patronsFile, StandardCopyOption.ATOMIC_MOVE);
+        return patronIds;
+    }
+    
+    /**
+     * Mark the recorded chunks done and return the output length after the last of them; a torn
+     * last line from a crash is ignored
+     */
+    private long readCheckpoint(BitSet done) throws IOException {
+        long committed = 0;
+        if (!Files.exists(checkpointFile)) {
+            return committed;
+        }
+        String content = new String(Files.readAllBytes(checkpointFile), StandardCharsets.UTF_8);
+        int consumed = 0;
+        int newline;
+        while ((newline = content.indexOf('\n', consumed)) >= 0) {
+            String[] parts = content.substring(consumed, newline).split(" ");
+            consumed = newline + 1;
+            done.set(Integer.parseInt(parts[0]));
+            committed = Long.parseLong(parts[1]);
+        }
+        if (consumed < content.length()) {
+            try (FileChannel checkpoint = FileChannel.open(checkpointFile, StandardOpenOption.WRITE)) {
+                checkpoint.truncate(content.substring(0, consumed).getBytes(StandardCharsets.UTF_8).length);
+            }
+        }
+        return committed;
+    }
+    
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package com.library.service;
+
+import com.library.model.Book;
+import com.library.model.BorrowingRecord;
+import com.library.model.Patron;
+import com.library.repository.PatronRepository;
+import com.library.util.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-patron cache in front of {@link RecommendationService}, invalidated by checkout events.
+ *
+ * At most {@code maxPatrons} patrons are cached, least recently used first out, and a result is
+ * fresh for {@code timeToLive}. Registered as a {@link LendingListener}, the cache marks results
+ * stale when they may have changed:
+ * <ul>
+ *   <li>all of a patron's results when the patron checks out a book;</li>
+ *   <li>the collaborative results of every patron whose recent books include the checked-out book
+ *       or one of the borrower's recent books, since those are the co-borrow counts that moved.</li>
+ * </ul>
+ * Without stale-while-revalidate, a stale result is dropped and the next request recomputes it.
+ * With it, stale results keep being served while a background worker recomputes them, so page
+ * latency does not depend on when the last checkout happened.
+ */
+public class RecommendationCache implements LendingListener, AutoCloseable {
+    private static final int DEFAULT_MAX_PATRONS = 10_000;
+    private static final Duration DEFAULT_TIME_TO_LIVE = Duration.ofMinutes(10);
+    
+    public enum Kind {
+        CONTENT,
+        COLLABORATIVE
+    }
+    
+    private static final class Result {
+        final List<Book> books;
+        final int limit;
+        final long computedNanos;
+        boolean stale;
+        boolean refreshing;
+        
+        Result(List<Book> books, int limit, long computedNanos) {
+            this.books = books;
+            this.limit = limit;
+            this.computedNanos = computedNanos;
+        }
+    }
+    
+    private static final class Entry {
+        final Result[] results = new Result[Kind.values().length];
+        Set<String> seeds = Collections.emptySet(); // Recent books the collaborative result came from
+        long version; // Bumped by every invalidation
+    }
+    
+    private final RecommendationService recommendationService;
+    private final PatronRepository patronRepository;
+    private final int maxPatrons;
+    private final long timeToLiveNanos;
+    private final boolean staleWhileRevalidate;
+    private final Map<String, Entry> entries; // Patron id -> entry, in LRU order
+    private final Map<String, Set<String>> watchers; // ISBN -> patrons whose seeds include it
+    private final ExecutorService refresher;
+    private final AtomicLong hits;
+    private final AtomicLong staleHits;
+    private final AtomicLong misses;
+    private final AtomicLong refreshes;
+    private final AtomicLong outstanding;
+    private final Object idleMonitor;
+    private final Logger logger;
+    
+    public RecommendationCache(RecommendationService recommendationService, PatronRepository patronRepository) {
+        this(recommendationService, patronRepository, DEFAULT_MAX_PATRONS, DEFAULT_TIME_TO_LIVE, true);
+    }
+    
+    public RecommendationCache(RecommendationService recommendationService, PatronRepository patronRepository,
+                               int maxPatrons, Duration timeToLive, boolean staleWhileRevalidate) {
+        if (maxPatrons <= 0 || timeToLive.isNegative() || timeToLive.isZero()) {
+            throw new IllegalArgumentException("Invalid recommendation cache configuration");
+        }
+        this.recommendationService = recommendationService;
+        this.patronRepository = patronRepository;
+        this.maxPatrons = maxPatrons;
+        this.timeToLiveNanos = timeToLive.toNanos();
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.watchers = new HashMap<>();
+        this.refresher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "recommendation-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.hits = new AtomicLong();
+        this.staleHits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.refreshes = new AtomicLong();
+        this.outstanding = new AtomicLong();
+        this.idleMonitor = new Object();
+        this.logger = Logger.getInstance();
+    }
+    
+    /**
+     * Content-based recommendations, see {@link RecommendationService#getRecommendations}
+     */
+    public List<Book> getRecommendations(String patronId, int limit) {
+        return get(patronId, Kind.CONTENT, limit);
+    }
+    
+    /**
+     * Collaborative recommendations, see {@link RecommendationService#getCollaborativeRecommendations}
+     */
+    public List<Book> getCollaborativeRecommendations(String patronId, int limit) {
+        return get(patronId, Kind.COLLABORATIVE, limit);
+    }
+    
+    /**
+     * Cached recommendations of a kind; a result computed for a larger limit serves smaller ones
+     */
+    public List<Book> get(String patronId, Kind kind, int limit) {
+        long version;
+        synchronized (this) {
+            Entry entry = entries.get(patronId);
+            Result result = entry == null ? null : entry.results[kind.ordinal()];
+            if (result != null && result.limit >= limit) {
+                if (result.stale || System.nanoTime() - result.computedNanos > timeToLiveNanos) {
+                    if (staleWhileRevalidate) {
+                        staleHits.incrementAndGet();
+                        scheduleRefresh(patronId, kind, result);
+                        return prefix(result, limit);
+                    }
+                } else {
+                    hits.incrementAndGet();
+                    return prefix(result, limit);
+                }
+            }
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(patronId, entry);
+                evictOverflow();
+            }
+            version = entry.version;
+        }
+        misses.incrementAndGet();
+        Result result = compute(patronId, kind, limit, version);
+        return prefix(result, limit);
+    }
+    
+    @Override
+    public void onCheckout(BorrowingRecord record, Patron patron) {
+        Set<String> touched = new HashSet<>();
+        touched.add(record.getIsbn());
+        for (BorrowingRecord recent : patron.getRecentBorrowingHistory()) {
+            touched.add(recent.getIsbn());
+        }
+        synchronized (this) {
+            invalidate(patron.getPatronId(), null);
+            for (String isbn : touched) {
+                Set<String> watching = watchers.get(isbn);
+                if (watching != null) {
+                    for (String patronId : watching) {
+                        invalidate(patronId, Kind.COLLABORATIVE);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Mark a patron's cached results stale, for example after a change the cache cannot see
+     */
+    public synchronized void invalidate(String patronId) {
+        invalidate(patronId, null);
+    }
+    
+    /**
+     * Wait until every background refresh has finished
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (idleMonitor) {
+            while (outstanding.get() > 0) {
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMillis <= 0) {
+                    return false;
+                }
+                idleMonitor.wait(remainingMillis);
+            }
+        }
+        return true;
+    }
+    
+    public synchronized int size() {
+        return entries.size();
+    }
+    
+    public long getHitCount() {
+        return hits.get();
+    }
+    
+    /**
+     * Number of requests answered with a stale result while it was being refreshed
+     */
+    public long getStaleHitCount() {
+        return staleHits.get();
+    }
+    
+    public long getMissCount() {
+        return misses.get();
+    }
+    
+    public long getRefreshCount() {
+        return refreshes.get();
+    }
+    
+    private void invalidate(String patronId, Kind only) {
+        Entry entry = entries.get(patronId);
+        if (entry == null) {
+            return;
+        }
+        entry.version++;
+        for (Kind kind : Kind.values()) {
+            Result result = entry.results[kind.ordinal()];
+            if (result == null || (only != null && kind != only)) {
+                continue;
+            }
+            if (staleWhileRevalidate) {
+                result.stale = true;
+                scheduleRefresh(patronId, kind, result);
+            } else {
+                entry.results[kind.ordinal()] = null;
+            }
+        }
+    }
+    
+    private void scheduleRefresh(String patronId, Kind kind, Result result) {
+        if (result.refreshing || refresher.isShutdown()) {
+            return;
+        }
+        result.refreshing = true;
+        long version = entries.get(patronId).version;
+        outstanding.incrementAndGet();
+        refresher.execute(() -> {
+            try {
+                compute(patronId, kind, result.limit, version);
+                refreshes.incrementAndGet();
+            } catch (RuntimeException e) {
+                logger.error("Recommendation refresh failed for patron " + patronId + ": " + e.getMessage());
+                synchronized (this) {
+                    result.refreshing = false;
+                }
+            } finally {
+                if (outstanding.decrementAndGet() == 0) {
+                    synchronized (idleMonitor) {
+                        idleMonitor.notifyAll();
+                    }
+                }
+            }
+        });
+    }
+    
+    /**
+     * Compute and store a result; it is stored stale if the patron was invalidated meanwhile
+     */
+    private Result compute(String patronId, Kind kind, int limit, long version) {
+        long started = System.nanoTime();
+        List<Book> books = kind == Kind.CONTENT
+            ? recommendationService.getRecommendations(patronId, limit)
+            : recommendationService.getCollaborativeRecommendations(patronId, limit);
+        Result result = new Result(Collections.unmodifiableList(new ArrayList<>(books)), limit, started);
+        Set<String> seeds = kind == Kind.COLLABORATIVE ? seedsOf(patronId) : null;
+        
+        synchronized (this) {
+            Entry entry = entries.get(patronId);
+            if (entry == null) {
+                // Evicted while computing; the result is still returned to the caller
+                return result;
+            }
+            result.stale = entry.version != version;
+            entry.results[kind.ordinal()] = result;
+            if (seeds != null) {
+                unwatch(patronId, entry);
+                entry.seeds = seeds;
+                for (String isbn : seeds) {
+                    watchers.computeIfAbsent(isbn, k -> new HashSet<>()).add(patronId);
+                }
+            }
+            if (result.stale && staleWhileRevalidate) {
+                scheduleRefresh(patronId, kind, result);
+            }
+        }
+        return result;
+    }
+    
+    private Set<String> seedsOf(String patronId) {
+        Patron patron = patronRepository.getById(patronId);
+        if (patron == null) {
+            return Collections.emptySet();
+        }
+        Set<String> seeds = new HashSet<>(patron.getCurrentBorrowedBooks());
+        for (BorrowingRecord record : patron.getRecentBorrowingHistory()) {
+            seeds.add(record.getIsbn());
+        }
+        return seeds;
+    }
+    
+    private void evictOverflow() {
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (entries.size() > maxPatrons && eldest.hasNext()) {
+            Map.Entry<String, Entry> evicted = eldest.next();
+            unwatch(evicted.getKey(), evicted.getValue());
+            eldest.remove();
+        }
+    }
+    
+    private void unwatch(String patronId, Entry entry) {
+        for (String isbn : entry.seeds) {
+            Set<String> watching = watchers.get(isbn);
+            if (watching != null) {
+                watching.remove(patronId);
+                if (watching.isEmpty()) {
+                    watchers.remove(isbn);
+                }
+            }
+        }
+    }
+    
+    private static List<Book> prefix(Result result, int limit) {
+        return result.books.size() <= limit ? result.books : result.books.subList(0, limit);
+    }
+    
+    /**
+     * Stop the background worker; pending refreshes are abandoned
+     */
+    @Override
+    public void close() {
+        refresher.shutdownNow();
+    }
+}
@@ -9,6 +9,7 @@ import com.library.repository.PatronRepository;
 import com.library.util.Logger;
 
 import java.util.*;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 /**
@@ -20,7 +21,16 @@ public class RecommendationService {
     private final PatronRepository patronRepository;
     private final BorrowingRecordRepository recordRepository;
     private final Logger logger;
+    private CoBorrowModel coBorrowModel;
+    private PopularityTracker popularityTracker;
+    private AuthorAffinityModel authorAffinityModel;
+    private volatile PatronSimilarityIndex similarityIndex;
+    private volatile LatentFactorModel factorModel;
     
+    /**
+     * Without any of the optional models set below, recommendations are computed from the
+     * patrons' borrowing histories on every call
+     */
     public RecommendationService(BookRepository bookRepository, 
                                 PatronRepository patronRepository,
                                 BorrowingRecordRepository recordRepository) {
@@ -30,6 +40,55 @@ public class RecommendationService {
         this.logger = Logger.getInstance();
     }
     
+    /**
+     * Serve collaborative recommendations from {@code coBorrowModel}, which must be registered as
+     * a {@link LendingListener} to see checkouts
+     */
+    public void setCoBorrowModel(CoBorrowModel coBorrowModel) {
+        this.coBorrowModel = coBorrowModel;
+    }
+    
+    /**
+     * Serve popular books from {@code popularityTracker}, which must be registered as a
+     * {@link LendingListener} to see checkouts
+     */
+    public void setPopularityTracker(PopularityTracker popularityTracker) {
+        this.popularityTracker = popularityTracker;
+    }
+    
+    /**
+     * Serve content-based recommendations from {@code authorAffinityModel}, which must be
+     * registered as a {@link LendingListener} to see checkouts
+     */
+    public void setAuthorAffinityModel(AuthorAffinityModel authorAffinityModel) {
+        this.authorAffinityModel = authorAffinityModel;
+    }
+    
+    /**
+     * Compare the patron only with the index's candidate patrons when finding similar patrons for
+     * collaborative recommendations, instead of with every patron. The index must be registered as
+     * a {@link LendingListener}; patrons already registered are indexed here, and a patron the
+     * index has not seen is indexed on their first query. Not used when a {@link CoBorrowModel} is
+     * configured.
+     */
+    public void setSimilarityIndex(PatronSimilarityIndex similarityIndex) {
+        if (similarityIndex != null) {
+            int indexed = similarityIndex.indexAll(patronRepository.findAll());
+            if (logger.isInfoEnabled()) {
+                logger.info("Similarity index set up with " + indexed + " existing patrons");
+            }
+        }
+        this.similarityIndex = similarityIndex;
+    }
+    
+    /**
+     * Serve {@link #getFactorRecommendations} from factors trained by {@link ImplicitAlsTrainer};
+     * may be replaced by a newer model at any time
+     */
+    public void setFactorModel(LatentFactorModel factorModel) {
+        this.factorModel = factorModel;
+    }
+    
     /**
      * Get book recommendations for a patron based on their borrowing history
      */
@@ -41,44 +100,72 @@ public class RecommendationService {
         }
         
         Patron patron = patronOpt.get();
-        List<BorrowingRecord> history = patron.getBorrowingHistory();
         
-        if (history.isEmpty()) {
+        if (patron.getBorrowingHistorySize() == 0) {
             // If no history, return popular books
             return getPopularBooks(limit);
         }
         
-        // Get authors and genres from borrowing history
-        Set<String> favoriteAuthors = new HashSet<>();
-        Map<String, Integer> authorFrequency = new HashMap<>();
+        // Books by the patron's favorite authors from the author index; without a shared model the
+        // author profile is built from the borrowing history for this call only
+        AuthorAffinityModel affinity = authorAffinityModel != null
+            ? authorAffinityModel : new AuthorAffinityModel(bookRepository);
+        List<Book> recommendations = affinity.recommend(patron, limit);
         
-        for (BorrowingRecord record : history) {
-            Optional<Book> bookOpt = bookRepository.findByIsbn(record.getIsbn());
-            bookOpt.ifPresent(book -> {
-                String author = book.getAuthor();
-                favoriteAuthors.add(author);
-                authorFrequency.put(author, authorFrequency.getOrDefault(author, 0) + 1);
-            });
+        if (logger.isInfoEnabled()) {
+            logger.info("Generated " + recommendations.size() + " recommendations for patron: " + patronId);
+        }
+        return recommendations;
+    }
+    
+    /**
+     * Freeze what {@link #getRecommendations} reads for the given patrons: their borrowed ISBNs
+     * and author counts, the author index and the top {@code limit} popular books. Patrons that
+     * do not exist are left out.
+     */
+    public RecommendationSnapshot snapshot(Collection<String> patronIds, int limit) {
+        Map<String, List<String>> isbnsByAuthor = bookRepository.copyAuthorIndex();
+        Map<String, String> authorOf = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry : isbnsByAuthor.entrySet()) {
+            for (String isbn : entry.getValue()) {
+                authorOf.put(isbn, entry.getKey());
+            }
         }
         
-        // Get all books by favorite authors that patron hasn't borrowed
-        Set<String> borrowedIsbns = history.stream()
-            .map(BorrowingRecord::getIsbn)
-            .collect(Collectors.toSet());
-        
-        List<Book> recommendations = bookRepository.findAll().stream()
-            .filter(book -> !borrowedIsbns.contains(book.getIsbn()))
-            .filter(book -> favoriteAuthors.contains(book.getAuthor()))
-            .sorted((b1, b2) -> {
-                int freq1 = authorFrequency.getOrDefault(b1.getAuthor(), 0);
-                int freq2 = authorFrequency.getOrDefault(b2.getAuthor(), 0);
-                return Integer.compare(freq2, freq1);
-            })
-            .limit(limit)
-            .collect(Collectors.toList());
+        Map<String, RecommendationSnapshot.Profile> profiles = new HashMap<>(patronIds.size() * 2);
+        for (String patronId : patronIds) {
+            Patron patron = patronRepository.getById(patronId);
+            if (patron == null) {
+                continue;
+            }
+            Set<String> borrowed = new HashSet<>();
+            Map<String, Integer> authorCounts = new HashMap<>();
+            patron.forEachBorrowingRecord(record -> {
+                borrowed.add(record.getIsbn());
+                String author = authorOf.get(record.getIsbn());
+                if (author != null) {
+                    authorCounts.merge(author, 1, Integer::sum);
+                }
+            });
+            // Same order as AuthorAffinityModel: most borrowed author first, then by name
+            List<String> authors = new ArrayList<>(authorCounts.keySet());
+            authors.sort((a, b) -> !authorCounts.get(a).equals(authorCounts.get(b))
+                ? Integer.compare(authorCounts.get(b), authorCounts.get(a)) : a.compareTo(b));
+            profiles.put(patronId, new RecommendationSnapshot.Profile(authors, borrowed));
+        }
         
-        logger.info("Generated " + recommendations.size() + " recommendations for patron: " + patronId);
-        return recommendations;
+        List<String> popularIsbns = new ArrayList<>(limit);
+        for (Book book : getPopularBooks(limit)) {
+            popularIsbns.add(book.getIsbn());
+        }
+        return new RecommendationSnapshot(profiles, isbnsByAuthor, popularIsbns, limit);
+    }
+    
+    /**
+     * ISBNs recommended to a patron as of {@code snapshot}; see {@link RecommendationSnapshot#recommend}
+     */
+    public List<String> getRecommendations(RecommendationSnapshot snapshot, String patronId) {
+        return snapshot.recommend(patronId);
     }
     
     /**
@@ -92,28 +179,43 @@ public class RecommendationService {
         }
         
         Patron targetPatron = patronOpt.get();
-        List<BorrowingRecord> targetHistory = targetPatron.getBorrowingHistory();
         
-        if (targetHistory.isEmpty()) {
+        if (targetPatron.getBorrowingHistorySize() == 0) {
             return getPopularBooks(limit);
         }
         
+        if (coBorrowModel != null) {
+            return getCoBorrowRecommendations(targetPatron, limit);
+        }
+        
         // Get books borrowed by target patron
-        Set<String> targetBooks = targetHistory.stream()
-            .map(BorrowingRecord::getIsbn)
-            .collect(Collectors.toSet());
+        Set<String> targetBooks = borrowedIsbns(targetPatron);
         
-        // Find similar patrons based on common books
+        // Find similar patrons based on common books, among the LSH candidates when indexed
         Map<String, Integer> similarityScores = new HashMap<>();
+        PatronSimilarityIndex index = similarityIndex;
+        List<Patron> otherPatrons;
+        if (index != null) {
+            if (!index.contains(patronId)) {
+                index.index(targetPatron);
+            }
+            otherPatrons = new ArrayList<>();
+            for (String candidateId : index.candidates(patronId)) {
+                Patron candidate = patronRepository.getById(candidateId);
+                if (candidate != null) {
+                    otherPatrons.add(candidate);
+                }
+            }
+        } else {
+            otherPatrons = patronRepository.findAll();
+        }
         
-        for (Patron otherPatron : patronRepository.findAll()) {
+        for (Patron otherPatron : otherPatrons) {
             if (otherPatron.getPatronId().equals(patronId)) {
                 continue;
             }
             
-            Set<String> otherBooks = otherPatron.getBorrowingHistory().stream()
-                .map(BorrowingRecord::getIsbn)
-                .collect(Collectors.toSet());
+            Set<String> otherBooks = borrowedIsbns(otherPatron);
             
             // Calculate similarity (number of common books)
             Set<String> commonBooks = new HashSet<>(targetBooks);
@@ -137,12 +239,12 @@ public class RecommendationService {
             }
             
             Patron similarPatron = similarPatronOpt.get();
-            for (BorrowingRecord record : similarPatron.getBorrowingHistory()) {
+            similarPatron.forEachBorrowingRecord(record -> {
                 String isbn = record.getIsbn();
                 if (!targetBooks.contains(isbn)) {
                     bookScores.put(isbn, bookScores.getOrDefault(isbn, 0) + similarity);
                 }
-            }
+            });
         }
         
         // Sort books by score and return top recommendations
@@ -160,14 +262,85 @@ public class RecommendationService {
     }
     
     /**
-     * Get popular books based on borrowing frequency
+     * Collaborative recommendations from the co-borrow model: books most often borrowed together
+     * with the patron's recent books. Only the neighbors of those books are read, and only the
+     * in-memory part of the patron's history is consulted.
+     */
+    private List<Book> getCoBorrowRecommendations(Patron patron, int limit) {
+        Set<String> recentIsbns = new HashSet<>();
+        for (BorrowingRecord record : patron.getRecentBorrowingHistory()) {
+            recentIsbns.add(record.getIsbn());
+        }
+        recentIsbns.addAll(patron.getCurrentBorrowedBooks());
+        
+        List<Book> recommendations = new ArrayList<>(limit);
+        for (String isbn : coBorrowModel.recommend(recentIsbns, recentIsbns, limit)) {
+            Book book = bookRepository.getByIsbn(isbn);
+            if (book != null) {
+                recommendations.add(book);
+            }
+        }
+        
+        if (logger.isInfoEnabled()) {
+            logger.info("Generated " + recommendations.size() + 
+                       " collaborative recommendations for patron: " + patron.getPatronId());
+        }
+        return recommendations;
+    }
+    
+    /**
+     * Recommendations from the latent factor model: the books whose factors score highest against
+     * the patron's, excluding books the patron has borrowed. Patrons who were not in the training
+     * data, or no model at all, fall back to {@link #getCollaborativeRecommendations}.
+     */
+    public List<Book> getFactorRecommendations(String patronId, int limit) {
+        LatentFactorModel model = factorModel;
+        Patron patron = patronRepository.getById(patronId);
+        if (model == null || patron == null || !model.hasPatron(patronId)) {
+            return getCollaborativeRecommendations(patronId, limit);
+        }
+        
+        Set<String> excluded = borrowedIsbns(patron);
+        excluded.addAll(patron.getCurrentBorrowedBooks());
+        List<Book> recommendations = new ArrayList<>(limit);
+        for (String isbn : model.recommend(patronId, limit, excluded)) {
+            Book book = bookRepository.getByIsbn(isbn);
+            if (book != null) {
+                recommendations.add(book);
+            }
+        }
+        
+        if (logger.isInfoEnabled()) {
+            logger.info("Generated " + recommendations.size() + 
+                       " factor model recommendations for patron: " + patronId);
+        }
+        return recommendations;
+    }
+    
+    /**
+     * Get popular books based on borrowing frequency.
+     * With a {@link PopularityTracker} this is O(limit); counts are estimates within its error bound.
      */
     public List<Book> getPopularBooks(int limit) {
+        if (popularityTracker != null) {
+            List<Book> popularBooks = new ArrayList<>(limit);
+            for (String isbn : popularityTracker.top(limit)) {
+                Book book = bookRepository.getByIsbn(isbn);
+                if (book != null) {
+                    popularBooks.add(book);
+                }
+            }
+            if (logger.isInfoEnabled()) {
+                logger.info("Retrieved " + popularBooks.size() + " popular books");
+            }
+            return popularBooks;
+        }
+        
         Map<String, Integer> borrowFrequency = new HashMap<>();
         
-        for (BorrowingRecord record : recordRepository.findAll()) {
-            String isbn = record.getIsbn();
-            borrowFrequency.put(isbn, borrowFrequency.getOrDefault(isbn, 0) + 1);
+        // Patron histories rather than the record repository, which drops archived records
+        for (Patron patron : patronRepository.findAll()) {
+            patron.forEachBorrowingRecord(record -> borrowFrequency.merge(record.getIsbn(), 1, Integer::sum));
         }
         
         List<Book> popularBooks = borrowFrequency.entrySet().stream()
@@ -193,13 +366,15 @@ public class RecommendationService {
         }
         
         Patron patron = patronOpt.get();
-        Set<String> borrowedIsbns = patron.getBorrowingHistory().stream()
-            .map(BorrowingRecord::getIsbn)
-            .collect(Collectors.toSet());
+        Predicate<String> borrowed;
+        if (authorAffinityModel != null) {
+            borrowed = isbn -> authorAffinityModel.hasBorrowed(patron, isbn);
+        } else {
+            borrowed = borrowedIsbns(patron)::contains;
+        }
         
-        List<Book> recommendations = bookRepository.findAll().stream()
-            .filter(book -> book.getAuthor().equalsIgnoreCase(author))
-            .filter(book -> !borrowedIsbns.contains(book.getIsbn()))
+        List<Book> recommendations = bookRepository.findByAuthor(author).stream()
+            .filter(book -> !borrowed.test(book.getIsbn()))
             .limit(limit)
             .collect(Collectors.toList());
         
@@ -207,4 +382,10 @@ public class RecommendationService {
                    " recommendations by author '" + author + "' for patron: " + patronId);
         return recommendations;
     }
+    
+    private static Set<String> borrowedIsbns(Patron patron) {
+        Set<String> isbns = new HashSet<>();
+        patron.forEachBorrowingRecord(record -> isbns.add(record.getIsbn()));
+        return isbns;
+    }
 }
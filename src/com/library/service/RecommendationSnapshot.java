@@ -0,0 +1,78 @@
+package com.library.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Recommendation inputs frozen at one moment, taken by {@link RecommendationService#snapshot}:
+ * each patron's borrowed ISBNs and authors in order of preference, the author index and the
+ * popular books. Everything is immutable, so recommendations computed from a snapshot stay
+ * consistent with each other however long the computation takes and whatever lending does
+ * meanwhile, and any number of threads can read it.
+ */
+public final class RecommendationSnapshot {
+    
+    static final class Profile {
+        final List<String> authors; // Most borrowed first
+        final Set<String> borrowedIsbns;
+        
+        Profile(List<String> authors, Set<String> borrowedIsbns) {
+            this.authors = List.copyOf(authors);
+            this.borrowedIsbns = Set.copyOf(borrowedIsbns);
+        }
+    }
+    
+    private final Map<String, Profile> profiles; // Patron id -> profile; empty profile without history
+    private final Map<String, List<String>> isbnsByAuthor; // Normalized author -> ISBNs
+    private final List<String> popularIsbns;
+    private final int limit;
+    
+    RecommendationSnapshot(Map<String, Profile> profiles, Map<String, List<String>> isbnsByAuthor,
+                           List<String> popularIsbns, int limit) {
+        this.profiles = Collections.unmodifiableMap(profiles);
+        this.isbnsByAuthor = isbnsByAuthor;
+        this.popularIsbns = List.copyOf(popularIsbns);
+        this.limit = limit;
+    }
+    
+    /**
+     * Whether the patron existed when the snapshot was taken
+     */
+    public boolean contains(String patronId) {
+        return profiles.containsKey(patronId);
+    }
+    
+    public int size() {
+        return profiles.size();
+    }
+    
+    /**
+     * ISBNs recommended to the patron as of the snapshot, the way
+     * {@link RecommendationService#getRecommendations} would have at that moment; empty for a
+     * patron not in the snapshot
+     */
+    public List<String> recommend(String patronId) {
+        Profile profile = profiles.get(patronId);
+        if (profile == null) {
+            return Collections.emptyList();
+        }
+        if (profile.borrowedIsbns.isEmpty()) {
+            return popularIsbns;
+        }
+        List<String> recommendations = new ArrayList<>(limit);
+        for (String author : profile.authors) {
+            for (String isbn : isbnsByAuthor.getOrDefault(author, Collections.emptyList())) {
+                if (recommendations.size() == limit) {
+                    return recommendations;
+                }
+                if (!profile.borrowedIsbns.contains(isbn)) {
+                    recommendations.add(isbn);
+                }
+            }
+        }
+        return recommendations;
+    }
+}
@@ -0,0 +1,12 @@
+package com.library.service;
+
+import com.library.model.Reservation;
+
+/**
+ * Callback for reservation events, invoked by {@link ReservationService} after the state change
+ * is made.
+ */
+public interface ReservationListener {
+    
+    void onReserve(Reservation reservation);
+}
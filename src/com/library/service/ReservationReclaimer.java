@@ -0,0 +1,49 @@
+package com.library.service;
+
+/**
+ * Background reclaim of finished reservations: every {@code periodMillis} it moves fulfilled,
+ * cancelled and expired reservations out of the {@link ReservationService}'s hot maps into its
+ * archive, {@code batchSize} at a time and yielding between batches, until none are left. New
+ * reservations only reclaim a few each, so without a reclaimer a quiet service keeps its
+ * finished reservations in memory. Usually started and closed together with a
+ * {@link HoldExpiryDriver}.
+ */
+public class ReservationReclaimer extends PeriodicWorker {
+    private final ReservationService reservationService;
+    private final int batchSize;
+    private long reclaimed;
+    
+    public ReservationReclaimer(ReservationService reservationService, long periodMillis, int batchSize) {
+        super("reservation-reclaim", periodMillis);
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.reservationService = reservationService;
+        this.batchSize = batchSize;
+    }
+    
+    /**
+     * Reclaim every finished reservation waiting now, one batch at a time; returns how many
+     */
+    @Override
+    public int runOnce() {
+        int total = 0;
+        int batch;
+        do {
+            batch = reservationService.reclaimTerminalReservations(batchSize);
+            total += batch;
+            Thread.yield();
+        } while (batch == batchSize);
+        synchronized (this) {
+            reclaimed += total;
+        }
+        return total;
+    }
+    
+    /**
+     * Number of reservations archived by this reclaimer
+     */
+    public synchronized long getReclaimedCount() {
+        return reclaimed;
+    }
+}
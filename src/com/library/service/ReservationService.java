@@ -1,42 +1,77 @@
 package com.library.service;
 
 import com.library.model.*;
+import com.library.notification.Notifier;
 import com.library.observer.Observer;
 import com.library.observer.Subject;
 import com.library.repository.BookRepository;
+import com.library.repository.CopyRepository;
 import com.library.repository.PatronRepository;
 import com.library.util.IdGenerator;
 import com.library.util.Logger;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Service class for managing book reservations.
  * Implements Observer pattern for notifications.
+ *
+ * Reserve, cancel, notify and fulfill are safe to call concurrently. Holds on the same title go
+ * through a lock-free {@link FifoReservationQueue}, or a {@link TieredReservationQueue} once a
+ * {@link ReservationPriorityPolicy} is set; otherwise the only lock taken is per patron, to keep
+ * the duplicate check and the patron's reserved-book list consistent. Patrons and books must be
+ * registered in their repositories before they are used concurrently.
  */
 public class ReservationService implements Subject {
+    private static final Duration HOLD_PERIOD = Duration.ofDays(2);
+    private static final int DEFAULT_ARCHIVE_RETENTION = 100_000;
+    private static final int RECLAIM_BATCH = 4;
+    
     private final BookRepository bookRepository;
     private final PatronRepository patronRepository;
-    private final Map<String, Queue<Reservation>> reservationQueues; // ISBN -> Queue of reservations
+    private final Map<String, ReservationQueue> reservationQueues; // ISBN -> Queue of reservations
     private final Map<String, Reservation> reservationById; // ReservationId -> Reservation
+    private final Map<String, Map<String, Reservation>> heldByPatron; // PatronId -> ISBN -> active or notified hold
+    private final Queue<Reservation> terminal; // Terminal reservations not yet moved to the archive
+    private final ReservationArchive archive;
     private final Logger logger;
-    private final List<Observer> observers;
+    private final Notifier notifier;
+    private final List<ReservationListener> listeners;
+    private HoldExpiryScheduler holdScheduler;
+    private CopyRepository copyRepository;
+    private volatile ReservationPriorityPolicy priorityPolicy;
     
     public ReservationService(BookRepository bookRepository, PatronRepository patronRepository) {
+        this(bookRepository, patronRepository, new ReservationArchive(DEFAULT_ARCHIVE_RETENTION));
+    }
+    
+    public ReservationService(BookRepository bookRepository, PatronRepository patronRepository,
+                              ReservationArchive archive) {
         this.bookRepository = bookRepository;
         this.patronRepository = patronRepository;
-        this.reservationQueues = new HashMap<>();
-        this.reservationById = new HashMap<>();
+        this.reservationQueues = new ConcurrentHashMap<>();
+        this.reservationById = new ConcurrentHashMap<>();
+        this.heldByPatron = new ConcurrentHashMap<>();
+        this.terminal = new ConcurrentLinkedQueue<>();
+        this.archive = archive;
         this.logger = Logger.getInstance();
-        this.observers = new ArrayList<>();
+        this.notifier = new Notifier("ReservationService");
+        this.listeners = new CopyOnWriteArrayList<>();
     }
     
     /**
      * Reserve a book that is currently checked out
      */
     public Reservation reserveBook(String patronId, String isbn) {
+        // Each reservation pays for reclaiming a few finished ones, so the hot maps stay bounded
+        reclaimTerminalReservations(RECLAIM_BATCH);
+        
         // Validate patron
         Optional<Patron> patronOpt = patronRepository.findById(patronId);
         if (patronOpt.isEmpty()) {
@@ -61,37 +96,56 @@ public class ReservationService implements Subject {
             throw new IllegalStateException("Book is available for checkout, reservation not needed");
         }
         
-        // Check if patron already has a reservation for this book
-        Queue<Reservation> queue = reservationQueues.getOrDefault(isbn, new LinkedList<>());
-        boolean alreadyReserved = queue.stream()
-            .anyMatch(r -> r.getPatronId().equals(patronId) && r.getStatus() == ReservationStatus.ACTIVE);
-        
-        if (alreadyReserved) {
-            logger.warn("Patron already has an active reservation for this book");
-            throw new IllegalStateException("You already have an active reservation for this book");
-        }
-        
-        // Create reservation
+        // Check if patron already has a reservation for this book, and claim the slot atomically
         String reservationId = IdGenerator.generateReservationId();
         Reservation reservation = new Reservation(reservationId, patronId, isbn);
-        
-        // Add to queue
-        queue.add(reservation);
-        reservationQueues.put(isbn, queue);
+        ReservationPriorityPolicy policy = priorityPolicy;
+        if (policy != null) {
+            reservation.setPriorityKey(policy.priorityKey(patron.getPatronType(), reservation.getReservationDate()));
+        }
+        while (true) {
+            Map<String, Reservation> held = heldByPatron.computeIfAbsent(patronId, k -> new LinkedHashMap<>());
+            synchronized (held) {
+                if (heldByPatron.get(patronId) != held) {
+                    continue; // dropped by retire() while empty
+                }
+                if (held.containsKey(isbn)) {
+                    logger.warn("Patron already has an active reservation for this book");
+                    throw new IllegalStateException("You already have an active reservation for this book");
+                }
+                held.put(isbn, reservation);
+                
+                // Add to patron's reserved books
+                patron.addReservedBook(isbn);
+                patronRepository.save(patron);
+                break;
+            }
+        }
         reservationById.put(reservationId, reservation);
         
-        // Add to patron's reserved books
-        patron.addReservedBook(isbn);
-        patronRepository.save(patron);
+        // Add to queue; a queue closed by reclaim is replaced
+        ReservationQueue queue = reservationQueues.computeIfAbsent(isbn, k -> newQueue());
+        while (!queue.offer(reservation)) {
+            reservationQueues.remove(isbn, queue);
+            queue = reservationQueues.computeIfAbsent(isbn, k -> newQueue());
+        }
+        
+        if (logger.isInfoEnabled()) {
+            logger.info("Book reserved: " + book.getTitle() + " for " + patron.getName() +
+                       " (Position in queue: " + queue.positionOf(reservation) + ")");
+        }
         
-        logger.info("Book reserved: " + book.getTitle() + " for " + patron.getName() + 
-                   " (Position in queue: " + queue.size() + ")");
+        for (ReservationListener listener : listeners) {
+            listener.onReserve(reservation);
+        }
         
         return reservation;
     }
     
     /**
-     * Cancel a reservation
+     * Cancel a reservation. The status changes atomically, so a concurrent
+     * {@link #claimForNextInQueue} either notifies the hold first (and the item it set aside is
+     * passed on here) or sees it cancelled and moves to the next patron.
      */
     public void cancelReservation(String reservationId) {
         Reservation reservation = reservationById.get(reservationId);
@@ -100,108 +154,446 @@ public class ReservationService implements Subject {
             throw new IllegalArgumentException("Reservation not found");
         }
         
-        reservation.setStatus(ReservationStatus.CANCELLED);
+        ReservationStatus previous;
+        do {
+            previous = reservation.getStatus();
+            if (previous != ReservationStatus.ACTIVE && previous != ReservationStatus.NOTIFIED) {
+                logger.warn("Reservation already ended: " + reservationId + " (" + previous + ")");
+                return;
+            }
+        } while (!reservation.compareAndSetStatus(previous, ReservationStatus.CANCELLED));
+        retire(reservation);
+        if (holdScheduler != null) {
+            holdScheduler.cancel(reservationId);
+        }
         
         // Remove from queue
-        Queue<Reservation> queue = reservationQueues.get(reservation.getIsbn());
+        ReservationQueue queue = reservationQueues.get(reservation.getIsbn());
         if (queue != null) {
             queue.remove(reservation);
         }
         
-        // Remove from patron's reserved books
-        Optional<Patron> patronOpt = patronRepository.findById(reservation.getPatronId());
-        patronOpt.ifPresent(patron -> {
-            patron.removeReservedBook(reservation.getIsbn());
-            patronRepository.save(patron);
-        });
-        
         logger.info("Reservation cancelled: " + reservationId);
+        
+        // A cancelled hold that had a book set aside passes it on to the next patron
+        if (previous == ReservationStatus.NOTIFIED) {
+            String branchId = releaseHeldItem(reservation);
+            if (branchId != null) {
+                claimForNextInQueue(reservation.getIsbn(), branchId);
+            }
+        }
     }
     
     /**
      * Notify next patron in queue when book becomes available
      */
     public void notifyNextInQueue(String isbn) {
-        Queue<Reservation> queue = reservationQueues.get(isbn);
+        ReservationQueue queue = reservationQueues.get(isbn);
         if (queue == null || queue.isEmpty()) {
             return;
         }
         
         Reservation nextReservation = queue.peek();
-        if (nextReservation != null && nextReservation.getStatus() == ReservationStatus.ACTIVE) {
-            // Update reservation status
-            nextReservation.setStatus(ReservationStatus.NOTIFIED);
-            nextReservation.setNotificationSentDate(LocalDateTime.now());
+        if (nextReservation != null && nextReservation.compareAndSetStatus(ReservationStatus.ACTIVE,
+                                                                           ReservationStatus.NOTIFIED)) {
+            startHoldPeriod(nextReservation);
+            Book book = bookRepository.getByIsbn(isbn);
+            if (book != null) {
+                // Update book status to reserved
+                book.setStatus(BookStatus.RESERVED);
+                bookRepository.save(book);
+            }
+            notifyHolder(nextReservation);
+        }
+    }
+    
+    /**
+     * Set a just-available copy of the title at the branch aside for the first patron in the queue
+     * who is still waiting, and notify them. Claiming the copy (or, for titles without registered
+     * copies, the book) is atomic, so a concurrent walk-in checkout either gets it first or does
+     * not get it at all.
+     * @return the reservation that was notified, or null if nobody is waiting or nothing was available
+     */
+    public Reservation claimForNextInQueue(String isbn, String branchId) {
+        ReservationQueue queue = reservationQueues.get(isbn);
+        Book book = bookRepository.getByIsbn(isbn);
+        if (queue == null || book == null) {
+            return null;
+        }
+        boolean copies = copyRepository != null && copyRepository.hasCopies(isbn);
+        while (true) {
+            Reservation next = queue.peekFirst(r -> r.getStatus() == ReservationStatus.ACTIVE);
+            if (next == null) {
+                return null;
+            }
             
-            // Get patron and book details
-            Optional<Patron> patronOpt = patronRepository.findById(nextReservation.getPatronId());
-            Optional<Book> bookOpt = bookRepository.findByIsbn(isbn);
+            BookCopy copy = null;
+            if (copies) {
+                copy = copyRepository.claim(isbn, branchId, BookStatus.RESERVED);
+                if (copy == null) {
+                    return null;
+                }
+            } else if (!book.compareAndSetStatus(BookStatus.AVAILABLE, BookStatus.RESERVED)) {
+                return null;
+            }
             
-            if (patronOpt.isPresent() && bookOpt.isPresent()) {
-                Patron patron = patronOpt.get();
-                Book book = bookOpt.get();
-                
-                // Update book status to reserved
+            if (copy != null) {
+                next.setHeldCopyBarcode(copy.getBarcode());
+            }
+            if (next.compareAndSetStatus(ReservationStatus.ACTIVE, ReservationStatus.NOTIFIED)) {
+                startHoldPeriod(next);
+                if (copy != null) {
+                    summarizeStatus(book);
+                }
+                bookRepository.save(book);
+                notifyHolder(next); // Not if a cancellation already passed the item on
+                return next;
+            }
+            
+            // Lost a race with a cancellation; put the item back and try the next patron
+            if (copy != null) {
+                next.setHeldCopyBarcode(null);
+                copyRepository.release(copy);
+            } else {
+                book.compareAndSetStatus(BookStatus.RESERVED, BookStatus.AVAILABLE);
+            }
+        }
+    }
+    
+    /**
+     * Set a returned item aside for the first patron in the queue who is still waiting, before it
+     * goes back on the shelf, so no walk-in checkout can take it in between. The caller owns the
+     * item until it is released, so nothing else races for it; the hold period starts now, but
+     * observers are told only by {@link #notifyHolder} (an outbox records the notice right away).
+     * @param copy the returned copy, or null for a title lent as the book itself
+     * @return the reservation the item was set aside for, or null if nobody is waiting and the
+     *         caller should shelve it
+     */
+    public Reservation holdReturnedItem(String isbn, BookCopy copy) {
+        ReservationQueue queue = reservationQueues.get(isbn);
+        Book book = bookRepository.getByIsbn(isbn);
+        if (queue == null || book == null) {
+            return null;
+        }
+        while (true) {
+            Reservation next = queue.peekFirst(r -> r.getStatus() == ReservationStatus.ACTIVE);
+            if (next == null) {
+                return null;
+            }
+            
+            // The item is marked held first, so a hold cancelled right after notification releases it
+            if (copy != null) {
+                copy.setStatus(BookStatus.RESERVED);
+                next.setHeldCopyBarcode(copy.getBarcode());
+            } else {
                 book.setStatus(BookStatus.RESERVED);
+            }
+            if (next.compareAndSetStatus(ReservationStatus.ACTIVE, ReservationStatus.NOTIFIED)) {
+                startHoldPeriod(next);
+                if (copy != null) {
+                    summarizeStatus(book);
+                }
                 bookRepository.save(book);
-                
-                String message = "Good news! The book '" + book.getTitle() + 
-                               "' you reserved is now available. Please collect it within 2 days.";
-                
-                logger.info("Notification sent to " + patron.getName() + " for book: " + book.getTitle());
-                notifyObservers(message);
+                return next;
+            }
+            
+            // Cancelled meanwhile; the item is still ours, so try the next patron
+            if (copy != null) {
+                next.setHeldCopyBarcode(null);
+                copy.setStatus(BookStatus.CHECKED_OUT);
+            } else {
+                book.setStatus(BookStatus.CHECKED_OUT);
             }
         }
     }
     
     /**
-     * Fulfill a reservation (when patron checks out the reserved book)
+     * Tell a patron that the item set aside for their hold is ready to collect
+     * @return false if the hold was cancelled, expired or collected before the notice went out
+     */
+    public boolean notifyHolder(Reservation reservation) {
+        if (reservation.getStatus() != ReservationStatus.NOTIFIED) {
+            return false;
+        }
+        if (!notifier.hasOutbox()) {
+            publishHoldNotice(reservation); // With an outbox it was recorded when the hold period started
+        }
+        return true;
+    }
+    
+    private void publishHoldNotice(Reservation reservation) {
+        Patron patron = patronRepository.getById(reservation.getPatronId());
+        Book book = bookRepository.getByIsbn(reservation.getIsbn());
+        if (patron != null && book != null) {
+            String message = "Good news! The book '" + book.getTitle() + 
+                           "' you reserved is now available. Please collect it within 2 days.";
+            
+            logger.info("Notification sent to " + patron.getName() + " for book: " + book.getTitle());
+            notifier.publish("hold-notified:" + reservation.getReservationId(), message);
+        }
+    }
+    
+    /**
+     * Collect a notified hold at checkout: the reservation is fulfilled and leaves the queue.
+     * @return the fulfilled reservation, whose held copy (if any) is the one to lend, or null if
+     *         the patron has no notified hold on the title
+     */
+    public Reservation collectHold(String patronId, String isbn) {
+        Map<String, Reservation> held = heldByPatron.get(patronId);
+        if (held == null) {
+            return null;
+        }
+        Reservation reservation;
+        synchronized (held) {
+            reservation = held.get(isbn);
+        }
+        if (reservation == null ||
+            !reservation.compareAndSetStatus(ReservationStatus.NOTIFIED, ReservationStatus.FULFILLED)) {
+            return null;
+        }
+        retire(reservation);
+        if (holdScheduler != null) {
+            holdScheduler.cancel(reservation.getReservationId());
+        }
+        ReservationQueue queue = reservationQueues.get(isbn);
+        if (queue != null) {
+            queue.remove(reservation);
+        }
+        logger.info("Reservation fulfilled for patron: " + patronId + ", book: " + isbn);
+        return reservation;
+    }
+    
+    /**
+     * Fulfill a reservation (when patron checks out the reserved book by other means than
+     * {@link #collectHold}). The status changes atomically, as in {@link #cancelReservation}, so a
+     * hold that was cancelled, collected or expired meanwhile is left alone; an item set aside for
+     * a notified hold is put back and passed on to the next patron.
      */
     public void fulfillReservation(String isbn, String patronId) {
-        Queue<Reservation> queue = reservationQueues.get(isbn);
+        ReservationQueue queue = reservationQueues.get(isbn);
         if (queue == null || queue.isEmpty()) {
             return;
         }
         
-        Reservation reservation = queue.poll();
-        if (reservation != null && reservation.getPatronId().equals(patronId)) {
-            reservation.setStatus(ReservationStatus.FULFILLED);
+        // Only the patron at the head of the queue can fulfill it; the status change is the claim
+        Reservation reservation = queue.peek();
+        if (reservation == null || !reservation.getPatronId().equals(patronId)) {
+            return;
+        }
+        ReservationStatus previous;
+        do {
+            previous = reservation.getStatus();
+            if (previous != ReservationStatus.ACTIVE && previous != ReservationStatus.NOTIFIED) {
+                return;
+            }
+        } while (!reservation.compareAndSetStatus(previous, ReservationStatus.FULFILLED));
+        retire(reservation);
+        if (holdScheduler != null) {
+            holdScheduler.cancel(reservation.getReservationId());
+        }
+        queue.remove(reservation);
+        
+        logger.info("Reservation fulfilled for patron: " + patronId + ", book: " + isbn);
+        
+        if (previous == ReservationStatus.NOTIFIED) {
+            String branchId = releaseHeldItem(reservation);
+            if (branchId != null) {
+                claimForNextInQueue(isbn, branchId);
+            }
+        }
+    }
+    
+    /**
+     * Expire notified holds that were not collected within the hold period: the reservation
+     * becomes EXPIRED, the book is released and the next patron in the queue is notified.
+     * Nothing calls this on its own: run a {@link HoldExpiryDriver}, or call it from the owner's
+     * own periodic job.
+     * @return the number of holds expired
+     */
+    public int expireHolds(LocalDateTime now) {
+        if (holdScheduler == null) {
+            return 0;
+        }
+        int expired = 0;
+        for (String reservationId : holdScheduler.advanceTo(toEpochMillis(now))) {
+            Reservation reservation = reservationById.get(reservationId);
+            if (reservation == null ||
+                !reservation.compareAndSetStatus(ReservationStatus.NOTIFIED, ReservationStatus.EXPIRED)) {
+                continue;
+            }
+            String isbn = reservation.getIsbn();
             
-            // Remove from patron's reserved books
-            Optional<Patron> patronOpt = patronRepository.findById(patronId);
-            patronOpt.ifPresent(patron -> {
-                patron.removeReservedBook(isbn);
-                patronRepository.save(patron);
-            });
+            // Tell the patron before the book is released and saved
+            Book book = bookRepository.getByIsbn(isbn);
+            if (book != null && notifier.hasSubscribers()) {
+                notifier.publish("hold-expired:" + reservationId,
+                                 "Your hold on '" + book.getTitle() + "' has expired and the book was released.");
+            }
+            
+            retire(reservation);
+            ReservationQueue queue = reservationQueues.get(isbn);
+            if (queue != null) {
+                queue.remove(reservation);
+            }
+            
+            // Release the book before offering it to the next patron
+            String branchId = releaseHeldItem(reservation);
             
-            logger.info("Reservation fulfilled for patron: " + patronId + ", book: " + isbn);
+            logger.info("Reservation expired: " + reservationId + ", book: " + isbn);
+            expired++;
+            if (branchId != null) {
+                claimForNextInQueue(isbn, branchId);
+            }
         }
+        reclaimTerminalReservations(expired);
+        return expired;
+    }
+    
+    /**
+     * Move a waiting hold into another patron type's priority tier, e.g. for a course reserve.
+     * The hold keeps its original placement time, so it lands where it would have been had it
+     * been placed in that tier; O(log n) in the queue length.
+     */
+    public void promoteReservation(String reservationId, PatronType tier) {
+        ReservationPriorityPolicy policy = priorityPolicy;
+        if (policy == null) {
+            throw new IllegalStateException("Priority tiers are not enabled");
+        }
+        Reservation reservation = reservationById.get(reservationId);
+        if (reservation == null) {
+            logger.error("Reservation not found: " + reservationId);
+            throw new IllegalArgumentException("Reservation not found");
+        }
+        ReservationQueue queue = reservationQueues.get(reservation.getIsbn());
+        if (!(queue instanceof TieredReservationQueue) ||
+            !((TieredReservationQueue) queue).reprioritize(reservation,
+                    policy.priorityKey(tier, reservation.getReservationDate()))) {
+            throw new IllegalStateException("Reservation is not waiting in a tiered queue");
+        }
+        logger.info("Reservation " + reservationId + " moved to the " + tier + " tier (Position in queue: " +
+                   queue.positionOf(reservation) + ")");
+    }
+    
+    /**
+     * Move up to {@code maxEntries} finished (fulfilled, cancelled or expired) reservations out of
+     * the hot maps into the archive, and drop per-book queues that became empty. Runs as a small
+     * step of every reservation; a {@link ReservationReclaimer} drains the rest in the background.
+     * @return the number of reservations archived
+     */
+    public int reclaimTerminalReservations(int maxEntries) {
+        int reclaimed = 0;
+        Reservation reservation;
+        while (reclaimed < maxEntries && (reservation = terminal.poll()) != null) {
+            if (!reservationById.remove(reservation.getReservationId(), reservation)) {
+                continue;
+            }
+            archive.add(reservation);
+            // Closing first stops a concurrent reserveBook from adding to a dropped queue
+            ReservationQueue queue = reservationQueues.get(reservation.getIsbn());
+            if (queue != null && queue.closeIfEmpty()) {
+                reservationQueues.remove(reservation.getIsbn(), queue);
+            }
+            reclaimed++;
+        }
+        return reclaimed;
+    }
+    
+    public ReservationArchive getArchive() {
+        return archive;
+    }
+    
+    /**
+     * Number of reservations held in memory, including finished ones not yet archived
+     */
+    public int getTrackedReservationCount() {
+        return reservationById.size();
+    }
+    
+    /**
+     * Number of books with a reservation queue in memory
+     */
+    public int getQueuedBookCount() {
+        return reservationQueues.size();
+    }
+    
+    /**
+     * Titles that currently have a reservation queue in memory, as a new set
+     */
+    public Set<String> getQueuedIsbns() {
+        return new HashSet<>(reservationQueues.keySet());
+    }
+    
+    /**
+     * Number of reservations waiting in line for a title
+     */
+    public int getQueueDepth(String isbn) {
+        ReservationQueue queue = reservationQueues.get(isbn);
+        return queue == null ? 0 : queue.size();
+    }
+    
+    /**
+     * Order new reservation queues by patron-type priority tiers instead of plain FIFO.
+     * Queues that already exist keep their order until they empty and are reclaimed.
+     */
+    public void setPriorityPolicy(ReservationPriorityPolicy priorityPolicy) {
+        this.priorityPolicy = priorityPolicy;
+    }
+    
+    /**
+     * Hold individual copies for titles that have copies registered in {@code copyRepository}
+     */
+    public void setCopyRepository(CopyRepository copyRepository) {
+        this.copyRepository = copyRepository;
+    }
+    
+    /**
+     * Track hold deadlines so that {@link #expireHolds} can expire uncollected holds; see
+     * {@link HoldExpiryDriver} for calling it periodically
+     */
+    public void setHoldExpiryScheduler(HoldExpiryScheduler holdScheduler) {
+        this.holdScheduler = holdScheduler;
     }
     
     /**
      * Get all reservations for a book
      */
     public List<Reservation> getReservationsForBook(String isbn) {
-        Queue<Reservation> queue = reservationQueues.get(isbn);
+        ReservationQueue queue = reservationQueues.get(isbn);
         if (queue == null) {
             return Collections.emptyList();
         }
-        return new ArrayList<>(queue);
+        return queue.toList();
     }
     
     /**
-     * Get all reservations for a patron
+     * Get all active and notified reservations for a patron, in the order they were placed
      */
     public List<Reservation> getReservationsForPatron(String patronId) {
-        return reservationById.values().stream()
-            .filter(r -> r.getPatronId().equals(patronId))
-            .filter(r -> r.getStatus() == ReservationStatus.ACTIVE || 
-                        r.getStatus() == ReservationStatus.NOTIFIED)
-            .collect(Collectors.toList());
+        Map<String, Reservation> held = heldByPatron.get(patronId);
+        if (held == null) {
+            return Collections.emptyList();
+        }
+        synchronized (held) {
+            return new ArrayList<>(held.values());
+        }
+    }
+    
+    /**
+     * Whether the patron holds an active or notified reservation for the book
+     */
+    public boolean hasReservation(String patronId, String isbn) {
+        Map<String, Reservation> held = heldByPatron.get(patronId);
+        if (held == null) {
+            return false;
+        }
+        synchronized (held) {
+            return held.containsKey(isbn);
+        }
     }
     
     /**
-     * Get position in queue for a reservation
+     * Get position in queue for a reservation; O(log n) in the queue length.
+     * Returns 0 once the reservation has left the queue, and -1 once it has been archived.
      */
     public int getQueuePosition(String reservationId) {
         Reservation reservation = reservationById.get(reservationId);
@@ -209,32 +601,128 @@ public class ReservationService implements Subject {
             return -1;
         }
         
-        Queue<Reservation> queue = reservationQueues.get(reservation.getIsbn());
+        ReservationQueue queue = reservationQueues.get(reservation.getIsbn());
         if (queue == null) {
             return -1;
         }
         
-        List<Reservation> queueList = new ArrayList<>(queue);
-        return queueList.indexOf(reservation) + 1;
+        return queue.positionOf(reservation);
+    }
+    
+    /**
+     * Register a listener for new reservations
+     */
+    public void addListener(ReservationListener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeListener(ReservationListener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Observers and outbox of reservation notifications
+     */
+    public Notifier getNotifier() {
+        return notifier;
+    }
+    
+    private ReservationQueue newQueue() {
+        return priorityPolicy == null ? new FifoReservationQueue() : new TieredReservationQueue();
+    }
+    
+    /**
+     * Stamp a newly notified hold and start its collection deadline. With an outbox the notice is
+     * recorded here, before anything is saved; otherwise {@link #notifyHolder} tells the patron.
+     * The deadline comes first, so a hold whose notice failed still expires and frees the item.
+     */
+    private void startHoldPeriod(Reservation reservation) {
+        reservation.setNotificationSentDate(LocalDateTime.now());
+        if (holdScheduler != null) {
+            holdScheduler.schedule(reservation.getReservationId(),
+                                   toEpochMillis(reservation.getNotificationSentDate().plus(HOLD_PERIOD)));
+        }
+        if (notifier.hasOutbox()) {
+            publishHoldNotice(reservation);
+        }
+    }
+    
+    /**
+     * Put the copy or book set aside for a hold that ended uncollected back on the shelf
+     * @return the branch it was released at, or null if nothing was set aside
+     */
+    private String releaseHeldItem(Reservation reservation) {
+        Book book = bookRepository.getByIsbn(reservation.getIsbn());
+        if (book == null) {
+            return null;
+        }
+        String barcode = reservation.getHeldCopyBarcode();
+        if (barcode != null && copyRepository != null) {
+            BookCopy copy = copyRepository.getByBarcode(barcode);
+            if (copy == null || copy.getStatus() != BookStatus.RESERVED) {
+                return null;
+            }
+            copyRepository.release(copy);
+            summarizeStatus(book);
+            bookRepository.save(book);
+            return copy.getBranchId();
+        }
+        if (!book.compareAndSetStatus(BookStatus.RESERVED, BookStatus.AVAILABLE)) {
+            return null;
+        }
+        bookRepository.save(book);
+        return book.getCurrentBranchId();
+    }
+    
+    /**
+     * Title-level status of a multi-copy title: available while any copy is on a shelf
+     */
+    private void summarizeStatus(Book book) {
+        book.setStatus(copyRepository.getAvailableCount(book.getIsbn()) > 0
+                       ? BookStatus.AVAILABLE : BookStatus.RESERVED);
+    }
+    
+    private static long toEpochMillis(LocalDateTime dateTime) {
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+    
+    /**
+     * Drop a reservation that reached a terminal status from the patron index and the patron's
+     * reserved books, and queue it for reclaim
+     */
+    private void retire(Reservation reservation) {
+        String patronId = reservation.getPatronId();
+        Map<String, Reservation> held = heldByPatron.get(patronId);
+        if (held != null) {
+            synchronized (held) {
+                if (held.remove(reservation.getIsbn(), reservation)) {
+                    Patron patron = patronRepository.getById(patronId);
+                    if (patron != null) {
+                        patron.removeReservedBook(reservation.getIsbn());
+                        patronRepository.save(patron);
+                    }
+                    if (held.isEmpty()) {
+                        heldByPatron.remove(patronId, held);
+                    }
+                }
+            }
+        }
+        terminal.add(reservation);
     }
     
     // Observer pattern implementation
     @Override
     public void attach(Observer observer) {
-        observers.add(observer);
-        logger.info("Observer attached to ReservationService");
+        notifier.attach(observer);
     }
     
     @Override
     public void detach(Observer observer) {
-        observers.remove(observer);
-        logger.info("Observer detached from ReservationService");
+        notifier.detach(observer);
     }
     
     @Override
     public void notifyObservers(String message) {
-        for (Observer observer : observers) {
-            observer.update(message);
-        }
+        notifier.notifyObservers(message);
     }
 }
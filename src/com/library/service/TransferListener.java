@@ -0,0 +1,11 @@
+package com.library.service;
+
+/**
+ * Callback for books arriving at a branch, invoked by {@link BookTransferService} after the
+ * transfer is saved. {@code receivedNanos} is the {@link System#nanoTime} at which the manifest
+ * started being checked in, or the immediate transfer started.
+ */
+public interface TransferListener {
+    
+    void onArrival(String isbn, String fromBranchId, String toBranchId, long receivedNanos);
+}
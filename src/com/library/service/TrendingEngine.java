@@ -0,0 +1,263 @@
+package com.library.service;
+
+import com.library.model.BorrowingRecord;
+import com.library.model.Patron;
+import com.library.model.Reservation;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * "Trending now" rankings over sliding time windows, globally and per branch, fed by checkout
+ * and reservation events.
+ *
+ * Each event adds a weight to the title's score in every window, and a score decays
+ * exponentially with the window's length as its mean lifetime, so an event that is one window
+ * old counts for 1/e of a fresh one. Decay is applied forward: scores are stored scaled by
+ * e^(age / window) relative to a landmark time, which preserves their order as time passes.
+ * The ranking therefore only changes when an event arrives, an event is O(log n) per window and
+ * the top k are read in O(k) from a tree kept in score order.
+ *
+ * At most once per {@code sweepInterval} the landmark is moved forward and titles whose score
+ * has decayed below {@code minScore} in every window are dropped, so memory is bounded by the
+ * titles that were active recently rather than by the whole catalog. Reservations carry no
+ * branch and only count towards the global rankings.
+ */
+public class TrendingEngine implements LendingListener, ReservationListener {
+    private static final String GLOBAL = "";
+    private static final double DEFAULT_CHECKOUT_WEIGHT = 1.0;
+    private static final double DEFAULT_RESERVATION_WEIGHT = 2.0;
+    private static final double DEFAULT_MIN_SCORE = 0.01;
+    private static final Duration DEFAULT_SWEEP_INTERVAL = Duration.ofHours(1);
+    
+    public enum Window {
+        DAY(Duration.ofHours(24)),
+        WEEK(Duration.ofDays(7)),
+        MONTH(Duration.ofDays(30));
+        
+        private final Duration length;
+        
+        Window(Duration length) {
+            this.length = length;
+        }
+        
+        public Duration getLength() {
+            return length;
+        }
+    }
+    
+    private static final class Score {
+        final String isbn;
+        double value; // Scaled to the landmark time
+        
+        Score(String isbn) {
+            this.isbn = isbn;
+        }
+    }
+    
+    private static final Comparator<Score> HIGHEST_FIRST = (a, b) -> a.value != b.value
+        ? Double.compare(b.value, a.value) : a.isbn.compareTo(b.isbn);
+    
+    /**
+     * Scores of one scope (the whole library or a branch) in one window
+     */
+    private static final class Ranking {
+        final double ratePerMilli;
+        final Map<String, Score> scores = new HashMap<>();
+        final TreeSet<Score> order = new TreeSet<>(HIGHEST_FIRST);
+        
+        Ranking(Window window) {
+            this.ratePerMilli = 1.0 / window.getLength().toMillis();
+        }
+        
+        void add(String isbn, double scaledWeight) {
+            Score score = scores.get(isbn);
+            if (score == null) {
+                score = new Score(isbn);
+                scores.put(isbn, score);
+            } else {
+                order.remove(score);
+            }
+            score.value += scaledWeight;
+            order.add(score);
+        }
+        
+        /**
+         * Multiply every score by {@code factor} and drop those that fall below {@code minScore}.
+         * A common factor keeps the order, so the tree normally only loses entries.
+         */
+        void rescale(double factor, double minScore) {
+            Score previous = null;
+            boolean ordered = true;
+            Iterator<Score> it = order.iterator();
+            while (it.hasNext()) {
+                Score score = it.next();
+                score.value *= factor;
+                if (score.value < minScore) {
+                    it.remove();
+                    scores.remove(score.isbn);
+                } else {
+                    ordered &= previous == null || HIGHEST_FIRST.compare(previous, score) < 0;
+                    previous = score;
+                }
+            }
+            if (!ordered) {
+                // Rounding made distinct scores equal, so ties now order by ISBN; re-sort the tree
+                List<Score> kept = new ArrayList<>(order);
+                order.clear();
+                order.addAll(kept);
+            }
+        }
+    }
+    
+    private final Map<String, Ranking[]> scopes; // Branch id, or GLOBAL -> ranking per window
+    private final double checkoutWeight;
+    private final double reservationWeight;
+    private final double minScore;
+    private final long sweepIntervalMillis;
+    private long landmarkMillis;
+    private long lastSweepMillis;
+    
+    public TrendingEngine() {
+        this(DEFAULT_CHECKOUT_WEIGHT, DEFAULT_RESERVATION_WEIGHT, DEFAULT_MIN_SCORE, DEFAULT_SWEEP_INTERVAL);
+    }
+    
+    public TrendingEngine(double checkoutWeight, double reservationWeight, double minScore, Duration sweepInterval) {
+        if (checkoutWeight < 0 || reservationWeight < 0 || minScore <= 0
+                || sweepInterval.isNegative() || sweepInterval.isZero()) {
+            throw new IllegalArgumentException("Invalid trending configuration");
+        }
+        this.scopes = new HashMap<>();
+        this.checkoutWeight = checkoutWeight;
+        this.reservationWeight = reservationWeight;
+        this.minScore = minScore;
+        this.sweepIntervalMillis = sweepInterval.toMillis();
+        this.landmarkMillis = System.currentTimeMillis();
+        this.lastSweepMillis = landmarkMillis;
+    }
+    
+    @Override
+    public void onCheckout(BorrowingRecord record, Patron patron) {
+        record(record.getIsbn(), record.getBranchId(), checkoutWeight, System.currentTimeMillis());
+    }
+    
+    @Override
+    public void onReserve(Reservation reservation) {
+        record(reservation.getIsbn(), null, reservationWeight, System.currentTimeMillis());
+    }
+    
+    /**
+     * Add an event for a title at a time, counted globally and, when {@code branchId} is not
+     * null, for that branch
+     */
+    public synchronized void record(String isbn, String branchId, double weight, long atMillis) {
+        if (weight < 0) {
+            throw new IllegalArgumentException("Weight must not be negative");
+        }
+        if (atMillis - lastSweepMillis >= sweepIntervalMillis) {
+            sweep(atMillis);
+        }
+        add(rankingsFor(GLOBAL), isbn, weight, atMillis);
+        if (branchId != null) {
+            add(rankingsFor(branchId), isbn, weight, atMillis);
+        }
+    }
+    
+    /**
+     * Up to {@code k} trending titles in a window across all branches, hottest first; O(k)
+     */
+    public List<String> top(Window window, int k) {
+        return top(window, null, k);
+    }
+    
+    /**
+     * Up to {@code k} trending titles in a window at a branch (all branches when null), hottest
+     * first; O(k)
+     */
+    public synchronized List<String> top(Window window, String branchId, int k) {
+        Ranking[] rankings = scopes.get(branchId == null ? GLOBAL : branchId);
+        if (rankings == null || k <= 0) {
+            return new ArrayList<>();
+        }
+        Ranking ranking = rankings[window.ordinal()];
+        List<String> top = new ArrayList<>(Math.min(k, ranking.scores.size()));
+        for (Score score : ranking.order) {
+            if (top.size() == k) {
+                break;
+            }
+            top.add(score.isbn);
+        }
+        return top;
+    }
+    
+    /**
+     * Decayed score of a title in a window as of {@code atMillis}: the sum of its event weights,
+     * each discounted by e^(-age / window)
+     */
+    public synchronized double getScore(Window window, String isbn, String branchId, long atMillis) {
+        Ranking[] rankings = scopes.get(branchId == null ? GLOBAL : branchId);
+        Score score = rankings == null ? null : rankings[window.ordinal()].scores.get(isbn);
+        if (score == null) {
+            return 0;
+        }
+        double rate = rankings[window.ordinal()].ratePerMilli;
+        return score.value * Math.exp(-rate * (atMillis - landmarkMillis));
+    }
+    
+    /**
+     * Number of titles with a score in any window, across all scopes
+     */
+    public synchronized int getTrackedCount() {
+        int count = 0;
+        for (Ranking[] rankings : scopes.values()) {
+            // The slowest window outlives the others, so it holds every title of the scope
+            count += rankings[Window.MONTH.ordinal()].scores.size();
+        }
+        return count;
+    }
+    
+    /**
+     * Move the landmark to {@code nowMillis}, discarding titles that have gone quiet; runs
+     * automatically as events arrive
+     */
+    public synchronized void sweep(long nowMillis) {
+        long elapsed = nowMillis - landmarkMillis;
+        Iterator<Ranking[]> it = scopes.values().iterator();
+        while (it.hasNext()) {
+            Ranking[] rankings = it.next();
+            boolean empty = true;
+            for (Ranking ranking : rankings) {
+                ranking.rescale(Math.exp(-ranking.ratePerMilli * elapsed), minScore);
+                empty &= ranking.scores.isEmpty();
+            }
+            if (empty) {
+                it.remove();
+            }
+        }
+        landmarkMillis = nowMillis;
+        lastSweepMillis = nowMillis;
+    }
+    
+    private void add(Ranking[] rankings, String isbn, double weight, long atMillis) {
+        for (Ranking ranking : rankings) {
+            ranking.add(isbn, weight * Math.exp(ranking.ratePerMilli * (atMillis - landmarkMillis)));
+        }
+    }
+    
+    private Ranking[] rankingsFor(String scope) {
+        return scopes.computeIfAbsent(scope, s -> {
+            Window[] windows = Window.values();
+            Ranking[] rankings = new Ranking[windows.length];
+            for (Window window : windows) {
+                rankings[window.ordinal()] = new Ranking(window);
+            }
+            return rankings;
+        });
+    }
+}
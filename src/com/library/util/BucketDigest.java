@@ -0,0 +1,45 @@
+package com.library.util;
+
+/**
+ * XOR checksums over a set of ISBNs, one per bucket plus one over the whole set.
+ * ISBNs are bucketed by their {@link IsbnDictionary} id ({@code id % BUCKETS}), so the ISBNs that
+ * may fall in a bucket are listed by stepping through ids rather than scanning the set. Adding and
+ * removing an ISBN are the same O(1) toggle. Not thread-safe; owners synchronize.
+ */
+public class BucketDigest {
+    public static final int BUCKETS = 1024;
+    
+    private final long[] buckets = new long[BUCKETS];
+    private long total;
+    
+    /**
+     * Add the ISBN with this id if it is not counted, remove it if it is
+     */
+    public void toggle(int id) {
+        long hash = hash(id);
+        buckets[bucketOf(id)] ^= hash;
+        total ^= hash;
+    }
+    
+    public long getBucket(int bucket) {
+        return buckets[bucket];
+    }
+    
+    public long getTotal() {
+        return total;
+    }
+    
+    public static int bucketOf(int id) {
+        return id & (BUCKETS - 1);
+    }
+    
+    /**
+     * 64-bit finalizer from SplitMix64, so that sets differing in a few ids differ in every checksum bit
+     */
+    private static long hash(int id) {
+        long z = id + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -1,29 +1,57 @@
 package com.library.util;
 
-import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Utility class for generating unique IDs.
+ * IDs keep the {@code XX-XXXXXXXX} shape (prefix plus 8 upper-case hex digits) but come from a
+ * randomly seeded counter instead of a UUID, so they are unique within a process and cost a
+ * single String per call.
  */
 public class IdGenerator {
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final AtomicInteger sequence = new AtomicInteger(ThreadLocalRandom.current().nextInt());
     
     public static String generateBookId() {
-        return "BK-" + UUID.randomUUID().toString().substring(0, 8).toUpperCase();
+        return nextId('B', 'K');
     }
     
     public static String generatePatronId() {
-        return "PT-" + UUID.randomUUID().toString().substring(0, 8).toUpperCase();
+        return nextId('P', 'T');
     }
     
     public static String generateBranchId() {
-        return "BR-" + UUID.randomUUID().toString().substring(0, 8).toUpperCase();
+        return nextId('B', 'R');
     }
     
     public static String generateRecordId() {
-        return "RC-" + UUID.randomUUID().toString().substring(0, 8).toUpperCase();
+        return nextId('R', 'C');
     }
     
     public static String generateReservationId() {
-        return "RS-" + UUID.randomUUID().toString().substring(0, 8).toUpperCase();
+        return nextId('R', 'S');
+    }
+    
+    public static String generateManifestId() {
+        return nextId('T', 'M');
+    }
+    
+    public static String generateCopyBarcode() {
+        return nextId('C', 'P');
+    }
+    
+    private static String nextId(char first, char second) {
+        // Spread consecutive values over the whole range so IDs do not look sequential
+        int value = sequence.getAndIncrement() * 0x9E3779B9;
+        char[] id = new char[11];
+        id[0] = first;
+        id[1] = second;
+        id[2] = '-';
+        for (int i = 10; i >= 3; i--) {
+            id[i] = HEX[value & 0xF];
+            value >>>= 4;
+        }
+        return new String(id);
     }
 }
@@ -0,0 +1,61 @@
+package com.library.util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide mapping of ISBNs to dense ids {@code 0, 1, 2, ...} in first-seen order.
+ * Ids are never reused, so structures keyed by them (bitmaps, arrays) stay valid for the life of
+ * the process. Lookups in both directions are lock-free; only assigning a new id takes the lock.
+ */
+public class IsbnDictionary {
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private static final Object lock = new Object();
+    private static volatile String[] isbns = new String[1024]; // Written under lock
+    private static volatile int count;
+    
+    /**
+     * Id of an ISBN, assigning the next one if it has none yet
+     */
+    public static int idOf(String isbn) {
+        Integer id = ids.get(isbn);
+        if (id != null) {
+            return id;
+        }
+        synchronized (lock) {
+            id = ids.get(isbn);
+            if (id != null) {
+                return id;
+            }
+            int next = count;
+            if (next == isbns.length) {
+                isbns = Arrays.copyOf(isbns, next * 2);
+            }
+            isbns[next] = isbn;
+            count = next + 1;
+            ids.put(isbn, next);
+            return next;
+        }
+    }
+    
+    /**
+     * Id of an ISBN, or -1 if it has never been assigned one
+     */
+    public static int lookup(String isbn) {
+        Integer id = ids.get(isbn);
+        return id == null ? -1 : id;
+    }
+    
+    public static String isbnOf(int id) {
+        if (id < 0 || id >= count) {
+            throw new IllegalArgumentException("Unknown ISBN id: " + id);
+        }
+        // Each slot is written before count is raised, and a grown array is a copy of the old one
+        return isbns[id];
+    }
+    
+    public static int size() {
+        return count;
+    }
+}
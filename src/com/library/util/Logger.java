@@ -10,6 +10,18 @@ public class Logger {
     private static Logger instance;
     private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
     
+    /**
+     * Log levels in increasing order of severity.
+     */
+    public enum Level {
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR
+    }
+    
+    private volatile Level level = Level.DEBUG;
+    
     private Logger() {
     }
     
@@ -20,24 +32,49 @@ public class Logger {
         return instance;
     }
     
+    /**
+     * Set the minimum level that is written; messages below it are dropped
+     */
+    public void setLevel(Level level) {
+        this.level = level;
+    }
+    
+    public Level getLevel() {
+        return level;
+    }
+    
+    /**
+     * Guard for hot paths, so the message is not even built when INFO is disabled
+     */
+    public boolean isInfoEnabled() {
+        return level.compareTo(Level.INFO) <= 0;
+    }
+    
+    public boolean isDebugEnabled() {
+        return level == Level.DEBUG;
+    }
+    
     public void info(String message) {
-        log("INFO", message);
+        log(Level.INFO, message);
     }
     
     public void warn(String message) {
-        log("WARN", message);
+        log(Level.WARN, message);
     }
     
     public void error(String message) {
-        log("ERROR", message);
+        log(Level.ERROR, message);
     }
     
     public void debug(String message) {
-        log("DEBUG", message);
+        log(Level.DEBUG, message);
     }
     
-    private void log(String level, String message) {
+    private void log(Level messageLevel, String message) {
+        if (messageLevel.compareTo(level) < 0) {
+            return;
+        }
         String timestamp = LocalDateTime.now().format(formatter);
-        System.out.println(String.format("[%s] [%s] %s", timestamp, level, message));
+        System.out.println(String.format("[%s] [%s] %s", timestamp, messageLevel, message));
     }
 }
@@ -0,0 +1,47 @@
+package com.library.util;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+/**
+ * Allocation-free source of today's date for hot paths.
+ * {@link LocalDate#now()} builds a clock, an instant and a date on every call; this caches the
+ * current date together with the millisecond range it is valid for and only recomputes it
+ * when the day changes.
+ */
+public final class SystemDate {
+    private static volatile Day current = Day.of(LocalDate.now());
+    
+    private SystemDate() {
+    }
+    
+    public static LocalDate today() {
+        long now = System.currentTimeMillis();
+        Day day = current;
+        if (now >= day.startMillis && now < day.endMillis) {
+            return day.date;
+        }
+        day = Day.of(LocalDate.now());
+        current = day;
+        return day.date;
+    }
+    
+    private static final class Day {
+        private final LocalDate date;
+        private final long startMillis;
+        private final long endMillis;
+        
+        private Day(LocalDate date, long startMillis, long endMillis) {
+            this.date = date;
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+        }
+        
+        private static Day of(LocalDate date) {
+            ZoneId zone = ZoneId.systemDefault();
+            long start = date.atStartOfDay(zone).toInstant().toEpochMilli();
+            long end = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+            return new Day(date, start, end);
+        }
+    }
+}